@@ -1,5 +1,6 @@
 package application;
 
+import connection.TaskScheduler;
 import model.Session;
 import userinterface.GUIHandler;
 
@@ -11,14 +12,20 @@ public class Main {
 	
 	/**
 	 * Launches the main application by creating a <code>GUIHandler</code>
-	 * and a <code>Session</code>
+	 * and a <code>Session</code> once the user entered a name. The session is created
+	 * on a thread of the <code>TaskScheduler</code>, so the GUI does not wait for it.
 	 * @param args unused arguments
 	 */
 	@SuppressWarnings("unused")
 	public static void main(String[] args) {
 		GUIHandler GuiHandler = new GUIHandler("Come Tjetten");
-		Session session = new Session(GUIHandler.getUsername());
-		System.out.println("You are " + session.getName() + " (ID = " + session.getID()+ ")");
-		GUIHandler.setSession(session);
+		GUIHandler.getUsernameAsync().thenAcceptAsync(username -> {
+			Session session = new Session(username);
+			System.out.println("You are " + session.getName() + " (ID = " + session.getID()+ ")");
+			GUIHandler.setSession(session);
+		}, TaskScheduler.getShared()::execute).exceptionally(e -> {
+			e.printStackTrace();
+			return null;
+		});
 	}
 }
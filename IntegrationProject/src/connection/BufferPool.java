@@ -0,0 +1,69 @@
+package connection;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A class that keeps a pool of reusable direct <code>ByteBuffer</code> objects, so that
+ * receiving a datagram does not require a fresh allocation.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class BufferPool {
+
+	/**
+	 * The default number of buffers that this pool keeps for reuse.
+	 */
+	public static final int DEFAULT_POOL_SIZE = 64;
+
+	/**
+	 * The capacity (bytes) of every buffer in this pool.
+	 */
+	private final int bufferSize;
+
+	/**
+	 * The buffers that are currently available for reuse.
+	 */
+	private final ArrayBlockingQueue<ByteBuffer> availableBuffers;
+
+	/**
+	 * Constructs a <code>BufferPool</code> that keeps at most <code>poolSize</code> buffers
+	 * of <code>bufferSize</code> bytes each.
+	 * @param bufferSize the capacity (bytes) of every buffer
+	 * @param poolSize the maximum number of buffers kept for reuse
+	 */
+	public BufferPool(int bufferSize, int poolSize) {
+		this.bufferSize = bufferSize;
+		this.availableBuffers = new ArrayBlockingQueue<>(poolSize);
+	}
+
+	/**
+	 * Returns a cleared buffer from the pool. Allocates a new direct buffer if
+	 * the pool is empty.
+	 * @return buffer a cleared buffer of <code>bufferSize</code> bytes
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = availableBuffers.poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(bufferSize);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool. The buffer is dropped if the pool is already full.
+	 * The caller should not use the buffer after releasing it.
+	 * @param buffer the buffer to be returned to the pool
+	 */
+	public void release(ByteBuffer buffer) {
+		buffer.clear();
+		availableBuffers.offer(buffer);
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public int getAvailableBuffers() {
+		return availableBuffers.size();
+	}
+}
@@ -0,0 +1,53 @@
+package connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * A store in which the chunks of a received file are reassembled, either in memory or
+ * in a temporary file.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public interface ChunkStore {
+
+	/**
+	 * Stores a chunk at its offset in the file, unless it was received before.
+	 * @param chunkIndex the index of the chunk
+	 * @param chunkData the data of the chunk
+	 * @return true if the chunk was new, false if it is a duplicate or invalid
+	 * @throws IOException if the chunk can not be stored
+	 */
+	public boolean write(int chunkIndex, ByteBuffer chunkData) throws IOException;
+
+	/**
+	 * Reads a chunk that has been received.
+	 * @param chunkIndex the index of the chunk
+	 * @return chunkData the data of the chunk, or null if the chunk is not available
+	 * @throws IOException if the chunk can not be read
+	 */
+	public ByteBuffer readChunk(int chunkIndex) throws IOException;
+
+	/**
+	 * Checks if a chunk has been received.
+	 * @param chunkIndex the index of the chunk
+	 * @return true if the chunk has been received, otherwise false
+	 */
+	public boolean hasChunk(int chunkIndex);
+
+	/**
+	 * Checks if all chunks have been received.
+	 * @return true if the file is complete, otherwise false
+	 */
+	public boolean isComplete();
+
+	/**
+	 * Returns a copy of the set of chunks that have been received.
+	 * @return receivedChunks the indexes of the received chunks
+	 */
+	public BitSet getReceivedChunks();
+
+	public int getTotalChunks();
+
+	public long getLastUpdated();
+}
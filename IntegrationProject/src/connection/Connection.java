@@ -2,8 +2,14 @@ package connection;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.MulticastSocket;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
 import java.net.UnknownHostException;
+import java.nio.channels.DatagramChannel;
+import java.util.Enumeration;
 
 import model.Session;
 
@@ -19,14 +25,24 @@ public class Connection {
 	public static final int BUFFER_SIZE = 2048000;
 	
 	/**
-	 * The socket from which <code>DatagramPackets</code> will be sent.
+	 * The maximum size (bytes) of a single UDP datagram.
 	 */
-	public MulticastSocket sendSocket;
+	public static final int MAX_DATAGRAM_SIZE = 65507;
 	
 	/**
-	 * The socket on which <code>DatagramPackets</code> will be received.
+	 * The channel from which datagrams will be sent.
 	 */
-	public MulticastSocket receiveSocket;
+	public DatagramChannel sendChannel;
+	
+	/**
+	 * The channel on which datagrams will be received.
+	 */
+	public DatagramChannel receiveChannel;
+	
+	/**
+	 * The pool of reusable buffers into which datagrams are received and encoded.
+	 */
+	public BufferPool bufferPool;
 	
 	/**
 	 * A <code>Sender</code> object that serves for intermediate sending functionality.
@@ -38,6 +54,11 @@ public class Connection {
 	 */
 	public Receiver receiver;
 	
+	/**
+	 * The pipeline that decodes and processes the received datagrams.
+	 */
+	public PacketPipeline packetPipeline;
+	
 	/**
 	 * The transport layer for this application and connection.
 	 */
@@ -65,35 +86,38 @@ public class Connection {
 	 */
 	public Connection(Session session) {
 		try {
-			this.sendSocket = new MulticastSocket(port);
-			sendSocket.setSendBufferSize(BUFFER_SIZE);
-			this.receiveSocket = new MulticastSocket(port);
-			receiveSocket.setReceiveBufferSize(BUFFER_SIZE);
-			joinGroup(sendSocket, "default");
-			joinGroup(receiveSocket, "default");
+			this.sendChannel = DatagramChannel.open(StandardProtocolFamily.INET);
+			sendChannel.setOption(StandardSocketOptions.SO_SNDBUF, BUFFER_SIZE);
+			sendChannel.setOption(StandardSocketOptions.IP_MULTICAST_IF, getMulticastInterface());
+			this.receiveChannel = DatagramChannel.open(StandardProtocolFamily.INET)
+					.setOption(StandardSocketOptions.SO_REUSEADDR, true)
+					.bind(new InetSocketAddress(port));
+			receiveChannel.setOption(StandardSocketOptions.SO_RCVBUF, BUFFER_SIZE);
+			joinGroup(receiveChannel, "default");
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 
+		this.bufferPool = new BufferPool(MAX_DATAGRAM_SIZE, BufferPool.DEFAULT_POOL_SIZE);
 		this.transportLayer = new TransportLayer(session);
 		this.sender = new Sender(this);
+		this.packetPipeline = new PacketPipeline(this);
 		this.receiver = new Receiver(this);
 	}
 	
 	/**
-	 * Assigns a group to the connection for the multicast socket.
-	 * @param socket the socket to assign a group to
-	 * @param address the address to which the given socket is grouped to
+	 * Assigns a group to the connection for the multicast channel.
+	 * @param channel the channel to assign a group to
+	 * @param address the address to which the given channel is grouped to
 	 */
-	public static void joinGroup(MulticastSocket socket, String address) {
+	public static void joinGroup(DatagramChannel channel, String address) {
 		try {
 			if (address.equals("default")) {
 				group = InetAddress.getByName("228.0.0.0");
-				socket.joinGroup(group);
 			} else {
 				group = InetAddress.getByName(address);
-				socket.joinGroup(group);
 			}
+			channel.join(group, getMulticastInterface());
 		} catch (UnknownHostException e) {
 			System.err.println("Not a valid multicast address.");
 			System.err.println("Use 'default' for a default valid address.");
@@ -104,19 +128,55 @@ public class Connection {
 	}
 	
 	/**
-	 * Closes this connection's sockets.
+	 * Returns the network interface on which the multicast group is joined. Prefers
+	 * an interface that is up, supports multicast and is not a loopback interface.
+	 * @return networkInterface the interface to join the multicast group on
+	 * @throws SocketException if the network interfaces cannot be listed
+	 */
+	public static NetworkInterface getMulticastInterface() throws SocketException {
+		NetworkInterface loopback = null;
+		Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+		while (interfaces.hasMoreElements()) {
+			NetworkInterface networkInterface = interfaces.nextElement();
+			if (!networkInterface.isUp() || !networkInterface.supportsMulticast()) {
+				continue;
+			}
+			if (networkInterface.isLoopback()) {
+				loopback = networkInterface;
+			} else if (networkInterface.getInetAddresses().hasMoreElements()) {
+				return networkInterface;
+			}
+		}
+		return loopback;
+	}
+	
+	/**
+	 * Closes this connection's channels, stops sending pulses and stops retransmitting 
+	 * unacknowledged packets.
 	 */
 	public void close() {
-		receiveSocket.close();
-		sendSocket.close();
+		if (pulseHandler != null) {
+			pulseHandler.stop();
+		}
+		transportLayer.retransmissionScheduler.shutdown();
+		transportLayer.selectiveAcknowledger.shutdown();
+		transportLayer.floodSuppressor.shutdown();
+		packetPipeline.shutdown();
+		sender.flush();
+		try {
+			receiveChannel.close();
+			sendChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 	public Sender getSender() {
 		return sender;
 	}
 
-	public MulticastSocket getSendSocket() {
-		return sendSocket;
+	public DatagramChannel getSendChannel() {
+		return sendChannel;
 	}
 	
 	public TransportLayer getTransportLayer() {
@@ -0,0 +1,176 @@
+package connection;
+
+/**
+ * A class that remembers which packets have been seen, identified by their
+ * (senderID, sequenceNumber) pair. The pairs are stored as primitive <code>long</code> keys
+ * in an open-addressing hash set, and a ring buffer keeps them in order of arrival so the
+ * oldest pair can be forgotten once the window is full. Both checking and adding a pair
+ * take constant time, regardless of the size of the window.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class DuplicateFilter {
+
+	/**
+	 * The value that marks an empty slot in the hash table.
+	 */
+	private static final long EMPTY = 0L;
+
+	/**
+	 * The hash table of keys, using linear probing. Its length is a power of two.
+	 */
+	private final long[] table;
+
+	/**
+	 * The keys in order of arrival. The oldest key is evicted when the window is full.
+	 */
+	private final long[] window;
+
+	/**
+	 * The index in the window at which the next key is stored.
+	 */
+	private int windowIndex;
+
+	/**
+	 * The number of keys currently in the window.
+	 */
+	private int size;
+
+	/**
+	 * True if the key that equals <code>EMPTY</code> is currently in the window. This key
+	 * can not be stored in the table itself.
+	 */
+	private boolean containsEmptyKey;
+
+	/**
+	 * Constructs a <code>DuplicateFilter</code> that remembers the last <code>windowSize</code>
+	 * packets.
+	 * @param windowSize the number of packets that is remembered
+	 */
+	public DuplicateFilter(int windowSize) {
+		this.window = new long[windowSize];
+		// Keep the load factor of the table at most 0.5
+		int capacity = Integer.highestOneBit(Math.max(windowSize, 1) * 2 - 1) << 1;
+		this.table = new long[capacity];
+	}
+
+	/**
+	 * Adds the (senderID, sequenceNumber) pair of a packet to this filter.
+	 * @param senderID the ID of the sender of the packet
+	 * @param sequenceNumber the sequence number of the packet
+	 * @return true if the packet was not seen before, false if it is a duplicate
+	 */
+	public synchronized boolean add(int senderID, int sequenceNumber) {
+		long key = getKey(senderID, sequenceNumber);
+		if (contains(key)) {
+			return false;
+		}
+
+		// Forget the oldest packet if the window is full
+		if (size == window.length) {
+			remove(window[windowIndex]);
+		} else {
+			size++;
+		}
+		window[windowIndex] = key;
+		windowIndex = (windowIndex + 1) % window.length;
+		insert(key);
+		return true;
+	}
+
+	/**
+	 * Checks if the (senderID, sequenceNumber) pair of a packet has been seen before.
+	 * @param senderID the ID of the sender of the packet
+	 * @param sequenceNumber the sequence number of the packet
+	 * @return true if this packet has been seen before, otherwise false
+	 */
+	public synchronized boolean contains(int senderID, int sequenceNumber) {
+		return contains(getKey(senderID, sequenceNumber));
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public int getWindowSize() {
+		return window.length;
+	}
+
+	/**
+	 * Combines a senderID and a sequence number into a single key.
+	 * @param senderID the ID of the sender of the packet
+	 * @param sequenceNumber the sequence number of the packet
+	 * @return key the key of the (senderID, sequenceNumber) pair
+	 */
+	public static long getKey(int senderID, int sequenceNumber) {
+		return ((long) senderID << 32) | (sequenceNumber & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Returns the slot in the table at which the search for a key starts.
+	 * @param key the key
+	 * @return slot the index of the home slot of the key
+	 */
+	private int getSlot(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & (table.length - 1);
+	}
+
+	private boolean contains(long key) {
+		if (key == EMPTY) {
+			return containsEmptyKey;
+		}
+		int mask = table.length - 1;
+		for (int slot = getSlot(key); table[slot] != EMPTY; slot = (slot + 1) & mask) {
+			if (table[slot] == key) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void insert(long key) {
+		if (key == EMPTY) {
+			containsEmptyKey = true;
+			return;
+		}
+		int mask = table.length - 1;
+		int slot = getSlot(key);
+		while (table[slot] != EMPTY) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = key;
+	}
+
+	/**
+	 * Removes a key from the table. Entries after the removed key are shifted back,
+	 * so that no lookup chain is broken.
+	 * @param key the key to be removed
+	 */
+	private void remove(long key) {
+		if (key == EMPTY) {
+			containsEmptyKey = false;
+			return;
+		}
+		int mask = table.length - 1;
+		int slot = getSlot(key);
+		while (table[slot] != key) {
+			if (table[slot] == EMPTY) {
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		int gap = slot;
+		int next = (gap + 1) & mask;
+		while (table[next] != EMPTY) {
+			int home = getSlot(table[next]);
+			// Move the entry into the gap if its home slot does not lie between the gap and the entry
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				table[gap] = table[next];
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		table[gap] = EMPTY;
+	}
+}
@@ -0,0 +1,549 @@
+package connection;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import encryption.CryptoContext;
+import encryption.FileCipher;
+
+import model.Person;
+import packet.FileManifest;
+import packet.FileMessage;
+import packet.FileMessageV2;
+import packet.FileParity;
+import packet.Packet;
+import packet.Payload;
+import packet.SelectiveAcknowledgement;
+
+/**
+ * A class that sends the chunks of a file to a person with a sliding window. At most
+ * <code>windowSize</code> chunks are unacknowledged at any time, and every acknowledgement
+ * lets the next chunk be sent. The window grows by one chunk per window of acknowledged
+ * chunks, and is halved when a chunk has to be retransmitted (at most once per window).
+ * The transfer runs on the threads that handle acknowledgements and retransmissions, so
+ * starting it does not block the caller.
+ * <p>
+ * The chunks are created on demand as slices of the file data, which is usually a mapped
+ * file, so the file is never copied into memory as a whole.
+ * <p>
+ * A file of at most <code>FileMessage.MAXIMUM_TOTAL_PACKETS</code> chunks is sent with
+ * <code>FileMessage</code> chunks. A larger file is first announced with a 
+ * <code>FileManifest</code>, and is sent with <code>FileMessageV2</code> chunks once the 
+ * receiver has acknowledged the manifest. Every chunk is acknowledged and retransmitted
+ * on its own (selective repeat). The receiver acknowledges many chunks at once with a
+ * <code>SelectiveAcknowledgement</code>, which also reveals the chunks that are missing:
+ * those are retransmitted right away, instead of after their timeout.
+ * <p>
+ * Unless forward error correction is disabled, the XOR of every group of 
+ * <code>fecGroupSize</code> chunks is sent after the group as a <code>FileParity</code>,
+ * so the receiver can rebuild one lost chunk per group without a retransmission.
+ * <p>
+ * An encrypted transfer is always sent with a manifest. Its chunks are encrypted with 
+ * AES-GCM on the pool of <code>FileCipher</code>, up to <code>ENCRYPTION_AHEAD</code> chunks
+ * ahead of the window, so the encryption runs in parallel while earlier chunks are sent.
+ * If the next chunk is not encrypted yet, the window is filled further once it is, so no 
+ * thread waits for the encryption. An encrypted transfer sends no parities, since the XOR
+ * of the plaintext chunks would reveal the file.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class FileTransfer implements RetransmissionScheduler.PacketListener {
+
+	/**
+	 * The number of chunks that may be unacknowledged when the transfer starts.
+	 */
+	public static final int INITIAL_WINDOW_SIZE = 4;
+
+	/**
+	 * The maximum number of chunks that may be unacknowledged.
+	 */
+	public static final int MAXIMUM_WINDOW_SIZE = 64;
+	
+	/**
+	 * The default number of chunks per parity group. 0 disables forward error correction.
+	 */
+	public static final int DEFAULT_FEC_GROUP_SIZE = 8;
+
+	/**
+	 * The number of chunks after the window that are encrypted ahead of time.
+	 */
+	public static final int ENCRYPTION_AHEAD = 16;
+
+	/**
+	 * The transport layer to be used.
+	 */
+	private TransportLayer transportLayer;
+
+	/**
+	 * The receiver of the file.
+	 */
+	private Person receiver;
+
+	/**
+	 * The ID of the file.
+	 */
+	private int fileID;
+
+	/**
+	 * The data of the file, usually a <code>MappedByteBuffer</code>.
+	 */
+	private ByteBuffer fileData;
+	
+	/**
+	 * The total number of chunks of the file.
+	 */
+	private int totalChunks;
+	
+	/**
+	 * The name of the file.
+	 */
+	private String fileName;
+	
+	/**
+	 * True if the file is sent with a manifest and <code>FileMessageV2</code> chunks.
+	 */
+	private boolean largeFile;
+	
+	/**
+	 * True once the receiver has acknowledged the manifest of a large file.
+	 */
+	private boolean manifestAcknowledged;
+
+	/**
+	 * The listener to be notified of the progress, or null.
+	 */
+	private FileTransferListener listener;
+
+	/**
+	 * The number of chunks that may currently be unacknowledged.
+	 */
+	private double windowSize = INITIAL_WINDOW_SIZE;
+
+	/**
+	 * The index of the next chunk to be sent.
+	 */
+	private int nextChunk;
+
+	/**
+	 * The number of chunks that are sent but not yet acknowledged.
+	 */
+	private int chunksInFlight;
+
+	/**
+	 * The number of chunks that have been acknowledged.
+	 */
+	private int chunksAcknowledged;
+
+	/**
+	 * The index of the first chunk that was sent after the window was last halved. A
+	 * loss of an earlier chunk belongs to the same loss event and does not halve it again.
+	 */
+	private int recoveryPoint;
+
+	/**
+	 * True if a chunk could not be delivered.
+	 */
+	private boolean failed;
+	
+	/**
+	 * The chunks that have been acknowledged.
+	 */
+	private BitSet acknowledgedChunks = new BitSet();
+	
+	/**
+	 * The chunks that have been retransmitted because a selective acknowledgement 
+	 * reported them missing. Each chunk is retransmitted like this at most once.
+	 */
+	private BitSet fastRetransmittedChunks = new BitSet();
+	
+	/**
+	 * The number of chunks per parity group, or 0 if no parities are sent.
+	 */
+	private int fecGroupSize;
+
+	/**
+	 * The context with the key of the receiver, or null if the file is sent unencrypted.
+	 */
+	private CryptoContext cryptoContext;
+
+	/**
+	 * The chunks that are being encrypted or are encrypted but not sent yet, by index.
+	 */
+	private HashMap<Integer, CompletableFuture<ByteBuffer>> encryptedChunks = new HashMap<>();
+
+	/**
+	 * The index of the next chunk to be encrypted.
+	 */
+	private int nextEncryptedChunk;
+
+	/**
+	 * True if the window is filled further once the next chunk is encrypted.
+	 */
+	private boolean waitingForEncryption;
+
+	/**
+	 * Constructs a <code>FileTransfer</code> object. Call <code>start()</code> to send the file.
+	 * @param transportLayer the transport layer to be used
+	 * @param receiver the receiver of the file
+	 * @param fileID the ID of the file
+	 * @param fileName the name of the file
+	 * @param fileData the data of the file, between its position and limit
+	 * @param listener the listener to be notified of the progress, or null
+	 * @throws IllegalArgumentException if the file is empty
+	 */
+	public FileTransfer(TransportLayer transportLayer, Person receiver, int fileID, String fileName,
+			ByteBuffer fileData, FileTransferListener listener) {
+		this(transportLayer, receiver, fileID, fileName, fileData, listener, null);
+	}
+
+	/**
+	 * Constructs a <code>FileTransfer</code> object that encrypts the chunks with the given
+	 * context. Call <code>start()</code> to send the file.
+	 * @param transportLayer the transport layer to be used
+	 * @param receiver the receiver of the file
+	 * @param fileID the ID of the file
+	 * @param fileName the name of the file
+	 * @param fileData the data of the file, between its position and limit
+	 * @param listener the listener to be notified of the progress, or null
+	 * @param cryptoContext the context with the key of the receiver, or null to send the
+	 * file unencrypted
+	 * @throws IllegalArgumentException if the file is empty
+	 */
+	public FileTransfer(TransportLayer transportLayer, Person receiver, int fileID, String fileName,
+			ByteBuffer fileData, FileTransferListener listener, CryptoContext cryptoContext) {
+		this.transportLayer = transportLayer;
+		this.receiver = receiver;
+		this.fileID = fileID;
+		this.fileData = fileData.slice();
+		this.fileName = fileName;
+		this.totalChunks = (this.fileData.remaining() + FileMessage.CHUNK_SIZE - 1) / FileMessage.CHUNK_SIZE;
+		if (totalChunks == 0) {
+			throw new IllegalArgumentException("A file transfer needs at least one chunk");
+		}
+		this.largeFile = totalChunks > FileMessage.MAXIMUM_TOTAL_PACKETS || cryptoContext != null;
+		this.listener = listener;
+		this.fecGroupSize = totalChunks > 1 && cryptoContext == null ? transportLayer.fecGroupSize : 0;
+		this.cryptoContext = cryptoContext;
+	}
+
+	/**
+	 * Sends the manifest of a large file, or the first window of chunks otherwise.
+	 */
+	public synchronized void start() {
+		transportLayer.outgoingTransfers.put(DuplicateFilter.getKey(receiver.getID(), fileID), this);
+		if (largeFile) {
+			FileManifest manifest = new FileManifest(fileID, fileData.remaining(), totalChunks, FileMessage.CHUNK_SIZE, fileName);
+			send(manifest, Payload.FILE_MANIFEST);
+			System.out.println("      Sent manifest: fileID: " + fileID + "  total chunks: " + totalChunks);
+			// encrypt the first chunks while the manifest is on its way
+			encryptAhead();
+		} else {
+			fillWindow();
+		}
+	}
+	
+	/**
+	 * Sends a payload of this transfer to the receiver and tracks it for retransmission.
+	 * @param payload the payload to be sent
+	 * @param typeIdentifier the type of the payload
+	 */
+	private void send(Payload payload, int typeIdentifier) {
+		Packet packet = new Packet(transportLayer.session.getID(), receiver.getID(),
+				transportLayer.session.getNextSeqNumber(), typeIdentifier, payload);
+		// track the packet for retransmission before the acknowledgement can arrive
+		transportLayer.retransmissionScheduler.schedule(packet, this);
+		transportLayer.session.getConnection().getSender().sendEncoded(packet);
+	}
+
+	/**
+	 * Sends chunks until the window is full or all chunks have been sent.
+	 */
+	private void fillWindow() {
+		if (largeFile && !manifestAcknowledged) {
+			return;
+		}
+		while (!failed && nextChunk < totalChunks && chunksInFlight < (int) windowSize) {
+			if (cryptoContext != null) {
+				ByteBuffer ciphertext = takeEncryptedChunk(nextChunk);
+				if (ciphertext == null) {
+					return;
+				}
+				send(new FileMessageV2(fileID, nextChunk, FileMessageV2.ENCRYPTED_FLAG, ciphertext), Payload.FILE_MESSAGE_V2);
+			} else if (largeFile) {
+				send(new FileMessageV2(fileID, nextChunk, 0, getChunkData(nextChunk)), Payload.FILE_MESSAGE_V2);
+			} else {
+				ByteBuffer chunkData = getChunkData(nextChunk);
+				send(new FileMessage(fileID, chunkData.remaining(), totalChunks, nextChunk, chunkData), Payload.FILE_MESSAGE);
+			}
+			System.out.println("      sequence number: " + nextChunk + "  total packets: " + totalChunks
+					+ "  window size: " + (int) windowSize);
+			transportLayer.session.getStatistics().increaseFileChunksSent();
+			if (fecGroupSize > 0 && ((nextChunk + 1) % fecGroupSize == 0 || nextChunk == totalChunks - 1)) {
+				sendParity(nextChunk - nextChunk % fecGroupSize, nextChunk + 1);
+			}
+			nextChunk++;
+			chunksInFlight++;
+		}
+	}
+	
+	/**
+	 * Starts encrypting the chunks up to <code>ENCRYPTION_AHEAD</code> chunks after the window.
+	 */
+	private void encryptAhead() {
+		if (failed) {
+			return;
+		}
+		int end = Math.min(totalChunks, nextChunk + (int) windowSize + ENCRYPTION_AHEAD);
+		for (; nextEncryptedChunk < end; nextEncryptedChunk++) {
+			encryptedChunks.put(nextEncryptedChunk, FileCipher.encryptAsync(cryptoContext,
+					transportLayer.session.getID(), fileID, nextEncryptedChunk, getChunkData(nextEncryptedChunk)));
+		}
+	}
+
+	/**
+	 * Returns an encrypted chunk if its encryption is done. Otherwise, the window is filled
+	 * further once it is done. Fails the transfer if the chunk could not be encrypted.
+	 * @param chunkIndex the index of the chunk
+	 * @return ciphertext the ciphertext and tag of the chunk, or null if it is not ready
+	 */
+	private ByteBuffer takeEncryptedChunk(int chunkIndex) {
+		encryptAhead();
+		CompletableFuture<ByteBuffer> encryption = encryptedChunks.get(chunkIndex);
+		if (!encryption.isDone()) {
+			if (!waitingForEncryption) {
+				waitingForEncryption = true;
+				encryption.whenComplete((ciphertext, e) -> chunkEncrypted());
+			}
+			return null;
+		}
+		encryptedChunks.remove(chunkIndex);
+		try {
+			return encryption.join();
+		} catch (CompletionException e) {
+			e.printStackTrace();
+			if (fail() && listener != null) {
+				// not notified while holding the lock of this transfer
+				TaskScheduler.getShared().execute(() -> listener.transferFailed(this));
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Fills the window further once the chunk it was waiting for is encrypted.
+	 */
+	private synchronized void chunkEncrypted() {
+		waitingForEncryption = false;
+		fillWindow();
+	}
+
+	/**
+	 * Sends the parity of a group of chunks right after its last chunk was first sent. The
+	 * parity is not acknowledged or retransmitted: if it is lost, the chunks of the group
+	 * are recovered by retransmission as usual.
+	 * @param firstChunk the index of the first chunk of the group
+	 * @param endChunk the index after the last chunk of the group
+	 */
+	private void sendParity(int firstChunk, int endChunk) {
+		ByteBuffer[] chunks = new ByteBuffer[endChunk - firstChunk];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = getChunkData(firstChunk + i);
+		}
+		FileParity parity = FileParity.of(fileID, firstChunk, chunks);
+		Packet packet = new Packet(transportLayer.session.getID(), receiver.getID(),
+				transportLayer.session.getNextSeqNumber(), Payload.FILE_PARITY, parity);
+		transportLayer.session.getConnection().getSender().sendEncoded(packet);
+		transportLayer.session.getStatistics().increaseParityPacketsSent();
+	}
+
+	/**
+	 * Returns the data of a chunk as a slice of the file data, without copying it.
+	 * @param chunkIndex the index of the chunk
+	 * @return chunkData a view on the data of the chunk
+	 */
+	private ByteBuffer getChunkData(int chunkIndex) {
+		int start = chunkIndex * FileMessage.CHUNK_SIZE;
+		int length = Math.min(FileMessage.CHUNK_SIZE, fileData.limit() - start);
+		ByteBuffer chunkData = fileData.duplicate();
+		chunkData.position(start);
+		chunkData.limit(start + length);
+		return chunkData.slice();
+	}
+	
+	/**
+	 * Returns the index of the chunk in a packet of this transfer.
+	 * @param packet a packet with a <code>FileMessage</code> or <code>FileMessageV2</code> payload
+	 * @return chunkIndex the index of the chunk
+	 */
+	private static int getChunkIndex(Packet packet) {
+		if (packet.getTypeIdentifier() == Payload.FILE_MESSAGE_V2) {
+			return ((FileMessageV2) packet.getPayload()).getChunkIndex();
+		}
+		return ((FileMessage) packet.getPayload()).getSequenceNumber();
+	}
+
+	/**
+	 * Slides the window forward and grows it by 1 / windowSize chunk.
+	 */
+	@Override
+	public void packetAcknowledged(Packet packet) {
+		int acknowledged;
+		synchronized (this) {
+			if (packet.getTypeIdentifier() == Payload.FILE_MANIFEST) {
+				manifestAcknowledged = true;
+				fillWindow();
+				return;
+			}
+			chunksInFlight--;
+			chunksAcknowledged++;
+			acknowledged = chunksAcknowledged;
+			acknowledgedChunks.set(getChunkIndex(packet));
+			if (acknowledged == totalChunks) {
+				transportLayer.outgoingTransfers.remove(DuplicateFilter.getKey(receiver.getID(), fileID), this);
+			}
+			windowSize = Math.min(MAXIMUM_WINDOW_SIZE, windowSize + 1 / windowSize);
+			fillWindow();
+		}
+		if (listener != null) {
+			listener.transferProgress(this, acknowledged, totalChunks);
+			if (acknowledged == totalChunks) {
+				listener.transferCompleted(this);
+			}
+		}
+	}
+
+	/**
+	 * Halves the window, unless it was already halved for a chunk of the same window.
+	 */
+	@Override
+	public synchronized void packetRetransmitted(Packet packet) {
+		if (packet.getTypeIdentifier() == Payload.FILE_MANIFEST) {
+			return;
+		}
+		int chunk = getChunkIndex(packet);
+		if (chunk >= recoveryPoint) {
+			windowSize = Math.max(1, windowSize / 2);
+			recoveryPoint = nextChunk;
+		}
+	}
+
+	/**
+	 * Stops the transfer, since the receiver did not acknowledge a chunk.
+	 */
+	@Override
+	public void packetDropped(Packet packet) {
+		boolean notify;
+		synchronized (this) {
+			if (packet.getTypeIdentifier() != Payload.FILE_MANIFEST) {
+				chunksInFlight--;
+			}
+			notify = fail();
+		}
+		if (notify && listener != null) {
+			listener.transferFailed(this);
+		}
+	}
+	
+	/**
+	 * Stops the transfer: the chunks in flight are no longer retransmitted, and the chunks 
+	 * that are not sent yet are no longer encrypted. Called while holding the lock of this
+	 * transfer.
+	 * @return true if the transfer was stopped now, false if it had failed before
+	 */
+	private boolean fail() {
+		if (failed) {
+			return false;
+		}
+		failed = true;
+		transportLayer.outgoingTransfers.remove(DuplicateFilter.getKey(receiver.getID(), fileID), this);
+		int chunkType = getChunkType();
+		for (int chunk = acknowledgedChunks.nextClearBit(0); chunk < nextChunk; chunk = acknowledgedChunks.nextClearBit(chunk + 1)) {
+			transportLayer.retransmissionScheduler.cancel(chunkType, receiver.getID(), fileID, chunk);
+		}
+		for (CompletableFuture<ByteBuffer> encryption : encryptedChunks.values()) {
+			encryption.cancel(false);
+		}
+		encryptedChunks.clear();
+		return true;
+	}
+
+	/**
+	 * Processes a <code>SelectiveAcknowledgement</code> of this transfer: acknowledges every
+	 * chunk that it covers, and retransmits the chunks that it reports missing.
+	 * @param acknowledgement the received selective acknowledgement
+	 */
+	public void handleSelectiveAcknowledgement(SelectiveAcknowledgement acknowledgement) {
+		ArrayList<Integer> acknowledged = new ArrayList<>();
+		ArrayList<Integer> missing = new ArrayList<>();
+		synchronized (this) {
+			for (int chunk = acknowledgedChunks.nextClearBit(0); chunk < nextChunk; chunk = acknowledgedChunks.nextClearBit(chunk + 1)) {
+				if (acknowledgement.isAcknowledged(chunk)) {
+					acknowledged.add(chunk);
+				} else if (chunk < acknowledgement.getEnd() && !fastRetransmittedChunks.get(chunk)) {
+					// A later chunk has arrived, so this one is most likely lost
+					fastRetransmittedChunks.set(chunk);
+					missing.add(chunk);
+				}
+			}
+		}
+		// The scheduler calls back into packetAcknowledged() and packetRetransmitted()
+		int chunkType = getChunkType();
+		for (int chunk : acknowledged) {
+			transportLayer.retransmissionScheduler.acknowledge(chunkType, receiver.getID(), fileID, chunk);
+		}
+		for (int chunk : missing) {
+			transportLayer.retransmissionScheduler.retransmitNow(chunkType, receiver.getID(), fileID, chunk);
+		}
+	}
+	
+	/**
+	 * Returns the type of the payloads in which the chunks of this transfer are sent.
+	 * @return chunkType <code>FILE_MESSAGE_V2</code> for a large file, otherwise <code>FILE_MESSAGE</code>
+	 */
+	public int getChunkType() {
+		return largeFile ? Payload.FILE_MESSAGE_V2 : Payload.FILE_MESSAGE;
+	}
+
+	public Person getReceiver() {
+		return receiver;
+	}
+
+	public int getFileID() {
+		return fileID;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+	
+	public boolean isLargeFile() {
+		return largeFile;
+	}
+
+	public boolean isEncrypted() {
+		return cryptoContext != null;
+	}
+
+	public int getTotalChunks() {
+		return totalChunks;
+	}
+
+	public synchronized int getChunksAcknowledged() {
+		return chunksAcknowledged;
+	}
+
+	public synchronized double getWindowSize() {
+		return windowSize;
+	}
+
+	public synchronized boolean isFailed() {
+		return failed;
+	}
+
+	public synchronized boolean isCompleted() {
+		return chunksAcknowledged == totalChunks;
+	}
+}
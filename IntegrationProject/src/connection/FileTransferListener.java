@@ -0,0 +1,32 @@
+package connection;
+
+/**
+ * A listener that is notified of the progress of an outgoing <code>FileTransfer</code>.
+ * The methods are called on networking threads, so a user interface should hand the
+ * updates over to its own thread.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public interface FileTransferListener {
+
+	/**
+	 * Called whenever a chunk of the file is acknowledged by the receiver.
+	 * @param transfer the file transfer
+	 * @param chunksAcknowledged the number of chunks that have been acknowledged
+	 * @param totalChunks the total number of chunks of the file
+	 */
+	void transferProgress(FileTransfer transfer, int chunksAcknowledged, int totalChunks);
+
+	/**
+	 * Called when all chunks of the file have been acknowledged.
+	 * @param transfer the file transfer
+	 */
+	default void transferCompleted(FileTransfer transfer) {
+	}
+
+	/**
+	 * Called when a chunk of the file could not be delivered. No further chunks are sent.
+	 * @param transfer the file transfer
+	 */
+	default void transferFailed(FileTransfer transfer) {
+	}
+}
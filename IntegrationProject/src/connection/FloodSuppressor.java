@@ -0,0 +1,164 @@
+package connection;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A class that keeps the mesh from forwarding every packet on every node (counter-based
+ * broadcast suppression). A packet that is to be forwarded is held back for a short,
+ * random assessment delay, during which the copies of the packet that other nodes forward
+ * are counted. If <code>suppressionThreshold</code> copies were heard, the neighbours have
+ * been reached already and the packet is not forwarded.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class FloodSuppressor {
+
+	/**
+	 * The default number of copies of a packet after which it is no longer forwarded.
+	 */
+	public static final int DEFAULT_SUPPRESSION_THRESHOLD = 2;
+
+	/**
+	 * The default maximum time (milliseconds) that a forward is held back.
+	 */
+	public static final int DEFAULT_ASSESSMENT_DELAY = 4;
+
+	/**
+	 * The transport layer to be used.
+	 */
+	private TransportLayer transportLayer;
+
+	/**
+	 * The scheduler that runs the delayed forwards.
+	 */
+	private TaskScheduler scheduler;
+
+	/**
+	 * The number of copies of a packet after which it is no longer forwarded. 0 disables
+	 * suppression.
+	 */
+	private volatile int suppressionThreshold = DEFAULT_SUPPRESSION_THRESHOLD;
+
+	/**
+	 * The maximum time (milliseconds) that a forward is held back. 0 disables suppression.
+	 */
+	private volatile int assessmentDelay = DEFAULT_ASSESSMENT_DELAY;
+
+	/**
+	 * True once the suppressor is shut down, so no forwards are held back anymore.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * The forwards that are held back, mapped by the (senderID, sequenceNumber) key of
+	 * their packet.
+	 */
+	private HashMap<Long, PendingForward> pendingForwards = new HashMap<>();
+
+	/**
+	 * Constructs a <code>FloodSuppressor</code> object whose delayed forwards run on the
+	 * shared <code>TaskScheduler</code>.
+	 * @param transportLayer the transport layer to be used
+	 */
+	public FloodSuppressor(TransportLayer transportLayer) {
+		this.transportLayer = transportLayer;
+		this.scheduler = TaskScheduler.getShared();
+	}
+
+	/**
+	 * Forwards a received datagram after the assessment delay, unless enough copies of it
+	 * are heard in the meantime. The datagram is copied, so the caller keeps its buffer.
+	 * @param senderID the ID of the sender of the packet
+	 * @param sequenceNumber the sequence number of the packet
+	 * @param typeIdentifier the type of the payload of the packet
+	 * @param datagram the received datagram, from its position up to its limit
+	 */
+	public void forward(int senderID, int sequenceNumber, int typeIdentifier, ByteBuffer datagram) {
+		int delay = assessmentDelay;
+		if (suppressionThreshold <= 0 || delay <= 0 || closed) {
+			transportLayer.forwardDatagram(datagram.duplicate(), typeIdentifier);
+			return;
+		}
+		ByteBuffer copy = ByteBuffer.allocate(datagram.remaining());
+		copy.put(datagram.duplicate());
+		copy.flip();
+		long key = DuplicateFilter.getKey(senderID, sequenceNumber);
+		synchronized (this) {
+			pendingForwards.put(key, new PendingForward(copy, typeIdentifier));
+		}
+		scheduler.schedule(() -> assess(key), ThreadLocalRandom.current().nextInt(delay) + 1);
+	}
+
+	/**
+	 * Counts a copy of a packet that was received again. Called for every duplicate.
+	 * @param senderID the ID of the sender of the packet
+	 * @param sequenceNumber the sequence number of the packet
+	 */
+	public synchronized void duplicateHeard(int senderID, int sequenceNumber) {
+		PendingForward pendingForward = pendingForwards.get(DuplicateFilter.getKey(senderID, sequenceNumber));
+		if (pendingForward != null) {
+			pendingForward.duplicates++;
+		}
+	}
+
+	/**
+	 * Forwards the held back packet with the given key, unless enough copies were heard.
+	 * @param key the (senderID, sequenceNumber) key of the packet
+	 */
+	private void assess(long key) {
+		PendingForward pendingForward;
+		synchronized (this) {
+			pendingForward = pendingForwards.remove(key);
+		}
+		if (pendingForward == null || closed) {
+			return;
+		}
+		if (pendingForward.duplicates >= suppressionThreshold) {
+			transportLayer.session.getStatistics().increaseForwardsSuppressed();
+		} else {
+			transportLayer.forwardDatagram(pendingForward.datagram, pendingForward.typeIdentifier);
+		}
+	}
+
+	public int getSuppressionThreshold() {
+		return suppressionThreshold;
+	}
+
+	public void setSuppressionThreshold(int suppressionThreshold) {
+		this.suppressionThreshold = suppressionThreshold;
+	}
+
+	public int getAssessmentDelay() {
+		return assessmentDelay;
+	}
+
+	public void setAssessmentDelay(int assessmentDelay) {
+		this.assessmentDelay = assessmentDelay;
+	}
+
+	/**
+	 * Stops holding back forwards. Forwards that are held back are dropped.
+	 */
+	public synchronized void shutdown() {
+		closed = true;
+		pendingForwards.clear();
+	}
+
+	/**
+	 * A forward that is held back, together with the number of copies heard since.
+	 */
+	private static final class PendingForward {
+
+		private final ByteBuffer datagram;
+
+		private final int typeIdentifier;
+
+		private int duplicates;
+
+		private PendingForward(ByteBuffer datagram, int typeIdentifier) {
+			this.datagram = datagram;
+			this.typeIdentifier = typeIdentifier;
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package connection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.BitSet;
+
+import packet.FileMessage;
+
+/**
+ * A class that reassembles a received file in a temporary file. The temporary file is
+ * preallocated for all chunks, and every chunk is written straight from the received
+ * datagram to its offset, so the file is never held in memory. A <code>BitSet</code>
+ * records which chunks have been written.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class IncomingFile implements ChunkStore {
+
+	/**
+	 * The temporary file that the chunks are written to.
+	 */
+	private File file;
+
+	/**
+	 * The channel used to write to the temporary file. Null once the file is finished.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * The total number of chunks of the file.
+	 */
+	private int totalChunks;
+	
+	/**
+	 * The size (bytes) of every chunk except the last one.
+	 */
+	private int chunkSize;
+
+	/**
+	 * The chunks that have been written.
+	 */
+	private BitSet receivedChunks;
+
+	/**
+	 * The number of chunks that have been written.
+	 */
+	private int chunksReceived;
+
+	/**
+	 * The length (bytes) of the file. Unknown (-1) until the last chunk is written, unless
+	 * it was announced beforehand.
+	 */
+	private long length;
+	
+	/**
+	 * The time (System.currentTimeMillis()) at which the last chunk was written.
+	 */
+	private volatile long lastUpdated;
+
+	/**
+	 * Constructs an <code>IncomingFile</code> object for a <code>FileMessage</code> transfer
+	 * and preallocates a temporary file for <code>totalChunks</code> chunks.
+	 * @param totalChunks the total number of chunks of the file
+	 * @throws IOException if the temporary file can not be created
+	 */
+	public IncomingFile(int totalChunks) throws IOException {
+		this(totalChunks, FileMessage.CHUNK_SIZE, -1, null);
+	}
+
+	/**
+	 * Constructs an <code>IncomingFile</code> object and preallocates a temporary file for
+	 * the announced file. If a name is given, the temporary file gets that name (in a
+	 * temporary directory of its own).
+	 * @param totalChunks the total number of chunks of the file
+	 * @param chunkSize the size (bytes) of every chunk except the last one
+	 * @param length the length (bytes) of the file, or -1 if it is unknown
+	 * @param fileName the name of the file, or null
+	 * @throws IOException if the temporary file can not be created
+	 */
+	@SuppressWarnings("resource")
+	public IncomingFile(int totalChunks, int chunkSize, long length, String fileName) throws IOException {
+		this.totalChunks = totalChunks;
+		this.chunkSize = chunkSize;
+		this.length = length;
+		this.receivedChunks = new BitSet(totalChunks);
+		this.lastUpdated = System.currentTimeMillis();
+		String name = fileName == null ? "" : new File(fileName).getName();
+		if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+			this.file = File.createTempFile("IntegrationProject", ".tmp");
+		} else {
+			File directory = Files.createTempDirectory("IntegrationProject").toFile();
+			directory.deleteOnExit();
+			this.file = new File(directory, name);
+		}
+		this.file.deleteOnExit();
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		randomAccessFile.setLength(length >= 0 ? length : (long) totalChunks * chunkSize);
+		this.channel = randomAccessFile.getChannel();
+	}
+
+	/**
+	 * Writes a chunk to its offset in the temporary file, unless it was written before.
+	 * @param chunkIndex the index of the chunk
+	 * @param data the data of the chunk
+	 * @return true if the chunk was new, false if it is a duplicate
+	 * @throws IOException if the chunk can not be written
+	 */
+	@Override
+	public synchronized boolean write(int chunkIndex, ByteBuffer data) throws IOException {
+		if (channel == null || chunkIndex < 0 || chunkIndex >= totalChunks || receivedChunks.get(chunkIndex)
+				|| data.remaining() > chunkSize) {
+			return false;
+		}
+		long offset = (long) chunkIndex * chunkSize;
+		if (chunkIndex == totalChunks - 1 && length < 0) {
+			length = offset + data.remaining();
+		}
+		while (data.hasRemaining()) {
+			offset += channel.write(data, offset);
+		}
+		receivedChunks.set(chunkIndex);
+		chunksReceived++;
+		lastUpdated = System.currentTimeMillis();
+		return true;
+	}
+
+	/**
+	 * Reads a chunk back from the temporary file.
+	 * @param chunkIndex the index of the chunk
+	 * @return chunkData the data of the chunk, or null if it was not written
+	 * @throws IOException if the chunk can not be read
+	 */
+	@Override
+	public synchronized ByteBuffer readChunk(int chunkIndex) throws IOException {
+		if (channel == null || !hasChunk(chunkIndex)) {
+			return null;
+		}
+		long offset = (long) chunkIndex * chunkSize;
+		int chunkLength = (int) (chunkIndex == totalChunks - 1 ? length - offset : chunkSize);
+		ByteBuffer chunkData = ByteBuffer.allocate(chunkLength);
+		while (chunkData.hasRemaining()) {
+			int read = channel.read(chunkData, offset + chunkData.position());
+			if (read < 0) {
+				return null;
+			}
+		}
+		chunkData.flip();
+		return chunkData;
+	}
+
+	@Override
+	public synchronized boolean hasChunk(int chunkIndex) {
+		return chunkIndex >= 0 && chunkIndex < totalChunks && receivedChunks.get(chunkIndex);
+	}
+
+	/**
+	 * Checks if all chunks have been written.
+	 * @return true if the file is complete, otherwise false
+	 */
+	@Override
+	public synchronized boolean isComplete() {
+		return chunksReceived == totalChunks;
+	}
+
+	/**
+	 * Truncates the temporary file to the real length of the file and closes it.
+	 * Should only be called once the file is complete.
+	 * @return file the completed file
+	 * @throws IOException if the file can not be truncated or closed
+	 */
+	public synchronized File finish() throws IOException {
+		if (channel != null) {
+			channel.truncate(length);
+			channel.close();
+			channel = null;
+		}
+		return file;
+	}
+
+	/**
+	 * Closes and deletes the temporary file.
+	 */
+	public synchronized void discard() {
+		try {
+			if (channel != null) {
+				channel.close();
+				channel = null;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		file.delete();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public int getTotalChunks() {
+		return totalChunks;
+	}
+
+	public synchronized int getChunksReceived() {
+		return chunksReceived;
+	}
+	
+	/**
+	 * Returns a copy of the set of chunks that have been received.
+	 * @return receivedChunks the indexes of the received chunks
+	 */
+	@Override
+	public synchronized BitSet getReceivedChunks() {
+		return (BitSet) receivedChunks.clone();
+	}
+	
+	@Override
+	public long getLastUpdated() {
+		return lastUpdated;
+	}
+}
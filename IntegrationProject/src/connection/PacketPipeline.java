@@ -0,0 +1,246 @@
+package connection;
+
+import java.nio.ByteBuffer;
+
+import packet.Batch;
+import packet.Packet;
+import packet.PacketCodec;
+
+/**
+ * A class that processes received datagrams in stages, each on threads of its own:
+ * <ol>
+ * <li>the <code>Receiver</code> only fetches datagrams from the channel and hands them
+ * to the decode stage;</li>
+ * <li>the decode stage decodes every datagram and drops the packets that were seen
+ * before;</li>
+ * <li>the remaining packets are processed by one of several worker lanes. All packets of
+ * a sender go to the same lane, so they are processed in the order in which they were
+ * received, while the packets of different senders are processed in parallel.</li>
+ * </ol>
+ * The stages are connected by bounded <code>RingQueue</code>s. A stage that finds the
+ * next queue full waits for it, which is counted as back-pressure. A received buffer is
+ * owned by the packet until its lane has processed it, since the decoded payloads keep
+ * views on it; the lane then returns the buffer to the pool.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class PacketPipeline {
+
+	/**
+	 * The number of datagrams that may wait to be decoded.
+	 */
+	public static final int DECODE_QUEUE_CAPACITY = 128;
+
+	/**
+	 * The number of packets that may wait in every worker lane.
+	 */
+	public static final int LANE_QUEUE_CAPACITY = 64;
+
+	/**
+	 * The maximum number of worker lanes.
+	 */
+	public static final int MAXIMUM_LANES = 8;
+
+	/**
+	 * The connection whose datagrams are processed.
+	 */
+	private Connection connection;
+
+	/**
+	 * The datagrams that wait to be decoded.
+	 */
+	private RingQueue<ByteBuffer> decodeQueue;
+
+	/**
+	 * The decoded packets that wait to be processed, per worker lane.
+	 */
+	private RingQueue<ReceivedPacket>[] laneQueues;
+
+	/**
+	 * Constructs a <code>PacketPipeline</code> object with one worker lane per processor
+	 * (at least 2, at most <code>MAXIMUM_LANES</code>) and starts its threads.
+	 * @param connection the connection whose datagrams are processed
+	 */
+	public PacketPipeline(Connection connection) {
+		this(connection, Math.max(2, Math.min(MAXIMUM_LANES, Runtime.getRuntime().availableProcessors())));
+	}
+
+	/**
+	 * Constructs a <code>PacketPipeline</code> object and starts its threads.
+	 * @param connection the connection whose datagrams are processed
+	 * @param laneCount the number of worker lanes
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public PacketPipeline(Connection connection, int laneCount) {
+		this.connection = connection;
+		this.decodeQueue = new RingQueue<>(DECODE_QUEUE_CAPACITY);
+		this.laneQueues = new RingQueue[laneCount];
+		for (int i = 0; i < laneCount; i++) {
+			RingQueue<ReceivedPacket> laneQueue = new RingQueue<>(LANE_QUEUE_CAPACITY);
+			laneQueues[i] = laneQueue;
+			startThread("PacketLane-" + i, () -> processLane(laneQueue));
+		}
+		startThread("PacketDecoder", this::decode);
+	}
+
+	private static void startThread(String name, Runnable runnable) {
+		TaskScheduler.getShared().startThread(name, runnable);
+	}
+
+	/**
+	 * Hands a received datagram to the decode stage, waiting while that stage is full. May
+	 * only be called by the <code>Receiver</code>. The pipeline takes over the buffer.
+	 * @param datagram the received datagram, between its position and limit
+	 */
+	public void submit(ByteBuffer datagram) {
+		if (!decodeQueue.put(datagram)) {
+			connection.bufferPool.release(datagram);
+		}
+	}
+
+	/**
+	 * Decodes and filters the datagrams, and hands the new packets to the lane of their sender.
+	 * The packets in a batch are copied out of it, so the batch's buffer is released right
+	 * away.
+	 */
+	private void decode() {
+		ByteBuffer datagram;
+		while ((datagram = decodeQueue.take()) != null) {
+			if (Batch.isBatch(datagram)) {
+				// A batch that we sent ourselves holds nothing new
+				if (PacketCodec.getSenderID(datagram) != connection.transportLayer.session.getID()) {
+					for (ByteBuffer frame : Batch.getFrames(datagram)) {
+						ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+						copy.put(frame);
+						copy.flip();
+						decode(copy, false);
+					}
+				}
+				connection.bufferPool.release(datagram);
+			} else {
+				decode(datagram, true);
+			}
+		}
+	}
+	
+	/**
+	 * Decodes and filters a single packet, and hands it to the lane of its sender if it is new.
+	 * @param datagram the buffer holding the packet
+	 * @param pooled true if the buffer is to be returned to the pool
+	 */
+	private void decode(ByteBuffer datagram, boolean pooled) {
+		Packet packet = null;
+		try {
+			packet = connection.transportLayer.filterPacket(datagram);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+		ByteBuffer pooledDatagram = pooled ? datagram : null;
+		if (packet == null || !laneQueues[getLane(packet.getSenderID())].put(new ReceivedPacket(packet, pooledDatagram))) {
+			if (pooled) {
+				connection.bufferPool.release(datagram);
+			}
+		}
+	}
+
+	/**
+	 * Processes the packets of a worker lane in order, and returns their buffers to the pool.
+	 * @param laneQueue the queue of the lane
+	 */
+	private void processLane(RingQueue<ReceivedPacket> laneQueue) {
+		ReceivedPacket receivedPacket;
+		while ((receivedPacket = laneQueue.take()) != null) {
+			try {
+				connection.transportLayer.processPacket(receivedPacket.packet);
+			} catch (RuntimeException e) {
+				// A packet that can not be handled must not stop the lane
+				e.printStackTrace();
+			} finally {
+				if (receivedPacket.datagram != null) {
+					connection.bufferPool.release(receivedPacket.datagram);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the worker lane of a sender.
+	 * @param senderID the ID of the sender
+	 * @return lane the index of the lane
+	 */
+	public int getLane(int senderID) {
+		return Math.floorMod(senderID, laneQueues.length);
+	}
+
+	public int getLaneCount() {
+		return laneQueues.length;
+	}
+
+	/**
+	 * Returns the number of times that a stage found the next queue full and had to wait.
+	 * @return fullEvents the back-pressure events of all queues
+	 */
+	public long getFullEvents() {
+		long fullEvents = decodeQueue.getFullEvents();
+		for (RingQueue<ReceivedPacket> laneQueue : laneQueues) {
+			fullEvents += laneQueue.getFullEvents();
+		}
+		return fullEvents;
+	}
+
+	/**
+	 * Returns the number of datagrams and packets that wait in the queues.
+	 * @return queuedPackets the number of queued datagrams and packets
+	 */
+	public int getQueuedPackets() {
+		int queuedPackets = decodeQueue.size();
+		for (RingQueue<ReceivedPacket> laneQueue : laneQueues) {
+			queuedPackets += laneQueue.size();
+		}
+		return queuedPackets;
+	}
+
+	/**
+	 * Returns the largest number of datagrams that waited to be decoded at once.
+	 * @return maximumDepth the maximum depth of the decode queue
+	 */
+	public int getMaximumDecodeQueueDepth() {
+		return decodeQueue.getMaximumDepth();
+	}
+
+	/**
+	 * Returns the largest number of packets that waited in a single worker lane at once.
+	 * @return maximumDepth the maximum depth of the lane queues
+	 */
+	public int getMaximumLaneQueueDepth() {
+		int maximumDepth = 0;
+		for (RingQueue<ReceivedPacket> laneQueue : laneQueues) {
+			maximumDepth = Math.max(maximumDepth, laneQueue.getMaximumDepth());
+		}
+		return maximumDepth;
+	}
+
+	/**
+	 * Stops the pipeline. Packets that are queued are still processed.
+	 */
+	public void shutdown() {
+		decodeQueue.close();
+		for (RingQueue<ReceivedPacket> laneQueue : laneQueues) {
+			laneQueue.close();
+		}
+	}
+
+	/**
+	 * A decoded packet together with the pooled buffer that it was decoded from, if any.
+	 */
+	private static final class ReceivedPacket {
+
+		private final Packet packet;
+
+		private final ByteBuffer datagram;
+
+		private ReceivedPacket(Packet packet, ByteBuffer datagram) {
+			this.packet = packet;
+			this.datagram = datagram;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import model.Statistics;
+import packet.FileParity;
+
+/**
+ * A class that rebuilds lost chunks of received files from <code>FileParity</code> packets
+ * (forward error correction). The parities are kept per file until the file is complete.
+ * Whenever exactly one chunk of a group is missing and the parity of the group has been
+ * received, the missing chunk is the XOR of the parity and the other chunks of the group.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class ParityDecoder {
+
+	/**
+	 * The received parities of every file, mapped by the (senderID, fileID) key of the
+	 * file and then by the index of the first chunk of their group.
+	 */
+	private ConcurrentHashMap<Long, TreeMap<Integer, FileParity>> parities = new ConcurrentHashMap<>();
+
+	/**
+	 * The statistics in which lost and recovered chunks are counted.
+	 */
+	private Statistics statistics;
+
+	/**
+	 * Constructs a <code>ParityDecoder</code> object.
+	 * @param statistics the statistics in which lost and recovered chunks are counted
+	 */
+	public ParityDecoder(Statistics statistics) {
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Stores the parity of a group, unless all chunks of the group have been received.
+	 * The parity data is copied, so the received datagram can be reused.
+	 * @param key the (senderID, fileID) key of the file
+	 * @param parity the received parity
+	 * @param store the chunks of the file that have been received so far, or null
+	 * @return chunkIndex the index of the chunk that was rebuilt, or -1
+	 * @throws IOException if a chunk can not be read or written
+	 */
+	public int addParity(long key, FileParity parity, ChunkStore store) throws IOException {
+		if (store != null) {
+			int missing = countMissing(store, parity);
+			if (missing == 0) {
+				return -1;
+			}
+			statistics.increaseFileChunksLost(missing);
+		}
+		FileParity copy = new FileParity(parity.getFileID(), parity.getFirstChunk(), parity.getGroupSize(),
+				parity.getLengthParity(), ByteBuffer.wrap(parity.getParityData()));
+		TreeMap<Integer, FileParity> fileParities = parities.computeIfAbsent(key, k -> new TreeMap<>());
+		synchronized (fileParities) {
+			fileParities.put(copy.getFirstChunk(), copy);
+		}
+		return store == null ? -1 : recover(key, store, copy.getFirstChunk());
+	}
+
+	/**
+	 * Rebuilds the missing chunk of the group that contains a chunk, if exactly one chunk
+	 * of that group is missing and its parity has been received. The rebuilt chunk is
+	 * written to the store.
+	 * @param key the (senderID, fileID) key of the file
+	 * @param store the chunks of the file that have been received so far
+	 * @param chunkIndex the index of a chunk in the group
+	 * @return chunkIndex the index of the chunk that was rebuilt, or -1
+	 * @throws IOException if a chunk can not be read or written
+	 */
+	public int recover(long key, ChunkStore store, int chunkIndex) throws IOException {
+		TreeMap<Integer, FileParity> fileParities = parities.get(key);
+		if (fileParities == null) {
+			return -1;
+		}
+		FileParity parity;
+		synchronized (fileParities) {
+			Map.Entry<Integer, FileParity> entry = fileParities.floorEntry(chunkIndex);
+			if (entry == null || chunkIndex >= entry.getKey() + entry.getValue().getGroupSize()) {
+				return -1;
+			}
+			parity = entry.getValue();
+		}
+		int first = parity.getFirstChunk();
+		int end = Math.min(first + parity.getGroupSize(), store.getTotalChunks());
+		int missingChunk = -1;
+		for (int chunk = first; chunk < end; chunk++) {
+			if (!store.hasChunk(chunk)) {
+				if (missingChunk >= 0) {
+					// More than one chunk is missing, wait for the next one
+					return -1;
+				}
+				missingChunk = chunk;
+			}
+		}
+		if (missingChunk < 0) {
+			removeParity(fileParities, first);
+			return -1;
+		}
+
+		byte[] chunkData = parity.getParityData();
+		int chunkLength = parity.getLengthParity();
+		for (int chunk = first; chunk < end; chunk++) {
+			if (chunk != missingChunk) {
+				ByteBuffer otherChunk = store.readChunk(chunk);
+				if (otherChunk == null || otherChunk.remaining() > chunkData.length) {
+					return -1;
+				}
+				FileParity.xor(chunkData, otherChunk);
+				chunkLength ^= otherChunk.remaining();
+			}
+		}
+		removeParity(fileParities, first);
+		if (chunkLength < 0 || chunkLength > chunkData.length
+				|| !store.write(missingChunk, ByteBuffer.wrap(chunkData, 0, chunkLength))) {
+			return -1;
+		}
+		statistics.increaseFileChunksRecovered();
+		System.out.println("      Recovered chunk " + missingChunk + " from parity");
+		return missingChunk;
+	}
+
+	/**
+	 * Forgets the parities of a file, once it is complete or has expired.
+	 * @param key the (senderID, fileID) key of the file
+	 */
+	public void remove(long key) {
+		parities.remove(key);
+	}
+
+	private static int countMissing(ChunkStore store, FileParity parity) {
+		int first = parity.getFirstChunk();
+		int end = Math.min(first + parity.getGroupSize(), store.getTotalChunks());
+		int missing = 0;
+		for (int chunk = first; chunk < end; chunk++) {
+			if (!store.hasChunk(chunk)) {
+				missing++;
+			}
+		}
+		return missing;
+	}
+
+	private static void removeParity(TreeMap<Integer, FileParity> fileParities, int firstChunk) {
+		synchronized (fileParities) {
+			fileParities.remove(firstChunk);
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package connection;
 
+import java.security.KeyPair;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
 
 import encryption.DiffieHellman;
 import encryption.EncryptionPair;
@@ -8,20 +10,43 @@ import model.Person;
 import model.Session;
 import packet.Packet;
 import packet.*;
-import packet.Pulse;
 import userinterface.GUIHandler;
 
 /**
- * A class that handles the 'keep-alive' messages, by sending pulses periodically
- * in a separate <code>Thread</code>.
+ * A class that handles the 'keep-alive' messages, by sending pulses as a task on the shared
+ * <code>TaskScheduler</code>. Pulses are <code>CompactPulse</code> payloads, which carry the
+ * name and level of the user only when they changed or when a node asks for them.
+ * Sending them announces that this node reads extended packet headers. While an older
+ * node is reachable, which only reads <code>Pulse</code> payloads, every pulse is also sent
+ * as a <code>Pulse</code>.
+ * <p>
+ * The interval between pulses adapts to the neighbourhood (as in the Trickle algorithm): it
+ * doubles after every pulse while nothing changes, up to <code>MAXIMUM_PULSE_INTERVAL</code>,
+ * and drops back to <code>MINIMUM_PULSE_INTERVAL</code> as soon as a person appears, goes
+ * offline or changes its name or level.
  * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
  */
-public class PulseHandler extends Thread {
+public class PulseHandler implements Runnable {
 	
 	/**
-	 * The interval at which this <code>PulseHandler</code> should send pulses.
+	 * The interval at which the task of this <code>PulseHandler</code> runs.
 	 */
-	private static final long PULSE_INTERVAL = 1000;
+	private static final long TICK_INTERVAL = 1000;
+	
+	/**
+	 * The interval (milliseconds) between pulses while the neighbourhood is changing.
+	 */
+	public static final long MINIMUM_PULSE_INTERVAL = 1000;
+	
+	/**
+	 * The interval (milliseconds) between pulses while the neighbourhood is stable.
+	 */
+	public static final long MAXIMUM_PULSE_INTERVAL = 3000;
+	
+	/**
+	 * The minimum time (milliseconds) between two full pulses that are sent on request.
+	 */
+	public static final long FULL_PULSE_HOLDOFF = 250;
 
 	/**
 	 * The <code>Session</code> on which this <code>PulseHandler</code> operates.
@@ -34,40 +59,183 @@ public class PulseHandler extends Thread {
 	private Connection connection;
 	
 	/**
-	 * Constructs a <code>PulseHandler</code> object. Starts this <code>Thread</code>.
+	 * The periodic task of this <code>PulseHandler</code>.
+	 */
+	private ScheduledFuture<?> task;
+	
+	/**
+	 * The version of the name and level of the user, increased whenever one of them changes.
+	 */
+	private int version;
+	
+	/**
+	 * The name of the user as it was last announced, or null if it was never announced.
+	 */
+	private String announcedName;
+	
+	/**
+	 * The level of the user as it was last announced.
+	 */
+	private int announcedLevel;
+	
+	/**
+	 * The current interval (milliseconds) between pulses.
+	 */
+	private long pulseInterval = MINIMUM_PULSE_INTERVAL;
+	
+	/**
+	 * The time (System.currentTimeMillis()) at which the last pulse was sent.
+	 */
+	private long lastPulseTime;
+	
+	/**
+	 * The time (System.currentTimeMillis()) at which the last full pulse was sent.
+	 */
+	private long lastFullPulseTime;
+	
+	/**
+	 * True if the neighbourhood changed since the last pulse.
+	 */
+	private boolean changed;
+	
+	/**
+	 * True if a full pulse is scheduled to answer a request.
+	 */
+	private boolean fullPulseScheduled;
+	
+	/**
+	 * Constructs a <code>PulseHandler</code> object. Schedules its task, which runs every 
+	 * <code>TICK_INTERVAL</code> milliseconds.
 	 * @param session the <code>Session</code> on which this <code>PulseHandler</code> operates
 	 */
 	public PulseHandler(Session session) {
 		this.session = session;
 		this.connection = session.getConnection();
-		this.start();
+		// The first run may stop the task before it is assigned otherwise
+		synchronized (this) {
+			this.task = TaskScheduler.getShared().scheduleWithFixedDelay(this, 0, TICK_INTERVAL);
+		}
 	}
 	
 	/**
-	 * The thread that sends pulses every <code>PULSE_INTERVAL</code> milliseconds, decreases the 
-	 * TTL of persons in the session and sends an <code>EncryptionPair</code> when necessary. 
+	 * The task that sends a pulse when it is due, decreases the TTL of persons in the session
+	 * and sends an <code>EncryptionPair</code> when necessary. Stops once the connection is closed.
 	 */
 	@Override
 	public void run() {
-		while (!connection.sendSocket.isClosed()) {
-			pulse();
+		if (!connection.sendChannel.isOpen()) {
+			stop();
+			return;
+		}
+		try {
+			synchronized (this) {
+				if (System.currentTimeMillis() - lastPulseTime >= pulseInterval) {
+					pulse();
+				}
+			}
 			decreaseTimeToLive();
+			connection.getTransportLayer().expireFileTransfers();
+			connection.getTransportLayer().routingTable.expireRoutes();
 			session.getStatistics().increaseSessionTime();
-			session.getStatistics().increasePulsesSent();
 			sendEncryptionPair();
-			try { Thread.sleep(PULSE_INTERVAL); } catch (InterruptedException e) { e.printStackTrace(); }
+		} catch (RuntimeException e) {
+			// An exception would cancel the task, and with it all future pulses
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Stops sending pulses.
+	 */
+	public synchronized void stop() {
+		if (task != null) {
+			task.cancel(false);
+		}
+	}
+	
+	/**
+	 * Sends a pulse to all nearby neighbors, in the full form if the name or level of the 
+	 * user changed since the last pulse. Adapts the interval until the next pulse.
+	 */
+	public synchronized void pulse() {
+		String name = session.getName();
+		int level = session.getExperienceTracker().getCurrentLevel();
+		boolean full = false;
+		if (!name.equals(announcedName) || level != announcedLevel) {
+			if (announcedName != null) {
+				version = (version + 1) & 0xFFFF;
+			}
+			announcedName = name;
+			announcedLevel = level;
+			full = true;
+			changed = true;
 		}
+		sendPulse(full);
+		
+		// Pulse more often while the neighbourhood changes, less often while it is stable
+		pulseInterval = changed ? MINIMUM_PULSE_INTERVAL : Math.min(2 * pulseInterval, MAXIMUM_PULSE_INTERVAL);
+		changed = false;
 	}
 	
 	/**
-	 * Sends a pulse to all nearby neighbors. 
+	 * Sends a pulse in the compact or the full form.
+	 * @param full true to send the name and level of the user as well
 	 */
-	public void pulse() {
-		int nameLength = session.getName().length();
-		Pulse pulse = new Pulse(nameLength, session.getExperienceTracker().getCurrentLevel(), 
-				session.getName()); 
-		Packet packet = new Packet(session.getID(), 0, session.getNextSeqNumber(), Payload.PULSE, pulse);
+	private synchronized void sendPulse(boolean full) {
+		long now = System.currentTimeMillis();
+		int nameHash = CompactPulse.hashName(announcedName);
+		CompactPulse pulse = full ? new CompactPulse(version, nameHash, announcedName, announcedLevel)
+				: new CompactPulse(version, nameHash);
+		Packet packet = new Packet(session.getID(), 0, session.getNextSeqNumber(), Payload.COMPACT_PULSE, pulse);
 		session.getConnection().getSender().send(packet);
+		if (connection.getTransportLayer().hasLegacyNeighbours()) {
+			Pulse legacyPulse = new Pulse(announcedName.length(), announcedLevel, announcedName);
+			session.getConnection().getSender().send(new Packet(session.getID(), 0, 
+					session.getNextSeqNumber(), Payload.PULSE, legacyPulse));
+		}
+		session.getStatistics().increasePulsesSent();
+		lastPulseTime = now;
+		if (full) {
+			lastFullPulseTime = now;
+		}
+	}
+	
+	/**
+	 * Answers a <code>PulseRequest</code> with a full pulse. Full pulses are sent at most once
+	 * per <code>FULL_PULSE_HOLDOFF</code> milliseconds, so the requests of many nodes that 
+	 * heard a pulse at the same time are answered together.
+	 */
+	public synchronized void requestFullPulse() {
+		if (announcedName == null || fullPulseScheduled) {
+			return;
+		}
+		long wait = lastFullPulseTime + FULL_PULSE_HOLDOFF - System.currentTimeMillis();
+		if (wait <= 0) {
+			sendPulse(true);
+			return;
+		}
+		fullPulseScheduled = true;
+		TaskScheduler.getShared().schedule(() -> {
+			synchronized (this) {
+				fullPulseScheduled = false;
+				if (connection.sendChannel.isOpen()) {
+					sendPulse(true);
+				}
+			}
+		}, wait);
+	}
+	
+	/**
+	 * Records that the neighbourhood changed, so that the next pulse is sent after
+	 * <code>MINIMUM_PULSE_INTERVAL</code> milliseconds.
+	 */
+	public synchronized void neighbourhoodChanged() {
+		changed = true;
+		pulseInterval = MINIMUM_PULSE_INTERVAL;
+	}
+	
+	public synchronized long getPulseInterval() {
+		return pulseInterval;
 	}
 	
 	/**
@@ -80,50 +248,94 @@ public class PulseHandler extends Thread {
 			// Change TTL
 			int ttl = person.getTimeToLive();
 			person.setTimeToLive(ttl - 1);
-			session.getKnownPersons().put(person.getID(), person);
 			
 			// Update GUI
 			if (ttl == 0) {
 				GUIHandler.changedPersonList();
+				neighbourhoodChanged();
 			}
 		}
 	}
 	
 	/**
-	 * Sends an <code>EncryptionPair</code> to all persons that do not yet have 
-	 * an <code>EncryptionPair</code> with this application's user.
+	 * Starts a handshake with all persons that do not yet have an <code>EncryptionPair</code> 
+	 * with this application's user, and repeats the handshakes that are not acknowledged yet.
+	 * A handshake with an older node sends an <code>EncryptionPairExchange</code>, as those
+	 * do not know the <code>KeyExchange</code>. Any other handshake takes a key pair from the
+	 * <code>KeyPairPool</code>; if none is ready, the handshake is started on a later run, so
+	 * no key pair is ever generated on this thread.
 	 */
 	public void sendEncryptionPair() {
 		for (Map.Entry<Integer, Person> entry : session.getKnownPersons().entrySet()) {
-			if (entry.getValue().getPrivateChatPair() == null) {
+			Person person = entry.getValue();
+			EncryptionPair ep = person.getPrivateChatPair();
+			if (ep == null) {
 				
-				// If I have a higher ID than the other person, create an encryption pair
-				// pair it to the other person and, generate a secretKey for myself to use with this person
-				// and send the encryption pair to the other person
-				if (entry.getValue().getID() < session.getID()) {
-					EncryptionPair ep = new EncryptionPair();
-					int secretInteger = DiffieHellman.produceSecretKey(ep.getPrime());
-					session.getSecretKeysForPerson().put(entry.getKey(), secretInteger);	
-					ep.setLocalHalfKey(secretInteger);
-					entry.getValue().setPrivateChatPair(ep);
-					
-					// Send the packet
-					session.getStatistics().increaseSecurityMessagesSent();
-					EncryptionPairExchange epe = new EncryptionPairExchange(ep.getPrime(), ep.getGenerator(), ep.getLocalHalfKey());
-					Packet packet = new Packet(session.getID(), entry.getValue().getID(), 
-							session.getNextSeqNumber(), Payload.ENCRYPTION_PAIR, epe);
-					session.getConnection().getSender().send(packet);
+				// If I have a higher ID than the other person, start the handshake 
+				// with a fresh ephemeral key pair
+				if (person.getID() < session.getID()) {
+					if (!usesKeyAgreement(person)) {
+						// Generate a secretKey for myself to use with this person
+						ep = new EncryptionPair();
+						int secretInteger = DiffieHellman.produceSecretKey(ep.getPrime());
+						session.getSecretKeysForPerson().put(person.getID(), secretInteger);
+						ep.setLocalHalfKey(secretInteger);
+						person.setPrivateChatPair(ep);
+						sendEncryptionPairExchange(person, ep);
+						continue;
+					}
+					KeyPair keyPair = connection.getTransportLayer().keyPairPool.poll();
+					if (keyPair == null) {
+						continue;
+					}
+					ep = new EncryptionPair(keyPair, false);
+					person.setPrivateChatPair(ep);
+					sendKeyExchange(person, ep);
 				}	
 				
-			} else if (!entry.getValue().getPrivateChatPair().isAcknowledged()) {
-				// Send the packet
-				EncryptionPair ep = entry.getValue().getPrivateChatPair();
-				EncryptionPairExchange epe = new EncryptionPairExchange(ep.getPrime(), ep.getGenerator(), ep.getLocalHalfKey());
-				session.getStatistics().increaseSecurityMessagesSent();
-				Packet packet = new Packet(session.getID(), entry.getValue().getID(), 
-						session.getNextSeqNumber(), Payload.ENCRYPTION_PAIR, epe);
-				session.getConnection().getSender().send(packet);
+			} else if (!ep.isAcknowledged()) {
+				if (ep.usesKeyAgreement()) {
+					sendKeyExchange(person, ep);
+					continue;
+				}
+				sendEncryptionPairExchange(person, ep);
 			}
 		}
 	}
+	
+	/**
+	 * Returns whether a handshake with a person uses the elliptic-curve
+	 * <code>KeyExchange</code>. Only persons that announced the extended header know it.
+	 * @param person the contact person
+	 * @return true for a <code>KeyExchange</code>, false for an <code>EncryptionPairExchange</code>
+	 */
+	public static boolean usesKeyAgreement(Person person) {
+		return person.usesExtendedHeader();
+	}
+	
+	/**
+	 * Sends the prime, generator and our half key of an <code>EncryptionPair</code> to a person.
+	 * @param person the person to send the pair to
+	 * @param ep the pair of the person
+	 */
+	private void sendEncryptionPairExchange(Person person, EncryptionPair ep) {
+		EncryptionPairExchange epe = new EncryptionPairExchange(ep.getPrime(), ep.getGenerator(), ep.getLocalHalfKey());
+		session.getStatistics().increaseSecurityMessagesSent();
+		Packet packet = new Packet(session.getID(), person.getID(), 
+				session.getNextSeqNumber(), Payload.ENCRYPTION_PAIR, epe);
+		session.getConnection().getSender().send(packet);
+	}
+	
+	/**
+	 * Sends our ephemeral public key of an <code>EncryptionPair</code> to a person.
+	 * @param person the person to send the key to
+	 * @param ep the pair of the person
+	 */
+	private void sendKeyExchange(Person person, EncryptionPair ep) {
+		KeyExchange keyExchange = new KeyExchange(false, ep.getKeyPair().getPublic().getEncoded());
+		session.getStatistics().increaseSecurityMessagesSent();
+		Packet packet = new Packet(session.getID(), person.getID(), 
+				session.getNextSeqNumber(), Payload.KEY_EXCHANGE, keyExchange);
+		session.getConnection().getSender().send(packet);
+	}
 }
@@ -0,0 +1,150 @@
+package connection;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A class that reassembles a received file in memory. The buffer is allocated for all
+ * chunks up front, every chunk is copied straight to its offset, and a <code>BitSet</code>
+ * records which chunks are present. Duplicate detection and completion are constant-time,
+ * so the whole file is reassembled in O(n), whatever order the chunks arrive in.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class ReassemblyBuffer implements ChunkStore {
+
+	/**
+	 * The data of the file. Every chunk i is stored at offset i * chunkSize.
+	 */
+	private byte[] data;
+
+	/**
+	 * The total number of chunks of the file.
+	 */
+	private int totalChunks;
+
+	/**
+	 * The size (bytes) of every chunk except the last one.
+	 */
+	private int chunkSize;
+
+	/**
+	 * The chunks that have been received.
+	 */
+	private BitSet receivedChunks;
+
+	/**
+	 * The number of chunks that have been received.
+	 */
+	private int chunksReceived;
+
+	/**
+	 * The length (bytes) of the file. Unknown (-1) until the last chunk is received.
+	 */
+	private int length = -1;
+
+	/**
+	 * The time (System.currentTimeMillis()) at which the last chunk was received.
+	 */
+	private volatile long lastUpdated;
+
+	/**
+	 * Constructs a <code>ReassemblyBuffer</code> object for a file of <code>totalChunks</code>
+	 * chunks.
+	 * @param totalChunks the total number of chunks of the file
+	 * @param chunkSize the size (bytes) of every chunk except the last one
+	 */
+	public ReassemblyBuffer(int totalChunks, int chunkSize) {
+		this.totalChunks = totalChunks;
+		this.chunkSize = chunkSize;
+		this.data = new byte[totalChunks * chunkSize];
+		this.receivedChunks = new BitSet(totalChunks);
+		this.lastUpdated = System.currentTimeMillis();
+	}
+
+	/**
+	 * Copies a chunk to its offset in the buffer, unless it was received before.
+	 * @param chunkIndex the index of the chunk
+	 * @param chunkData the data of the chunk
+	 * @return true if the chunk was new, false if it is a duplicate or invalid
+	 */
+	@Override
+	public synchronized boolean write(int chunkIndex, ByteBuffer chunkData) {
+		if (data == null || chunkIndex < 0 || chunkIndex >= totalChunks || receivedChunks.get(chunkIndex)
+				|| chunkData.remaining() > chunkSize) {
+			return false;
+		}
+		int offset = chunkIndex * chunkSize;
+		if (chunkIndex == totalChunks - 1) {
+			length = offset + chunkData.remaining();
+		}
+		chunkData.get(data, offset, chunkData.remaining());
+		receivedChunks.set(chunkIndex);
+		chunksReceived++;
+		lastUpdated = System.currentTimeMillis();
+		return true;
+	}
+
+	/**
+	 * Returns a read-only view on a chunk in the buffer, without copying it.
+	 * @param chunkIndex the index of the chunk
+	 * @return chunkData the data of the chunk, or null if it was not received
+	 */
+	@Override
+	public synchronized ByteBuffer readChunk(int chunkIndex) {
+		if (data == null || !hasChunk(chunkIndex)) {
+			return null;
+		}
+		int offset = chunkIndex * chunkSize;
+		int chunkLength = chunkIndex == totalChunks - 1 ? length - offset : chunkSize;
+		return ByteBuffer.wrap(data, offset, chunkLength).slice().asReadOnlyBuffer();
+	}
+
+	@Override
+	public synchronized boolean hasChunk(int chunkIndex) {
+		return chunkIndex >= 0 && chunkIndex < totalChunks && receivedChunks.get(chunkIndex);
+	}
+
+	/**
+	 * Checks if all chunks have been received.
+	 * @return true if the file is complete, otherwise false
+	 */
+	@Override
+	public synchronized boolean isComplete() {
+		return chunksReceived == totalChunks;
+	}
+
+	/**
+	 * Returns the data of the complete file and releases the buffer. Later chunks are
+	 * treated as duplicates. Should only be called once the file is complete.
+	 * @return fileData the data of the file
+	 */
+	public synchronized byte[] finish() {
+		byte[] fileData = length == data.length ? data : Arrays.copyOf(data, length);
+		data = null;
+		return fileData;
+	}
+
+	/**
+	 * Returns a copy of the set of chunks that have been received.
+	 * @return receivedChunks the indexes of the received chunks
+	 */
+	@Override
+	public synchronized BitSet getReceivedChunks() {
+		return (BitSet) receivedChunks.clone();
+	}
+	
+	@Override
+	public long getLastUpdated() {
+		return lastUpdated;
+	}
+
+	@Override
+	public int getTotalChunks() {
+		return totalChunks;
+	}
+
+	public synchronized int getChunksReceived() {
+		return chunksReceived;
+	}
+}
@@ -1,25 +1,22 @@
 package connection;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 
 /**
  * A class that handles the receiving side of the <code>Connection</code> by starting 
- * a separate <code>Thread</code> that fetches Datagram packets from the receiveSocket.
+ * a separate thread that fetches datagrams from the receiveChannel. The thread comes from
+ * the shared <code>TaskScheduler</code>, so it is a virtual thread where available.
  * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
  */
-public class Receiver extends Thread {
+public class Receiver implements Runnable {
 	
 	/**
 	 * The <code>Connection</code> on which this <code>PulseHandler</code> operates.
 	 */
 	public Connection connection;
 	
-	/**
-	 * The <code>TransportLayer</code> to which the Datagram packets are forwarded.
-	 */
-	public TransportLayer transportLayer;
-	
 	/**
 	 * Creates a <code>Receiver</code> object that starts the receiving thread 
 	 * for this connection.
@@ -27,8 +24,7 @@ public class Receiver extends Thread {
 	 */
 	public Receiver(Connection connection) {
 		this.connection = connection;
-		this.transportLayer = connection.getTransportLayer();
-		this.start();
+		TaskScheduler.getShared().startThread("Receiver", this);
 	}
 	
 	/**
@@ -40,19 +36,25 @@ public class Receiver extends Thread {
 	}
 
 	/**
-	 * Fetches packets from the <code>receiveSocket</code>. Forwards them
-	 * to the <code>TransportLayer</code>.
+	 * Fetches datagrams from the <code>receiveChannel</code> into buffers from the
+	 * connection's <code>BufferPool</code>, and hands them to the connection's 
+	 * <code>PacketPipeline</code>, which returns each buffer to the pool once it has been 
+	 * handled. Nothing else is done on this thread, so the channel is drained as fast as 
+	 * possible.
 	 */
 	private void receive() {
-		byte buf[] = new byte[Connection.BUFFER_SIZE];
-		DatagramPacket packet = new DatagramPacket(buf, buf.length);
-		while (!connection.receiveSocket.isClosed()) {
+		while (connection.receiveChannel.isOpen()) {
+			ByteBuffer buffer = connection.bufferPool.acquire();
 			try {
-				connection.receiveSocket.receive(packet);
-				transportLayer.handlePacket(packet);
-				packet = new DatagramPacket(new byte[Connection.BUFFER_SIZE], buf.length);
+				connection.receiveChannel.receive(buffer);
+				buffer.flip();
+				connection.packetPipeline.submit(buffer);
+			} catch (ClosedChannelException e) {
+				// The connection has been closed, stop receiving
+				connection.bufferPool.release(buffer);
 			} catch (IOException e) {
 				e.printStackTrace();
+				connection.bufferPool.release(buffer);
 			}
 		}
 	}
@@ -0,0 +1,382 @@
+package connection;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+
+import model.Person;
+import model.RttEstimator;
+import packet.ChunkAcknowledgement;
+import packet.EncryptedMessage;
+import packet.EncryptedMessageV2;
+import packet.FileManifest;
+import packet.FileMessage;
+import packet.FileMessageV2;
+import packet.Packet;
+import packet.Payload;
+
+/**
+ * A class that handles the retransmission of all unacknowledged packets with timers on
+ * the shared <code>TaskScheduler</code>. The pending packets are kept in a concurrent map, keyed by their
+ * (typeIdentifier, receiverID, messageID, fileSequenceNumber), so that processing an
+ * acknowledgement is a constant-time lookup and cancel. A pending packet costs a map entry
+ * and a scheduled task, not a thread.
+ * <p>
+ * The retransmission timeout is taken from the <code>RttEstimator</code> of the receiver,
+ * and doubles with every retransmission of the same packet. The time between sending a
+ * packet and receiving its acknowledgement is fed back into that estimator.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class RetransmissionScheduler {
+
+	/**
+	 * The transport layer to be used.
+	 */
+	private TransportLayer transportLayer;
+
+	/**
+	 * The scheduler that runs the retransmission timers.
+	 */
+	private TaskScheduler scheduler;
+	
+	/**
+	 * True once the scheduler is shut down, so no new timers are started.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * The packets that are not yet acknowledged by the receiver of the packet.
+	 */
+	private ConcurrentHashMap<Key, PendingPacket> pendingPackets = new ConcurrentHashMap<>();
+	
+	/**
+	 * The estimator that is used for receivers that are not (yet) known.
+	 */
+	private RttEstimator defaultRttEstimator = new RttEstimator();
+
+	/**
+	 * Constructs a <code>RetransmissionScheduler</code> object whose timers run on the
+	 * shared <code>TaskScheduler</code>.
+	 * @param transportLayer the transport layer to be used
+	 */
+	public RetransmissionScheduler(TransportLayer transportLayer) {
+		this.transportLayer = transportLayer;
+		this.scheduler = TaskScheduler.getShared();
+	}
+
+	/**
+	 * Starts tracking a packet that has to be acknowledged. The packet is retransmitted
+	 * whenever the receiver's retransmission timeout expires, until it is acknowledged or
+	 * <code>MAXIMUM_RETRANSMISSIONS</code> retransmissions are done.
+	 * Should be called before the packet is sent for the first time, so that an early
+	 * acknowledgement can not be missed.
+	 * @param packet the packet that needs to be acknowledged
+	 */
+	public void schedule(Packet packet) {
+		schedule(packet, null);
+	}
+	
+	/**
+	 * Starts tracking a packet that has to be acknowledged, and notifies the listener of
+	 * the acknowledgement, the retransmissions and the give-up of the packet.
+	 * @param packet the packet that needs to be acknowledged
+	 * @param listener the listener to be notified, or null
+	 */
+	public void schedule(Packet packet, PacketListener listener) {
+		Key key = Key.of(packet);
+		Person receiver = transportLayer.session.getKnownPersons().get(packet.getReceiverID());
+		PendingPacket pendingPacket = new PendingPacket(key, packet, receiver, listener);
+		PendingPacket previous = pendingPackets.put(key, pendingPacket);
+		if (previous != null) {
+			previous.cancel();
+		}
+		pendingPacket.scheduleNext();
+	}
+
+	/**
+	 * Stops tracking the packet with the given key, if it is still unacknowledged. If the
+	 * packet was not retransmitted, its round-trip time is added to the receiver's estimate.
+	 * @param typeIdentifier the type of the acknowledged packet
+	 * @param receiverID the ID of the person that acknowledged the packet
+	 * @param messageID the messageID (or fileID) of the acknowledged packet
+	 * @param fileSequenceNumber the file sequence number of the acknowledged packet, or -1
+	 * @return true if the packet was unacknowledged, otherwise false
+	 */
+	public boolean acknowledge(int typeIdentifier, int receiverID, int messageID, int fileSequenceNumber) {
+		PendingPacket pendingPacket = pendingPackets.remove(new Key(typeIdentifier, receiverID, messageID, fileSequenceNumber));
+		if (pendingPacket == null) {
+			return false;
+		}
+		pendingPacket.cancel();
+		// Karn's algorithm: the acknowledgement of a retransmitted packet is ambiguous
+		if (pendingPacket.retransmissionsDone == 0 && pendingPacket.receiver != null) {
+			double rtt = (System.nanoTime() - pendingPacket.sentTime) / 1000000.0;
+			transportLayer.session.getStatistics().addRoundTripTime(pendingPacket.receiver, rtt);
+		}
+		if (pendingPacket.listener != null) {
+			pendingPacket.listener.packetAcknowledged(pendingPacket.packet);
+		}
+		return true;
+	}
+
+	/**
+	 * Stops tracking the packet with the given key, if it is still unacknowledged, without
+	 * notifying its listener. Used for a packet that is no longer needed.
+	 * @param typeIdentifier the type of the packet
+	 * @param receiverID the ID of the receiver of the packet
+	 * @param messageID the messageID (or fileID) of the packet
+	 * @param fileSequenceNumber the file sequence number of the packet, or -1
+	 * @return true if the packet was unacknowledged, otherwise false
+	 */
+	public boolean cancel(int typeIdentifier, int receiverID, int messageID, int fileSequenceNumber) {
+		PendingPacket pendingPacket = pendingPackets.remove(new Key(typeIdentifier, receiverID, messageID, fileSequenceNumber));
+		if (pendingPacket == null) {
+			return false;
+		}
+		pendingPacket.cancel();
+		return true;
+	}
+
+	/**
+	 * Retransmits the packet with the given key right away, if it is still unacknowledged,
+	 * instead of waiting for its timer. Used when the receiver reports that the packet is
+	 * missing.
+	 * @param typeIdentifier the type of the missing packet
+	 * @param receiverID the ID of the receiver of the missing packet
+	 * @param messageID the messageID (or fileID) of the missing packet
+	 * @param fileSequenceNumber the file sequence number of the missing packet, or -1
+	 * @return true if the packet was unacknowledged, otherwise false
+	 */
+	public boolean retransmitNow(int typeIdentifier, int receiverID, int messageID, int fileSequenceNumber) {
+		PendingPacket pendingPacket = pendingPackets.get(new Key(typeIdentifier, receiverID, messageID, fileSequenceNumber));
+		if (pendingPacket == null) {
+			return false;
+		}
+		pendingPacket.retransmit();
+		return true;
+	}
+
+	/**
+	 * Checks if the packet is still unacknowledged.
+	 * @param packet the packet to be checked
+	 * @return true if the packet is unacknowledged, otherwise false
+	 */
+	public boolean isUnacknowledged(Packet packet) {
+		PendingPacket pendingPacket = pendingPackets.get(Key.of(packet));
+		return pendingPacket != null && pendingPacket.packet == packet;
+	}
+
+	public int getPendingPacketCount() {
+		return pendingPackets.size();
+	}
+
+	/**
+	 * Cancels the timers of all pending packets. Pending packets are no longer retransmitted.
+	 */
+	public void shutdown() {
+		closed = true;
+		for (PendingPacket pendingPacket : pendingPackets.values()) {
+			pendingPacket.cancel();
+		}
+		pendingPackets.clear();
+	}
+
+	/**
+	 * A packet that is waiting for its acknowledgement, together with its timer.
+	 */
+	private class PendingPacket implements Runnable {
+
+		/**
+		 * The key under which this packet is tracked.
+		 */
+		private final Key key;
+
+		/**
+		 * The packet to be retransmitted.
+		 */
+		private final Packet packet;
+		
+		/**
+		 * The receiver of the packet, or null if the receiver is not known.
+		 */
+		private final Person receiver;
+		
+		/**
+		 * The time (System.nanoTime()) at which the packet was first sent.
+		 */
+		private final long sentTime;
+		
+		/**
+		 * The listener to be notified of the packet's progress, or null.
+		 */
+		private final PacketListener listener;
+
+		/**
+		 * A counter that keeps track of the number of retransmissions done.
+		 */
+		private volatile int retransmissionsDone = 0;
+
+		/**
+		 * The timer of the next retransmission.
+		 */
+		private volatile ScheduledFuture<?> nextRetransmission;
+
+		private PendingPacket(Key key, Packet packet, Person receiver, PacketListener listener) {
+			this.key = key;
+			this.packet = packet;
+			this.receiver = receiver;
+			this.listener = listener;
+			this.sentTime = System.nanoTime();
+		}
+
+		private void scheduleNext() {
+			if (!closed) {
+				RttEstimator rttEstimator = receiver != null ? receiver.getRttEstimator() : defaultRttEstimator;
+				long timeout = rttEstimator.getTimeout(retransmissionsDone);
+				nextRetransmission = scheduler.schedule(this, timeout);
+			}
+		}
+
+		private void cancel() {
+			ScheduledFuture<?> future = nextRetransmission;
+			if (future != null) {
+				future.cancel(false);
+			}
+		}
+
+		/**
+		 * Retransmits the packet (with an increased seqNum) if it's still unacknowledged.
+		 * Reuses the packet's encoding instead of serializing it again. Stops tracking the
+		 * packet once the maximum number of retransmissions is done.
+		 */
+		@Override
+		public void run() {
+			retransmit();
+		}
+		
+		/**
+		 * Retransmits the packet right away and restarts its timer.
+		 */
+		private synchronized void retransmit() {
+			// The packet may have been acknowledged while this timer was firing
+			if (pendingPackets.get(key) != this) {
+				return;
+			}
+			cancel();
+			if (retransmissionsDone >= TransportLayer.MAXIMUM_RETRANSMISSIONS) {
+				pendingPackets.remove(key, this);
+				System.out.println("      No acknowledgement after " + retransmissionsDone + " retransmissions");
+				if (listener != null) {
+					listener.packetDropped(packet);
+				}
+				return;
+			}
+			transportLayer.session.getStatistics().increaseRetransmissionsDone();
+			// Count the retransmission before sending, so that its acknowledgement is never sampled
+			retransmissionsDone++;
+			packet.setSequenceNum(transportLayer.session.getNextSeqNumber());
+			// The route may be broken, so a retransmission is flooded instead
+			packet.setNextHopID(Packet.FLOOD);
+			System.out.println("      RETRANSMISSON: seqNum: " + packet.getSequenceNumber());
+			transportLayer.session.getConnection().getSender().send(packet.getEncoding());
+			scheduleNext();
+			if (listener != null) {
+				listener.packetRetransmitted(packet);
+			}
+		}
+	}
+
+	/**
+	 * A listener that is notified of the progress of a tracked packet. The methods are
+	 * called on the thread that received the acknowledgement or on a timer thread, so 
+	 * they should return quickly.
+	 */
+	public interface PacketListener {
+		
+		/**
+		 * Called when the packet is acknowledged by its receiver.
+		 * @param packet the acknowledged packet
+		 */
+		void packetAcknowledged(Packet packet);
+		
+		/**
+		 * Called when the packet is retransmitted because its acknowledgement did not
+		 * arrive in time, which is taken as a sign of loss.
+		 * @param packet the retransmitted packet
+		 */
+		default void packetRetransmitted(Packet packet) {
+		}
+		
+		/**
+		 * Called when the packet is given up after the maximum number of retransmissions.
+		 * @param packet the packet that was never acknowledged
+		 */
+		default void packetDropped(Packet packet) {
+		}
+	}
+
+	/**
+	 * The key that identifies an unacknowledged packet: the type of the packet, its
+	 * receiver, its messageID (or fileID) and its file sequence number or chunk index 
+	 * (-1 for messages and manifests).
+	 */
+	public static final class Key {
+
+		private final int typeIdentifier;
+		private final int receiverID;
+		private final int messageID;
+		private final int fileSequenceNumber;
+
+		public Key(int typeIdentifier, int receiverID, int messageID, int fileSequenceNumber) {
+			this.typeIdentifier = typeIdentifier;
+			this.receiverID = receiverID;
+			this.messageID = messageID;
+			this.fileSequenceNumber = fileSequenceNumber;
+		}
+
+		/**
+		 * Returns the key of a packet that needs to be acknowledged.
+		 * @param packet the packet
+		 * @return key the key of the packet
+		 */
+		public static Key of(Packet packet) {
+			Payload payload = packet.getPayload();
+			switch (packet.getTypeIdentifier()) {
+			case Payload.ENCRYPTED_MESSAGE:
+				return new Key(Payload.ENCRYPTED_MESSAGE, packet.getReceiverID(), ((EncryptedMessage) payload).getMessageID(), -1);
+			case Payload.ENCRYPTED_MESSAGE_V2:
+				// Acknowledged by the same Acknowledgement as the first version
+				return new Key(Payload.ENCRYPTED_MESSAGE, packet.getReceiverID(), ((EncryptedMessageV2) payload).getMessageID(), -1);
+			case Payload.FILE_MESSAGE:
+				FileMessage fileMessage = (FileMessage) payload;
+				return new Key(Payload.FILE_MESSAGE, packet.getReceiverID(), fileMessage.getFileID(), fileMessage.getSequenceNumber());
+			case Payload.FILE_MANIFEST:
+				return new Key(Payload.FILE_MANIFEST, packet.getReceiverID(), ((FileManifest) payload).getFileID(), 
+						ChunkAcknowledgement.MANIFEST_INDEX);
+			case Payload.FILE_MESSAGE_V2:
+				FileMessageV2 chunk = (FileMessageV2) payload;
+				return new Key(Payload.FILE_MESSAGE_V2, packet.getReceiverID(), chunk.getFileID(), chunk.getChunkIndex());
+			default:
+				throw new IllegalArgumentException("Packets of type " + packet.getTypeIdentifier() + " are not acknowledged");
+			}
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return typeIdentifier == key.typeIdentifier && receiverID == key.receiverID
+					&& messageID == key.messageID && fileSequenceNumber == key.fileSequenceNumber;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = typeIdentifier;
+			hash = 31 * hash + receiverID;
+			hash = 31 * hash + messageID;
+			hash = 31 * hash + fileSequenceNumber;
+			return hash;
+		}
+	}
+}
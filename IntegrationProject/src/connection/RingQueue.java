@@ -0,0 +1,190 @@
+package connection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free queue between exactly one producer thread and one consumer thread
+ * (a single-producer single-consumer ring buffer). The producer only writes the tail and
+ * the consumer only writes the head, so neither ever takes a lock. A consumer without
+ * work parks until the producer wakes it; a producer that finds the queue full parks
+ * briefly and retries, which is counted as back-pressure.
+ * @param <E> the type of the elements in the queue
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class RingQueue<E> {
+
+	/**
+	 * The time (nanoseconds) that a producer waits before it retries a full queue.
+	 */
+	public static final long FULL_WAIT = 50000;
+
+	/**
+	 * The maximum time (nanoseconds) that a consumer parks before it checks the queue again.
+	 */
+	public static final long EMPTY_WAIT = 10000000;
+
+	/**
+	 * The elements of the queue. Element i is stored at index i & mask.
+	 */
+	private final AtomicReferenceArray<E> elements;
+
+	/**
+	 * The capacity of the queue minus one. The capacity is a power of two.
+	 */
+	private final int mask;
+
+	/**
+	 * The number of elements that have been taken. Only written by the consumer.
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * The number of elements that have been added. Only written by the producer.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * The consumer thread, if it is parked (or about to park) on an empty queue.
+	 */
+	private volatile Thread waitingConsumer;
+
+	/**
+	 * True once the queue is closed. Elements are no longer added after closing.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * The number of times that the producer found the queue full.
+	 */
+	private volatile long fullEvents;
+
+	/**
+	 * The largest number of elements that were in the queue at once.
+	 */
+	private volatile int maximumDepth;
+
+	/**
+	 * Constructs a <code>RingQueue</code> object that holds at least <code>capacity</code>
+	 * elements. The capacity is rounded up to a power of two.
+	 * @param capacity the minimum number of elements that the queue can hold
+	 */
+	public RingQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.elements = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Adds an element to the queue if there is room. May only be called by the producer.
+	 * @param element the element to be added, not null
+	 * @return true if the element was added, false if the queue is full
+	 */
+	public boolean offer(E element) {
+		long currentTail = tail.get();
+		if (currentTail - head.get() > mask) {
+			return false;
+		}
+		elements.lazySet((int) currentTail & mask, element);
+		// A full write, so the consumer can not miss the element after announcing it waits
+		tail.set(currentTail + 1);
+		int depth = (int) (currentTail + 1 - head.get());
+		if (depth > maximumDepth) {
+			maximumDepth = depth;
+		}
+		Thread consumer = waitingConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+		return true;
+	}
+
+	/**
+	 * Adds an element to the queue, waiting while the queue is full. May only be called
+	 * by the producer.
+	 * @param element the element to be added, not null
+	 * @return true if the element was added, false if the queue was closed
+	 */
+	public boolean put(E element) {
+		if (offer(element)) {
+			return true;
+		}
+		fullEvents++;
+		while (!closed) {
+			LockSupport.parkNanos(FULL_WAIT);
+			if (offer(element)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Takes the oldest element from the queue, if there is one. May only be called by
+	 * the consumer.
+	 * @return element the oldest element, or null if the queue is empty
+	 */
+	public E poll() {
+		long currentHead = head.get();
+		if (currentHead == tail.get()) {
+			return null;
+		}
+		int index = (int) currentHead & mask;
+		E element = elements.get(index);
+		elements.lazySet(index, null);
+		head.lazySet(currentHead + 1);
+		return element;
+	}
+
+	/**
+	 * Takes the oldest element from the queue, waiting while the queue is empty. May only
+	 * be called by the consumer.
+	 * @return element the oldest element, or null if the queue is closed and empty
+	 */
+	public E take() {
+		E element = poll();
+		while (element == null) {
+			if (closed) {
+				return null;
+			}
+			// Announce that we are waiting before checking again, so no wake-up is missed
+			waitingConsumer = Thread.currentThread();
+			element = poll();
+			if (element == null && !closed) {
+				LockSupport.parkNanos(this, EMPTY_WAIT);
+				element = poll();
+			}
+			waitingConsumer = null;
+		}
+		return element;
+	}
+
+	/**
+	 * Closes the queue and wakes the consumer. Elements that are in the queue can still
+	 * be taken.
+	 */
+	public void close() {
+		closed = true;
+		Thread consumer = waitingConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	public int size() {
+		return (int) (tail.get() - head.get());
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	public long getFullEvents() {
+		return fullEvents;
+	}
+
+	public int getMaximumDepth() {
+		return maximumDepth;
+	}
+}
@@ -0,0 +1,121 @@
+package connection;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import packet.Packet;
+
+/**
+ * A class that keeps the best known route to every other node, learned from the pulses
+ * that are flooded through the mesh (a distance-vector scheme). Every copy of a pulse
+ * tells which neighbour sent it (its last hop) and, through its hop limit, how many hops
+ * it travelled. The neighbour over which a node's pulses arrive in the fewest hops is the
+ * next hop towards that node.
+ * <p>
+ * Routes that are not confirmed by a pulse within <code>ROUTE_TIMEOUT</code> milliseconds
+ * expire, so a node that moved or left is flooded to again until a new route is learned.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class RoutingTable {
+
+	/**
+	 * The time (milliseconds) after which a route that is not confirmed by a pulse expires:
+	 * two pulses at the slowest pulse rate, plus some slack.
+	 */
+	public static final int ROUTE_TIMEOUT = (int) (2 * PulseHandler.MAXIMUM_PULSE_INTERVAL + 500);
+
+	/**
+	 * The best known routes, mapped by the ID of their destination.
+	 */
+	private ConcurrentHashMap<Integer, Route> routes = new ConcurrentHashMap<>();
+
+	/**
+	 * Records that a pulse of a destination arrived through a neighbour. The route is taken
+	 * if no valid route is known, if it is shorter than the known route, or if it goes
+	 * through the same neighbour (which refreshes the route and updates its distance).
+	 * @param destinationID the ID of the node that sent the pulse
+	 * @param nextHopID the ID of the neighbour that the pulse arrived from
+	 * @param distance the number of hops that the pulse travelled
+	 * @return true if the route was taken, otherwise false
+	 */
+	public boolean update(int destinationID, int nextHopID, int distance) {
+		long now = System.currentTimeMillis();
+		Route route = new Route(nextHopID, distance, now);
+		boolean[] taken = new boolean[1];
+		routes.compute(destinationID, (id, current) -> {
+			if (current == null || current.isExpired(now) || distance < current.distance
+					|| nextHopID == current.nextHopID) {
+				taken[0] = true;
+				return route;
+			}
+			return current;
+		});
+		return taken[0];
+	}
+
+	/**
+	 * Returns the neighbour through which a packet for the destination should be sent.
+	 * @param destinationID the ID of the destination
+	 * @return nextHopID the ID of the next hop, or <code>Packet.FLOOD</code> if no valid
+	 * route is known
+	 */
+	public int getNextHop(int destinationID) {
+		Route route = getRoute(destinationID);
+		return route == null ? Packet.FLOOD : route.nextHopID;
+	}
+
+	/**
+	 * Returns the best known route to a destination.
+	 * @param destinationID the ID of the destination
+	 * @return route the route, or null if no valid route is known
+	 */
+	public Route getRoute(int destinationID) {
+		Route route = routes.get(destinationID);
+		if (route == null || route.isExpired(System.currentTimeMillis())) {
+			return null;
+		}
+		return route;
+	}
+
+	/**
+	 * Forgets the routes that have expired.
+	 */
+	public void expireRoutes() {
+		long now = System.currentTimeMillis();
+		routes.values().removeIf(route -> route.isExpired(now));
+	}
+
+	public int size() {
+		return routes.size();
+	}
+
+	/**
+	 * A route to a destination: the neighbour to send through and the number of hops.
+	 */
+	public static final class Route {
+
+		/**
+		 * The ID of the neighbour through which the destination is reached.
+		 */
+		public final int nextHopID;
+
+		/**
+		 * The number of hops to the destination.
+		 */
+		public final int distance;
+
+		/**
+		 * The time (System.currentTimeMillis()) at which the route was last confirmed.
+		 */
+		public final long lastUpdated;
+
+		private Route(int nextHopID, int distance, long lastUpdated) {
+			this.nextHopID = nextHopID;
+			this.distance = distance;
+			this.lastUpdated = lastUpdated;
+		}
+
+		private boolean isExpired(long now) {
+			return now - lastUpdated > ROUTE_TIMEOUT;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package connection;
+
+import java.util.HashMap;
+
+/**
+ * A class that coalesces the acknowledgements of received file chunks. Instead of one
+ * acknowledgement per chunk, a single <code>SelectiveAcknowledgement</code> is sent per
+ * file after <code>acknowledgementDelay</code> milliseconds, or as soon as 
+ * <code>ACKNOWLEDGEMENT_FREQUENCY</code> chunks are waiting or the file is complete.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class SelectiveAcknowledger {
+
+	/**
+	 * The default time (milliseconds) that an acknowledgement is delayed to coalesce it
+	 * with the acknowledgements of the chunks that follow.
+	 */
+	public static final int DEFAULT_ACKNOWLEDGEMENT_DELAY = 20;
+
+	/**
+	 * The number of waiting chunks at which an acknowledgement is sent right away.
+	 */
+	public static final int ACKNOWLEDGEMENT_FREQUENCY = 16;
+
+	/**
+	 * The transport layer to be used.
+	 */
+	private TransportLayer transportLayer;
+
+	/**
+	 * The scheduler that runs the delayed acknowledgements.
+	 */
+	private TaskScheduler scheduler;
+	
+	/**
+	 * True once the acknowledger is shut down, so no acknowledgements are delayed anymore.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * The time (milliseconds) that an acknowledgement is delayed. 0 disables coalescing.
+	 */
+	private volatile int acknowledgementDelay = DEFAULT_ACKNOWLEDGEMENT_DELAY;
+
+	/**
+	 * The number of chunks that are waiting for an acknowledgement, mapped by the 
+	 * (senderID, fileID) key of their file.
+	 */
+	private HashMap<Long, Integer> waitingChunks = new HashMap<>();
+
+	/**
+	 * Constructs a <code>SelectiveAcknowledger</code> object whose delayed acknowledgements
+	 * run on the shared <code>TaskScheduler</code>.
+	 * @param transportLayer the transport layer to be used
+	 */
+	public SelectiveAcknowledger(TransportLayer transportLayer) {
+		this.transportLayer = transportLayer;
+		this.scheduler = TaskScheduler.getShared();
+	}
+
+	/**
+	 * Registers a received chunk (new or duplicate) that needs to be acknowledged.
+	 * @param senderID the ID of the sender of the file
+	 * @param fileID the ID of the file
+	 * @param complete true if the file is complete, so the acknowledgement should not wait
+	 */
+	public void chunkReceived(int senderID, int fileID, boolean complete) {
+		long key = DuplicateFilter.getKey(senderID, fileID);
+		boolean sendNow;
+		synchronized (this) {
+			Integer waiting = waitingChunks.get(key);
+			int count = waiting == null ? 1 : waiting + 1;
+			sendNow = complete || acknowledgementDelay <= 0 || count >= ACKNOWLEDGEMENT_FREQUENCY;
+			if (sendNow) {
+				waitingChunks.remove(key);
+			} else {
+				waitingChunks.put(key, count);
+				if (waiting == null && !closed) {
+					scheduler.schedule(() -> flush(senderID, fileID), acknowledgementDelay);
+				}
+			}
+		}
+		if (sendNow) {
+			transportLayer.sendSelectiveAcknowledgement(senderID, fileID);
+		}
+	}
+
+	/**
+	 * Sends the delayed acknowledgement of a file, unless it was sent already.
+	 * @param senderID the ID of the sender of the file
+	 * @param fileID the ID of the file
+	 */
+	private void flush(int senderID, int fileID) {
+		synchronized (this) {
+			if (waitingChunks.remove(DuplicateFilter.getKey(senderID, fileID)) == null) {
+				return;
+			}
+		}
+		transportLayer.sendSelectiveAcknowledgement(senderID, fileID);
+	}
+
+	public int getAcknowledgementDelay() {
+		return acknowledgementDelay;
+	}
+
+	public void setAcknowledgementDelay(int acknowledgementDelay) {
+		this.acknowledgementDelay = acknowledgementDelay;
+	}
+
+	/**
+	 * Stops delaying acknowledgements. Waiting acknowledgements are no longer sent.
+	 */
+	public synchronized void shutdown() {
+		closed = true;
+		waitingChunks.clear();
+	}
+}
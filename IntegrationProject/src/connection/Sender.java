@@ -1,20 +1,70 @@
 package connection;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledFuture;
 
+import packet.Batch;
 import packet.Packet;
+import packet.PacketCodec;
+import packet.Payload;
 
 /**
  * A class that simplifies the sending of <code>Packet</code> objects.
+ * <p>
+ * Small packets are not sent right away, but coalesced into a <code>Batch</code> that is 
+ * sent as a single datagram once it is full or <code>batchDelay</code> milliseconds after
+ * its first packet, whichever comes first. Acknowledgements are latency-sensitive, as the
+ * sender times its retransmissions by them, so they flush the batch right away (taking the
+ * waiting packets along). Large packets are sent on their own, after the waiting batch, so
+ * that the packets still leave in order.
  * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
  */
 public class Sender {
 	
+	/**
+	 * The default time (milliseconds) that a small packet may wait for others to share
+	 * its datagram.
+	 */
+	public static final int DEFAULT_BATCH_DELAY = 2;
+	
+	/**
+	 * The maximum length (bytes) of a packet that is batched.
+	 */
+	public static final int BATCH_THRESHOLD = 512;
+	
 	/**
 	 * The <code>Connection</code> from which the packets will be sent.
 	 */
 	public Connection connection;
 	
+	/**
+	 * The address of the multicast group to which the packets will be sent.
+	 */
+	private InetSocketAddress groupAddress;
+	
+	/**
+	 * The time (milliseconds) that a small packet may wait in the batch. 0 disables batching.
+	 */
+	private volatile int batchDelay = DEFAULT_BATCH_DELAY;
+	
+	/**
+	 * The batch that is being filled. Only used while holding the lock of this object.
+	 */
+	private ByteBuffer batch = ByteBuffer.allocate(Batch.MAXIMUM_LENGTH);
+	
+	/**
+	 * The number of packets in the batch, and the position in the batch after the first
+	 * packet (used to send a batch of one packet as a plain datagram).
+	 */
+	private int batchedPackets, firstFrameEnd;
+	
+	/**
+	 * The timer that sends the batch once its first packet waited long enough.
+	 */
+	private ScheduledFuture<?> flushTimer;
+	
 	/**
 	 * Constructs a <code>Sender</code> object with the current application's
 	 * <code>Connection</code>.
@@ -22,19 +72,146 @@ public class Sender {
 	 */
 	public Sender(Connection connection) {
 		this.connection = connection;
+		this.groupAddress = new InetSocketAddress(Connection.group, Connection.port);
 	}
 	
 	/**
-	 * Converts the <code>Packet</code> to a <code>DatagramPacket</code> and tries
-	 * to send it through the sendSocket of the application's <code>Connection</code>.
+	 * Encodes the <code>Packet</code> straight into a buffer from the connection's
+	 * <code>BufferPool</code> and tries to send it through the sendChannel of the 
+	 * application's <code>Connection</code>.
 	 * @param packet the packet to be sent
 	 */
 	public void send(Packet packet) {
+		route(packet);
+		ByteBuffer buffer = connection.bufferPool.acquire();
 		try {
-			connection.getSendSocket().send(packet.getDatagramPacket());
-			
+			packet.writeTo(buffer);
+			buffer.flip();
+			send(buffer);
+		} finally {
+			connection.bufferPool.release(buffer);
+		}
+	}
+	
+	/**
+	 * Sends the kept encoding of the <code>Packet</code> (see <code>Packet.getEncoding()</code>)
+	 * through the sendChannel of the application's <code>Connection</code>, after patching 
+	 * its route.
+	 * @param packet the packet to be sent
+	 */
+	public void sendEncoded(Packet packet) {
+		route(packet);
+		send(packet.getEncoding());
+	}
+	
+	/**
+	 * Chooses the header of the packet, marks this node as the last hop of the packet, and 
+	 * a unicast packet with the next hop towards its receiver, so that only the nodes on
+	 * the best path forward it.
+	 * @param packet the packet to be sent
+	 */
+	private void route(Packet packet) {
+		TransportLayer transportLayer = connection.getTransportLayer();
+		packet.setExtendedHeader(transportLayer.usesExtendedHeader(packet));
+		packet.setLastHopID(transportLayer.session.getID());
+		if (!TransportLayer.isBroadcast(packet.getTypeIdentifier())) {
+			packet.setNextHopID(transportLayer.routingTable.getNextHop(packet.getReceiverID()));
+		}
+	}
+	
+	/**
+	 * Tries to send already encoded packet data through the sendChannel of the 
+	 * application's <code>Connection</code>. Sends the bytes from the buffer's
+	 * position up to its limit. A small packet is added to the batch instead, so it may
+	 * be sent a little later; the buffer can be reused as soon as this method returns. A 
+	 * packet with the original header is never batched, as it is meant for older nodes, 
+	 * which do not read batches.
+	 * @param datagram the encoded packet to be sent
+	 */
+	public void send(ByteBuffer datagram) {
+		int length = datagram.remaining();
+		if (batchDelay <= 0 || length > BATCH_THRESHOLD || length < Packet.HEADER_LENGTH 
+				|| !PacketCodec.isExtended(datagram)) {
+			synchronized (this) {
+				flush();
+				sendDatagram(datagram);
+			}
+			return;
+		}
+		boolean urgent = isUrgent(PacketCodec.getTypeIdentifier(datagram));
+		synchronized (this) {
+			if (batch.remaining() < Batch.FRAME_LENGTH_LENGTH + length) {
+				flush();
+			}
+			if (batchedPackets == 0) {
+				Batch.writeHeader(batch, connection.getTransportLayer().session.getID());
+			}
+			Batch.writeFrame(batch, datagram);
+			batchedPackets++;
+			if (batchedPackets == 1) {
+				firstFrameEnd = batch.position();
+				if (!urgent) {
+					flushTimer = TaskScheduler.getShared().schedule(this::flush, batchDelay);
+				}
+			}
+			if (urgent) {
+				flush();
+			}
+		}
+	}
+	
+	/**
+	 * Sends the waiting batch right away. A batch of a single packet is sent as a plain 
+	 * datagram.
+	 */
+	public synchronized void flush() {
+		if (batchedPackets == 0) {
+			return;
+		}
+		if (flushTimer != null) {
+			flushTimer.cancel(false);
+			flushTimer = null;
+		}
+		if (batchedPackets == 1) {
+			batch.limit(firstFrameEnd);
+			batch.position(Packet.EXTENDED_HEADER_LENGTH + Batch.FRAME_LENGTH_LENGTH);
+		} else {
+			batch.flip();
+			connection.getTransportLayer().session.getStatistics().increaseBatchesSent(batchedPackets);
+		}
+		sendDatagram(batch);
+		batch.clear();
+		batchedPackets = 0;
+	}
+	
+	/**
+	 * Returns whether packets of the given type should be sent without waiting.
+	 * @param typeIdentifier the type of the payload
+	 * @return true for acknowledgements, otherwise false
+	 */
+	private static boolean isUrgent(int typeIdentifier) {
+		return typeIdentifier == Payload.ACKNOWLEDGEMENT || typeIdentifier == Payload.CHUNK_ACKNOWLEDGEMENT
+				|| typeIdentifier == Payload.SELECTIVE_ACKNOWLEDGEMENT;
+	}
+	
+	/**
+	 * Sends a datagram through the sendChannel, which costs one send call.
+	 * @param datagram the datagram to be sent, from its position up to its limit
+	 */
+	private void sendDatagram(ByteBuffer datagram) {
+		try {
+			connection.getSendChannel().send(datagram, groupAddress);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		connection.getTransportLayer().session.getStatistics().increaseDatagramsSent();
+	}
+
+	public int getBatchDelay() {
+		return batchDelay;
+	}
+
+	public void setBatchDelay(int batchDelay) {
+		this.batchDelay = batchDelay;
 	}
 }
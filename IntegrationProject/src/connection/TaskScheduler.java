@@ -0,0 +1,184 @@
+package connection;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A class that runs the background work of the application, so that the number of threads
+ * does not grow with the number of sessions, transfers or packets in flight:
+ * <ul>
+ * <li>periodic and delayed work (pulses, retransmission timers, delayed acknowledgements)
+ * runs as tasks on a small, shared timer pool and never sleeps on a thread of its own;</li>
+ * <li>long-running loops (the <code>Receiver</code> and the <code>PacketPipeline</code>
+ * stages) and blocking one-off work (mapping a file that is sent) run on threads from a
+ * pluggable <code>ThreadFactory</code>.</li>
+ * </ul>
+ * On a Java runtime with virtual threads (Java 21 and later) the factory creates virtual
+ * threads, which are cheap to block; otherwise it creates daemon platform threads.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class TaskScheduler {
+
+	/**
+	 * The number of threads that run the timed tasks of the shared scheduler.
+	 */
+	public static final int TIMER_THREADS = 2;
+
+	/**
+	 * The scheduler that is shared by all connections.
+	 */
+	private static final TaskScheduler SHARED = new TaskScheduler(TIMER_THREADS, virtualThreadFactory());
+
+	/**
+	 * The executor that runs the periodic and delayed tasks.
+	 */
+	private final ScheduledThreadPoolExecutor timer;
+
+	/**
+	 * The factory of the threads for long-running loops and blocking work.
+	 */
+	private final ThreadFactory threadFactory;
+
+	/**
+	 * The executor that runs blocking one-off work on threads from the factory.
+	 */
+	private final ExecutorService worker;
+
+	/**
+	 * True if the threads from the factory are virtual threads.
+	 */
+	private final boolean virtualThreads;
+
+	/**
+	 * Constructs a <code>TaskScheduler</code> object.
+	 * @param timerThreads the number of threads that run the timed tasks
+	 * @param threadFactory the factory of the threads for loops and blocking work, or null
+	 * to use daemon platform threads
+	 */
+	public TaskScheduler(int timerThreads, ThreadFactory threadFactory) {
+		AtomicInteger timerThreadCount = new AtomicInteger();
+		this.timer = new ScheduledThreadPoolExecutor(timerThreads, runnable -> {
+			Thread thread = new Thread(runnable, "TaskScheduler-" + timerThreadCount.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+		// Cancelled timers (acknowledged packets) should not linger in the queue
+		this.timer.setRemoveOnCancelPolicy(true);
+		this.virtualThreads = threadFactory != null;
+		if (threadFactory == null) {
+			AtomicInteger workerThreadCount = new AtomicInteger();
+			threadFactory = runnable -> {
+				Thread thread = new Thread(runnable, "TaskWorker-" + workerThreadCount.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			};
+		}
+		this.threadFactory = threadFactory;
+		this.worker = Executors.newCachedThreadPool(threadFactory);
+	}
+
+	/**
+	 * Returns the scheduler that is shared by all connections.
+	 * @return scheduler the shared <code>TaskScheduler</code>
+	 */
+	public static TaskScheduler getShared() {
+		return SHARED;
+	}
+
+	/**
+	 * Returns a factory of virtual threads, if the Java runtime supports them. Looked up
+	 * reflectively, so the application still runs on older runtimes.
+	 * @return threadFactory a factory of virtual threads, or null if they are not supported
+	 */
+	public static ThreadFactory virtualThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "VirtualTask-", 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Runs a task once after a delay.
+	 * @param task the task to be run; it should return quickly
+	 * @param delay the delay (milliseconds)
+	 * @return future the future with which the task can be cancelled
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delay) {
+		return timer.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs a task repeatedly, with a fixed delay between the end of a run and the start of
+	 * the next. A run that throws an exception ends the repetition, so the task should
+	 * catch what it can handle itself.
+	 * @param task the task to be run; it should return quickly
+	 * @param initialDelay the delay (milliseconds) before the first run
+	 * @param delay the delay (milliseconds) between the runs
+	 * @return future the future with which the repetition can be cancelled
+	 */
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelay, long delay) {
+		return timer.scheduleWithFixedDelay(task, initialDelay, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs blocking work on a thread from the factory, without blocking the caller.
+	 * @param task the work to be done
+	 * @return future the future that is completed with the result of the work, or
+	 * exceptionally with the exception that it threw
+	 */
+	public <T> CompletableFuture<T> supplyAsync(Callable<T> task) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		worker.execute(() -> {
+			try {
+				future.complete(task.call());
+			} catch (Exception e) {
+				future.completeExceptionally(e);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Runs blocking work on a thread from the factory, without blocking the caller.
+	 * @param task the work to be done
+	 */
+	public void execute(Runnable task) {
+		worker.execute(task);
+	}
+
+	/**
+	 * Starts a long-running loop on a thread of its own, created by the factory.
+	 * @param name the name of the thread
+	 * @param loop the loop to be run
+	 * @return thread the started thread
+	 */
+	public Thread startThread(String name, Runnable loop) {
+		Thread thread = threadFactory.newThread(loop);
+		thread.setName(name);
+		thread.start();
+		return thread;
+	}
+
+	public boolean usesVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Returns the number of timed tasks that are waiting to be run.
+	 * @return queuedTasks the number of waiting timed tasks
+	 */
+	public int getQueuedTasks() {
+		return timer.getQueue().size();
+	}
+}
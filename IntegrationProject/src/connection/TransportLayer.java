@@ -1,19 +1,28 @@
 package connection;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.DatagramPacket;
 import java.nio.ByteBuffer;
-import java.nio.file.Files;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.SecretKey;
 
 import encryption.Crypter;
+import encryption.CryptoContext;
 import encryption.DiffieHellman;
 import encryption.EncryptionPair;
+import encryption.FileCipher;
+import encryption.KeyPairPool;
 import model.Message;
 import model.Person;
 import model.Session;
@@ -27,22 +36,34 @@ public class TransportLayer {
 	 * The TTL to which the time-to-live of a person gets reset to when a Pulse from
 	 * that person is received.
 	 */
-	public static final int PULSE_TTL = 5;
+	public static final int PULSE_TTL = 7;
 	
 	/**
-	 * The maximum number of packets that we store/keep track of in the 'seen packets' list.
+	 * The minimum time (milliseconds) between two pulse requests to the same person.
 	 */
-	public static final int MAX_SEEN_PACKETS_SIZE = 300;
+	public static final int PULSE_REQUEST_INTERVAL = 1000;
 	
 	/**
-	 * The interval (milliseconds) at which a retransmission/retransmissions are done.
+	 * The maximum number of packets that we keep track of in the 'seen packets' filter.
 	 */
-	public static final int RETRANSMISSION_INTERVAL = 1000;
+	public static final int MAX_SEEN_PACKETS_SIZE = 32768;
 	
 	/**
 	 * The maximum number of retransmission that we do.
 	 */
 	public static final int MAXIMUM_RETRANSMISSIONS = 5;
+	
+	/**
+	 * The number of chunks above which a received file is streamed to a temporary file
+	 * instead of being reassembled in memory.
+	 */
+	public static final int STREAMING_THRESHOLD = 8;
+	
+	/**
+	 * The time (milliseconds) after which a file transfer of which no chunk was received 
+	 * is forgotten. Incomplete files are discarded.
+	 */
+	public static final int FILE_TRANSFER_TIMEOUT = 60000;
 
 	/**
 	 * The session that this transport layer acts on.
@@ -50,15 +71,85 @@ public class TransportLayer {
 	public Session session;
 	
 	/**
-	 * The packets that we have received. Used to discard packets that we have seen before.
+	 * The (senderID, sequenceNumber) pairs of the packets that we have received. Used to 
+	 * discard packets that we have seen before.
+	 */
+	public DuplicateFilter seenPackets = new DuplicateFilter(MAX_SEEN_PACKETS_SIZE);
+	
+	/**
+	 * The scheduler that retransmits the packets that are not yet acknowledged by 
+	 * the receiver of the packet.
+	 */
+	public RetransmissionScheduler retransmissionScheduler = new RetransmissionScheduler(this);
+	/**
+	 * The files that are being reassembled in memory, mapped by the (senderID, fileID) 
+	 * key of the file.
+	 */
+	public ConcurrentHashMap<Long, ReassemblyBuffer> fileBuffer = new ConcurrentHashMap<>();
+	
+	/**
+	 * The files that are being streamed to a temporary file, mapped by the 
+	 * (senderID, fileID) key of the file.
+	 */
+	public ConcurrentHashMap<Long, IncomingFile> incomingFiles = new ConcurrentHashMap<>();
+	
+	/**
+	 * The files that we are sending, mapped by the (receiverID, fileID) key of the file.
+	 */
+	public ConcurrentHashMap<Long, FileTransfer> outgoingTransfers = new ConcurrentHashMap<>();
+	
+	/**
+	 * The acknowledger that coalesces the acknowledgements of received file chunks into
+	 * selective acknowledgements.
+	 */
+	public SelectiveAcknowledger selectiveAcknowledger = new SelectiveAcknowledger(this);
+	
+	/**
+	 * The suppressor that holds back forwards, and drops those that enough neighbours 
+	 * forwarded already.
+	 */
+	public FloodSuppressor floodSuppressor = new FloodSuppressor(this);
+	
+	/**
+	 * The best known routes to the other nodes, learned from their pulses.
+	 */
+	public RoutingTable routingTable = new RoutingTable();
+	
+	/**
+	 * The times (System.currentTimeMillis()) at which we last asked a person for a full 
+	 * pulse, mapped by the ID of the person.
+	 */
+	private ConcurrentHashMap<Integer, Long> pulseRequestTimes = new ConcurrentHashMap<>();
+	
+	/**
+	 * The private messages that were entered before a key was agreed with their receiver,
+	 * mapped by the ID of the receiver. They are sent once the key is agreed. A list is only
+	 * used while holding the lock of its receiver.
+	 */
+	private ConcurrentHashMap<Integer, ArrayList<Message>> pendingPrivateMessages = new ConcurrentHashMap<>();
+	
+	/**
+	 * The ephemeral key pairs for the handshakes with contact persons, generated in the 
+	 * background.
+	 */
+	public KeyPairPool keyPairPool = new KeyPairPool(KeyPairPool.DEFAULT_SIZE, TaskScheduler.getShared()::execute);
+	
+	/**
+	 * The number of chunks per parity group of the files that we send. 0 disables 
+	 * forward error correction.
+	 */
+	public volatile int fecGroupSize = FileTransfer.DEFAULT_FEC_GROUP_SIZE;
+	
+	/**
+	 * True if the files that we send are encrypted, which is done for every receiver with 
+	 * whom a key has been agreed through a key exchange.
 	 */
-	public ArrayList<Packet> seenPackets = new ArrayList<>();
+	public volatile boolean encryptFiles = true;
 	
 	/**
-	 * The packets that are not yet acknowledged by the receiver of the packet.
+	 * The decoder that rebuilds lost chunks of received files from their parities.
 	 */
-	public ArrayList<Packet> unacknowledgedPackets = new ArrayList<>();
-	public HashMap<Integer, HashMap<Integer, ArrayList<Packet>>> fileBuffer = new HashMap<>();
+	public ParityDecoder parityDecoder;
 
 	/**
 	 * Creates a <code>TransportLayer</code> object that acts on a session.
@@ -66,6 +157,7 @@ public class TransportLayer {
 	 */
 	public TransportLayer(Session session) {
 		this.session = session;
+		this.parityDecoder = new ParityDecoder(session.getStatistics());
 	}
 
 	/**
@@ -75,79 +167,129 @@ public class TransportLayer {
 	 * @return originalDatagramContents the initial packet that was sent by the source node
 	 */
 	public static byte[] shortenDatagramPacket(byte[] datagramArray) {
-		int length = 0;
-		length += Packet.HEADER_LENGTH;
-		
-		// Add the length according to the type of payload
-		int typeIdentifier = getTypeIdentifier(datagramArray);
-		switch (typeIdentifier) {
-		case Payload.PULSE:
-			length += Pulse.PULSE_HEADER_LENGTH;
-			length += getNameLength(getPayload(datagramArray, typeIdentifier).getPayloadData());
-			break;
-		case Payload.GLOBAL_MESSAGE:
-			length += GlobalMessage.GLOBAL_MESSAGE_HEADER_LENGTH;
-			length += getMessageLength(getPayload(datagramArray, typeIdentifier).getPayloadData(), Payload.GLOBAL_MESSAGE);
-			break;
-		case Payload.ACKNOWLEDGEMENT:
-			length += Acknowledgement.ACK_HEADER_LENGTH;
-			break;
-		case Payload.ENCRYPTION_PAIR:
-			length += EncryptionPairExchange.ENCRYPTION_PAIR_HEADER_LENGTH;
-			break;
-		case Payload.ENCRYPTED_MESSAGE:
-			length += EncryptedMessage.ENCRYPTED_MESSAGE_HEADER_LENGTH;
-			length += getCipherLength(getPayload(datagramArray, typeIdentifier).getPayloadData());
-			break;
-		case Payload.FILE_MESSAGE:
-			length += FileMessage.FILE_MESSAGE_HEADER_LENGTH;
-			length += ((FileMessage) getPayload(datagramArray, typeIdentifier)).getMessageLength();
-			break;
-		default: 
-			System.err.println("Unknown type identifier at shortenDatagramContents(): " + typeIdentifier);
-		}
-		
+		int length = PacketCodec.getFrameLength(ByteBuffer.wrap(datagramArray));
 		byte[] originalDatagramContents = Arrays.copyOfRange(datagramArray, 0, length);
 		return originalDatagramContents;
 	}
 
 	/**
-	 * Processes a received <code>DatagramPacket</code>. If the packet has been here 
-	 * before, don't process the packet, otherwise pass it on to the corresponding payload
-	 * handlers according to the packet's type identifier.
-	 * @param datagramPacket the received packet
+	 * Processes a received datagram. If the packet has been here before, don't process 
+	 * the packet, otherwise pass it on to the corresponding payload handlers according 
+	 * to the packet's type identifier. A batch is unpacked, and every packet in it is
+	 * processed this way.
+	 * @param datagram the received datagram, from its position up to its limit
+	 */
+	public void handlePacket(ByteBuffer datagram) {
+		if (Batch.isBatch(datagram)) {
+			for (ByteBuffer frame : Batch.getFrames(datagram)) {
+				handlePacket(frame);
+			}
+			return;
+		}
+		Packet receivedPacket = filterPacket(datagram);
+		if (receivedPacket != null) {
+			processPacket(receivedPacket);
+		}
+	}
+	
+	/**
+	 * Decodes a received datagram, unless the packet is our own or has been here before.
+	 * This is the decode stage of the <code>PacketPipeline</code>, so it runs on a single
+	 * thread. The payload of the packet may keep views on the datagram.
+	 * <p>
+	 * Only the header is read to make these decisions. A new packet that is addressed to 
+	 * someone else, a pulse or a global message is relayed from the received bytes, without
+	 * being decoded. Only the packets that we read ourselves are decoded. A packet that is
+	 * addressed to someone else is only relayed if we are its next hop, or if it is flooded.
+	 * Every copy of a pulse updates the <code>RoutingTable</code>.
+	 * @param datagram the received datagram, from its position up to its limit
+	 * @return receivedPacket the decoded packet, or null if it is to be ignored or was 
+	 * only relayed
 	 */
-	public void handlePacket(DatagramPacket datagramPacket) {
-		byte[] datagramContents = shortenDatagramPacket(datagramPacket.getData());
+	public Packet filterPacket(ByteBuffer datagram) {
+		if (datagram.remaining() < Packet.HEADER_LENGTH 
+				|| datagram.remaining() < PacketCodec.getHeaderLength(datagram)) {
+			session.getStatistics().increasePacketsIgnored();
+			return null;
+		}
+		int senderID = PacketCodec.getSenderID(datagram);
+		int sequenceNumber = PacketCodec.getSequenceNumber(datagram);
+		int typeIdentifier = PacketCodec.getTypeIdentifier(datagram);
 		
-		// Construct a Packet object from the datagramContents	
-		Packet receivedPacket = getPacket(datagramContents);
+		// Don't do anything if: we can't decode this packet OR this packet is from ourself 
+		if (!PacketCodec.isKnownType(typeIdentifier) || session.getID() == senderID) {
+			session.getStatistics().increasePacketsIgnored();
+			return null;
+		}
+		
+		// Learn the route to the sender from every copy of its pulses, except our own forwards
+		// An original header does not tell which node sent this copy, so it teaches no route
+		int lastHopID = PacketCodec.getLastHopID(datagram);
+		if ((typeIdentifier == Payload.PULSE || typeIdentifier == Payload.COMPACT_PULSE) 
+				&& PacketCodec.isExtended(datagram) && lastHopID != session.getID()) {
+			int distance = Packet.DEFAULT_HOP_LIMIT - PacketCodec.getHopLimit(datagram) + 1;
+			routingTable.update(senderID, lastHopID, distance);
+		}
 		
-		// Don't do anything if: we've already seen this packet OR if this packet is from ourself
-		// Else: add the packet to the seenPackets list
-		if (seenPacket(receivedPacket) || session.getID() == receivedPacket.getSenderID()) {
+		// Don't do anything if we've already seen this packet, but count the copy 
+		// Else: the packet is added to the seenPackets filter
+		if (!seenPackets.add(senderID, sequenceNumber)) {
+			floodSuppressor.duplicateHeard(senderID, sequenceNumber);
 			session.getStatistics().increasePacketsIgnored();
-			return;
-		}	
+			return null;
+		}
 		
-		// If the packet has PLAIN_MESSAGE payload contents, handle it
-		// Else, if it's NOT a Pulse AND we are NOT the destination, foward it
+		boolean broadcast = isBroadcast(typeIdentifier);
+		if (!broadcast && PacketCodec.getReceiverID(datagram) != session.getID()) {
+			// Only the next hop on the best path forwards a routed packet
+			int nextHopID = PacketCodec.getNextHopID(datagram);
+			if (nextHopID == Packet.FLOOD || nextHopID == session.getID()) {
+				relayPacket(datagram, senderID, sequenceNumber, typeIdentifier);
+			} else {
+				session.getStatistics().increaseForwardsOffPath();
+			}
+			return null;
+		}
+		if (broadcast) {
+			relayPacket(datagram, senderID, sequenceNumber, typeIdentifier);
+		}
+		
+		// Construct a Packet object from the datagram, in place
+		Packet receivedPacket = PacketCodec.decode(datagram);
+		if (receivedPacket == null) {
+			session.getStatistics().increasePacketsIgnored();
+		}
+		return receivedPacket;
+	}
+	
+	/**
+	 * Passes a new packet on to the corresponding payload handlers according to the 
+	 * packet's type identifier. The packets of different senders may be processed in 
+	 * parallel, but the packets of one sender are processed in order.
+	 * @param receivedPacket the packet that has been received
+	 */
+	public void processPacket(Packet receivedPacket) {
+		// If the packet has GLOBAL_MESSAGE payload contents, handle it
 		// Else process the packet accordingly
+		// filterPacket has relayed the packet already, and only passes on broadcasts and 
+		// packets addressed to us
 		if (receivedPacket.getTypeIdentifier() == Payload.GLOBAL_MESSAGE) {
 			System.out.println("Received global message: ");
 			session.getStatistics().increaseGlobalMessagesReceived();
 			handleGlobalMessage(receivedPacket);
-			forwardPacket(receivedPacket);
-		} else if (receivedPacket.getTypeIdentifier() != Payload.PULSE && 
-				receivedPacket.getReceiverID() != session.getID()) {
-			forwardPacket(receivedPacket);
 		} else {	
 			switch (receivedPacket.getTypeIdentifier()) {
 			case Payload.PULSE:
 				session.getStatistics().increasePulsesReceived();
-				forwardPacket(receivedPacket);
 				handlePulse(receivedPacket);
 				break;
+			case Payload.COMPACT_PULSE:
+				session.getStatistics().increasePulsesReceived();
+				handleCompactPulse(receivedPacket);
+				break;
+			case Payload.PULSE_REQUEST:
+				handlePulseRequest(receivedPacket);
+				break;
 			case Payload.ACKNOWLEDGEMENT:
 				System.out.println("Received acknowledgement: ");
 				session.getStatistics().increaseAcknowlegdementsReceived();
@@ -158,202 +300,364 @@ public class TransportLayer {
 				session.getStatistics().increaseSecurityMessagesReceived();
 				handleEncryptionPair(receivedPacket);
 				break;
+			case Payload.KEY_EXCHANGE:
+				System.out.println("Received key exchange: ");
+				session.getStatistics().increaseSecurityMessagesReceived();
+				handleKeyExchange(receivedPacket);
+				break;
 			case Payload.ENCRYPTED_MESSAGE:
 				System.out.println("Received encrypted message: ");
 				session.getStatistics().increasePrivateMessagesReceived();
 				handleEncryptedMessage(receivedPacket);
 				break;
+			case Payload.ENCRYPTED_MESSAGE_V2:
+				System.out.println("Received encrypted message: ");
+				session.getStatistics().increasePrivateMessagesReceived();
+				handleEncryptedMessageV2(receivedPacket);
+				break;
 			case Payload.FILE_MESSAGE:
 				System.out.println("Received file message: ");
 				handleFileMessage(receivedPacket);
 				break;
+			case Payload.FILE_MANIFEST:
+				System.out.println("Received file manifest: ");
+				handleFileManifest(receivedPacket);
+				break;
+			case Payload.FILE_MESSAGE_V2:
+				System.out.println("Received large file message: ");
+				handleFileMessageV2(receivedPacket);
+				break;
+			case Payload.CHUNK_ACKNOWLEDGEMENT:
+				System.out.println("Received chunk acknowledgement: ");
+				session.getStatistics().increaseAcknowlegdementsReceived();
+				handleChunkAcknowledgement(receivedPacket);
+				break;
+			case Payload.SELECTIVE_ACKNOWLEDGEMENT:
+				System.out.println("Received selective acknowledgement: ");
+				session.getStatistics().increaseAcknowlegdementsReceived();
+				handleSelectiveAcknowledgement(receivedPacket);
+				break;
+			case Payload.FILE_PARITY:
+				System.out.println("Received file parity: ");
+				session.getStatistics().increaseParityPacketsReceived();
+				handleFileParity(receivedPacket);
+				break;
 			default: 
 				System.err.println("Unknown type identifier at handlePacket(): " + receivedPacket.getTypeIdentifier());
 			}
 		}
-		
-		addPacketToSeenPackets(receivedPacket);
 	}
 
 	private void handleFileMessage(Packet receivedPacket) {
 		int senderID = receivedPacket.getSenderID();
 		FileMessage payload = (FileMessage) receivedPacket.getPayload();
-		byte[] packetData = payload.getFileData();
 		int totalPackets = payload.getTotalPackets();
 		int fileID = payload.getFileID();
 		System.out.println("      senderID: " + senderID + "  fileID: " + fileID + "  totalPackets: " + totalPackets);
-		// Send acknowledgement for this packet
-		sendAcknowledgement(receivedPacket, new Message(fileID));
-		if (totalPackets > 1) {
-			// Add user, file and packet to the file buffer
-			if (!fileBuffer.containsKey(senderID)) {
-				System.out.println("      Added user, file and packet to file buffer");
-				HashMap<Integer, ArrayList<Packet>> files = new HashMap<>();
-				ArrayList<Packet> packets = new ArrayList<>();
-				packets.add(receivedPacket);
-				files.put(fileID, packets);
-				fileBuffer.put(senderID, files);
-			// Add file and packet to file buffer
-			} else if (!fileBuffer.get(senderID).containsKey(fileID)) {
-				System.out.println("      Added file and packet to file buffer");
-				HashMap<Integer, ArrayList<Packet>> files = fileBuffer.get(senderID);
-				ArrayList<Packet> packets = new ArrayList<>();
-				packets.add(receivedPacket);
-				files.put(fileID, packets);
-				fileBuffer.put(senderID, files);
-			// Add packet to file buffer
-			} else if (fileBuffer.get(senderID).get(fileID).size() < totalPackets - 1) {
-				HashMap<Integer, ArrayList<Packet>> files = fileBuffer.get(senderID);
-				ArrayList<Packet> packets = files.get(fileID);
-				// Ignore if duplicate packet
-				for (Packet packet : packets) {
-					if (((FileMessage) packet.getPayload()).getSequenceNumber() == payload.getSequenceNumber()) {
-						System.out.println("      Duplicate packet!");
-						return;
-					}
-				}
-				packets.add(receivedPacket);
-				files.put(fileID, packets);
-				fileBuffer.put(senderID, files);
-				System.out.println("      Added packet to file buffer");
-			// Add last packet to file buffer
-			} else if (fileBuffer.get(senderID).get(fileID).size() == totalPackets - 1) {
-				HashMap<Integer, ArrayList<Packet>> files = fileBuffer.get(senderID);
-				ArrayList<Packet> packets = files.get(fileID);
-				// Ignore if duplicate packet
-				for (Packet packet : packets) {
-					if (((FileMessage) packet.getPayload()).getSequenceNumber() == payload.getSequenceNumber()) {
-						System.out.println("      Duplicate packet!");
-						return;
-					}
-				}
-				packets.add(receivedPacket);
-				System.out.println("      Added LAST packet to file buffer");
-				ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1000000);
-				int targetSequence = 0;
-				// Add all byte arrays together in correct order
-				while(targetSequence != totalPackets) {
-					for (Packet packet : packets) {
-						FileMessage packetPayload = (FileMessage) packet.getPayload();
-						if (packetPayload.getSequenceNumber() == targetSequence) {
-							try {
-								System.out.println("      Added " + packetPayload.getSequenceNumber() + " to result");
-								outputStream.write(packetPayload.getFileData());
-								targetSequence++;
-							} catch (IOException e) {
-								e.printStackTrace();
-							}
-						}
-					}
-				}
-				byte[] fileData = outputStream.toByteArray();
-				Message message = new Message(senderID, session.getID(), fileID, FileMessage.FILE_INDICATOR, fileData, false);
-				Person sender = session.getKnownPersons().get(senderID);
-				boolean addMessageToList = true;		
-				// Add it to the chatmessages map
-				if (!session.getChatMessages().containsKey(sender)) {
-					session.getChatMessages().put(sender, new ArrayList<>(Arrays.asList(new Message[]{message})));
-					GUIHandler.messagePutInMap(sender);
-					System.out.println("      Added message to list/GUI");
-				} else {
-					ArrayList<Message> currentMessageList = session.getChatMessages().get(sender);
-					
-					for (Message msg : currentMessageList) {
-						if (msg.getMessageID() == message.getMessageID() && message.getSenderID() == msg.getSenderID()) {
-							addMessageToList = false;
-							break;
-						}
-					}
-					
-					if (addMessageToList) {
-						int insertPosition = currentMessageList.size();
-						int receivedMessageID = message.getMessageID();
-						boolean continues = true;
-						for (int i = currentMessageList.size() - 1; i >= 0 && continues; i--) {
-							if (currentMessageList.get(i).getSenderID() != session.getID()) {
-								if (currentMessageList.get(i).getMessageID() > receivedMessageID) {
-									insertPosition = i;
-								} else {
-									if (insertPosition == currentMessageList.size()) {
-										currentMessageList.add(message);
-										continues = false;
-									} else {
-										currentMessageList.add(insertPosition, message);
-										continues = false;
-									}
-								}
-							}
-						}
-						if (continues) {
-							currentMessageList.add(message);
-						}
-						session.getChatMessages().put(sender, currentMessageList);
-						GUIHandler.messagePutInMap(sender);
-						System.out.println("      Added message to list/GUI");
-					}			
+		// Older senders only read an Acknowledgement per chunk, not a SelectiveAcknowledgement
+		Packet acknowledgedPacket = acknowledgesSelectively(session.getKnownPersons().get(senderID)) ? null : receivedPacket;
+		if (totalPackets > STREAMING_THRESHOLD) {
+			handleStreamedFileMessage(senderID, payload, acknowledgedPacket);
+		} else if (totalPackets > 1) {
+			// Copy the chunk straight to its offset in the reassembly buffer of the file
+			long key = DuplicateFilter.getKey(senderID, fileID);
+			ReassemblyBuffer buffer = fileBuffer.get(key);
+			if (buffer == null) {
+				buffer = new ReassemblyBuffer(totalPackets, FileMessage.CHUNK_SIZE);
+				fileBuffer.put(key, buffer);
+				System.out.println("      Added file to file buffer");
+			}
+			try {
+				handleChunk(senderID, fileID, buffer, payload.getSequenceNumber(), payload.getFileDataBuffer(), acknowledgedPacket);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		} else {
+			// Send acknowledgement for this packet
+			sendAcknowledgement(receivedPacket, new Message(fileID));
+			Message message = new Message(senderID, session.getID(), fileID, FileMessage.FILE_INDICATOR, payload.getFileData(), false);
+			addFileMessageToChat(message);
+		}
+	}
+
+	/**
+	 * Writes a chunk of a large file straight to its offset in a temporary file. Once all
+	 * chunks are written, the file is added to the chat with its sender.
+	 * @param senderID the ID of the sender of the file
+	 * @param payload the received chunk
+	 * @param acknowledgedPacket the received packet if the chunk is acknowledged on its own,
+	 * or null if it is acknowledged selectively
+	 */
+	private void handleStreamedFileMessage(int senderID, FileMessage payload, Packet acknowledgedPacket) {
+		long key = DuplicateFilter.getKey(senderID, payload.getFileID());
+		try {
+			IncomingFile incomingFile = incomingFiles.get(key);
+			if (incomingFile == null) {
+				incomingFile = new IncomingFile(payload.getTotalPackets());
+				incomingFiles.put(key, incomingFile);
+				System.out.println("      Streaming file to " + incomingFile.getFile());
+			}
+			handleChunk(senderID, payload.getFileID(), incomingFile, payload.getSequenceNumber(), payload.getFileDataBuffer(), acknowledgedPacket);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Stores a received chunk of a multi-chunk file, rebuilds a lost chunk of its group from
+	 * a received parity if possible, and acknowledges it (duplicates included). Once all
+	 * chunks are stored, the file is added to the chat with its sender.
+	 * @param senderID the ID of the sender of the file
+	 * @param fileID the ID of the file
+	 * @param store the store in which the file is reassembled
+	 * @param chunkIndex the index of the chunk
+	 * @param chunkData the data of the chunk
+	 * @param acknowledgedPacket the received packet if the chunk is acknowledged on its own,
+	 * or null if it is acknowledged selectively
+	 * @throws IOException if the chunk can not be stored
+	 */
+	private void handleChunk(int senderID, int fileID, ChunkStore store, int chunkIndex, ByteBuffer chunkData,
+			Packet acknowledgedPacket) throws IOException {
+		boolean isNew = store.write(chunkIndex, chunkData);
+		if (isNew && !store.isComplete()) {
+			parityDecoder.recover(DuplicateFilter.getKey(senderID, fileID), store, chunkIndex);
+		}
+		// Chunks are acknowledged, duplicates included
+		if (acknowledgedPacket != null) {
+			sendAcknowledgement(acknowledgedPacket, new Message(fileID));
+		} else {
+			selectiveAcknowledger.chunkReceived(senderID, fileID, store.isComplete());
+		}
+		if (!isNew) {
+			System.out.println("      Duplicate packet!");
+			return;
+		}
+		System.out.println("      Stored chunk " + chunkIndex);
+		if (store.isComplete()) {
+			deliverFile(senderID, fileID, store);
+		}
+	}
+	
+	/**
+	 * Processes a <code>FileParity</code> packet: keeps the parity of the group, and rebuilds
+	 * the chunk of the group that is missing if it is the only one.
+	 * @param receivedPacket the received parity packet
+	 */
+	private void handleFileParity(Packet receivedPacket) {
+		int senderID = receivedPacket.getSenderID();
+		FileParity parity = (FileParity) receivedPacket.getPayload();
+		int fileID = parity.getFileID();
+		long key = DuplicateFilter.getKey(senderID, fileID);
+		ChunkStore store = fileBuffer.get(key);
+		if (store == null) {
+			store = incomingFiles.get(key);
+		}
+		if (store != null && store.isComplete()) {
+			return;
+		}
+		try {
+			if (parityDecoder.addParity(key, parity, store) >= 0) {
+				selectiveAcknowledger.chunkReceived(senderID, fileID, store.isComplete());
+				if (store.isComplete()) {
+					deliverFile(senderID, fileID, store);
 				}
 			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Finishes a completely received file and adds it to the chat with its sender.
+	 * @param senderID the ID of the sender of the file
+	 * @param fileID the ID of the file
+	 * @param store the store in which the file was reassembled
+	 * @throws IOException if the file can not be finished
+	 */
+	private void deliverFile(int senderID, int fileID, ChunkStore store) throws IOException {
+		parityDecoder.remove(DuplicateFilter.getKey(senderID, fileID));
+		Message message;
+		if (store instanceof ReassemblyBuffer) {
+			message = new Message(senderID, session.getID(), fileID, FileMessage.FILE_INDICATOR, 
+					((ReassemblyBuffer) store).finish(), false);
 		} else {
-			Message message = new Message(senderID, session.getID(), fileID, FileMessage.FILE_INDICATOR, packetData, false);
-			Person sender = session.getKnownPersons().get(senderID);
-			boolean addMessageToList = true;		
-			// Add it to the chatmessages map
-			if (!session.getChatMessages().containsKey(sender)) {
-				session.getChatMessages().put(sender, new ArrayList<>(Arrays.asList(new Message[]{message})));
-				System.out.println("      Added message to list/GUI");
-			} else {
-				ArrayList<Message> currentMessageList = session.getChatMessages().get(sender);
-				
-				for (Message msg : currentMessageList) {
-					if (msg.getMessageID() == message.getMessageID() && message.getSenderID() == msg.getSenderID()) {
-						addMessageToList = false;
-						break;
-					}
+			File file = ((IncomingFile) store).finish();
+			message = new Message(senderID, session.getID(), fileID, FileMessage.FILE_INDICATOR, file, false);
+		}
+		System.out.println("      Received file " + fileID);
+		addFileMessageToChat(message);
+	}
+	
+	/**
+	 * Forgets the file transfers of which no chunk was received during the last
+	 * <code>FILE_TRANSFER_TIMEOUT</code> milliseconds, so that incomplete transfers do not
+	 * leak. Incomplete temporary files are deleted; completed ones are kept, since they are 
+	 * shown in the chat.
+	 */
+	public void expireFileTransfers() {
+		long expiryTime = System.currentTimeMillis() - FILE_TRANSFER_TIMEOUT;
+		for (Map.Entry<Long, ReassemblyBuffer> entry : fileBuffer.entrySet()) {
+			if (entry.getValue().getLastUpdated() < expiryTime && fileBuffer.remove(entry.getKey(), entry.getValue())) {
+				parityDecoder.remove(entry.getKey());
+				if (!entry.getValue().isComplete()) {
+					System.out.println("      Expired incomplete file transfer");
+				}
+			}
+		}
+		for (Map.Entry<Long, IncomingFile> entry : incomingFiles.entrySet()) {
+			IncomingFile incomingFile = entry.getValue();
+			if (incomingFile.getLastUpdated() < expiryTime && incomingFiles.remove(entry.getKey(), incomingFile)) {
+				parityDecoder.remove(entry.getKey());
+				if (!incomingFile.isComplete()) {
+					System.out.println("      Expired incomplete file transfer: " + incomingFile.getFile());
+					incomingFile.discard();
 				}
-				
-				if (addMessageToList) {
-					int insertPosition = currentMessageList.size();
-					int receivedMessageID = message.getMessageID();
-					boolean continues = true;
-					for (int i = currentMessageList.size() - 1; i >= 0 && continues; i--) {
-						if (currentMessageList.get(i).getSenderID() != session.getID()) {
-							if (currentMessageList.get(i).getMessageID() > receivedMessageID) {
-								insertPosition = i;
-							} else {
-								if (insertPosition == currentMessageList.size()) {
-									currentMessageList.add(message);
-									continues = false;
-								} else {
-									currentMessageList.add(insertPosition, message);
-									continues = false;
-								}
-							}
-						}
-					}
-					if (continues) {
-						currentMessageList.add(message);
-					}
-					session.getChatMessages().put(sender, currentMessageList);
-					GUIHandler.messagePutInMap(sender);
-					System.out.println("      Added message to list/GUI");
-				}			
 			}
 		}
 	}
-
+	
 	/**
-	 * Checks if the session has seen this packet before.
-	 * @param receivedPacket the received packet
-	 * @return true if this packet has been seen before, otherwise false
+	 * Processes a <code>FileManifest</code> packet: prepares a temporary file for the
+	 * announced large file, and acknowledges the manifest.
+	 * @param receivedPacket the received manifest packet
 	 */
-	private boolean seenPacket(Packet receivedPacket) {
-		for (int i = 0; i < seenPackets.size(); i++) {
-			if (seenPackets.get(i).getSenderID() == receivedPacket.getSenderID() &&
-					seenPackets.get(i).getSequenceNumber() == receivedPacket.getSequenceNumber()) {
-				return true;
+	private void handleFileManifest(Packet receivedPacket) {
+		int senderID = receivedPacket.getSenderID();
+		FileManifest manifest = (FileManifest) receivedPacket.getPayload();
+		int fileID = manifest.getFileID();
+		System.out.println("      senderID: " + senderID + "  fileID: " + fileID + "  file size: " + manifest.getFileSize()
+				+ "  total chunks: " + manifest.getTotalChunks());
+		
+		// Ignore a manifest of which the chunks do not add up to the file size, and one of
+		// a file that is too large: the temporary file is preallocated at its full size
+		long chunkSize = manifest.getChunkSize();
+		if (chunkSize != FileMessage.CHUNK_SIZE || manifest.getFileSize() < 0 
+				|| manifest.getFileSize() > FileManifest.MAXIMUM_FILE_SIZE
+				|| manifest.getTotalChunks() != (manifest.getFileSize() + chunkSize - 1) / chunkSize) {
+			System.out.println("      Invalid manifest!");
+			return;
+		}
+		
+		long key = DuplicateFilter.getKey(senderID, fileID);
+		if (!incomingFiles.containsKey(key)) {
+			try {
+				IncomingFile incomingFile = new IncomingFile(manifest.getTotalChunks(), manifest.getChunkSize(), 
+						manifest.getFileSize(), manifest.getFileName());
+				incomingFiles.put(key, incomingFile);
+				System.out.println("      Streaming file to " + incomingFile.getFile());
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
 			}
 		}
-		return false;
+		sendChunkAcknowledgement(receivedPacket, fileID, ChunkAcknowledgement.MANIFEST_INDEX);
+	}
+	
+	/**
+	 * Processes a <code>FileMessageV2</code> packet: writes the chunk to the temporary file
+	 * of its large file and acknowledges it. Once all chunks are written, the file is added
+	 * to the chat with its sender. Chunks of a file of which no manifest was received are
+	 * ignored. An encrypted chunk is decrypted on the pool of <code>FileCipher</code>, so the 
+	 * chunks of a file are decrypted in parallel as they arrive.
+	 * @param receivedPacket the received chunk packet
+	 */
+	private void handleFileMessageV2(Packet receivedPacket) {
+		int senderID = receivedPacket.getSenderID();
+		FileMessageV2 payload = (FileMessageV2) receivedPacket.getPayload();
+		int fileID = payload.getFileID();
+		IncomingFile incomingFile = incomingFiles.get(DuplicateFilter.getKey(senderID, fileID));
+		if (incomingFile == null) {
+			System.out.println("      No manifest for fileID " + fileID + "!");
+			return;
+		}
+		if ((payload.getFlags() & FileMessageV2.ENCRYPTED_FLAG) != 0) {
+			handleEncryptedChunk(senderID, fileID, incomingFile, payload);
+			return;
+		}
+		try {
+			handleChunk(senderID, fileID, incomingFile, payload.getChunkIndex(), payload.getFileDataBuffer(), null);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Decrypts an encrypted chunk on the pool of <code>FileCipher</code> and then stores it.
+	 * A chunk that can not be decrypted is not acknowledged, so it is sent again later. A
+	 * duplicate is acknowledged without decrypting it again.
+	 * @param senderID the ID of the sender of the file
+	 * @param fileID the ID of the file
+	 * @param incomingFile the file to which the chunk belongs
+	 * @param payload the received chunk
+	 */
+	private void handleEncryptedChunk(int senderID, int fileID, IncomingFile incomingFile, FileMessageV2 payload) {
+		int chunkIndex = payload.getChunkIndex();
+		if (incomingFile.hasChunk(chunkIndex)) {
+			selectiveAcknowledger.chunkReceived(senderID, fileID, incomingFile.isComplete());
+			System.out.println("      Duplicate packet!");
+			return;
+		}
+		Person sender = session.getKnownPersons().get(senderID);
+		CryptoContext context = sender == null ? null : sender.getPrivateChatContext();
+		if (context == null) {
+			System.out.println("      no key agreed with sender yet");
+			return;
+		}
+		// The received bytes are reused once this method returns, so the chunk is copied
+		ByteBuffer ciphertext = ByteBuffer.wrap(payload.getFileData());
+		FileCipher.decryptAsync(context, senderID, fileID, chunkIndex, ciphertext).whenComplete((chunkData, e) -> {
+			if (e != null) {
+				System.out.println("      chunk " + chunkIndex + " could not be decrypted: " + e);
+				return;
+			}
+			try {
+				// Two copies of a chunk may be decrypted at once, but only one is delivered
+				synchronized (incomingFile) {
+					handleChunk(senderID, fileID, incomingFile, chunkIndex, chunkData, null);
+				}
+			} catch (IOException ex) {
+				ex.printStackTrace();
+			}
+		});
+	}
+	
+	/**
+	 * Processes a <code>ChunkAcknowledgement</code> packet: cancels the retransmission of
+	 * the acknowledged manifest or chunk.
+	 * @param receivedPacket the received chunk acknowledgement packet
+	 */
+	private void handleChunkAcknowledgement(Packet receivedPacket) {
+		ChunkAcknowledgement acknowledgement = (ChunkAcknowledgement) receivedPacket.getPayload();
+		int chunkIndex = acknowledgement.getChunkIndex();
+		int typeIdentifier = chunkIndex == ChunkAcknowledgement.MANIFEST_INDEX ? Payload.FILE_MANIFEST : Payload.FILE_MESSAGE_V2;
+		retransmissionScheduler.acknowledge(typeIdentifier, receivedPacket.getSenderID(), acknowledgement.getFileID(), chunkIndex);
+	}
+	
+	/**
+	 * Processes a <code>SelectiveAcknowledgement</code> packet: hands it to the outgoing
+	 * file transfer it belongs to, if that transfer is still running.
+	 * @param receivedPacket the received selective acknowledgement packet
+	 */
+	private void handleSelectiveAcknowledgement(Packet receivedPacket) {
+		SelectiveAcknowledgement acknowledgement = (SelectiveAcknowledgement) receivedPacket.getPayload();
+		FileTransfer transfer = outgoingTransfers.get(DuplicateFilter.getKey(receivedPacket.getSenderID(), acknowledgement.getFileID()));
+		if (transfer != null) {
+			transfer.handleSelectiveAcknowledgement(acknowledgement);
+		}
+	}
+	
+	/**
+	 * Adds a received file message to the chat with its sender, ordered by messageID,
+	 * unless the message is already in the chat.
+	 * @param message the received file message
+	 */
+	private void addFileMessageToChat(Message message) {
+		Person sender = session.getKnownPersons().get(message.getSenderID());
+		// Add it to the chatmessages map
+		if (session.getChatLog(sender).insertOrdered(message, session.getID())) {
+			GUIHandler.messagePutInMap(sender);
+			System.out.println("      Added message to list/GUI");
+		}
 	}
 
 	/**
@@ -381,7 +685,7 @@ public class TransportLayer {
 				person.setLevel(level);
 				String notificationString = person.getName() + " reached level " + level;
 				Message notificationMessage = new Message(-1, -1, -1, notificationString, false);
-				session.getPublicChatMessages().add(notificationMessage);
+				session.getPublicChatMessages().append(notificationMessage);
 				GUIHandler.messagePutInMap();
 				updateGUI = true;
 			}
@@ -394,13 +698,15 @@ public class TransportLayer {
 			
 			
 		} else {
-			person = new Person(payload.getName(), senderID, payload.getLevel());
+			// Another thread may have added the person in the meantime
+			Person newPerson = new Person(payload.getName(), senderID, payload.getLevel());
+			Person existingPerson = session.getKnownPersons().putIfAbsent(senderID, newPerson);
+			person = existingPerson == null ? newPerson : existingPerson;
 			updateGUI = true;
 		}
 		
-		// Set the peron's time to live to PULSE_TTL and put it in the session.knownPersons map
+		// Set the peron's time to live to PULSE_TTL
 		person.setTimeToLive(PULSE_TTL);
-		session.getKnownPersons().put(senderID, person);
 		
 		if (updateGUI) {
 			// Update the GUI
@@ -408,6 +714,99 @@ public class TransportLayer {
 		}
 	}
 
+	/**
+	 * Processes a received <code>Packet</code> object, interpreted with a
+	 * CompactPulse payload. A compact pulse of a known person whose version and name hash
+	 * match only resets the person's TTL. A full pulse adds or updates the person. If the 
+	 * person is unknown or changed and the pulse is not full, a <code>PulseRequest</code> is 
+	 * sent to the person. Updates the GUI when something changed.
+	 * @param receivedPacket the packet that has been received
+	 */
+	public void handleCompactPulse(Packet receivedPacket) {
+		CompactPulse payload = (CompactPulse) receivedPacket.getPayload();
+		int senderID = receivedPacket.getSenderID();
+		Person person = session.getKnownPersons().get(senderID);
+		boolean updateGUI = false;
+		
+		if (payload.isFull()) {
+			if (person == null) {
+				// Another thread may have added the person in the meantime
+				Person newPerson = new Person(payload.getName(), senderID, payload.getLevel());
+				Person existingPerson = session.getKnownPersons().putIfAbsent(senderID, newPerson);
+				person = existingPerson == null ? newPerson : existingPerson;
+				updateGUI = true;
+			} else {
+				if (!payload.getName().equals(person.getName())) {
+					person.setName(payload.getName());
+					updateGUI = true;
+				}
+				int level = payload.getLevel();
+				if (level != person.getLevel()) {
+					person.setLevel(level);
+					String notificationString = person.getName() + " reached level " + level;
+					Message notificationMessage = new Message(-1, -1, -1, notificationString, false);
+					session.getPublicChatMessages().append(notificationMessage);
+					GUIHandler.messagePutInMap();
+					updateGUI = true;
+				}
+			}
+			person.setPulseVersion(payload.getVersion());
+			pulseRequestTimes.remove(senderID);
+		} else if (person == null || person.getPulseVersion() != payload.getVersion()
+				|| CompactPulse.hashName(person.getName()) != payload.getNameHash()) {
+			requestPulse(senderID, person == null ? PulseRequest.UNKNOWN_VERSION : person.getPulseVersion());
+			if (person == null) {
+				return;
+			}
+		}
+		
+		// Only nodes that read extended headers send compact pulses
+		person.setExtendedHeader(true);
+		if (person.getTimeToLive() <= 0) {
+			updateGUI = true;
+		}
+		person.setTimeToLive(PULSE_TTL);
+		
+		if (updateGUI) {
+			PulseHandler pulseHandler = session.getConnection().pulseHandler;
+			if (pulseHandler != null) {
+				pulseHandler.neighbourhoodChanged();
+			}
+			GUIHandler.changedPersonList();
+		}
+	}
+	
+	/**
+	 * Asks a person for a full pulse, at most once per <code>PULSE_REQUEST_INTERVAL</code> 
+	 * milliseconds.
+	 * @param personID the ID of the person
+	 * @param knownVersion the version of the person that we know, or 
+	 * <code>PulseRequest.UNKNOWN_VERSION</code>
+	 */
+	private void requestPulse(int personID, int knownVersion) {
+		long now = System.currentTimeMillis();
+		Long lastRequest = pulseRequestTimes.get(personID);
+		if (lastRequest != null && now - lastRequest < PULSE_REQUEST_INTERVAL) {
+			return;
+		}
+		pulseRequestTimes.put(personID, now);
+		Packet packet = new Packet(session.getID(), personID, session.getNextSeqNumber(), 
+				Payload.PULSE_REQUEST, new PulseRequest(knownVersion));
+		session.getConnection().getSender().send(packet);
+	}
+	
+	/**
+	 * Processes a received <code>Packet</code> object, interpreted with a
+	 * PulseRequest payload, by having the <code>PulseHandler</code> send a full pulse.
+	 * @param receivedPacket the packet that has been received
+	 */
+	public void handlePulseRequest(Packet receivedPacket) {
+		PulseHandler pulseHandler = session.getConnection().pulseHandler;
+		if (pulseHandler != null) {
+			pulseHandler.requestFullPulse();
+		}
+	}
+
 	/**
 	 * Processes a received <code>Packet</code> object interpreted with an
 	 * PlainMessage payload. Creates a <code>Message</code> object from the 
@@ -424,25 +823,13 @@ public class TransportLayer {
 				receivedPacket.getReceiverID(), payload.getMessageID(), payload.getPlainText(), false);		
 		System.out.println("      senderID: " + receivedMessage.getSenderID() + "  messageID: " + payload.getMessageID());
 		System.out.println("      messsage: '" + payload.getPlainText() + "'");
-		boolean addMessageToList = true;		
-		// Add it to the chatmessages map
-		ArrayList<Message> publicChatMessageList = session.getPublicChatMessages();		
-		for (Message message : publicChatMessageList) {
-			if (message.getMessageID() == receivedMessage.getMessageID() && receivedMessage.getSenderID() == message.getSenderID()) {
-				addMessageToList = false;
-				break;
-			}
-		}
-
-		// Update GUI
-		if (addMessageToList) {
+		// Add it to the public chat messages, unless it is a duplicate
+		if (session.getPublicChatMessages().appendIfAbsent(receivedMessage)) {
 			System.out.println("      Added message to list/GUI");
 			// Update experience bar
 			session.getExperienceTracker().receiveGlobalMessage();
 			GUIHandler.updateProgressBar();
 			
-			publicChatMessageList.add(receivedMessage);
-			session.setPublicChatMessages(publicChatMessageList);
 			GUIHandler.messagePutInMap();
 		}		
 	}
@@ -464,57 +851,72 @@ public class TransportLayer {
 		// Get the messageID
 		int messageID = payload.getMessageID();
 		System.out.println("      senderID: " + sender.getID() + "  messageID: " + messageID);
-		// Create EncryptedMessage
-		EncryptionPair ep = session.getKnownPersons().get(sender.getID()).getPrivateChatPair();
-		int secretInteger = session.getSecretKeysForPerson().get(sender.getID());
+		// Decrypt with the key that was derived during the handshake
+		// Without a key, the message is not acknowledged, so it is sent again later
+		CryptoContext context = getPrivateChatContext(sender);
+		if (context == null) {
+			System.out.println("      no key agreed with sender yet");
+			return;
+		}
 		String cipher = payload.getCipher();
 				
-		String decryptedMessage = Crypter.decrypt(Crypter.getKey(ep, secretInteger), cipher);		
-		System.out.println("      message: '" + decryptedMessage + "'"); 
+		String decryptedMessage = Crypter.decrypt(context, cipher);		
+		receivePrivateMessage(receivedPacket, sender, messageID, decryptedMessage);
+	}
+	
+	/**
+	 * Processes a received <code>Packet</code> object interpreted with an
+	 * <code>EncryptedMessageV2</code> payload. Checks and decrypts the ciphertext with 
+	 * AES-GCM straight from the received bytes. A message that fails the check is dropped
+	 * without an acknowledgement.
+	 * @param receivedPacket the packet that has been received
+	 */
+	public void handleEncryptedMessageV2(Packet receivedPacket) {
+		EncryptedMessageV2 payload = (EncryptedMessageV2) receivedPacket.getPayload();
+		Person sender = session.getKnownPersons().get(receivedPacket.getSenderID());
+		if (sender == null) {
+			System.out.println("      unknown sender " + receivedPacket.getSenderID());
+			return;
+		}
+		int messageID = payload.getMessageID();
+		System.out.println("      senderID: " + sender.getID() + "  messageID: " + messageID);
+		
+		// Without a key, the message is not acknowledged, so it is sent again later
+		CryptoContext context = sender.getPrivateChatContext();
+		if (context == null) {
+			System.out.println("      no key agreed with sender yet");
+			return;
+		}
+		ByteBuffer ciphertext = payload.getCiphertext();
+		ByteBuffer plainText = ByteBuffer.allocate(Math.max(0, ciphertext.remaining() - CryptoContext.TAG_LENGTH));
+		try {
+			context.open(ciphertext, plainText, payload.getNonce());
+		} catch (GeneralSecurityException e) {
+			System.out.println("      message could not be decrypted: " + e);
+			return;
+		}
+		String decryptedMessage = new String(plainText.array(), 0, plainText.position(), StandardCharsets.UTF_8);
+		receivePrivateMessage(receivedPacket, sender, messageID, decryptedMessage);
+	}
+	
+	/**
+	 * Adds a decrypted private message to the chat with its sender, updates the GUI and 
+	 * sends an acknowledgement.
+	 * @param receivedPacket the packet that carried the message
+	 * @param sender the person that sent the message
+	 * @param messageID the messageID of the message
+	 * @param decryptedMessage the plain text of the message
+	 */
+	private void receivePrivateMessage(Packet receivedPacket, Person sender, int messageID, String decryptedMessage) {
+		System.out.println("      message: '" + decryptedMessage + "'"); 
 		// Construct a message
 		Message message = new Message(sender.getID(), session.getID(), messageID, decryptedMessage, false);
 		
 		
-		boolean addMessageToList = true;		
-		// Add it to the chatmessages map
-		if (!session.getChatMessages().containsKey(sender)) {
-			session.getChatMessages().put(sender, new ArrayList<>(Arrays.asList(new Message[]{message})));
+		// Add it to the chatmessages map, ordered by messageID
+		boolean addMessageToList = session.getChatLog(sender).insertOrdered(message, session.getID());
+		if (addMessageToList) {
 			System.out.println("      Added message to list/GUI");
-		} else {
-			ArrayList<Message> currentMessageList = session.getChatMessages().get(sender);
-			
-			for (Message msg : currentMessageList) {
-				if (msg.getMessageID() == message.getMessageID() && message.getSenderID() == msg.getSenderID()) {
-					addMessageToList = false;
-					break;
-				}
-			}
-			
-			if (addMessageToList) {
-				int insertPosition = currentMessageList.size();
-				int receivedMessageID = message.getMessageID();
-				boolean continues = true;
-				for (int i = currentMessageList.size() - 1; i >= 0 && continues; i--) {
-					if (currentMessageList.get(i).getSenderID() != session.getID()) {
-						if (currentMessageList.get(i).getMessageID() > receivedMessageID) {
-							insertPosition = i;
-						} else {
-							if (insertPosition == currentMessageList.size()) {
-								currentMessageList.add(message);
-								continues = false;
-							} else {
-								currentMessageList.add(insertPosition, message);
-								continues = false;
-							}
-						}
-					}
-				}
-				if (continues) {
-					currentMessageList.add(message);
-				}
-				session.getChatMessages().put(sender, currentMessageList);
-				System.out.println("      Added message to list/GUI");
-			}			
 		}
 		
 		// Update GUI
@@ -534,8 +936,8 @@ public class TransportLayer {
 	
 	/**
 	 * Processes an <code>Acknowledgment</code> packet. If the message with 
-	 * the messageID of this acknowledgement packet was unacknowledged, remove it from
-	 * the unacknowledgedPacketList.
+	 * the messageID of this acknowledgement packet was unacknowledged, cancel its
+	 * retransmission.
 	 * @param receivedPacket the received acknowledgement packet
 	 */
 	public void handleAcknowledgement(Packet receivedPacket) {
@@ -544,36 +946,17 @@ public class TransportLayer {
 		int fileSequenceNumber = acknowledgement.getFileSequenceNumber();
 		int senderID = receivedPacket.getSenderID();
 		System.out.println("      senderID: " + senderID + "  messageID: " + messageID);
-		synchronized (this.unacknowledgedPackets) {
-			Packet removePacket = null;
-			for (Packet packet : unacknowledgedPackets) {
-				if (packet.getTypeIdentifier() == Payload.GLOBAL_MESSAGE) {
-					if (packet.getReceiverID() == senderID && 
-							((GlobalMessage) packet.getPayload()).getMessageID() == messageID) {
-						removePacket = packet;
-					}
-				} else if (packet.getTypeIdentifier() == Payload.ENCRYPTED_MESSAGE){ 
-					if (packet.getReceiverID() == senderID && 
-							((EncryptedMessage) packet.getPayload()).getMessageID() == messageID) {
-						removePacket = packet;
-					}
-				} else if (packet.getTypeIdentifier() == Payload.FILE_MESSAGE) {
-					if (packet.getReceiverID() == senderID && 
-							((FileMessage) packet.getPayload()).getFileID() == messageID &&
-							((FileMessage) packet.getPayload()).getSequenceNumber() == fileSequenceNumber) {
-						removePacket = packet;
-					}
-				}
-			}
-			// To prevent ConcurrentModificationException
-			if (removePacket != null) {
-				unacknowledgedPackets.remove(removePacket);
-				System.out.println("      packet succesfully removed!");
-			} else {
-				System.out.println("      packet not found!");
-			}
-		}	
-			
+		boolean removed;
+		if (fileSequenceNumber == -1) {
+			removed = retransmissionScheduler.acknowledge(Payload.ENCRYPTED_MESSAGE, senderID, messageID, -1);
+		} else {
+			removed = retransmissionScheduler.acknowledge(Payload.FILE_MESSAGE, senderID, messageID, fileSequenceNumber);
+		}
+		if (removed) {
+			System.out.println("      packet succesfully removed!");
+		} else {
+			System.out.println("      packet not found!");
+		}
 	}
 	
 	/**
@@ -602,48 +985,223 @@ public class TransportLayer {
 				System.out.println("      prime: " + epe.getPrime() + "  generator: " + epe.getGenerator() + "  secretInt: " + secretInteger);
 				EncryptionPair ep = new EncryptionPair(epe.getPrime(), epe.getGenerator(), secretInteger, true);
 				ep.setRemoteHalfKey(epe.getLocalHalfKey());
-				session.getKnownPersons().get(senderID).setPrivateChatPair(ep);				
-				System.out.println("      sending acknowledgement");
-				// Send the same EncryptionPairExchange packet back as acknowledgement
-				EncryptionPairExchange epeResponse = new EncryptionPairExchange(epe.getPrime(), epe.getGenerator(), ep.getLocalHalfKey());
-				session.getStatistics().increaseSecurityMessagesSent();
-				Packet packet = new Packet(session.getID(), senderID, session.getNextSeqNumber(), Payload.ENCRYPTION_PAIR, epeResponse);
-				session.getConnection().getSender().send(packet);
+				Person person = session.getKnownPersons().get(senderID);
+				synchronized (person) {
+					person.setPrivateChatPair(ep);
+					person.setPrivateChatKey(Crypter.deriveKey(ep, secretInteger));
+					System.out.println("      sending acknowledgement");
+					// Send the same EncryptionPairExchange packet back as acknowledgement
+					EncryptionPairExchange epeResponse = new EncryptionPairExchange(epe.getPrime(), epe.getGenerator(), ep.getLocalHalfKey());
+					session.getStatistics().increaseSecurityMessagesSent();
+					Packet packet = new Packet(session.getID(), senderID, session.getNextSeqNumber(), Payload.ENCRYPTION_PAIR, epeResponse);
+					session.getConnection().getSender().send(packet);
+					sendPendingMessages(person);
+				}
 			} else {
 				System.out.println("      received acknowledgement of encryption pair");
 				// Set the PrivateChatPair to be acknowlegded
-				session.getKnownPersons().get(senderID).getPrivateChatPair().setAcknowledged(true);
-				session.getKnownPersons().get(senderID).getPrivateChatPair().setRemoteHalfKey(epe.getLocalHalfKey());
+				Person person = session.getKnownPersons().get(senderID);
+				synchronized (person) {
+					EncryptionPair ep = person.getPrivateChatPair();
+					// Only answers to our own EncryptionPairExchange complete a handshake
+					if (ep == null || ep.usesKeyAgreement() || !session.getSecretKeysForPerson().containsKey(senderID)) {
+						return;
+					}
+					ep.setAcknowledged(true);
+					ep.setRemoteHalfKey(epe.getLocalHalfKey());
+					person.setPrivateChatKey(Crypter.deriveKey(ep, session.getSecretKeysForPerson().get(senderID)));
+					sendPendingMessages(person);
 				}
+			}
 		}
 	}
 
 	/**
-	 * Adds a packet to the seenPacket's list. Removes the oldest
-	 * entry from the list if the list size exceeds <code>MAX_SEEN_PACKETS_SIZE</code>.
+	 * Processes a received <code>Packet</code> object interpreted with a 
+	 * <code>KeyExchange</code> payload. The key agreement is done on a worker thread of 
+	 * the <code>TaskScheduler</code>, so it never holds up the handling of packets.
 	 * @param receivedPacket the packet that has been received
 	 */
-	public void addPacketToSeenPackets(Packet receivedPacket) {
-		if (seenPackets.size() == MAX_SEEN_PACKETS_SIZE) {
-			seenPackets.remove(0);
-		}			
-		seenPackets.add(receivedPacket);
+	public void handleKeyExchange(Packet receivedPacket) {
+		KeyExchange keyExchange = (KeyExchange) receivedPacket.getPayload();
+		Person person = session.getKnownPersons().get(receivedPacket.getSenderID());
+		if (person != null) {
+			TaskScheduler.getShared().execute(() -> completeKeyExchange(person, keyExchange));
+		}
 	}
 	
 	/**
-	 * Forwards a packet to all reachable nodes if this packet has not 
-	 * been seen before.
-	 * @param receivedPacket the packet that has been received
+	 * Completes a handshake with a contact person. If the key exchange answers our
+	 * handshake, the key is agreed from our pair. Otherwise, if the person has the higher
+	 * ID, a new pair is created with a key pair from the <code>KeyPairPool</code> and 
+	 * our public key is sent back. A repeated key exchange gets the same answer.
+	 * @param person the contact person
+	 * @param keyExchange the received key exchange
+	 */
+	private void completeKeyExchange(Person person, KeyExchange keyExchange) {
+		byte[] remotePublicKey = keyExchange.getPublicKey();
+		try {
+			synchronized (person) {
+				EncryptionPair ep = person.getPrivateChatPair();
+				if (keyExchange.isAcknowledgement()) {
+					if (ep == null || !ep.usesKeyAgreement() || Arrays.equals(remotePublicKey, ep.getRemotePublicKey())) {
+						return;
+					}
+					System.out.println("      received acknowledgement of key exchange");
+					SecretKey key = DiffieHellman.agreeKey(ep.getKeyPair().getPrivate(), remotePublicKey);
+					ep.setRemotePublicKey(remotePublicKey);
+					person.setPrivateChatKey(key);
+					ep.setAcknowledged(true);
+					sendPendingMessages(person);
+				} else if (person.getID() >= session.getID()) {
+					if (ep == null || !ep.usesKeyAgreement() || !Arrays.equals(remotePublicKey, ep.getRemotePublicKey())) {
+						ep = new EncryptionPair(keyPairPool.take(), true);
+						ep.setRemotePublicKey(remotePublicKey);
+						SecretKey key = DiffieHellman.agreeKey(ep.getKeyPair().getPrivate(), remotePublicKey);
+						person.setPrivateChatPair(ep);
+						person.setPrivateChatKey(key);
+					}
+					KeyExchange response = new KeyExchange(true, ep.getKeyPair().getPublic().getEncoded());
+					session.getStatistics().increaseSecurityMessagesSent();
+					Packet packet = new Packet(session.getID(), person.getID(), session.getNextSeqNumber(), 
+							Payload.KEY_EXCHANGE, response);
+					session.getConnection().getSender().send(packet);
+					// Sent after our public key, so the person can decrypt them on arrival
+					sendPendingMessages(person);
+				}
+			}
+		} catch (GeneralSecurityException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns the <code>CryptoContext</code> of a contact person. The key is derived once 
+	 * when the handshake finishes. Before that, a pair with a prime and generator gets a 
+	 * provisional key for this message only, as it may still change.
+	 * @param person the contact person
+	 * @return context the <code>CryptoContext</code> for messages to and from the person, 
+	 * or null if no key can be derived yet
+	 */
+	private CryptoContext getPrivateChatContext(Person person) {
+		CryptoContext context = person.getPrivateChatContext();
+		EncryptionPair ep = person.getPrivateChatPair();
+		if (context == null && ep != null && !ep.usesKeyAgreement()) {
+			context = new CryptoContext(Crypter.deriveKey(ep, session.getSecretKeysForPerson().get(person.getID())));
+		}
+		return context;
+	}
+
+	/**
+	 * Returns the <code>CryptoContext</code> with which a file to a contact person is 
+	 * encrypted. Files are only encrypted with a key that was agreed through a key exchange,
+	 * since a receiver that only knows the older handshake can not decrypt them.
+	 * @param receiver the receiver of the file
+	 * @return context the <code>CryptoContext</code> of the receiver, or null if the file is
+	 * sent unencrypted
+	 */
+	private CryptoContext getFileContext(Person receiver) {
+		EncryptionPair ep = receiver.getPrivateChatPair();
+		if (!encryptFiles || ep == null || !ep.usesKeyAgreement()) {
+			return null;
+		}
+		return receiver.getPrivateChatContext();
+	}
+
+	/**
+	 * Forwards a received datagram to all reachable nodes without decoding it, unless its 
+	 * hop limit is reached. The received bytes are sent again with only the hop fields 
+	 * patched, so no <code>Packet</code> or <code>Payload</code> is created and nothing is 
+	 * encoded. A unicast packet is sent towards the next hop from the 
+	 * <code>RoutingTable</code> right away. A packet that is flooded (a broadcast, or a 
+	 * packet for a node without a known route) is held back by the 
+	 * <code>FloodSuppressor</code>, which drops it if enough neighbours forward it first.
+	 * @param datagram the received datagram, from its position up to its limit
+	 * @param senderID the ID of the sender of the datagram
+	 * @param sequenceNumber the sequence number of the datagram
+	 * @param typeIdentifier the type of the payload of the datagram
+	 */
+	public void relayPacket(ByteBuffer datagram, int senderID, int sequenceNumber, int typeIdentifier) {
+		int hopLimit = PacketCodec.getHopLimit(datagram);
+		if (hopLimit <= 0) {
+			session.getStatistics().increaseForwardsHopLimited();
+			return;
+		}
+		PacketCodec.setHopLimit(datagram, hopLimit - 1);
+		int nextHopID = isBroadcast(typeIdentifier) ? Packet.FLOOD 
+				: routingTable.getNextHop(PacketCodec.getReceiverID(datagram));
+		PacketCodec.setHops(datagram, session.getID(), nextHopID);
+		if (nextHopID == Packet.FLOOD) {
+			floodSuppressor.forward(senderID, sequenceNumber, typeIdentifier, datagram);
+		} else {
+			forwardDatagram(datagram.duplicate(), typeIdentifier);
+		}
+	}
+	
+	/**
+	 * Returns whether a packet is to be sent with the extended header. A packet for one 
+	 * person gets it once that person has announced that it reads it. A broadcast only gets
+	 * it while every reachable person has, so older nodes can still read it.
+	 * @param packet the packet to be sent
+	 * @return true for the extended header, false for the original header
+	 */
+	public boolean usesExtendedHeader(Packet packet) {
+		if (isBroadcast(packet.getTypeIdentifier())) {
+			return !hasLegacyNeighbours();
+		}
+		Person receiver = session.getKnownPersons().get(packet.getReceiverID());
+		return receiver != null && receiver.usesExtendedHeader();
+	}
+	
+	/**
+	 * Returns whether the chunks of a multi-chunk <code>FileMessage</code> from a person are
+	 * acknowledged with a <code>SelectiveAcknowledgement</code>. Only persons that announced
+	 * the extended header read those; all others get an <code>Acknowledgement</code> per chunk.
+	 * @param sender the sender of the file, or null if it is not known
+	 * @return true if the chunks are acknowledged selectively, otherwise false
+	 */
+	public static boolean acknowledgesSelectively(Person sender) {
+		return sender != null && sender.usesExtendedHeader();
+	}
+	
+	/**
+	 * Returns whether a reachable person has not announced that it reads the extended header.
+	 * @return true if an older node is reachable, otherwise false
+	 */
+	public boolean hasLegacyNeighbours() {
+		for (Person person : session.getKnownPersons().values()) {
+			if (person.getTimeToLive() > 0 && !person.usesExtendedHeader()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns whether packets of the given type are meant for every node, so that they are
+	 * always flooded.
+	 * @param typeIdentifier the type of the payload
+	 * @return true for pulses and global messages, otherwise false
 	 */
-	public void forwardPacket(Packet receivedPacket) {		
+	public static boolean isBroadcast(int typeIdentifier) {
+		return typeIdentifier == Payload.PULSE || typeIdentifier == Payload.COMPACT_PULSE 
+				|| typeIdentifier == Payload.GLOBAL_MESSAGE;
+	}
+	
+	/**
+	 * Sends a datagram that is forwarded for another node.
+	 * @param datagram the datagram to be sent, from its position up to its limit
+	 * @param typeIdentifier the type of the payload of the datagram
+	 */
+	public void forwardDatagram(ByteBuffer datagram, int typeIdentifier) {
 		// Update experience bar
-		if (receivedPacket.getTypeIdentifier() == Payload.ENCRYPTED_MESSAGE) {
+		if (typeIdentifier == Payload.ENCRYPTED_MESSAGE || typeIdentifier == Payload.ENCRYPTED_MESSAGE_V2) {
 			session.getExperienceTracker().forwardMessage();
 			GUIHandler.updateProgressBar();
 		}
 		
 		session.getStatistics().increasePacketsForwarded();
-		session.getConnection().getSender().send(receivedPacket);
+		session.getConnection().getSender().send(datagram);
 	}
 
 	/**
@@ -672,50 +1230,143 @@ public class TransportLayer {
 		System.out.println("      Sent acknowledgement: senderID: " + senderID + "  receiverID: " + receiverID + "  sequence number: " + sequenceNum);
 	}
 	
+	/**
+	 * Sends a <code>SelectiveAcknowledgement</code> with all chunks of a file that have been
+	 * received so far to the sender of the file.
+	 * @param senderID the ID of the sender of the file
+	 * @param fileID the ID of the file
+	 */
+	public void sendSelectiveAcknowledgement(int senderID, int fileID) {
+		long key = DuplicateFilter.getKey(senderID, fileID);
+		BitSet receivedChunks;
+		ReassemblyBuffer buffer = fileBuffer.get(key);
+		IncomingFile incomingFile = incomingFiles.get(key);
+		if (buffer != null) {
+			receivedChunks = buffer.getReceivedChunks();
+		} else if (incomingFile != null) {
+			receivedChunks = incomingFile.getReceivedChunks();
+		} else {
+			return;
+		}
+		session.getStatistics().increaseAcknowlegdementsSent();
+		SelectiveAcknowledgement acknowledgement = SelectiveAcknowledgement.of(fileID, receivedChunks);
+		Packet packet = new Packet(session.getID(), senderID, session.getNextSeqNumber(), 
+				Payload.SELECTIVE_ACKNOWLEDGEMENT, acknowledgement);
+		session.getConnection().getSender().send(packet);
+	}
+	
+	/**
+	 * Sends a <code>ChunkAcknowledgement</code> to the originator of a manifest or chunk.
+	 * @param receivedPacket the packet that needs acknowledgement
+	 * @param fileID the ID of the file
+	 * @param chunkIndex the index of the chunk, or <code>MANIFEST_INDEX</code>
+	 */
+	public void sendChunkAcknowledgement(Packet receivedPacket, int fileID, int chunkIndex) {
+		session.getStatistics().increaseAcknowlegdementsSent();
+		ChunkAcknowledgement acknowledgement = new ChunkAcknowledgement(fileID, chunkIndex);
+		Packet packet = new Packet(receivedPacket.getReceiverID(), receivedPacket.getSenderID(), 
+				session.getNextSeqNumber(), Payload.CHUNK_ACKNOWLEDGEMENT, acknowledgement);
+		session.getConnection().getSender().send(packet);
+	}
+	
 	/**
 	 * Sends a message that was entered through the GUI to the <code>receiver</code>. Also
-	 * updates the chatMessages map.
+	 * updates the chatMessages map. If no key has been agreed with the receiver yet, the 
+	 * message is shown in the chat right away, and is sent once the key is agreed.
 	 * @param msg the message to be sent
 	 * @param receiver the destination person
 	 */
 	public void sendMessageFromGUI(String msg, Person receiver) {
-		
 		// Update experience bar
 		session.getStatistics().increasePrivateMessagesSent();
 		session.getExperienceTracker().sendMessage();
 		GUIHandler.updateProgressBar();
 		
-		int nextMessageID = receiver.getNextMessageID();
-		
-		// Create EncryptedMessage
-		EncryptionPair ep = session.getKnownPersons().get(receiver.getID()).getPrivateChatPair();
-		int secretInteger = session.getSecretKeysForPerson().get(receiver.getID());
-		String cipher = Crypter.encrypt(Crypter.getKey(ep, secretInteger), msg);
-		EncryptedMessage encryptedMessage = new EncryptedMessage(nextMessageID, ep.getLocalHalfKey(), cipher.length(), cipher);
-		
-		Packet packet = new Packet(session.getID(), receiver.getID(), session.getNextSeqNumber(), Payload.ENCRYPTED_MESSAGE, encryptedMessage);
-		session.getConnection().getSender().send(packet);
-		
-		synchronized (this.unacknowledgedPackets) {
-			unacknowledgedPackets.add(packet);
-			new RetransmissionThread(this, packet);
+		Message message;
+		// The lock keeps the message from overtaking the pending messages as they are sent
+		synchronized (receiver) {
+			message = new Message(session.getID(), receiver.getID(), receiver.getNextMessageID(), msg, true);
+			CryptoContext context = getPrivateChatContext(receiver);
+			if (context == null) {
+				System.out.println("      no key agreed with " + receiver.getName() + " yet, message queued");
+				pendingPrivateMessages.computeIfAbsent(receiver.getID(), k -> new ArrayList<>()).add(message);
+			} else {
+				sendPrivateMessage(receiver, context, message);
+			}
 		}
-		
-		Message message = new Message(session.getID(), receiver.getID(), nextMessageID, msg, true);		
 
 		// Add it to the chatmessages map
-		if (!session.getChatMessages().containsKey(receiver)) {
-			session.getChatMessages().put(receiver, new ArrayList<>(Arrays.asList(new Message[]{message})));
-		} else {
-			ArrayList<Message> currentMessageList = session.getChatMessages().get(receiver);
-			currentMessageList.add(message);
-			session.getChatMessages().put(receiver, currentMessageList);
-		}
+		session.getChatLog(receiver).append(message);
 		
 		// Update the GUI
 		GUIHandler.messagePutInMap(receiver);
 	}
 	
+	/**
+	 * Encrypts a private message and sends it, tracked for retransmission. The message is
+	 * sent with AES-GCM if the key was agreed through a key exchange.
+	 * @param receiver the destination person
+	 * @param context the <code>CryptoContext</code> of the receiver
+	 * @param message the message to be sent
+	 */
+	private void sendPrivateMessage(Person receiver, CryptoContext context, Message message) {
+		EncryptionPair ep = receiver.getPrivateChatPair();
+		Packet packet;
+		if (ep.usesKeyAgreement()) {
+			EncryptedMessageV2 encryptedMessage = encryptMessage(context, message.getMessageID(), message.getText());
+			if (encryptedMessage == null) {
+				return;
+			}
+			packet = new Packet(session.getID(), receiver.getID(), session.getNextSeqNumber(), Payload.ENCRYPTED_MESSAGE_V2, encryptedMessage);
+		} else {
+			String cipher = Crypter.encrypt(context, message.getText());
+			EncryptedMessage encryptedMessage = new EncryptedMessage(message.getMessageID(), ep.getLocalHalfKey(), cipher.length(), cipher);
+			packet = new Packet(session.getID(), receiver.getID(), session.getNextSeqNumber(), Payload.ENCRYPTED_MESSAGE, encryptedMessage);
+		}
+		retransmissionScheduler.schedule(packet);
+		// Keep the encoding, so that retransmissions reuse the same bytes
+		session.getConnection().getSender().sendEncoded(packet);
+	}
+	
+	/**
+	 * Sends the private messages that were entered before a key was agreed with a person.
+	 * Must be called while holding the lock of the person, right after the key is set.
+	 * @param person the contact person
+	 */
+	private void sendPendingMessages(Person person) {
+		CryptoContext context = getPrivateChatContext(person);
+		ArrayList<Message> pending = context == null ? null : pendingPrivateMessages.remove(person.getID());
+		if (pending == null) {
+			return;
+		}
+		System.out.println("      sending " + pending.size() + " queued message(s) to " + person.getName());
+		for (Message message : pending) {
+			sendPrivateMessage(person, context, message);
+		}
+	}
+	
+	/**
+	 * Encrypts a private message with AES-GCM under a fresh nonce, from its UTF-8 bytes 
+	 * straight into the buffer that the payload is sent from.
+	 * @param context the <code>CryptoContext</code> of the receiver
+	 * @param messageID the messageID of the message
+	 * @param msg the plain text of the message
+	 * @return encryptedMessage the payload, or null if the message could not be encrypted
+	 */
+	private EncryptedMessageV2 encryptMessage(CryptoContext context, int messageID, String msg) {
+		ByteBuffer plainText = StandardCharsets.UTF_8.encode(msg);
+		ByteBuffer ciphertext = ByteBuffer.allocate(plainText.remaining() + CryptoContext.TAG_LENGTH);
+		byte[] nonce = context.nextNonce();
+		try {
+			context.seal(plainText, ciphertext, nonce);
+		} catch (GeneralSecurityException e) {
+			e.printStackTrace();
+			return null;
+		}
+		ciphertext.flip();
+		return new EncryptedMessageV2(messageID, nonce, ciphertext);
+	}
+	
 	/**
 	 * Sends a global message that comes straight from the public chat text
 	 * input.
@@ -737,7 +1388,7 @@ public class TransportLayer {
 		session.getConnection().getSender().send(packet);
 		
 		Message message = new Message(session.getID(), 0, nextPublicMessageID, msg, true);
-		session.getPublicChatMessages().add(message);
+		session.getPublicChatMessages().append(message);
 		
 		// Update the GUI
 		GUIHandler.messagePutInMap();
@@ -749,450 +1400,65 @@ public class TransportLayer {
 	 * @return resultPacket the <code>Packet</code> resulting from the datagram contents
 	 */
 	public static Packet getPacket(byte[] datagramContents) {
-		int senderID = getSenderID(datagramContents);
-		int receiverID = getReceiverID(datagramContents);
-		int sequenceNumber = getSequenceNumber(datagramContents);
-		int typeIdentifier = getTypeIdentifier(datagramContents);		
-		Payload payload = getPayload(datagramContents, typeIdentifier);	
-		Packet resultPacket = new Packet(senderID, receiverID, sequenceNumber, typeIdentifier, payload); 
-		return resultPacket;
-	}
-
-	/**
-	 * Converts the datagram (shortened or unshortened) contents into a <code>Payload</code> object, according to the
-	 * type identifier.
-	 * @param datagramContents the packet contents
-	 * @param typeIdentifier the type of the payload
-	 * @return a <code>Payload</code> object, converted from the packet contents
-	 */
-	public static Payload getPayload(byte[] datagramContents, int typeIdentifier) {
-		byte[] payloadData = Arrays.copyOfRange(datagramContents, Packet.HEADER_LENGTH, datagramContents.length);
-		
-		switch (typeIdentifier) {
-		case Payload.PULSE:
-			int nameLength = getNameLength(payloadData);
-			String name = getName(payloadData);
-			int level = getLevel(payloadData);
-			return new Pulse(nameLength, level, name);
-		case Payload.GLOBAL_MESSAGE:
-			String message = getPlainMessage(payloadData);
-			int messageID = getMessageID(payloadData, Payload.GLOBAL_MESSAGE);
-			int messageLength = getMessageLength(payloadData, Payload.GLOBAL_MESSAGE);
-			return new GlobalMessage(messageID, messageLength, message);
-		case Payload.ACKNOWLEDGEMENT:
-			int acknowledgeMessageID = getMessageID(payloadData, Payload.ACKNOWLEDGEMENT);
-			int fileSequenceNumber = getAckFileSequenceNumber(payloadData);
-			return new Acknowledgement(acknowledgeMessageID, fileSequenceNumber);
-		case Payload.ENCRYPTION_PAIR:
-			int prime = getPrime(payloadData);
-			int generator = getGenerator(payloadData);
-			int localHalfKey = getLocalHalfKey(payloadData);
-			return new EncryptionPairExchange(prime, generator, localHalfKey);
-		case Payload.ENCRYPTED_MESSAGE:
-			int MessageID = getMessageID(payloadData, Payload.ENCRYPTED_MESSAGE);
-			int midWayKey = getMidWayKey(payloadData);
-			int cipherLength = getCipherLength(payloadData);
-			String cipher = getCipher(payloadData);
-			return new EncryptedMessage(MessageID, midWayKey, cipherLength, cipher);
-		case Payload.FILE_MESSAGE:
-			int fileID = getMessageID(payloadData, Payload.FILE_MESSAGE);
-			int fileMessageLength = getMessageLength(payloadData, Payload.FILE_MESSAGE);
-			int totalPackets = getTotalPackets(payloadData);
-			int sequenceNumber = getFileSequenceNumber(payloadData);
-			byte[] fileData = getFileData(payloadData);
-			return new FileMessage(fileID, fileMessageLength, totalPackets, sequenceNumber, fileData);
-		default: 
-			System.err.println("Unknown type identifier at getPayload(): " + typeIdentifier);
-			return null;
-		}	
-	}
-
-	private static int getAckFileSequenceNumber(byte[] payloadData) {
-		int start = Acknowledgement.ACK_MESSAGE_ID_LENGHT;
-		int end = start + Acknowledgement.FILE_SEQUENCE_NUMBER;
-		
-		byte[] ackFileSequenceArray = Arrays.copyOfRange(payloadData, start, end);
-		ByteBuffer ackFileSequenceBytebuffer = ByteBuffer.wrap(ackFileSequenceArray);
-		
-		int ackFileSequency = ackFileSequenceBytebuffer.get();
-		
-		return ackFileSequency;
-	}
-
-	private static byte[] getFileData(byte[] payloadData) {
-		int start = FileMessage.FILE_ID_LENGTH + FileMessage.MESSAGE_LENGTH_LENGTH + 
-				FileMessage.TOTAL_PACKETS_LENGTH + FileMessage.SEQUENCE_NUMBER_LENGTH;
-		int end = start + getMessageLength(payloadData, Payload.FILE_MESSAGE);
-		
-		byte[] fileData = Arrays.copyOfRange(payloadData, start, end);
-		
-		return fileData;
-	}
-
-	private static int getFileSequenceNumber(byte[] payloadData) {
-		int start = FileMessage.FILE_ID_LENGTH + FileMessage.MESSAGE_LENGTH_LENGTH + FileMessage.TOTAL_PACKETS_LENGTH;
-		int end = start + FileMessage.SEQUENCE_NUMBER_LENGTH;
-		
-		byte[] fileSequenceArray = Arrays.copyOfRange(payloadData, start, end);
-		ByteBuffer fileSequenceBytebuffer = ByteBuffer.wrap(fileSequenceArray);
-		
-		int fileSequency = fileSequenceBytebuffer.get();
-		
-		return fileSequency;
-	}
-
-	private static int getTotalPackets(byte[] payloadData) {
-		int start = FileMessage.FILE_ID_LENGTH + FileMessage.MESSAGE_LENGTH_LENGTH;
-		int end = start + FileMessage.TOTAL_PACKETS_LENGTH;
-		
-		byte[] totalPacketsArray = Arrays.copyOfRange(payloadData, start, end);
-		ByteBuffer totalPacketsBytebuffer = ByteBuffer.wrap(totalPacketsArray);
-		
-		int totalPackets = totalPacketsBytebuffer.get();
-		
-		return totalPackets;
+		return PacketCodec.decode(ByteBuffer.wrap(datagramContents));
 	}
 
 	/**
-	 * Returns the senderID of the source.
-	 * @param datagramContents the contents of the packet
-	 * @return senderID the senderID of the source
-	 */
-	public static int getSenderID(byte[] datagramContents) {
-		int start = 0;
-		int end = start + Packet.SENDER_LENGTH;
-		
-		byte[] senderIdArray = Arrays.copyOfRange(datagramContents, start, end);
-		ByteBuffer senderIdByteBuffer = ByteBuffer.wrap(senderIdArray);
-		
-		int senderID = senderIdByteBuffer.getInt();
-		return senderID;
-	}
-
-	/**
-	 * Returns the receiverID of the destination node.
-	 * @param datagramContents the contents of the packet
-	 * @return receiverID the receiverID of the destination node
-	 */
-	public static int getReceiverID(byte[] datagramContents) {
-		int start = Packet.RECEIVER_LENGTH;
-		int end = start + Packet.RECEIVER_LENGTH;
-		
-		byte[] receiverIdArray = Arrays.copyOfRange(datagramContents, start, end);
-		ByteBuffer receiverIdByteBuffer = ByteBuffer.wrap(receiverIdArray);
-		
-		int receiverID = receiverIdByteBuffer.getInt();
-		return receiverID;
-	}
-
-	/**
-	 * Returns the sequence number of the packet.
-	 * @param datagramContents the packet contents
-	 * @return seqNum the sequence number of the packet
-	 */
-	public static int getSequenceNumber(byte[] datagramContents) {
-		int start = Packet.SENDER_LENGTH + Packet.RECEIVER_LENGTH;
-		int end = start + Packet.SEQUENCE_NUM_LENGTH;
-		byte[] seqNumArray = Arrays.copyOfRange(datagramContents, start, end);
-		ByteBuffer seqNumByteBuffer = ByteBuffer.wrap(seqNumArray);
-		
-		int seqNum = seqNumByteBuffer.getShort();
-		return seqNum;
-	}
-
-	/**
-	 * Returns the type identifier of the packet, representing the payload type.
-	 * @param datagramContents the packet contents
-	 * @return typeIdentifier the type identifier of the packet
-	 */
-	public static int getTypeIdentifier(byte[] datagramContents) {
-		int start = Packet.SENDER_LENGTH + Packet.RECEIVER_LENGTH + Packet.SEQUENCE_NUM_LENGTH;
-		int end = start + Packet.TYPE_LENGTH;
-		
-		byte[] typeIdentifierArray = Arrays.copyOfRange(datagramContents, start, end);
-		ByteBuffer typeIdentifierBuffer = ByteBuffer.wrap(typeIdentifierArray);
-		
-		int typeIdentifier = typeIdentifierBuffer.get();
-		return typeIdentifier;
-	}
-
-	/**
-	 * Returns the name of the source from the <code>Pulse</code> payload data.
-	 * @param pulsePayloadData the payload data of a pulse packet
-	 * @return name the name of the source
-	 */
-	public static String getName(byte[] pulsePayloadData) {
-		int length = getNameLength(pulsePayloadData);
-		int start = Pulse.NAME_LENGTH_LENGTH + Pulse.LEVEL_LENGTH;
-		int end = start + length;
-		
-		byte[] nameArray = Arrays.copyOfRange(pulsePayloadData, start, end);
-		
-		String name = "";
-		try {
-			name = new String(nameArray, "UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
-		}
-		
-		return name;
-	}
-	
-	/**
-	 * Returns the level of the sender from the sender of the <code>Pulse</code>.
-	 * @param pulsePayloadData the pulse data of the packet
-	 * @return
-	 */
-	public static int getLevel(byte[] pulsePayloadData) {
-		int position = Pulse.NAME_LENGTH_LENGTH;
-		
-		return pulsePayloadData[position];
-	}
-
-	/**
-	 * Returns the name length from the <code>Pulse</code> payload data.
-	 * @param pulsePayloadData the payload data of a pulse packet
-	 * @return pulsePayloadData[0] the length of the name
-	 */
-	public static int getNameLength(byte[] pulsePayloadData) {
-		return pulsePayloadData[0];	
-	}
-
-	/**
-	 * Returns the (encrypted) message from the <code>EncryptedMessage</code> payload data.
-	 * @param payloadData the payload data of the <code>EncryptedMessage</code> packet
-	 * @return message the (encrypted) message of an encrypted message packet
-	 */
-	public static String getPlainMessage(byte[] payloadData) {
-		int length = getMessageLength(payloadData, Payload.GLOBAL_MESSAGE);
-		int start = GlobalMessage.MESSAGE_ID_LENGTH + GlobalMessage.MESSAGE_LENGTH_LENGTH;
-		int end = start + length;
-		byte[] messageArray = Arrays.copyOfRange(payloadData, start, end);
-		
-		String message = "";
-		try {
-			message = new String(messageArray, "UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
-		}
-		
-		return message;
-	}
-	
-	/**
-	 * Returns the messageID of an encrypted message packet.
-	 * @param payloadData the payload data of the packet
-	 * @return messageID the messageID of the message
-	 */
-	public static int getMessageID(byte[] payloadData, int typeIdentifier) {
-		int start = 0, end = 0;
-		
-		if (typeIdentifier == Payload.GLOBAL_MESSAGE) {
-			start = 0;
-			end = start + GlobalMessage.MESSAGE_ID_LENGTH;
-		} else if (typeIdentifier == Payload.ENCRYPTED_MESSAGE) {
-			start = 0;
-			end = start + EncryptedMessage.MESSAGE_ID_LENGTH;
-		} else if (typeIdentifier == Payload.ACKNOWLEDGEMENT) {
-			start = 0;
-			end = start + Acknowledgement.ACK_MESSAGE_ID_LENGHT;
-		} else if (typeIdentifier == Payload.FILE_MESSAGE) {
-			start = 0;
-			end = start + FileMessage.FILE_ID_LENGTH;
-		}
-		
-		byte[] messageIdArray = Arrays.copyOfRange(payloadData, start, end);
-		ByteBuffer messageIdByteBuffer = ByteBuffer.wrap(messageIdArray);
-		
-		int messageID = messageIdByteBuffer.getShort();
-		return messageID;
-	}
-
-	/**
-	 * Returns the message length of the plain message and the file message.
-	 * @param payloadData the payload data of the packet
-	 * @param payloadType the payload type of the payload
-	 * @return messageLength the length of the message.
-	 */
-	public static int getMessageLength(byte[] payloadData, int payloadType) {
-		int start = 0;
-		int end = 0;
-		switch (payloadType) {
-			case Payload.GLOBAL_MESSAGE:
-				start = GlobalMessage.MESSAGE_ID_LENGTH;
-				end = start + GlobalMessage.MESSAGE_LENGTH_LENGTH;
-				
-				byte[] encryptedMessageLengthArray = Arrays.copyOfRange(payloadData, start, end);
-				ByteBuffer encryptedMessageLengthBytebuffer = ByteBuffer.wrap(encryptedMessageLengthArray);
-				
-				int messageLength = encryptedMessageLengthBytebuffer.getShort();
-				
-				return messageLength;
-			case Payload.FILE_MESSAGE:
-				start = FileMessage.FILE_ID_LENGTH;
-				end = start + FileMessage.MESSAGE_LENGTH_LENGTH;
-				
-				byte[] fileMessageLengthArray = Arrays.copyOfRange(payloadData, start, end);
-				ByteBuffer fileMessageLengthBytebuffer = ByteBuffer.wrap(fileMessageLengthArray);
-				
-				int fileMessageLength = fileMessageLengthBytebuffer.getInt();
-				
-				return fileMessageLength;
-			default: return 0;
-		}
-	}
-
-	/**
-	 * Returns the cipher length of the cipher in the <code>EncryptedMessage</code>.
-	 * @param payloadData the payload data (<code>EncryptedMessage</code>)
-	 * @return cipherLength the length of the cipher
-	 */
-	private static int getCipherLength(byte[] payloadData) {
-		int start = EncryptedMessage.MESSAGE_ID_LENGTH + EncryptedMessage.MID_WAY_KEY_LENGTH;
-		int end = start + EncryptedMessage.CIPHER_LENGTH_LENGTH;
-		
-		byte[] cipherLengthArray = Arrays.copyOfRange(payloadData, start, end);	
-		ByteBuffer cipherLengthBytebuffer = ByteBuffer.wrap(cipherLengthArray);
-		
-		int cipherLength = cipherLengthBytebuffer.getShort();
-		return cipherLength;
-	}
-
-	/**
-	 * Extracts and returns the cipher from the payload (<code>EncryptedMessage</code>).
-	 * @param payloadData the payload data (<code>EncryptedMessage</code>)
-	 * @return cipher the cipher of the message
-	 */
-	private static String getCipher(byte[] payloadData) {
-		int length = getCipherLength(payloadData);
-		int start = EncryptedMessage.MESSAGE_ID_LENGTH + EncryptedMessage.MID_WAY_KEY_LENGTH + EncryptedMessage.CIPHER_LENGTH_LENGTH;
-		int end = start + length;
-		byte[] cipherArray = Arrays.copyOfRange(payloadData, start, end);
-		
-		String cipher = "";
-		try {
-			cipher = new String(cipherArray, "UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
-		}
-		
-		return cipher;
-	}
-
-	/**
-	 * Extracts and returns the midWayKey from the payload 
-	 * (<code>EncryptedPairExchange</code>).
-	 * @param payloadData the payload data (<code>EncryptedPairExchange</code>)
-	 * @return
-	 */
-	private static int getMidWayKey(byte[] payloadData) {
-		int start = EncryptedMessage.MESSAGE_ID_LENGTH;
-		int end = start + EncryptedMessage.MID_WAY_KEY_LENGTH;
-		
-		byte[] midWayKeyArray = Arrays.copyOfRange(payloadData, start, end);	
-		ByteBuffer midWayKeyBytebuffer = ByteBuffer.wrap(midWayKeyArray);
-		
-		int midWayKey = midWayKeyBytebuffer.get();
-		return midWayKey;
-	}
-
-	/**
-	 * Extract and return the prime from the payload (<code>EncryptedPairExchange</code>).
-	 * @param payloadData the payload data (<code>EncryptedPairExchange</code>)
-	 * @return prime the prime within the payload
-	 */
-	private static int getPrime(byte[] payloadData) {
-		int start = 0;
-		int end = start + EncryptionPairExchange.PRIME_LENGTH;
-		
-		byte[] primeArray = Arrays.copyOfRange(payloadData, start, end);	
-		ByteBuffer primeBytebuffer = ByteBuffer.wrap(primeArray);
-		
-		int prime = primeBytebuffer.get();
-		return prime;
-	}
-
-	/**
-	 * Extract and return the generator from the payload (<code>EncryptedPairExchange</code>).
-	 * @param payloadData the payload data (<code>EncryptedPairExchange</code>)
-	 * @return generator the generator within the payload
-	 */
-	private static int getGenerator(byte[] payloadData) {
-		int start = EncryptionPairExchange.PRIME_LENGTH;
-		int end = start + EncryptionPairExchange.GENERATOR_LENGTH;
-		
-		byte[] generatorArray = Arrays.copyOfRange(payloadData, start, end);	
-		ByteBuffer generatorBytebuffer = ByteBuffer.wrap(generatorArray);
-		
-		int generator = generatorBytebuffer.get();
-		return generator;
-	}
-	
-	/**
-	 * Extract and return the localHalfKey from the payload 
-	 * (<code>EncryptedPairExchange</code>).
-	 * @param payloadData the payload data (<code>EncryptedPairExchange</code>)
-	 * @return generator the generator within the payload
+	 * Sends a file to the <code>receiver</code>. The file is mapped into memory and sent 
+	 * asynchronously by a <code>FileTransfer</code>, which reads the chunks on demand, so
+	 * this method returns as soon as the first window of chunks is sent. The chunks are 
+	 * encrypted if a key has been agreed with the receiver. Also updates the chatMessages map.
+	 * @param file the file to be sent
+	 * @param receiver the destination person
+	 * @param listener the listener to be notified of the progress of the transfer, or null
+	 * @return transfer the <code>FileTransfer</code> that sends the file
+	 * @throws IOException if the file can not be read, is empty or is larger than 
+	 * <code>FileManifest.MAXIMUM_FILE_SIZE</code>
 	 */
-	private static int getLocalHalfKey(byte[] payloadData) {
-		int start = EncryptionPairExchange.PRIME_LENGTH + EncryptionPairExchange.GENERATOR_LENGTH;;
-		int end = start + EncryptionPairExchange.HALF_KEY_LENGTH;
-		
-		byte[] halfKeyArray = Arrays.copyOfRange(payloadData, start, end);	
-		ByteBuffer halfKeyBytebuffer = ByteBuffer.wrap(halfKeyArray);
-		
-		int halfKey = halfKeyBytebuffer.get();
-		return halfKey;
-	}
-
-	public void sendFile(File file, Person receiver) throws IOException {
-		// file gets converted to a byte array
-		byte[] fileData = Files.readAllBytes(file.toPath());
-		ArrayList<byte[]> result = new ArrayList<byte[]>();
-		int start = 0;
-		int chunksize = 22500;
-		// split array up in multiple arrays of 22.5 KB
-		while (start < fileData.length) {
-			int end = Math.min(fileData.length, start + chunksize);
-		    result.add(Arrays.copyOfRange(fileData, start, end));
-		    start += chunksize;
-		}
-		int nextFileID = receiver.getNextFileID();
-		int seqNum = 0;
-		// create packets for every array and send them into the network
-		for (byte[] dataSegment : result) {
-			FileMessage payload = new FileMessage(nextFileID, dataSegment.length, result.size(), seqNum, dataSegment);
-			Packet packet = new Packet(session.getID(), receiver.getID(), session.getNextSeqNumber(), Payload.FILE_MESSAGE, payload);
-			System.out.println("      receiverID: " + receiver.getID() + "  file size: " + fileData.length + " bytes");
-			session.getConnection().getSender().send(packet);
-			System.out.println("      sequence number: " + seqNum + "  total packets: " + result.size());
-			// start a retransmission thread and handle acknowledgements
-			synchronized (this.unacknowledgedPackets) {
-				unacknowledgedPackets.add(packet);
-				new RetransmissionThread(this, packet);
+	public FileTransfer sendFile(File file, Person receiver, FileTransferListener listener) throws IOException {
+		// The mapping stays valid after the channel is closed
+		MappedByteBuffer fileData;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			// A file without chunks would never be acknowledged, nor delivered
+			if (channel.size() == 0) {
+				throw new IOException("Empty files can not be sent: " + file);
 			}
-			seqNum++;
-			try {
-				// interval between sending file segments
-				Thread.sleep(200);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+			// Receivers do not accept larger files
+			if (channel.size() > FileManifest.MAXIMUM_FILE_SIZE) {
+				throw new IOException("Files larger than " + FileManifest.MAXIMUM_FILE_SIZE + " bytes can not be sent: " + file);
 			}
+			fileData = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
 		}
+		int nextFileID = receiver.getNextFileID();
+		System.out.println("      receiverID: " + receiver.getID() + "  file size: " + fileData.capacity() + " bytes");
+		
+		FileTransfer transfer = new FileTransfer(this, receiver, nextFileID, file.getName(), fileData, listener,
+				getFileContext(receiver));
+		transfer.start();
+		
 		// create a message to show in own chat
-		Message message = new Message(session.getID(), receiver.getID(), nextFileID, FileMessage.FILE_INDICATOR, fileData, true);		
+		Message message = new Message(session.getID(), receiver.getID(), nextFileID, FileMessage.FILE_INDICATOR, file, true);		
 
 		// Add it to the chatmessages map
-		if (!session.getChatMessages().containsKey(receiver)) {
-			session.getChatMessages().put(receiver, new ArrayList<>(Arrays.asList(new Message[]{message})));
-		} else {
-			ArrayList<Message> currentMessageList = session.getChatMessages().get(receiver);
-			currentMessageList.add(message);
-			session.getChatMessages().put(receiver, currentMessageList);
-		}
+		session.getChatLog(receiver).append(message);
 		// Update the GUI
 		GUIHandler.messagePutInMap(receiver);
 		System.out.println("      Added message to list/GUI");
+		return transfer;
+	}
+	
+	/**
+	 * Sends a file to the <code>receiver</code> like <code>sendFile</code>, but maps the 
+	 * file and sends the first window of chunks on a thread of the shared 
+	 * <code>TaskScheduler</code>, so the caller (such as the GUI) never waits for the disk.
+	 * @param file the file to be sent
+	 * @param receiver the destination person
+	 * @param listener the listener to be notified of the progress of the transfer, or null
+	 * @return future the future that is completed with the <code>FileTransfer</code> that
+	 * sends the file, or exceptionally if the file can not be read
+	 */
+	public CompletableFuture<FileTransfer> sendFileAsync(File file, Person receiver, FileTransferListener listener) {
+		return TaskScheduler.getShared().supplyAsync(() -> sendFile(file, receiver, listener));
 	}
 
 }
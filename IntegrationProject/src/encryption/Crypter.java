@@ -1,9 +1,9 @@
 package encryption;
 
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 
-import javax.crypto.Cipher;
-import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
 import org.apache.commons.codec.binary.Base64;
@@ -21,6 +21,11 @@ public class Crypter {
 	 */
 	public static final String INIT_VECTOR = "0123456789123456";
 	
+	/**
+	 * The bytes of <code>INIT_VECTOR</code>.
+	 */
+	private static final byte[] INIT_VECTOR_BYTES = INIT_VECTOR.getBytes(StandardCharsets.UTF_8);
+	
 	/**
 	 * Encrypts a String using AES/CBC/PKCS5PADDING with the given key String.
 	 * @param key the key to be used in the encryption process
@@ -28,14 +33,19 @@ public class Crypter {
 	 * @return cipherString the cipher that resulted from the encryption process
 	 */
 	public static String encrypt(String key, String value) {
+		return encrypt(new CryptoContext(key), value);
+	}
+	
+	/**
+	 * Encrypts a String using AES/CBC/PKCS5PADDING with the key of the given context, 
+	 * reusing its ciphers.
+	 * @param context the <code>CryptoContext</code> of the contact person
+	 * @param value the String to be encrypted
+	 * @return cipherString the cipher that resulted from the encryption process
+	 */
+	public static String encrypt(CryptoContext context, String value) {
         try {
-            IvParameterSpec iv = new IvParameterSpec(INIT_VECTOR.getBytes("UTF-8"));
-            SecretKeySpec skeySpec = new SecretKeySpec(key.getBytes("UTF-8"), "AES");
-
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-            cipher.init(Cipher.ENCRYPT_MODE, skeySpec, iv);
-
-            byte[] encrypted = cipher.doFinal(value.getBytes());
+            byte[] encrypted = context.encrypt(value.getBytes(), INIT_VECTOR_BYTES);
             String cipherString = Base64.encodeBase64String(encrypted);
 
             return cipherString;
@@ -53,14 +63,19 @@ public class Crypter {
 	 * @return originalString the original plain text of the message
 	 */
     public static String decrypt(String key, String encrypted) {
+    	return decrypt(new CryptoContext(key), encrypted);
+    }
+    
+	/**
+	 * Decrypts a String (encrypted value) using AES/CBC/PKCS5PADDING with
+	 * the key of the given context, reusing its ciphers.
+	 * @param context the <code>CryptoContext</code> of the contact person
+	 * @param encryptedthe String to be decrypted
+	 * @return originalString the original plain text of the message
+	 */
+    public static String decrypt(CryptoContext context, String encrypted) {
         try {
-            IvParameterSpec iv = new IvParameterSpec(INIT_VECTOR.getBytes("UTF-8"));
-            SecretKeySpec skeySpec = new SecretKeySpec(key.getBytes("UTF-8"), "AES");
-
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-            cipher.init(Cipher.DECRYPT_MODE, skeySpec, iv);
-
-            byte[] original = cipher.doFinal(Base64.decodeBase64(encrypted));
+            byte[] original = context.decrypt(Base64.decodeBase64(encrypted), INIT_VECTOR_BYTES);
 
             String originalString = new String(original);
             
@@ -72,6 +87,18 @@ public class Crypter {
         return encrypted;
     }
     
+    /**
+     * Derives the AES key for a contact person from the person's <code>EncryptionPair</code>
+     * and the corresponding secretInteger. Only needed once per handshake: the result does 
+     * not change until the pair is replaced.
+     * @param ep the <code>EncryptionPair</code> of the contact person
+     * @param secretInteger the secretInteger linked to the contact person
+     * @return secretKey the AES key to be used with the contact person
+     */
+    public static SecretKey deriveKey(EncryptionPair ep, int secretInteger) {
+    	return new SecretKeySpec(getKey(ep, secretInteger).getBytes(StandardCharsets.UTF_8), "AES");
+    }
+    
     /**
      * Gets the encryption/decryption key, specific for the contact person's 
      * <code>EncryptionPair</code> and the corresponding secretInteger. 
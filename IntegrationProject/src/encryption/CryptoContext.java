@@ -0,0 +1,231 @@
+package encryption;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A class that keeps initialized <code>Cipher</code> objects for one key, so that messages
+ * to and from a contact person are not encrypted and decrypted with a freshly looked up
+ * and initialized <code>Cipher</code> each time. A <code>Cipher</code> is not thread-safe,
+ * so every thread gets a cipher of its own for each direction.
+ * <p>
+ * After <code>doFinal</code>, a <code>Cipher</code> returns to the state it was initialized
+ * in, so a CBC cipher is only initialized again when a message uses a different IV. An
+ * AES-GCM cipher is initialized for every message, with the nonce of that message.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class CryptoContext {
+
+	/**
+	 * The transformation that is used for encryption and decryption.
+	 */
+	public static final String TRANSFORMATION = "AES/CBC/PKCS5PADDING";
+
+	/**
+	 * The transformation that is used for authenticated encryption and decryption.
+	 */
+	public static final String AEAD_TRANSFORMATION = "AES/GCM/NoPadding";
+
+	/**
+	 * The length (bytes) of an AES-GCM nonce.
+	 */
+	public static final int NONCE_LENGTH = 12;
+
+	/**
+	 * The length (bytes) of an AES-GCM authentication tag, which follows the ciphertext.
+	 */
+	public static final int TAG_LENGTH = 16;
+
+	/**
+	 * The length (bytes) of the random prefix of the nonces of this context.
+	 */
+	private static final int NONCE_PREFIX_LENGTH = NONCE_LENGTH - Long.BYTES;
+
+	/**
+	 * The AES key of this context.
+	 */
+	private final SecretKey key;
+
+	/**
+	 * The encryption cipher of each thread.
+	 */
+	private final ThreadLocal<CipherSlot> encryptSlot;
+
+	/**
+	 * The decryption cipher of each thread.
+	 */
+	private final ThreadLocal<CipherSlot> decryptSlot;
+
+	/**
+	 * The authenticated encryption cipher of each thread.
+	 */
+	private final ThreadLocal<CipherSlot> sealSlot;
+
+	/**
+	 * The authenticated decryption cipher of each thread.
+	 */
+	private final ThreadLocal<CipherSlot> openSlot;
+
+	/**
+	 * The random prefix of the nonces of this context, so that both sides of a key never
+	 * use the same nonce. Its first bit is always set, which keeps these nonces apart from
+	 * those of the chunks of a file (see <code>FileCipher</code>).
+	 */
+	private final byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+
+	/**
+	 * The counter that makes every nonce of this context unique.
+	 */
+	private final AtomicLong nonceCounter = new AtomicLong();
+
+	/**
+	 * Constructs a <code>CryptoContext</code> object for the given key String.
+	 * @param key the key to be used in the encryption and decryption process
+	 */
+	public CryptoContext(String key) {
+		this(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "AES"));
+	}
+
+	/**
+	 * Constructs a <code>CryptoContext</code> object for the given key.
+	 * @param key the AES key to be used in the encryption and decryption process
+	 */
+	public CryptoContext(SecretKey key) {
+		this.key = key;
+		this.encryptSlot = ThreadLocal.withInitial(() -> new CipherSlot(TRANSFORMATION, Cipher.ENCRYPT_MODE));
+		this.decryptSlot = ThreadLocal.withInitial(() -> new CipherSlot(TRANSFORMATION, Cipher.DECRYPT_MODE));
+		this.sealSlot = ThreadLocal.withInitial(() -> new CipherSlot(AEAD_TRANSFORMATION, Cipher.ENCRYPT_MODE));
+		this.openSlot = ThreadLocal.withInitial(() -> new CipherSlot(AEAD_TRANSFORMATION, Cipher.DECRYPT_MODE));
+		new SecureRandom().nextBytes(noncePrefix);
+		noncePrefix[0] |= 0x80;
+	}
+
+	/**
+	 * Encrypts data with the given IV.
+	 * @param data the data to be encrypted
+	 * @param iv the initializing vector
+	 * @return encrypted the encrypted data
+	 * @throws GeneralSecurityException if the data could not be encrypted
+	 */
+	public byte[] encrypt(byte[] data, byte[] iv) throws GeneralSecurityException {
+		return encryptSlot.get().doFinal(data, iv);
+	}
+
+	/**
+	 * Decrypts data with the given IV.
+	 * @param data the data to be decrypted
+	 * @param iv the initializing vector
+	 * @return original the decrypted data
+	 * @throws GeneralSecurityException if the data could not be decrypted
+	 */
+	public byte[] decrypt(byte[] data, byte[] iv) throws GeneralSecurityException {
+		return decryptSlot.get().doFinal(data, iv);
+	}
+
+	/**
+	 * Returns a nonce that this context has never returned before.
+	 * @return nonce a fresh AES-GCM nonce
+	 */
+	public byte[] nextNonce() {
+		ByteBuffer nonce = ByteBuffer.allocate(NONCE_LENGTH);
+		nonce.put(noncePrefix);
+		nonce.putLong(nonceCounter.getAndIncrement());
+		return nonce.array();
+	}
+
+	/**
+	 * Encrypts and authenticates data with AES-GCM, directly from one buffer to another.
+	 * The output is the ciphertext followed by the <code>TAG_LENGTH</code> byte tag.
+	 * @param input the data to be encrypted, from its position up to its limit
+	 * @param output the buffer to write the ciphertext and tag to, starting at its position
+	 * @param nonce the nonce, which must never be used again with this key
+	 * @return length the number of bytes written to the output
+	 * @throws GeneralSecurityException if the data could not be encrypted
+	 */
+	public int seal(ByteBuffer input, ByteBuffer output, byte[] nonce) throws GeneralSecurityException {
+		return sealSlot.get().doFinal(input, output, nonce);
+	}
+
+	/**
+	 * Checks and decrypts data that was encrypted with AES-GCM, directly from one buffer to
+	 * another.
+	 * @param input the ciphertext and tag, from its position up to its limit
+	 * @param output the buffer to write the decrypted data to, starting at its position
+	 * @param nonce the nonce of the data
+	 * @return length the number of bytes written to the output
+	 * @throws GeneralSecurityException if the data was tampered with or could not be decrypted
+	 */
+	public int open(ByteBuffer input, ByteBuffer output, byte[] nonce) throws GeneralSecurityException {
+		return openSlot.get().doFinal(input, output, nonce);
+	}
+
+	public SecretKey getKey() {
+		return key;
+	}
+
+	/**
+	 * The <code>Cipher</code> of one thread for one direction, and the IV it was initialized with.
+	 */
+	private final class CipherSlot {
+
+		private final String transformation;
+
+		private final int mode;
+
+		private Cipher cipher;
+
+		private byte[] iv;
+
+		private CipherSlot(String transformation, int mode) {
+			this.transformation = transformation;
+			this.mode = mode;
+		}
+
+		/**
+		 * Encrypts or decrypts data, initializing the cipher only on first use, with a new
+		 * IV, or after a failure that may have left the cipher in an unknown state.
+		 */
+		private byte[] doFinal(byte[] data, byte[] iv) throws GeneralSecurityException {
+			init(iv, false);
+			try {
+				return cipher.doFinal(data);
+			} catch (GeneralSecurityException e) {
+				this.iv = null;
+				throw e;
+			}
+		}
+
+		/**
+		 * Encrypts or decrypts data from one buffer to another, initializing the cipher
+		 * for every call (AES-GCM may never encrypt twice with the same nonce).
+		 */
+		private int doFinal(ByteBuffer input, ByteBuffer output, byte[] nonce) throws GeneralSecurityException {
+			init(nonce, true);
+			return cipher.doFinal(input, output);
+		}
+
+		private void init(byte[] iv, boolean always) throws GeneralSecurityException {
+			if (cipher == null) {
+				cipher = Cipher.getInstance(transformation);
+			}
+			if (always || !Arrays.equals(iv, this.iv)) {
+				this.iv = null;
+				AlgorithmParameterSpec parameters = transformation.equals(AEAD_TRANSFORMATION)
+						? new GCMParameterSpec(TAG_LENGTH * Byte.SIZE, iv) : new IvParameterSpec(iv);
+				cipher.init(mode, key, parameters);
+				this.iv = iv.clone();
+			}
+		}
+	}
+}
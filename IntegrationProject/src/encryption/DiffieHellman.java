@@ -1,5 +1,17 @@
 package encryption;
 
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
 import model.Person;
 import model.Session;
 
@@ -17,6 +29,11 @@ public class DiffieHellman {
 	public static final int[][] PRIME_GENERATOR = 
 			new int[][]{{11, 2}, {13, 2}, {17, 3}, {19, 2}, {23, 5}, {29, 2}};
 	
+	/**
+	 * The length (bytes) of the AES keys that are derived from an elliptic-curve key agreement.
+	 */
+	public static final int AGREED_KEY_LENGTH = 16;
+	
 	/**
 	 * Produces a random secret key in the range of {5 ... (prime - 1)}.
 	 * @param prime the corresponding prime
@@ -39,4 +56,21 @@ public class DiffieHellman {
 		EncryptionPair ep = session.getKnownPersons().get(receiver.getID()).getPrivateChatPair();
 		return (int) (Math.pow(ep.getGenerator(), session.getSecretKeysForPerson().get(receiver.getID())) % ep.getPrime());
 	}
+	
+	/**
+	 * Agrees on an AES key with a contact person through elliptic-curve Diffie-Hellman: the 
+	 * shared secret of our private key and the person's public key, hashed with SHA-256.
+	 * @param privateKey our ephemeral private key for the contact person
+	 * @param remotePublicKey the encoded (X.509) ephemeral public key of the contact person
+	 * @return secretKey the AES key to be used with the contact person
+	 * @throws GeneralSecurityException if the public key is invalid
+	 */
+	public static SecretKey agreeKey(PrivateKey privateKey, byte[] remotePublicKey) throws GeneralSecurityException {
+		PublicKey publicKey = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(remotePublicKey));
+		KeyAgreement keyAgreement = KeyAgreement.getInstance("ECDH");
+		keyAgreement.init(privateKey);
+		keyAgreement.doPhase(publicKey, true);
+		byte[] digest = MessageDigest.getInstance("SHA-256").digest(keyAgreement.generateSecret());
+		return new SecretKeySpec(Arrays.copyOf(digest, AGREED_KEY_LENGTH), "AES");
+	}
 }
@@ -1,5 +1,7 @@
 package encryption;
 
+import java.security.KeyPair;
+
 /**
  * A class that stores the encryption details for a contact person.
  * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
@@ -32,6 +34,16 @@ public class EncryptionPair {
 	 */
 	private boolean acknowledged;
 	
+	/**
+	 * Our ephemeral key pair, if this pair uses an elliptic-curve key agreement.
+	 */
+	private KeyPair keyPair;
+	
+	/**
+	 * The encoded ephemeral public key of the contact person, once it is received.
+	 */
+	private volatile byte[] remotePublicKey;
+	
 	/**
 	 * Constructs a fresh <code>EncryptionPair</code> object with a prime (with generator)
 	 * randomly chosen from the <code>DiffieHellman.PRIME_GENERATOR</code> array. This object
@@ -61,6 +73,17 @@ public class EncryptionPair {
 		this.acknowledged = acknowledged;
 	}
 
+	/**
+	 * Constructs an <code>EncryptionPair</code> that uses an elliptic-curve key agreement 
+	 * instead of a prime and generator.
+	 * @param keyPair our ephemeral key pair for the contact person
+	 * @param acknowledged true if this object answers a key exchange of the contact person
+	 */
+	public EncryptionPair(KeyPair keyPair, boolean acknowledged) {
+		this.keyPair = keyPair;
+		this.acknowledged = acknowledged;
+	}
+
 	/**
 	 * Computes and sets the localHalfKey (g^a mod p).
 	 * @param secretInteger this client's user's secret integer for the contact person.
@@ -97,6 +120,26 @@ public class EncryptionPair {
 		return remoteHalfKey;
 	}
 	
+	/**
+	 * Returns whether this pair uses an elliptic-curve key agreement.
+	 * @return true if this pair has an ephemeral key pair, otherwise false
+	 */
+	public boolean usesKeyAgreement() {
+		return keyPair != null;
+	}
+	
+	public KeyPair getKeyPair() {
+		return keyPair;
+	}
+	
+	public byte[] getRemotePublicKey() {
+		return remotePublicKey;
+	}
+	
+	public void setRemotePublicKey(byte[] remotePublicKey) {
+		this.remotePublicKey = remotePublicKey;
+	}
+	
 	/**
 	 * For testing purposes. Prints this <code>EncryptionPair</code>'s details.
 	 */
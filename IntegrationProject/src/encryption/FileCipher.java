@@ -0,0 +1,93 @@
+package encryption;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A class that encrypts and decrypts the chunks of a file transfer with AES-GCM, in
+ * parallel on a fork-join pool. Every chunk is encrypted on its own, so chunks can be
+ * encrypted ahead of the send window and decrypted in whatever order they arrive.
+ * <p>
+ * The nonce of a chunk is made of the ID of the sender, the ID of the file and the index of
+ * the chunk. It is unique, because a sender never reuses a fileID for a receiver, and it
+ * never equals the nonce of a private message: those start with a set bit, while IDs are
+ * never negative. A retransmitted chunk is sent with its original bytes, so it is never
+ * encrypted twice.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class FileCipher {
+
+	/**
+	 * The pool on which the chunks are encrypted and decrypted, with one thread per core.
+	 */
+	private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Returns the nonce of a chunk.
+	 * @param senderID the ID of the sender of the file
+	 * @param fileID the ID of the file
+	 * @param chunkIndex the index of the chunk
+	 * @return nonce the AES-GCM nonce of the chunk
+	 */
+	public static byte[] getNonce(int senderID, int fileID, int chunkIndex) {
+		ByteBuffer nonce = ByteBuffer.allocate(CryptoContext.NONCE_LENGTH);
+		nonce.putInt(senderID);
+		nonce.putInt(fileID);
+		nonce.putInt(chunkIndex);
+		return nonce.array();
+	}
+
+	/**
+	 * Encrypts a chunk on the pool.
+	 * @param context the <code>CryptoContext</code> of the receiver
+	 * @param senderID the ID of the sender of the file
+	 * @param fileID the ID of the file
+	 * @param chunkIndex the index of the chunk
+	 * @param chunkData the data of the chunk, from its position up to its limit; it is
+	 * not changed
+	 * @return future the future that is completed with the ciphertext and tag of the chunk
+	 */
+	public static CompletableFuture<ByteBuffer> encryptAsync(CryptoContext context, int senderID, int fileID,
+			int chunkIndex, ByteBuffer chunkData) {
+		ByteBuffer input = chunkData.duplicate();
+		return CompletableFuture.supplyAsync(() -> {
+			ByteBuffer ciphertext = ByteBuffer.allocate(input.remaining() + CryptoContext.TAG_LENGTH);
+			try {
+				context.seal(input, ciphertext, getNonce(senderID, fileID, chunkIndex));
+			} catch (GeneralSecurityException e) {
+				throw new CompletionException(e);
+			}
+			ciphertext.flip();
+			return ciphertext;
+		}, POOL);
+	}
+
+	/**
+	 * Checks and decrypts a chunk on the pool.
+	 * @param context the <code>CryptoContext</code> of the sender
+	 * @param senderID the ID of the sender of the file
+	 * @param fileID the ID of the file
+	 * @param chunkIndex the index of the chunk
+	 * @param ciphertext the ciphertext and tag of the chunk, which must not be changed or
+	 * recycled until the future is completed
+	 * @return future the future that is completed with the data of the chunk, or
+	 * exceptionally if the chunk was tampered with
+	 */
+	public static CompletableFuture<ByteBuffer> decryptAsync(CryptoContext context, int senderID, int fileID,
+			int chunkIndex, ByteBuffer ciphertext) {
+		ByteBuffer input = ciphertext.duplicate();
+		return CompletableFuture.supplyAsync(() -> {
+			ByteBuffer chunkData = ByteBuffer.allocate(Math.max(0, input.remaining() - CryptoContext.TAG_LENGTH));
+			try {
+				context.open(input, chunkData, getNonce(senderID, fileID, chunkIndex));
+			} catch (GeneralSecurityException e) {
+				throw new CompletionException(e);
+			}
+			chunkData.flip();
+			return chunkData;
+		}, POOL);
+	}
+}
@@ -0,0 +1,126 @@
+package encryption;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A class that generates ephemeral elliptic-curve key pairs in the background, so that a
+ * handshake takes a ready key pair instead of generating one on the thread that sends the
+ * pulses or handles the packets. Whenever a key pair is taken, the pool is filled up again
+ * on the given <code>Executor</code>.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class KeyPairPool {
+
+	/**
+	 * The curve of the key pairs.
+	 */
+	public static final String CURVE = "secp256r1";
+
+	/**
+	 * The default number of key pairs that are kept ready.
+	 */
+	public static final int DEFAULT_SIZE = 8;
+
+	/**
+	 * The number of key pairs that are kept ready.
+	 */
+	private final int size;
+
+	/**
+	 * The executor that generates the key pairs.
+	 */
+	private final Executor executor;
+
+	/**
+	 * The key pairs that are ready.
+	 */
+	private final ConcurrentLinkedQueue<KeyPair> keyPairs = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * The number of key pairs in <code>keyPairs</code>, as the size of the queue is slow to get.
+	 */
+	private final AtomicInteger available = new AtomicInteger();
+
+	/**
+	 * True while a task fills up the pool.
+	 */
+	private final AtomicBoolean refilling = new AtomicBoolean();
+
+	/**
+	 * Constructs a <code>KeyPairPool</code> object and starts filling it.
+	 * @param size the number of key pairs that are kept ready
+	 * @param executor the executor that generates the key pairs
+	 */
+	public KeyPairPool(int size, Executor executor) {
+		this.size = size;
+		this.executor = executor;
+		refill();
+	}
+
+	/**
+	 * Takes a ready key pair from the pool, without blocking.
+	 * @return keyPair a fresh key pair, or null if none is ready yet
+	 */
+	public KeyPair poll() {
+		KeyPair keyPair = keyPairs.poll();
+		if (keyPair != null) {
+			available.decrementAndGet();
+		}
+		refill();
+		return keyPair;
+	}
+
+	/**
+	 * Takes a ready key pair from the pool, or generates one if none is ready. Should only
+	 * be called from a thread that may block.
+	 * @return keyPair a fresh key pair
+	 * @throws GeneralSecurityException if no key pair could be generated
+	 */
+	public KeyPair take() throws GeneralSecurityException {
+		KeyPair keyPair = poll();
+		return keyPair != null ? keyPair : generateKeyPair();
+	}
+
+	/**
+	 * Starts filling up the pool, unless it is full or is being filled already.
+	 */
+	private void refill() {
+		if (available.get() >= size || !refilling.compareAndSet(false, true)) {
+			return;
+		}
+		executor.execute(() -> {
+			try {
+				while (available.get() < size) {
+					keyPairs.add(generateKeyPair());
+					available.incrementAndGet();
+				}
+			} catch (GeneralSecurityException e) {
+				e.printStackTrace();
+			} finally {
+				refilling.set(false);
+			}
+		});
+	}
+
+	/**
+	 * Generates an ephemeral key pair on <code>CURVE</code>.
+	 * @return keyPair the generated key pair
+	 * @throws GeneralSecurityException if the curve is not supported
+	 */
+	public static KeyPair generateKeyPair() throws GeneralSecurityException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(new ECGenParameterSpec(CURVE));
+		return generator.generateKeyPair();
+	}
+
+	public int getAvailable() {
+		return available.get();
+	}
+}
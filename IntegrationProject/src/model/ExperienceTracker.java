@@ -60,7 +60,7 @@ public class ExperienceTracker {
 	 * Returns the required amount of experience points to reach the next level.
 	 * @return requiredExp the required experience points to reach the next level
 	 */
-	public int getExperienceRequiredNextLevel() {
+	public synchronized int getExperienceRequiredNextLevel() {
 		return getExperienceRequired(getCurrentLevel() + 1);
 	}
 	
@@ -68,14 +68,14 @@ public class ExperienceTracker {
 	 * Returns the user's level + 1.
 	 * @return nextLevel the user's next level
 	 */
-	public int getNextLevel() {
+	public synchronized int getNextLevel() {
 		return getCurrentLevel() + 1;
 	}
 	
 	/**
 	 * Checks if the user has enough experience points to progress to the next level.
 	 */
-	public void checkLevelIncrease() {
+	public synchronized void checkLevelIncrease() {
 		while (currentExperience >= getExperienceRequiredNextLevel()) {
 			currentExperience -= getExperienceRequiredNextLevel();
 			currentLevel += 1;
@@ -86,7 +86,7 @@ public class ExperienceTracker {
 	 * Returns the ratio of current experience points to the required experience points.
 	 * @return levelProgress the level progress from 0 to 1
 	 */
-	public double getLevelProgress() {
+	public synchronized double getLevelProgress() {
 		return (double) getCurrentExperience() / getExperienceRequiredNextLevel();
 	}
 	
@@ -94,7 +94,7 @@ public class ExperienceTracker {
 	 * Returns the total amount of experience points gained in this client's session.
 	 * @return total the total amount of experience points gained
 	 */
-	public int getTotalExperience() {
+	public synchronized int getTotalExperience() {
 		int total = getCurrentExperience();
 		for (int i = getCurrentLevel(); i > 0; i--) {
 			total += getExperienceRequired(i);
@@ -102,18 +102,18 @@ public class ExperienceTracker {
 		return total;
 	}
 	
-	public int getCurrentLevel() {
+	public synchronized int getCurrentLevel() {
 		return currentLevel;
 	}
 	
-	public int getCurrentExperience() {
+	public synchronized int getCurrentExperience() {
 		return currentExperience;
 	}
 	
 	/**
 	 * Increases the user's current experience points for sending a message.
 	 */
-	public void sendMessage() {
+	public synchronized void sendMessage() {
 		currentExperience += EXP_SEND;
 		checkLevelIncrease();
 	}
@@ -121,7 +121,7 @@ public class ExperienceTracker {
 	/**
 	 * Increases the user's current experience points for receiving a private message.
 	 */
-	public void receivePrivateMessage() {
+	public synchronized void receivePrivateMessage() {
 		currentExperience += EXP_RECEIVE_PRIVATE;
 		checkLevelIncrease();
 	}
@@ -129,7 +129,7 @@ public class ExperienceTracker {
 	/**
 	 * Increases the user's current experience points for receiving a global message.
 	 */
-	public void receiveGlobalMessage() {
+	public synchronized void receiveGlobalMessage() {
 		currentExperience += EXP_RECEIVE_GLOBAL;
 		checkLevelIncrease();
 	}
@@ -137,7 +137,7 @@ public class ExperienceTracker {
 	/**
 	 * Increases the user's current experience points for forwarding a message/packet.
 	 */
-	public void forwardMessage() {
+	public synchronized void forwardMessage() {
 		currentExperience += EXP_FORWARD;
 		checkLevelIncrease();
 	}
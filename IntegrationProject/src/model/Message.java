@@ -1,5 +1,6 @@
 package model;
 
+import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -35,6 +36,11 @@ public class Message {
 	private String text;
 	private byte[] fileData;
 	
+	/**
+	 * The file of a file message that is kept on disk instead of in <code>fileData</code>.
+	 */
+	private File file;
+	
 	/**
 	 * Constructs a <code>Message</code> object. Assigns the time of the user's machine to
 	 * the message and specifies whether the message was from ourselves or not.
@@ -61,6 +67,25 @@ public class Message {
 		this.fileData = fileData;
 	}
 	
+	/**
+	 * Constructs a file <code>Message</code> object of which the data is kept in a file
+	 * on disk instead of in memory.
+	 * @param senderID the ID of the sender of this message
+	 * @param receiverID the ID of the receiver (destination) of this message
+	 * @param messageID the ID of the file
+	 * @param text the text of the message
+	 * @param file the file that holds the data of this message
+	 * @param myMessage true if this message is from ourselves, otherwise false
+	 */
+	public Message(int senderID, int receiverID, int messageID, String text, File file, boolean myMessage) {
+		this.senderID = senderID;
+		this.receiverID = receiverID;
+		this.messageID = messageID;
+		timestamp = new Date().getTime();
+		this.text = text;
+		this.file = file;
+	}
+	
 	public Message(int messageID) {
 		this.messageID = messageID;
 	}
@@ -72,6 +97,10 @@ public class Message {
 	public byte[] getFileData() {
 		return fileData;
 	}
+	
+	public File getFile() {
+		return file;
+	}
 
 	public int getMessageID() {
 		return messageID;
@@ -0,0 +1,113 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free, append-only log of chat messages. The messages are kept in an array that
+ * is never modified once it is published: a writer copies the array, adds its message
+ * and publishes the copy with a compare-and-set, retrying if another writer was first.
+ * Readers therefore never block writers (or each other), and a snapshot is simply the
+ * array that is published at that moment.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class MessageLog {
+
+	/**
+	 * The published messages. The array itself is never modified.
+	 */
+	private final AtomicReference<Message[]> messages = new AtomicReference<>(new Message[0]);
+
+	/**
+	 * Appends a message to the end of the log.
+	 * @param message the message to be added
+	 */
+	public void append(Message message) {
+		Message[] current;
+		Message[] updated;
+		do {
+			current = messages.get();
+			updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = message;
+		} while (!messages.compareAndSet(current, updated));
+	}
+
+	/**
+	 * Appends a message to the end of the log, unless a message with the same sender
+	 * and messageID is in the log already.
+	 * @param message the message to be added
+	 * @return true if the message was added, false if it is a duplicate
+	 */
+	public boolean appendIfAbsent(Message message) {
+		Message[] current;
+		Message[] updated;
+		do {
+			current = messages.get();
+			if (indexOf(current, message) >= 0) {
+				return false;
+			}
+			updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = message;
+		} while (!messages.compareAndSet(current, updated));
+		return true;
+	}
+
+	/**
+	 * Inserts a received message ordered by messageID among the other received messages,
+	 * unless a message with the same sender and messageID is in the log already. Messages
+	 * that we sent ourselves keep their place.
+	 * @param message the received message to be added
+	 * @param ownID the ID of this session, to recognise our own messages
+	 * @return true if the message was added, false if it is a duplicate
+	 */
+	public boolean insertOrdered(Message message, int ownID) {
+		Message[] current;
+		Message[] updated;
+		do {
+			current = messages.get();
+			if (indexOf(current, message) >= 0) {
+				return false;
+			}
+			// Insert after the last received message with a lower or equal messageID
+			int insertPosition = current.length;
+			for (int i = current.length - 1; i >= 0; i--) {
+				if (current[i].getSenderID() != ownID) {
+					if (current[i].getMessageID() > message.getMessageID()) {
+						insertPosition = i;
+					} else {
+						break;
+					}
+				}
+			}
+			updated = new Message[current.length + 1];
+			System.arraycopy(current, 0, updated, 0, insertPosition);
+			updated[insertPosition] = message;
+			System.arraycopy(current, insertPosition, updated, insertPosition + 1, current.length - insertPosition);
+		} while (!messages.compareAndSet(current, updated));
+		return true;
+	}
+
+	/**
+	 * Returns the messages in the log at this moment. Messages that are added later do
+	 * not show up in the snapshot, so it can be iterated while the log changes.
+	 * @return snapshot an unmodifiable list of the messages in the log
+	 */
+	public List<Message> snapshot() {
+		return Collections.unmodifiableList(Arrays.asList(messages.get()));
+	}
+
+	public int size() {
+		return messages.get().length;
+	}
+
+	private static int indexOf(Message[] messages, Message message) {
+		for (int i = messages.length - 1; i >= 0; i--) {
+			if (messages[i].getMessageID() == message.getMessageID() && messages[i].getSenderID() == message.getSenderID()) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -1,5 +1,8 @@
 package model;
 
+import javax.crypto.SecretKey;
+
+import encryption.CryptoContext;
 import encryption.EncryptionPair;
 
 /**
@@ -9,9 +12,10 @@ import encryption.EncryptionPair;
 public class Person {
 	
 	/**
-	 * The name of the person.
+	 * The name of the person. It changes when a pulse announces a new name, and is read
+	 * by the GUI thread.
 	 */
-	public String name;
+	private volatile String name;
 	
 	/**
 	 * The ID of the person's application. The ID that is used to send packets to this user.
@@ -20,11 +24,12 @@ public class Person {
 	
 	/**
 	 * The number of seconds that specify how long this user is still reachable within our network.
-	 * Usually, resets to 5 every second. If no pulses are received, decreases by 1 every second.
+	 * Resets to <code>TransportLayer.PULSE_TTL</code> on every pulse of this user. If no pulses 
+	 * are received, decreases by 1 every second.
 	 * At timeToLive = 0, this user will be shown as offline and messages that we send, won't 
 	 * reach this person anymore.
 	 */
-	private int timeToLive;
+	private volatile int timeToLive;
 	
 	/**
 	 * The ID of the message that we send to this person.
@@ -39,12 +44,36 @@ public class Person {
 	/**
 	 * The level of this person.
 	 */
-	private int level;
+	private volatile int level;
+	
+	/**
+	 * The version of this person's name and level, as announced in its last full 
+	 * <code>CompactPulse</code>, or -1 if no full compact pulse was received yet.
+	 */
+	private volatile int pulseVersion = -1;
+	
+	/**
+	 * True once this person has announced that it reads the extended packet header, which
+	 * it does by sending a <code>CompactPulse</code>. Until then, packets to this person are
+	 * sent with the original header.
+	 */
+	private volatile boolean extendedHeader;
 
 	/**
 	 * The EncryptionPair that we have for this person.
 	 */
-	private EncryptionPair privateChatPair;
+	private volatile EncryptionPair privateChatPair;
+	
+	/**
+	 * The <code>CryptoContext</code> with the AES key that was derived from the 
+	 * <code>EncryptionPair</code>, or null if the handshake is not finished yet.
+	 */
+	private volatile CryptoContext privateChatContext;
+	
+	/**
+	 * The estimate of the round-trip time to this person, used for retransmissions.
+	 */
+	private RttEstimator rttEstimator = new RttEstimator();
 
 	/**
 	 * Constructs a <code>Person</code> object with a random ID 
@@ -82,6 +111,10 @@ public class Person {
 		return name;
 	}
 	
+	public void setName(String name) {
+		this.name = name;
+	}
+	
 	public int getID() {
 		return ID;
 	}
@@ -90,7 +123,7 @@ public class Person {
 	 * Increases and returns the next messageID for the contact person.
 	 * @return nextMessageID the messageID to send the next message with to this contact person
 	 */
-	public int getNextMessageID() {
+	public synchronized int getNextMessageID() {
 		nextMessageID++;
 		return nextMessageID;
 	}
@@ -99,7 +132,7 @@ public class Person {
 	 * Increases and returns the next fileID for the contact person.
 	 * @return nextFileID the fileID to send the next file with to this contact person
 	 */
-	public int getNextFileID() {
+	public synchronized int getNextFileID() {
 		nextFileID++;
 		return nextFileID;
 	}
@@ -124,8 +157,52 @@ public class Person {
 		this.level = level;
 	}
 
+	public int getPulseVersion() {
+		return pulseVersion;
+	}
+	
+	public void setPulseVersion(int pulseVersion) {
+		this.pulseVersion = pulseVersion;
+	}
+	
+	public boolean usesExtendedHeader() {
+		return extendedHeader;
+	}
+	
+	public void setExtendedHeader(boolean extendedHeader) {
+		this.extendedHeader = extendedHeader;
+	}
+	
+	/**
+	 * Sets a new <code>EncryptionPair</code>, which invalidates the key derived from the 
+	 * previous one.
+	 * @param privateChatPair the new <code>EncryptionPair</code>
+	 */
 	public void setPrivateChatPair(EncryptionPair privateChatPair) {
+		this.privateChatContext = null;
 		this.privateChatPair = privateChatPair;
 	}
 	
+	public SecretKey getPrivateChatKey() {
+		CryptoContext context = privateChatContext;
+		return context == null ? null : context.getKey();
+	}
+	
+	/**
+	 * Sets the AES key that was derived when the handshake finished, together with a 
+	 * <code>CryptoContext</code> that reuses its ciphers.
+	 * @param privateChatKey the derived key
+	 */
+	public void setPrivateChatKey(SecretKey privateChatKey) {
+		this.privateChatContext = new CryptoContext(privateChatKey);
+	}
+	
+	public CryptoContext getPrivateChatContext() {
+		return privateChatContext;
+	}
+	
+	public RttEstimator getRttEstimator() {
+		return rttEstimator;
+	}
+	
 }
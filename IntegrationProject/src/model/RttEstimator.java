@@ -0,0 +1,106 @@
+package model;
+
+/**
+ * A class that estimates the round-trip time to a contact person and derives the
+ * retransmission timeout from it. The smoothed round-trip time and its variation are
+ * updated with every sample (Jacobson/Karels), and the timeout is doubled for every
+ * retransmission of the same packet (exponential backoff).
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class RttEstimator {
+
+	/**
+	 * The retransmission timeout (milliseconds) that is used before any round-trip time
+	 * has been measured.
+	 */
+	public static final long INITIAL_TIMEOUT = 1000;
+
+	/**
+	 * The lower bound (milliseconds) of the retransmission timeout.
+	 */
+	public static final long MINIMUM_TIMEOUT = 200;
+
+	/**
+	 * The upper bound (milliseconds) of the retransmission timeout, also after backoff.
+	 */
+	public static final long MAXIMUM_TIMEOUT = 16000;
+
+	/**
+	 * The weight of a new sample in the smoothed round-trip time.
+	 */
+	private static final double ALPHA = 1.0 / 8;
+
+	/**
+	 * The weight of a new sample in the round-trip time variation.
+	 */
+	private static final double BETA = 1.0 / 4;
+
+	/**
+	 * The smoothed round-trip time (milliseconds).
+	 */
+	private double smoothedRtt;
+
+	/**
+	 * The variation of the round-trip time (milliseconds).
+	 */
+	private double rttVariation;
+
+	/**
+	 * The current retransmission timeout (milliseconds), without backoff.
+	 */
+	private long timeout = INITIAL_TIMEOUT;
+
+	/**
+	 * The number of samples that have been taken.
+	 */
+	private int sampleCount;
+
+	/**
+	 * Updates the estimate with a newly measured round-trip time. Only packets that were
+	 * not retransmitted should be measured, since the acknowledgement of a retransmitted
+	 * packet can not be matched to a single transmission (Karn's algorithm).
+	 * @param rtt the measured round-trip time (milliseconds)
+	 */
+	public synchronized void addSample(double rtt) {
+		if (sampleCount == 0) {
+			smoothedRtt = rtt;
+			rttVariation = rtt / 2;
+		} else {
+			rttVariation = (1 - BETA) * rttVariation + BETA * Math.abs(smoothedRtt - rtt);
+			smoothedRtt = (1 - ALPHA) * smoothedRtt + ALPHA * rtt;
+		}
+		sampleCount++;
+		timeout = clamp((long) Math.ceil(smoothedRtt + 4 * rttVariation));
+	}
+
+	/**
+	 * Returns the time to wait for an acknowledgement of a packet that has been
+	 * retransmitted <code>retransmissionsDone</code> times.
+	 * @param retransmissionsDone the number of retransmissions done for the packet
+	 * @return timeout the retransmission timeout (milliseconds)
+	 */
+	public synchronized long getTimeout(int retransmissionsDone) {
+		int shift = Math.min(retransmissionsDone, 16);
+		return clamp(timeout << shift);
+	}
+
+	public synchronized long getTimeout() {
+		return timeout;
+	}
+
+	public synchronized double getSmoothedRtt() {
+		return smoothedRtt;
+	}
+
+	public synchronized double getRttVariation() {
+		return rttVariation;
+	}
+
+	public synchronized int getSampleCount() {
+		return sampleCount;
+	}
+
+	private static long clamp(long timeout) {
+		return Math.max(MINIMUM_TIMEOUT, Math.min(MAXIMUM_TIMEOUT, timeout));
+	}
+}
@@ -1,8 +1,8 @@
 package model;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import connection.Connection;
 import connection.PulseHandler;
@@ -11,7 +11,9 @@ import model.Person;
 
 /**
  * A class that keeps track of most of the data and the current
- * application's session.
+ * application's session. The state is shared by the networking threads and the GUI
+ * thread, so it is kept in concurrent maps and lock-free <code>MessageLog</code>s:
+ * readers work on snapshots and never block the receiving of packets.
  * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
  *
  */
@@ -46,35 +48,35 @@ public class Session {
 	 * A map consisting of known persons: 
 	 * Map<the person's ID, the person itself>.
 	 */
-	private Map<Integer, Person> knownPersons;
+	private ConcurrentHashMap<Integer, Person> knownPersons;
 	
 	/**
 	 *  A map that keeps track of secretInteger for each contact person:
 	 *  Map<The contact person's ID, the secretInteger>.
 	 */
-	private Map<Integer, Integer> secretKeysForPerson;
+	private ConcurrentHashMap<Integer, Integer> secretKeysForPerson;
 	
 	/**
 	 * A map that keeps track of the messages exchanged with the contact person
-	 * Map<The contact person's ID, the array of messages>.
+	 * Map<The contact person, the log of messages>.
 	 */
-	private Map<Person, ArrayList<Message>> chatMessages;
+	private ConcurrentHashMap<Person, MessageLog> chatMessages;
 	
 	/**
-	 * A list that keeps track of the public chat messages (a.k.a. global chat messages).
+	 * A log that keeps track of the public chat messages (a.k.a. global chat messages).
 	 */
-	private ArrayList<Message> publicChatMessages;
+	private MessageLog publicChatMessages;
 	
 	/**
-	 * An integer that indicates what the next message ID should be for an outgoing 
-	 * public (global) message.
+	 * An integer that indicates what the message ID of the last outgoing public (global)
+	 * message is.
 	 */
-	private int nextPublicMessageID;
+	private AtomicInteger nextPublicMessageID;
 	
 	/**
 	 * An integer that indicates what the sequence number of the last sent packet is.
 	 */
-	private int sequenceNumber;
+	private AtomicInteger sequenceNumber;
 
 	/**
 	 * Constructs a <code>Session</code> object. Generates a random ID for this session
@@ -85,16 +87,17 @@ public class Session {
 	public Session(String name) {
 		this.name = name;
 		this.ID = (int) (Math.random() * Integer.MAX_VALUE);
-		this.connection = new Connection(this);
-		this.knownPersons = new HashMap<>();
-		this.secretKeysForPerson = new HashMap<>();
-		this.chatMessages = new HashMap<>();
-		this.publicChatMessages = new ArrayList<>();
-		this.sequenceNumber = 0;
-		this.nextPublicMessageID = 0;
-		this.experienceTracker = new ExperienceTracker();
 		this.statistics = new Statistics();
-		new PulseHandler(this);
+		this.knownPersons = new ConcurrentHashMap<>();
+		this.secretKeysForPerson = new ConcurrentHashMap<>();
+		this.chatMessages = new ConcurrentHashMap<>();
+		this.publicChatMessages = new MessageLog();
+		this.sequenceNumber = new AtomicInteger();
+		this.nextPublicMessageID = new AtomicInteger();
+		this.experienceTracker = new ExperienceTracker();
+		// The connection starts receiving right away, so the state must exist first
+		this.connection = new Connection(this);
+		this.connection.pulseHandler = new PulseHandler(this);
 	}
 
 	/**
@@ -103,17 +106,15 @@ public class Session {
 	 * message is transmitted
 	 */
 	public int getNextPublicMessageID() {
-		nextPublicMessageID++;
-		return nextPublicMessageID;
+		return nextPublicMessageID.incrementAndGet();
 	}
 	
 	/**
 	 * Increments the <code>sequenceNumber</code> and returns it.
 	 * @return the sequence number that is to be used by the next outgoing packet.
 	 */
-	public synchronized int getNextSeqNumber() {
-		sequenceNumber++;
-		return sequenceNumber;
+	public int getNextSeqNumber() {
+		return sequenceNumber.incrementAndGet();
 	}
 
 	public String getName() {
@@ -136,27 +137,33 @@ public class Session {
 		return statistics;
 	}
 
-	public Map<Integer, Person> getKnownPersons() {
+	public ConcurrentHashMap<Integer, Person> getKnownPersons() {
 		return knownPersons;
 	}
 
-	public Map<Person, ArrayList<Message>> getChatMessages() {
+	public Map<Person, MessageLog> getChatMessages() {
 		return chatMessages;
 	}
+	
+	/**
+	 * Returns the log of the messages exchanged with a person. The log is created if
+	 * no messages were exchanged yet.
+	 * @param person the contact person
+	 * @return chatLog the log of the messages exchanged with the person
+	 */
+	public MessageLog getChatLog(Person person) {
+		return chatMessages.computeIfAbsent(person, p -> new MessageLog());
+	}
 
 	public int getSeq() {
-		return sequenceNumber;
+		return sequenceNumber.get();
 	}
 
-	public Map<Integer, Integer> getSecretKeysForPerson() {
+	public ConcurrentHashMap<Integer, Integer> getSecretKeysForPerson() {
 		return secretKeysForPerson;
 	}
 
-	public ArrayList<Message> getPublicChatMessages() {
+	public MessageLog getPublicChatMessages() {
 		return publicChatMessages;
 	}
-
-	public void setPublicChatMessages(ArrayList<Message> publicChatMessageList) {
-		this.publicChatMessages = publicChatMessageList;		
-	}	
 }
@@ -1,5 +1,8 @@
 package model;
 
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * A class that stores this application session's statistics.
  * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
@@ -7,9 +10,10 @@ package model;
 public class Statistics {
 
 	/**
-	 * The variables that this application keeps track of.
+	 * The variables that this application keeps track of. They are incremented by several
+	 * threads, so they are only changed while holding the lock of this object.
 	 */
-	int sessionTime,
+	volatile int sessionTime,
 		packetsForwarded,
 		packetsIgnored,
 		retransmissionsDone,
@@ -22,7 +26,23 @@ public class Statistics {
 		privateMessagesReceived,
 		globalMessagesReceived,
 		acknowledgementsReceived,
-		securityMessagesReceived;
+		securityMessagesReceived,
+		fileChunksSent,
+		parityPacketsSent,
+		parityPacketsReceived,
+		fileChunksLost,
+		fileChunksRecovered,
+		forwardsSuppressed,
+		forwardsHopLimited,
+		forwardsOffPath,
+		datagramsSent,
+		batchesSent,
+		packetsBatched;
+	
+	/**
+	 * The persons to which a round-trip time has been measured, mapped by their ID.
+	 */
+	private ConcurrentHashMap<Integer, Person> measuredPersons = new ConcurrentHashMap<>();
 
 	/**
 	 * Returns the sum of the fields that are considered trackers of packets sent.
@@ -100,102 +120,275 @@ public class Statistics {
 		return securityMessagesReceived;
 	}
 
+	public int getFileChunksSent() {
+		return fileChunksSent;
+	}
+
+	public int getParityPacketsSent() {
+		return parityPacketsSent;
+	}
+
+	public int getParityPacketsReceived() {
+		return parityPacketsReceived;
+	}
+
+	public int getFileChunksLost() {
+		return fileChunksLost;
+	}
+
+	public int getFileChunksRecovered() {
+		return fileChunksRecovered;
+	}
+
+	public int getForwardsSuppressed() {
+		return forwardsSuppressed;
+	}
+
+	public int getForwardsHopLimited() {
+		return forwardsHopLimited;
+	}
+
+	public int getForwardsOffPath() {
+		return forwardsOffPath;
+	}
+
+	public int getDatagramsSent() {
+		return datagramsSent;
+	}
+
+	public int getBatchesSent() {
+		return batchesSent;
+	}
+
+	public int getPacketsBatched() {
+		return packetsBatched;
+	}
+
+	/**
+	 * Returns the number of send calls that were saved by sending small packets together
+	 * in batches: every batch costs one send call instead of one per packet in it.
+	 * @return sendCallsSaved the number of send calls saved
+	 */
+	public int getSendCallsSaved() {
+		return packetsBatched - batchesSent;
+	}
+
+	/**
+	 * Returns the number of received packets that were not forwarded, because enough 
+	 * neighbours forwarded them already, because their hop limit was reached or because
+	 * another node is their next hop.
+	 * @return forwardsAvoided the number of forwards that were avoided
+	 */
+	public int getForwardsAvoided() {
+		return forwardsSuppressed + forwardsHopLimited + forwardsOffPath;
+	}
+
+	/**
+	 * Returns the overhead of forward error correction: the number of parity packets sent 
+	 * per file chunk sent.
+	 * @return fecOverhead the overhead as a fraction of the file chunks sent
+	 */
+	public double getFecOverhead() {
+		return fileChunksSent == 0 ? 0 : (double) parityPacketsSent / fileChunksSent;
+	}
+
+	/**
+	 * Returns the recovery rate of forward error correction: the fraction of the lost
+	 * file chunks that were rebuilt from a parity packet instead of being retransmitted.
+	 * @return fecRecoveryRate the recovery rate as a fraction of the lost file chunks
+	 */
+	public double getFecRecoveryRate() {
+		return fileChunksLost == 0 ? 0 : Math.min(1, (double) fileChunksRecovered / fileChunksLost);
+	}
+	
+	/**
+	 * Returns the persons to which a round-trip time has been measured. Their
+	 * <code>RttEstimator</code> holds the per-person latency.
+	 * @return measuredPersons the persons with at least one round-trip time sample
+	 */
+	public Collection<Person> getMeasuredPersons() {
+		return measuredPersons.values();
+	}
+	
+	/**
+	 * Adds a round-trip time sample to the estimate of a person.
+	 * @param person the person that acknowledged the packet
+	 * @param rtt the measured round-trip time (milliseconds)
+	 */
+	public void addRoundTripTime(Person person, double rtt) {
+		person.getRttEstimator().addSample(rtt);
+		measuredPersons.put(person.getID(), person);
+	}
+
 	/**
 	 * Increments the sessionTime field.
 	 */
-	public void increaseSessionTime() {
+	public synchronized void increaseSessionTime() {
 		sessionTime++;
 	}
 	
 	/**
 	 * Increments the packetsForwarded field.
 	 */
-	public void increasePacketsForwarded() {
+	public synchronized void increasePacketsForwarded() {
 		packetsForwarded++;
 	}
 	
 	/**
 	 * Increments the packetsIgnored field.
 	 */
-	public void increasePacketsIgnored() {
+	public synchronized void increasePacketsIgnored() {
 		packetsIgnored++;
 	}
 	
 	/**
 	 * Increments the retransmissionsDone field.
 	 */
-	public void increaseRetransmissionsDone() {
+	public synchronized void increaseRetransmissionsDone() {
 		retransmissionsDone++;
 	}
 	
 	/**
 	 * Increments the pulsesSent field.
 	 */
-	public void increasePulsesSent() {
+	public synchronized void increasePulsesSent() {
 		pulsesSent++;
 	}
 	
 	/**
 	 * Increments the privateMessagesSent field.
 	 */
-	public void increasePrivateMessagesSent() {
+	public synchronized void increasePrivateMessagesSent() {
 		privateMessagesSent++;
 	}
 	
 	/**
 	 * Increments the globalMessagesSent field.
 	 */
-	public void increaseGlobalMessagesSent() {
+	public synchronized void increaseGlobalMessagesSent() {
 		globalMessagesSent++;
 	}
 	
 	/**
 	 * Increments the acknowledgementsSent field.
 	 */
-	public void increaseAcknowlegdementsSent() {
+	public synchronized void increaseAcknowlegdementsSent() {
 		acknowledgementsSent++;
 	}
 	
 	/**
 	 * Increments the securitymessagesSent field.
 	 */
-	public void increaseSecurityMessagesSent() {
+	public synchronized void increaseSecurityMessagesSent() {
 		securityMessagesSent++;
 	}
 	
 	/**
 	 * Increments the pulsesReceived field.
 	 */
-	public void increasePulsesReceived() {
+	public synchronized void increasePulsesReceived() {
 		pulsesReceived++;
 	}
 	
 	/**
 	 * Increments the privateMessagesReceived field.
 	 */
-	public void increasePrivateMessagesReceived() {
+	public synchronized void increasePrivateMessagesReceived() {
 		privateMessagesReceived++;
 	}
 	
 	/**
 	 * Increments the globalMessagesReceived field.
 	 */
-	public void increaseGlobalMessagesReceived() {
+	public synchronized void increaseGlobalMessagesReceived() {
 		globalMessagesReceived++;
 	}
 	
 	/**
 	 * Increments the acknowledgementsReceived field.
 	 */
-	public void increaseAcknowlegdementsReceived() {
+	public synchronized void increaseAcknowlegdementsReceived() {
 		acknowledgementsReceived++;
 	}
 	
 	/**
 	 * Increments the securityMessagesReceived field.
 	 */
-	public void increaseSecurityMessagesReceived() {
+	public synchronized void increaseSecurityMessagesReceived() {
 		securityMessagesReceived++;
 	}
 	
+	/**
+	 * Increments the fileChunksSent field.
+	 */
+	public synchronized void increaseFileChunksSent() {
+		fileChunksSent++;
+	}
+	
+	/**
+	 * Increments the parityPacketsSent field.
+	 */
+	public synchronized void increaseParityPacketsSent() {
+		parityPacketsSent++;
+	}
+	
+	/**
+	 * Increments the parityPacketsReceived field.
+	 */
+	public synchronized void increaseParityPacketsReceived() {
+		parityPacketsReceived++;
+	}
+	
+	/**
+	 * Adds to the fileChunksLost field.
+	 * @param chunks the number of chunks that were found missing
+	 */
+	public synchronized void increaseFileChunksLost(int chunks) {
+		fileChunksLost += chunks;
+	}
+	
+	/**
+	 * Increments the fileChunksRecovered field.
+	 */
+	public synchronized void increaseFileChunksRecovered() {
+		fileChunksRecovered++;
+	}
+	
+	/**
+	 * Increments the forwardsSuppressed field.
+	 */
+	public synchronized void increaseForwardsSuppressed() {
+		forwardsSuppressed++;
+	}
+	
+	/**
+	 * Increments the forwardsHopLimited field.
+	 */
+	public synchronized void increaseForwardsHopLimited() {
+		forwardsHopLimited++;
+	}
+	
+	/**
+	 * Increments the forwardsOffPath field.
+	 */
+	public synchronized void increaseForwardsOffPath() {
+		forwardsOffPath++;
+	}
+	
+	/**
+	 * Increments the datagramsSent field.
+	 */
+	public synchronized void increaseDatagramsSent() {
+		datagramsSent++;
+	}
+	
+	/**
+	 * Increments the batchesSent field and adds the packets of the batch to the 
+	 * packetsBatched field.
+	 * @param packets the number of packets in the batch
+	 */
+	public synchronized void increaseBatchesSent(int packets) {
+		batchesSent++;
+		packetsBatched += packets;
+	}
 }
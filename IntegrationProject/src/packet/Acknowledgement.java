@@ -1,6 +1,6 @@
 package packet;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 
 /**
  * A class that stores properties of an <code>Acknowledgement</code> payload-type.
@@ -55,27 +55,20 @@ public class Acknowledgement implements Payload {
 	}
 
 	/**
-	 * Returns the byte array of this <code>Acknowledgement</code> payload.
+	 * Returns the length (bytes) of this <code>Acknowledgement</code> payload when encoded.
 	 */
 	@Override
-	public byte[] getPayloadData() {
-		ArrayList<Byte> resultList = new ArrayList<>();
-		
-		// Message ID to binary
-		for (int i = (ACK_MESSAGE_ID_LENGHT - 1) * 8; i >= 0; i -= 8) {
-			resultList.add((byte) (messageID >> i));
-		}
-		for (int i = (FILE_SEQUENCE_NUMBER - 1) * 8; i >= 0; i -= 8) {
-			resultList.add((byte) (fileSequenceNumber >> i));
-		}
-		
-		// Convert ArrayList to byte[]
-		byte[] result = new byte[resultList.size()];
-		for (int i = 0; i < result.length; i++) {
-			result[i] = resultList.get(i);
-		}
-		
-		return result;
+	public int encodedLength() {
+		return ACK_HEADER_LENGTH;
+	}
+
+	/**
+	 * Writes this <code>Acknowledgement</code> payload to the given buffer.
+	 */
+	@Override
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putShort((short) messageID);
+		buffer.put((byte) fileSequenceNumber);
 	}
 
 	public int getMessageID() {
@@ -0,0 +1,96 @@
+package packet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A class that packs several small packets into a single datagram, so that they cost one
+ * send call instead of one each. A batch starts with an extended packet header of type
+ * <code>Payload.BATCH</code>, followed by the packets as length-prefixed frames:
+ * <ul>
+ * <li>frameLength (2 bytes): the length of the frame;</li>
+ * <li>frame (frameLength bytes): a complete encoded packet, header included.</li>
+ * </ul>
+ * A batch only travels a single hop: the receiver unpacks it and handles every packet on
+ * its own, including forwarding it.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class Batch {
+
+	/**
+	 * The length (bytes) of the frameLength field in front of every frame.
+	 */
+	public static final int FRAME_LENGTH_LENGTH = 2;
+
+	/**
+	 * The maximum length (bytes) of a batch: the payload of a UDP datagram that fits in a
+	 * single Ethernet frame, so that a batch is never fragmented.
+	 */
+	public static final int MAXIMUM_LENGTH = 1472;
+
+	/**
+	 * The maximum length (bytes) of a frame in a batch.
+	 */
+	public static final int MAXIMUM_FRAME_LENGTH = MAXIMUM_LENGTH - Packet.EXTENDED_HEADER_LENGTH - FRAME_LENGTH_LENGTH;
+
+	/**
+	 * Writes the header of a batch to the given buffer, starting at the buffer's position.
+	 * @param buffer the buffer to write the batch to
+	 * @param senderID the ID of the node that sends the batch
+	 */
+	public static void writeHeader(ByteBuffer buffer, int senderID) {
+		buffer.putInt(senderID);
+		buffer.putInt(0);
+		buffer.putShort((short) 0);
+		buffer.put((byte) (Payload.BATCH | Packet.EXTENDED_HEADER_FLAG));
+		buffer.put((byte) 0);
+		buffer.putInt(senderID);
+		buffer.putInt(Packet.FLOOD);
+	}
+
+	/**
+	 * Writes a packet as a frame to the given buffer, starting at the buffer's position.
+	 * @param buffer the buffer to write the batch to
+	 * @param frame the encoded packet, from its position up to its limit; its position is
+	 * not changed
+	 */
+	public static void writeFrame(ByteBuffer buffer, ByteBuffer frame) {
+		buffer.putShort((short) frame.remaining());
+		buffer.put(frame.duplicate());
+	}
+
+	/**
+	 * Returns whether the datagram that starts at the buffer's position is a batch.
+	 * @param datagram the buffer holding the received datagram
+	 * @return true if the datagram is a batch, otherwise false
+	 */
+	public static boolean isBatch(ByteBuffer datagram) {
+		return datagram.remaining() >= Packet.EXTENDED_HEADER_LENGTH && PacketCodec.isExtended(datagram)
+				&& PacketCodec.getTypeIdentifier(datagram) == Payload.BATCH;
+	}
+
+	/**
+	 * Returns the frames of a received batch as views on the batch, without copying them.
+	 * A frame that does not fit in the batch ends the batch.
+	 * @param batch the buffer holding the received batch, from its position up to its limit
+	 * @return frames the views on the packets in the batch
+	 */
+	public static List<ByteBuffer> getFrames(ByteBuffer batch) {
+		List<ByteBuffer> frames = new ArrayList<>();
+		int offset = batch.position() + Packet.EXTENDED_HEADER_LENGTH;
+		while (offset + FRAME_LENGTH_LENGTH <= batch.limit()) {
+			int frameLength = batch.getShort(offset) & 0xFFFF;
+			offset += FRAME_LENGTH_LENGTH;
+			if (frameLength == 0 || offset + frameLength > batch.limit()) {
+				break;
+			}
+			ByteBuffer frame = batch.duplicate();
+			frame.limit(offset + frameLength);
+			frame.position(offset);
+			frames.add(frame);
+			offset += frameLength;
+		}
+		return frames;
+	}
+}
@@ -0,0 +1,77 @@
+package packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A class that stores properties of a <code>ChunkAcknowledgement</code> payload-type. It
+ * acknowledges either the <code>FileManifest</code> or one <code>FileMessageV2</code> chunk
+ * of a large file transfer.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class ChunkAcknowledgement implements Payload {
+
+	/**
+	 * The total chunk acknowledgement header length (bytes).
+	 */
+	public static final int CHUNK_ACK_HEADER_LENGTH = 8;
+
+	/**
+	 * The length (bytes) of the fileID field in the payload.
+	 */
+	public static final int FILE_ID_LENGTH = 4;
+
+	/**
+	 * The length (bytes) of the chunkIndex field in the payload.
+	 */
+	public static final int CHUNK_INDEX_LENGTH = 4;
+
+	/**
+	 * The chunk index that acknowledges the <code>FileManifest</code> of a file.
+	 */
+	public static final int MANIFEST_INDEX = -1;
+
+	/**
+	 * The ID of the file of the acknowledged chunk.
+	 */
+	private int fileID;
+
+	/**
+	 * The index of the acknowledged chunk, or <code>MANIFEST_INDEX</code>.
+	 */
+	private int chunkIndex;
+
+	/**
+	 * Constructs a chunk acknowledgement <code>Payload</code>.
+	 * @param fileID the ID of the file of the acknowledged chunk
+	 * @param chunkIndex the index of the acknowledged chunk, or <code>MANIFEST_INDEX</code>
+	 */
+	public ChunkAcknowledgement(int fileID, int chunkIndex) {
+		this.fileID = fileID;
+		this.chunkIndex = chunkIndex;
+	}
+
+	/**
+	 * Returns the length (bytes) of this <code>ChunkAcknowledgement</code> payload when encoded.
+	 */
+	@Override
+	public int encodedLength() {
+		return CHUNK_ACK_HEADER_LENGTH;
+	}
+
+	/**
+	 * Writes this <code>ChunkAcknowledgement</code> payload to the given buffer.
+	 */
+	@Override
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putInt(fileID);
+		buffer.putInt(chunkIndex);
+	}
+
+	public int getFileID() {
+		return fileID;
+	}
+
+	public int getChunkIndex() {
+		return chunkIndex;
+	}
+}
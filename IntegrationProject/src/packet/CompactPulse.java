@@ -0,0 +1,148 @@
+package packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A class that stores properties of a compact pulse payload-type. A compact pulse only
+ * identifies the state of its sender by a version counter and a hash of its name; the name
+ * and level are only added (the full form) when they changed, or when a node asks for them
+ * with a <code>PulseRequest</code>. The payload consists of:
+ * <ul>
+ * <li>version (2 bytes): the version of the sender's name and level;</li>
+ * <li>nameHash (4 bytes): the hash of the sender's name;</li>
+ * <li>nameLength (1 byte): the length of the name, 0 in the compact form;</li>
+ * <li>level (1 byte) and name (nameLength bytes): only in the full form.</li>
+ * </ul>
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class CompactPulse implements Payload {
+
+	/**
+	 * The total compact pulse header length (bytes).
+	 */
+	public static final int COMPACT_PULSE_HEADER_LENGTH = 7;
+
+	/**
+	 * The length (bytes) of the version field in the payload.
+	 */
+	public static final int VERSION_LENGTH = 2;
+
+	/**
+	 * The length (bytes) of the nameHash field in the payload.
+	 */
+	public static final int NAME_HASH_LENGTH = 4;
+
+	/**
+	 * The length (bytes) of the nameLength field in the payload.
+	 */
+	public static final int NAME_LENGTH_LENGTH = 1;
+
+	/**
+	 * The length (bytes) of the level field in the payload, only present in the full form.
+	 */
+	public static final int LEVEL_LENGTH = 1;
+
+	/**
+	 * The version of the sender's name and level, increased whenever one of them changes.
+	 */
+	private int version;
+
+	/**
+	 * The hash of the sender's name.
+	 */
+	private int nameHash;
+
+	/**
+	 * The name of the sender, or null in the compact form.
+	 */
+	private String name;
+
+	/**
+	 * The level of the sender, only meaningful in the full form.
+	 */
+	private int level;
+
+	/**
+	 * Constructs a compact pulse <code>Payload</code> in the compact form.
+	 * @param version the version of the sender's name and level
+	 * @param nameHash the hash of the sender's name
+	 */
+	public CompactPulse(int version, int nameHash) {
+		this(version, nameHash, null, 0);
+	}
+
+	/**
+	 * Constructs a compact pulse <code>Payload</code> in the full form.
+	 * @param version the version of the sender's name and level
+	 * @param nameHash the hash of the sender's name
+	 * @param name the name of the sender, or null for the compact form
+	 * @param level the level of the sender
+	 */
+	public CompactPulse(int version, int nameHash, String name, int level) {
+		this.version = version & 0xFFFF;
+		this.nameHash = nameHash;
+		this.name = name;
+		this.level = level;
+	}
+
+	/**
+	 * Returns the hash of a name, as it is carried by a <code>CompactPulse</code>.
+	 * @param name the name
+	 * @return nameHash the hash of the name
+	 */
+	public static int hashName(String name) {
+		return name.hashCode();
+	}
+
+	/**
+	 * Returns the length (bytes) of this <code>CompactPulse</code> payload when encoded.
+	 */
+	@Override
+	public int encodedLength() {
+		return COMPACT_PULSE_HEADER_LENGTH + (isFull() ? LEVEL_LENGTH + name.length() : 0);
+	}
+
+	/**
+	 * Writes this <code>CompactPulse</code> payload to the given buffer.
+	 */
+	@Override
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putShort((short) version);
+		buffer.putInt(nameHash);
+		if (!isFull()) {
+			buffer.put((byte) 0);
+			return;
+		}
+		buffer.put((byte) name.length());
+		buffer.put((byte) level);
+
+		// Name to binary
+		for (int i = 0; i < name.length(); i++) {
+			buffer.put((byte) name.charAt(i));
+		}
+	}
+
+	/**
+	 * Returns whether this pulse carries the name and level of its sender.
+	 * @return true if this is the full form, otherwise false
+	 */
+	public boolean isFull() {
+		return name != null && !name.isEmpty();
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public int getNameHash() {
+		return nameHash;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+}
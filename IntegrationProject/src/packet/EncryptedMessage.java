@@ -1,6 +1,7 @@
 package packet;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * A class that stores properties of an <code>EncryptedMessage</code> payload-type.
@@ -45,8 +46,14 @@ public class EncryptedMessage implements Payload {
 	
 	/**
 	 * The cipher of the encrypted plain text of the encapsulated <code>Message</code>.
+	 * Null until it is requested if this payload was decoded from a received datagram.
 	 */
 	private String cipher;
+	
+	/**
+	 * A view on the received bytes of the cipher. Null if this payload was constructed locally.
+	 */
+	private ByteBuffer cipherData;
 
 	/**
 	 * Constructs an encrypted message <code>Payload</code>.
@@ -62,41 +69,53 @@ public class EncryptedMessage implements Payload {
 		this.cipherLength = cipherLength;
 		this.cipher = cipher;
 	}
+	
+	/**
+	 * Constructs an encrypted message <code>Payload</code> that keeps a view on the 
+	 * received cipher bytes. The cipher is only decoded when it is requested.
+	 * @param messageID the messageID of the encapsulated <code>Message</code>
+	 * @param midWayKey the midWayKey (localHalfKey) of the sender that is used to encrypt the
+	 * message
+	 * @param cipherLength the length (bytes, UTF-8) of the cipher
+	 * @param cipherData a view on the received bytes of the cipher
+	 */
+	EncryptedMessage(int messageID, int midWayKey, int cipherLength, ByteBuffer cipherData) {
+		this.messageID = messageID;
+		this.midWayKey = midWayKey;
+		this.cipherLength = cipherLength;
+		this.cipherData = cipherData;
+	}
 
 	/**
-	 * Returns the byte array of this <code>EncryptedMessage</code> payload.
+	 * Returns the length (bytes) of this <code>EncryptedMessage</code> payload when encoded.
 	 */
 	@Override
-	public byte[] getPayloadData() {
-		ArrayList<Byte> resultList = new ArrayList<>();
-		
-		// Message ID to binary
-		for (int i = (MESSAGE_ID_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			resultList.add((byte) (messageID >> i));
-		}
-		
-		// MidWayKey to binary
-		for (int i = (MID_WAY_KEY_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			resultList.add((byte) (midWayKey >> i));
+	public int encodedLength() {
+		if (cipherData != null) {
+			return ENCRYPTED_MESSAGE_HEADER_LENGTH + cipherData.remaining();
 		}
+		return ENCRYPTED_MESSAGE_HEADER_LENGTH + cipher.length();
+	}
+
+	/**
+	 * Writes this <code>EncryptedMessage</code> payload to the given buffer.
+	 */
+	@Override
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putShort((short) messageID);
+		buffer.put((byte) midWayKey);
+		buffer.putShort((short) cipherLength);
 		
-		// CipherLength to binary
-		for (int i = (CIPHER_LENGTH_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			resultList.add((byte) (cipherLength >> i));
+		// Copy the received cipher bytes as they are, without decoding them
+		if (cipherData != null) {
+			buffer.put(cipherData.duplicate());
+			return;
 		}
 		
 		// EncryptedMessage to binary
 		for (int i = 0; i < cipher.length(); i++) {
-			resultList.add((byte)cipher.charAt(i));
-		}
-
-		// Convert ArrayList to byte[]
-		byte[] result = new byte[resultList.size()];
-		for (int i = 0; i < result.length; i++) {
-			result[i] = resultList.get(i);
+			buffer.put((byte) cipher.charAt(i));
 		}
-		
-		return result;
 	}
 	
 	public int getMessageID() {
@@ -111,7 +130,14 @@ public class EncryptedMessage implements Payload {
 		return cipherLength;
 	}
 	
+	/**
+	 * Returns the cipher. Decodes it from the received bytes on the first call.
+	 * @return cipher the cipher of the encrypted plain text
+	 */
 	public String getCipher() {
+		if (cipher == null) {
+			cipher = StandardCharsets.UTF_8.decode(cipherData.duplicate()).toString();
+		}
 		return cipher;
 	}
 }
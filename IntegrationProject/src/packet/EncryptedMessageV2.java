@@ -0,0 +1,103 @@
+package packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A class that stores properties of an <code>EncryptedMessageV2</code> payload-type. It
+ * carries a private message that is encrypted with AES-GCM, as raw bytes. The payload
+ * consists of:
+ * <ul>
+ * <li>messageID (2 bytes): the messageID of the encapsulated <code>Message</code>;</li>
+ * <li>nonce (12 bytes): the AES-GCM nonce of the message;</li>
+ * <li>cipherLength (2 bytes): the length of the ciphertext, including the tag;</li>
+ * <li>ciphertext (cipherLength bytes): the encrypted UTF-8 text, followed by the 16 byte
+ * authentication tag.</li>
+ * </ul>
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class EncryptedMessageV2 implements Payload {
+
+	/**
+	 * The total header length (bytes) of the encrypted message (excluding the ciphertext).
+	 */
+	public static final int ENCRYPTED_MESSAGE_V2_HEADER_LENGTH = 16;
+
+	/**
+	 * The length (bytes) of the messageID field in the encrypted message.
+	 */
+	public static final int MESSAGE_ID_LENGTH = 2;
+
+	/**
+	 * The length (bytes) of the nonce field in the encrypted message.
+	 */
+	public static final int NONCE_LENGTH = 12;
+
+	/**
+	 * The length (bytes) of the cipherLength field in the encrypted message.
+	 */
+	public static final int CIPHER_LENGTH_LENGTH = 2;
+
+	/**
+	 * The messageID of the encapsulated <code>Message</code>.
+	 */
+	private int messageID;
+
+	/**
+	 * The AES-GCM nonce of the message.
+	 */
+	private byte[] nonce;
+
+	/**
+	 * The ciphertext and tag, from its position up to its limit. A view on the received
+	 * bytes if this payload was decoded from a received datagram.
+	 */
+	private ByteBuffer ciphertext;
+
+	/**
+	 * Constructs an encrypted message <code>Payload</code>.
+	 * @param messageID the messageID of the encapsulated <code>Message</code>
+	 * @param nonce the AES-GCM nonce of the message
+	 * @param ciphertext the ciphertext and tag, from its position up to its limit
+	 */
+	public EncryptedMessageV2(int messageID, byte[] nonce, ByteBuffer ciphertext) {
+		this.messageID = messageID;
+		this.nonce = nonce;
+		this.ciphertext = ciphertext;
+	}
+
+	/**
+	 * Returns the length (bytes) of this <code>EncryptedMessageV2</code> payload when encoded.
+	 */
+	@Override
+	public int encodedLength() {
+		return ENCRYPTED_MESSAGE_V2_HEADER_LENGTH + ciphertext.remaining();
+	}
+
+	/**
+	 * Writes this <code>EncryptedMessageV2</code> payload to the given buffer.
+	 */
+	@Override
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putShort((short) messageID);
+		buffer.put(nonce);
+		buffer.putShort((short) ciphertext.remaining());
+		buffer.put(ciphertext.duplicate());
+	}
+
+	public int getMessageID() {
+		return messageID;
+	}
+
+	public byte[] getNonce() {
+		return nonce;
+	}
+
+	/**
+	 * Returns the ciphertext and tag. The returned buffer is a duplicate, so reading it does
+	 * not change this payload.
+	 * @return ciphertext the ciphertext and tag, from its position up to its limit
+	 */
+	public ByteBuffer getCiphertext() {
+		return ciphertext.duplicate();
+	}
+}
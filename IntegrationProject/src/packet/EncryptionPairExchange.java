@@ -1,6 +1,6 @@
 package packet;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 
 /**
  * A class that stores properties of an <code>EncryptionPairExchange</code> payload-type.
@@ -56,34 +56,21 @@ public class EncryptionPairExchange implements Payload {
 	}
 	
 	/**
-	 * Returns the byte array of this <code>EncryptedMessage</code> payload.
+	 * Returns the length (bytes) of this <code>EncryptionPairExchange</code> payload when encoded.
 	 */
 	@Override
-	public byte[] getPayloadData() {
-		ArrayList<Byte> resultList = new ArrayList<>();
-		
-		// Prime to binary
-		for (int i = (PRIME_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			resultList.add((byte) (prime >> i));
-		}
-		
-		// Generator to binary
-		for (int i = (GENERATOR_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			resultList.add((byte) (generator >> i));
-		}
-		
-		// LocalHalfKey to binary
-		for (int i = (HALF_KEY_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			resultList.add((byte) (localHalfKey >> i));
-		}
-		
-		// Convert ArrayList to byte[]
-		byte[] result = new byte[resultList.size()];
-		for (int i = 0; i < result.length; i++) {
-			result[i] = resultList.get(i);
-		}
-		
-		return result;
+	public int encodedLength() {
+		return ENCRYPTION_PAIR_HEADER_LENGTH;
+	}
+
+	/**
+	 * Writes this <code>EncryptionPairExchange</code> payload to the given buffer.
+	 */
+	@Override
+	public void writeTo(ByteBuffer buffer) {
+		buffer.put((byte) prime);
+		buffer.put((byte) generator);
+		buffer.put((byte) localHalfKey);
 	}
 
 	public int getPrime() {
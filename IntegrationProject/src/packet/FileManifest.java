@@ -0,0 +1,137 @@
+package packet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A class that stores properties of a <code>FileManifest</code> payload-type. A manifest
+ * announces a large file transfer: it carries the size of the file, the number and size
+ * of its chunks and its name, so the receiver can prepare for the 
+ * <code>FileMessageV2</code> chunks that follow.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class FileManifest implements Payload {
+
+	/**
+	 * The total header length (bytes) of the manifest (excluding the file name).
+	 */
+	public static final int FILE_MANIFEST_HEADER_LENGTH = 22;
+
+	/**
+	 * The length (bytes) of the fileID field in the manifest.
+	 */
+	public static final int FILE_ID_LENGTH = 4;
+
+	/**
+	 * The length (bytes) of the fileSize field in the manifest.
+	 */
+	public static final int FILE_SIZE_LENGTH = 8;
+
+	/**
+	 * The length (bytes) of the totalChunks field in the manifest.
+	 */
+	public static final int TOTAL_CHUNKS_LENGTH = 4;
+
+	/**
+	 * The length (bytes) of the chunkSize field in the manifest.
+	 */
+	public static final int CHUNK_SIZE_LENGTH = 4;
+
+	/**
+	 * The length (bytes) of the nameLength field in the manifest.
+	 */
+	public static final int NAME_LENGTH_LENGTH = 2;
+
+	/**
+	 * The maximum size (bytes) of a file that is sent or received.
+	 */
+	public static final long MAXIMUM_FILE_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * The ID of the announced file.
+	 */
+	private int fileID;
+
+	/**
+	 * The size (bytes) of the announced file.
+	 */
+	private long fileSize;
+
+	/**
+	 * The number of chunks in which the file is sent.
+	 */
+	private int totalChunks;
+
+	/**
+	 * The size (bytes) of every chunk except the last one.
+	 */
+	private int chunkSize;
+
+	/**
+	 * The name of the file.
+	 */
+	private String fileName;
+
+	/**
+	 * The UTF-8 encoding of the name of the file.
+	 */
+	private byte[] encodedFileName;
+
+	/**
+	 * Constructs a file manifest <code>Payload</code>.
+	 * @param fileID the ID of the announced file
+	 * @param fileSize the size (bytes) of the file
+	 * @param totalChunks the number of chunks in which the file is sent
+	 * @param chunkSize the size (bytes) of every chunk except the last one
+	 * @param fileName the name of the file
+	 */
+	public FileManifest(int fileID, long fileSize, int totalChunks, int chunkSize, String fileName) {
+		this.fileID = fileID;
+		this.fileSize = fileSize;
+		this.totalChunks = totalChunks;
+		this.chunkSize = chunkSize;
+		this.fileName = fileName;
+		this.encodedFileName = fileName.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the length (bytes) of this <code>FileManifest</code> payload when encoded.
+	 */
+	@Override
+	public int encodedLength() {
+		return FILE_MANIFEST_HEADER_LENGTH + encodedFileName.length;
+	}
+
+	/**
+	 * Writes this <code>FileManifest</code> payload to the given buffer.
+	 */
+	@Override
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putInt(fileID);
+		buffer.putLong(fileSize);
+		buffer.putInt(totalChunks);
+		buffer.putInt(chunkSize);
+		buffer.putShort((short) encodedFileName.length);
+		buffer.put(encodedFileName);
+	}
+
+	public int getFileID() {
+		return fileID;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public int getTotalChunks() {
+		return totalChunks;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+}
@@ -1,6 +1,6 @@
 package packet;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 
 public class FileMessage implements Payload {
 	
@@ -9,6 +9,19 @@ public class FileMessage implements Payload {
 	 */
 	public static final String FILE_INDICATOR = "FILE_MESSAGE";
 	
+	/**
+	 * The maximum length (bytes) of the file data in one file message. Every chunk except 
+	 * the last one has this length, so chunk i starts at offset i * CHUNK_SIZE in the file.
+	 */
+	public static final int CHUNK_SIZE = 22500;
+	
+	/**
+	 * The maximum number of chunks of a file that is sent with file messages, since the
+	 * totalPackets and sequenceNumber fields are signed bytes. Larger files are sent with
+	 * a <code>FileManifest</code> and <code>FileMessageV2</code> chunks.
+	 */
+	public static final int MAXIMUM_TOTAL_PACKETS = 127;
+	
 	/**
 	 * The total header length (bytes) of the file message (excluding file data).
 	 */
@@ -55,9 +68,16 @@ public class FileMessage implements Payload {
 	
 	/**
 	 * The data of the <code>FileMessage</code> that is encapsulated by this payload.
+	 * Null until it is requested if this payload was decoded from a received datagram.
 	 */
 	private byte[] fileData;
 	
+	/**
+	 * A view on the file data. Either a view on the received bytes or a wrapper 
+	 * around <code>fileData</code>.
+	 */
+	private ByteBuffer fileDataBuffer;
+	
 	/**
 	 * Constructs a file message <code>Payload</code>.
 	 * @param fileID
@@ -72,47 +92,45 @@ public class FileMessage implements Payload {
 		this.totalPackets = totalPackets;
 		this.sequenceNumber = sequenceNumber;
 		this.fileData = fileData;
+		this.fileDataBuffer = ByteBuffer.wrap(fileData);
+	}
+	
+	/**
+	 * Constructs a file message <code>Payload</code> that keeps a view on the file data,
+	 * such as the received bytes or a slice of a mapped file. The file data is only copied 
+	 * when it is requested.
+	 * @param fileID
+	 * @param messageLength
+	 * @param totalPackets
+	 * @param sequenceNumber
+	 * @param fileDataBuffer a view on the file data
+	 */
+	public FileMessage(int fileID, int messageLength, int totalPackets, int sequenceNumber, ByteBuffer fileDataBuffer) {
+		this.fileID = fileID;
+		this.messageLength = messageLength;
+		this.totalPackets = totalPackets;
+		this.sequenceNumber = sequenceNumber;
+		this.fileDataBuffer = fileDataBuffer;
 	}
 
 	/**
-	 * Returns the byte array of this <code>FileMessage</code> payload.
+	 * Returns the length (bytes) of this <code>FileMessage</code> payload when encoded.
 	 */
 	@Override
-	public byte[] getPayloadData() {
-		ArrayList<Byte> resultList = new ArrayList<>();
-		
-		// FileID to binary
-		for (int i = (FILE_ID_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			resultList.add((byte) (fileID >> i));
-		}
-		
-		// messageLength to binary
-		for (int i = (MESSAGE_LENGTH_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			resultList.add((byte) (messageLength >> i));
-		}
-		
-		// totalPackets to binary
-		for (int i = (TOTAL_PACKETS_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			resultList.add((byte) (totalPackets >> i));
-		}
-		
-		// sequenceNumber to binary
-		for (int i = (SEQUENCE_NUMBER_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			resultList.add((byte) (sequenceNumber >> i));
-		}
-		
-		// fileData added to the list
-		for (int i = 0; i < fileData.length; i++) {
-			resultList.add((byte) fileData[i]);
-		}
-		
-		// Convert ArrayList to byte[]
-		byte[] result = new byte[resultList.size()];
-		for (int i = 0; i < result.length; i++) {
-			result[i] = resultList.get(i);
-		}
-		
-		return result;
+	public int encodedLength() {
+		return FILE_MESSAGE_HEADER_LENGTH + fileDataBuffer.remaining();
+	}
+
+	/**
+	 * Writes this <code>FileMessage</code> payload to the given buffer.
+	 */
+	@Override
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putShort((short) fileID);
+		buffer.putInt(messageLength);
+		buffer.put((byte) totalPackets);
+		buffer.put((byte) sequenceNumber);
+		buffer.put(fileDataBuffer.duplicate());
 	}
 
 	public int getFileID() {
@@ -131,7 +149,23 @@ public class FileMessage implements Payload {
 		return sequenceNumber;
 	}
 
+	/**
+	 * Returns the file data. Copies it from the received bytes on the first call.
+	 * @return fileData the file data of this payload
+	 */
 	public byte[] getFileData() {
+		if (fileData == null) {
+			fileData = new byte[fileDataBuffer.remaining()];
+			fileDataBuffer.duplicate().get(fileData);
+		}
 		return fileData;
 	}
+	
+	/**
+	 * Returns a read-only view on the file data, without copying it.
+	 * @return fileDataBuffer a view on the file data of this payload
+	 */
+	public ByteBuffer getFileDataBuffer() {
+		return fileDataBuffer.asReadOnlyBuffer();
+	}
 }
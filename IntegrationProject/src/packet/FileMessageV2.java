@@ -0,0 +1,141 @@
+package packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A class that stores properties of a <code>FileMessageV2</code> payload-type: one chunk
+ * of a large file that was announced by a <code>FileManifest</code>. Unlike 
+ * <code>FileMessage</code>, the fileID and the chunk index are 32-bit fields, so a file
+ * can consist of any number of chunks.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class FileMessageV2 implements Payload {
+
+	/**
+	 * The total header length (bytes) of the file message (excluding file data).
+	 */
+	public static final int FILE_MESSAGE_V2_HEADER_LENGTH = 13;
+
+	/**
+	 * The length (bytes) of the fileID field in the file message.
+	 */
+	public static final int FILE_ID_LENGTH = 4;
+
+	/**
+	 * The length (bytes) of the chunkIndex field in the file message.
+	 */
+	public static final int CHUNK_INDEX_LENGTH = 4;
+
+	/**
+	 * The length (bytes) of the flags field in the file message.
+	 */
+	public static final int FLAGS_LENGTH = 1;
+
+	/**
+	 * The length (bytes) of the dataLength field in the file message.
+	 */
+	public static final int DATA_LENGTH_LENGTH = 4;
+
+	/**
+	 * The flag that marks a chunk of which the data is encrypted with AES-GCM.
+	 */
+	public static final int ENCRYPTED_FLAG = 0x01;
+
+	/**
+	 * The ID of the file that this chunk belongs to.
+	 */
+	private int fileID;
+
+	/**
+	 * The index of this chunk in the file.
+	 */
+	private int chunkIndex;
+
+	/**
+	 * The flags of this chunk: <code>ENCRYPTED_FLAG</code> or 0.
+	 */
+	private int flags;
+
+	/**
+	 * The data of this chunk. Null until it is requested if this payload was decoded 
+	 * from a received datagram.
+	 */
+	private byte[] fileData;
+
+	/**
+	 * A view on the data of this chunk.
+	 */
+	private ByteBuffer fileDataBuffer;
+
+	/**
+	 * Constructs a large file message <code>Payload</code> that keeps a view on the data 
+	 * of the chunk, such as the received bytes or a slice of a mapped file. The data is 
+	 * only copied when it is requested.
+	 * @param fileID the ID of the file that this chunk belongs to
+	 * @param chunkIndex the index of this chunk in the file
+	 * @param flags the flags of this chunk
+	 * @param fileDataBuffer a view on the data of this chunk
+	 */
+	public FileMessageV2(int fileID, int chunkIndex, int flags, ByteBuffer fileDataBuffer) {
+		this.fileID = fileID;
+		this.chunkIndex = chunkIndex;
+		this.flags = flags;
+		this.fileDataBuffer = fileDataBuffer;
+	}
+
+	/**
+	 * Returns the length (bytes) of this <code>FileMessageV2</code> payload when encoded.
+	 */
+	@Override
+	public int encodedLength() {
+		return FILE_MESSAGE_V2_HEADER_LENGTH + fileDataBuffer.remaining();
+	}
+
+	/**
+	 * Writes this <code>FileMessageV2</code> payload to the given buffer.
+	 */
+	@Override
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putInt(fileID);
+		buffer.putInt(chunkIndex);
+		buffer.put((byte) flags);
+		buffer.putInt(fileDataBuffer.remaining());
+		buffer.put(fileDataBuffer.duplicate());
+	}
+
+	public int getFileID() {
+		return fileID;
+	}
+
+	public int getChunkIndex() {
+		return chunkIndex;
+	}
+
+	public int getFlags() {
+		return flags;
+	}
+
+	public int getDataLength() {
+		return fileDataBuffer.remaining();
+	}
+
+	/**
+	 * Returns the data of this chunk. Copies it from the received bytes on the first call.
+	 * @return fileData the data of this chunk
+	 */
+	public byte[] getFileData() {
+		if (fileData == null) {
+			fileData = new byte[fileDataBuffer.remaining()];
+			fileDataBuffer.duplicate().get(fileData);
+		}
+		return fileData;
+	}
+
+	/**
+	 * Returns a read-only view on the data of this chunk, without copying it.
+	 * @return fileDataBuffer a view on the data of this chunk
+	 */
+	public ByteBuffer getFileDataBuffer() {
+		return fileDataBuffer.asReadOnlyBuffer();
+	}
+}
@@ -0,0 +1,172 @@
+package packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A class that stores properties of a <code>FileParity</code> payload-type: the XOR of a
+ * group of consecutive chunks of a file (forward error correction). A receiver that misses
+ * exactly one chunk of the group can rebuild it from the parity and the other chunks of
+ * the group, without waiting for a retransmission. The chunks of a group may differ in
+ * length (only the last chunk of a file is shorter), so the parity also holds the XOR of
+ * the lengths of the chunks.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class FileParity implements Payload {
+
+	/**
+	 * The total header length (bytes) of the file parity (excluding parity data).
+	 */
+	public static final int FILE_PARITY_HEADER_LENGTH = 18;
+
+	/**
+	 * The length (bytes) of the fileID field in the file parity.
+	 */
+	public static final int FILE_ID_LENGTH = 4;
+
+	/**
+	 * The length (bytes) of the firstChunk field in the file parity.
+	 */
+	public static final int FIRST_CHUNK_LENGTH = 4;
+
+	/**
+	 * The length (bytes) of the groupSize field in the file parity.
+	 */
+	public static final int GROUP_SIZE_LENGTH = 2;
+
+	/**
+	 * The length (bytes) of the lengthParity field in the file parity.
+	 */
+	public static final int LENGTH_PARITY_LENGTH = 4;
+
+	/**
+	 * The length (bytes) of the dataLength field in the file parity.
+	 */
+	public static final int DATA_LENGTH_LENGTH = 4;
+
+	/**
+	 * The ID of the file that the group belongs to.
+	 */
+	private int fileID;
+
+	/**
+	 * The index of the first chunk of the group.
+	 */
+	private int firstChunk;
+
+	/**
+	 * The number of chunks in the group.
+	 */
+	private int groupSize;
+
+	/**
+	 * The XOR of the lengths of the chunks in the group.
+	 */
+	private int lengthParity;
+
+	/**
+	 * The XOR of the data of the chunks in the group, each padded with zeroes to the
+	 * length of the longest chunk.
+	 */
+	private ByteBuffer parityData;
+
+	/**
+	 * Constructs a file parity <code>Payload</code>.
+	 * @param fileID the ID of the file that the group belongs to
+	 * @param firstChunk the index of the first chunk of the group
+	 * @param groupSize the number of chunks in the group
+	 * @param lengthParity the XOR of the lengths of the chunks in the group
+	 * @param parityData the XOR of the data of the chunks in the group
+	 */
+	public FileParity(int fileID, int firstChunk, int groupSize, int lengthParity, ByteBuffer parityData) {
+		this.fileID = fileID;
+		this.firstChunk = firstChunk;
+		this.groupSize = groupSize;
+		this.lengthParity = lengthParity;
+		this.parityData = parityData;
+	}
+
+	/**
+	 * Computes the parity of a group of chunks.
+	 * @param fileID the ID of the file that the group belongs to
+	 * @param firstChunk the index of the first chunk of the group
+	 * @param chunks the data of the chunks in the group, in order
+	 * @return parity the parity of the group
+	 */
+	public static FileParity of(int fileID, int firstChunk, ByteBuffer[] chunks) {
+		int maximumLength = 0;
+		int lengthParity = 0;
+		for (ByteBuffer chunk : chunks) {
+			maximumLength = Math.max(maximumLength, chunk.remaining());
+			lengthParity ^= chunk.remaining();
+		}
+		byte[] parityData = new byte[maximumLength];
+		for (ByteBuffer chunk : chunks) {
+			xor(parityData, chunk);
+		}
+		return new FileParity(fileID, firstChunk, chunks.length, lengthParity, ByteBuffer.wrap(parityData));
+	}
+
+	/**
+	 * XORs the data of a chunk into a parity, from the start of the parity. The position
+	 * of the chunk is not changed.
+	 * @param parityData the parity, at least as long as the chunk
+	 * @param chunk the data of the chunk
+	 */
+	public static void xor(byte[] parityData, ByteBuffer chunk) {
+		int position = chunk.position();
+		for (int i = 0; i < chunk.remaining(); i++) {
+			parityData[i] ^= chunk.get(position + i);
+		}
+	}
+
+	/**
+	 * Returns the length (bytes) of this <code>FileParity</code> payload when encoded.
+	 */
+	@Override
+	public int encodedLength() {
+		return FILE_PARITY_HEADER_LENGTH + parityData.remaining();
+	}
+
+	/**
+	 * Writes this <code>FileParity</code> payload to the given buffer.
+	 */
+	@Override
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putInt(fileID);
+		buffer.putInt(firstChunk);
+		buffer.putShort((short) groupSize);
+		buffer.putInt(lengthParity);
+		buffer.putInt(parityData.remaining());
+		buffer.put(parityData.duplicate());
+	}
+
+	public int getFileID() {
+		return fileID;
+	}
+
+	public int getFirstChunk() {
+		return firstChunk;
+	}
+
+	public int getGroupSize() {
+		return groupSize;
+	}
+
+	public int getLengthParity() {
+		return lengthParity;
+	}
+
+	/**
+	 * Returns a copy of the parity data, so that it can be XORed with the other chunks.
+	 * @return parityData the XOR of the data of the chunks in the group
+	 */
+	public byte[] getParityData() {
+		byte[] data = new byte[parityData.remaining()];
+		parityData.duplicate().get(data);
+		return data;
+	}
+
+	public int getDataLength() {
+		return parityData.remaining();
+	}
+}
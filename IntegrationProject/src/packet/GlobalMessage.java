@@ -1,6 +1,6 @@
 package packet;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 
 /**
  * A class that stores properties of a <code>GlobalMessage</code> payload-type.
@@ -51,34 +51,25 @@ public class GlobalMessage implements Payload {
 	}
 
 	/**
-	 * Returns the byte array of this <code>GlobalMessage</code> payload.
+	 * Returns the length (bytes) of this <code>GlobalMessage</code> payload when encoded.
 	 */
 	@Override
-	public byte[] getPayloadData() {
-		ArrayList<Byte> resultList = new ArrayList<>();
-		
-		// MessageID to binary
-		for (int i = (MESSAGE_ID_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			resultList.add((byte) (messageID >> i));
-		}
-		
-		// MessageLength to binary
-		for (int i = (MESSAGE_LENGTH_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			resultList.add((byte) (messageLength >> i));
-		}
+	public int encodedLength() {
+		return GLOBAL_MESSAGE_HEADER_LENGTH + plainText.length();
+	}
+
+	/**
+	 * Writes this <code>GlobalMessage</code> payload to the given buffer.
+	 */
+	@Override
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putShort((short) messageID);
+		buffer.putShort((short) messageLength);
 		
 		// GlobalMessage plain text to binary
 		for (int i = 0; i < plainText.length(); i++) {
-			resultList.add((byte)plainText.charAt(i));
+			buffer.put((byte) plainText.charAt(i));
 		}
-		
-		// Convert ArrayList to byte[]
-		byte[] result = new byte[resultList.size()];
-		for (int i = 0; i < result.length; i++) {
-			result[i] = resultList.get(i);
-		}
-		
-		return result;
 	}
 
 	public int getMessageID() {
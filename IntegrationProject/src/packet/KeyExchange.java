@@ -0,0 +1,83 @@
+package packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A class that stores properties of a <code>KeyExchange</code> payload-type. It carries
+ * the encoded (X.509) ephemeral public key of an elliptic-curve Diffie-Hellman key
+ * agreement, either to start a handshake or to answer one. The payload consists of:
+ * <ul>
+ * <li>flags (1 byte): <code>ACKNOWLEDGEMENT_FLAG</code> if this answers a handshake;</li>
+ * <li>publicKeyLength (2 bytes): the length of the public key;</li>
+ * <li>publicKey (publicKeyLength bytes): the encoded public key.</li>
+ * </ul>
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class KeyExchange implements Payload {
+
+	/**
+	 * The total key exchange header length (bytes).
+	 */
+	public static final int KEY_EXCHANGE_HEADER_LENGTH = 3;
+
+	/**
+	 * The length (bytes) of the flags field in the payload.
+	 */
+	public static final int FLAGS_LENGTH = 1;
+
+	/**
+	 * The length (bytes) of the publicKeyLength field in the payload.
+	 */
+	public static final int PUBLIC_KEY_LENGTH_LENGTH = 2;
+
+	/**
+	 * The flag that marks a key exchange that answers a handshake.
+	 */
+	public static final int ACKNOWLEDGEMENT_FLAG = 0x01;
+
+	/**
+	 * The flags of this key exchange.
+	 */
+	private int flags;
+
+	/**
+	 * The encoded public key.
+	 */
+	private byte[] publicKey;
+
+	/**
+	 * Constructs a key exchange <code>Payload</code>.
+	 * @param acknowledgement true if this key exchange answers a handshake
+	 * @param publicKey the encoded public key
+	 */
+	public KeyExchange(boolean acknowledgement, byte[] publicKey) {
+		this.flags = acknowledgement ? ACKNOWLEDGEMENT_FLAG : 0;
+		this.publicKey = publicKey;
+	}
+
+	/**
+	 * Returns the length (bytes) of this <code>KeyExchange</code> payload when encoded.
+	 */
+	@Override
+	public int encodedLength() {
+		return KEY_EXCHANGE_HEADER_LENGTH + publicKey.length;
+	}
+
+	/**
+	 * Writes this <code>KeyExchange</code> payload to the given buffer.
+	 */
+	@Override
+	public void writeTo(ByteBuffer buffer) {
+		buffer.put((byte) flags);
+		buffer.putShort((short) publicKey.length);
+		buffer.put(publicKey);
+	}
+
+	public boolean isAcknowledgement() {
+		return (flags & ACKNOWLEDGEMENT_FLAG) != 0;
+	}
+
+	public byte[] getPublicKey() {
+		return publicKey;
+	}
+}
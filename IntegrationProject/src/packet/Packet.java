@@ -1,21 +1,32 @@
 package packet;
 
 import java.net.DatagramPacket;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 
 import connection.Connection;
 
 /**
  * A class that stores properties and a <code>Payload</code> of a <code>Packet</code>.
+ * <p>
+ * A packet is encoded with the extended header, which adds the hop limit, the last hop and
+ * the next hop, or with the original header that older nodes read. The 
+ * <code>Sender</code> only uses the extended header for nodes that have announced that they
+ * read it.
  * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
  */
 public class Packet {
 	
 	/**
-	 * The total length (bytes) of the packet header.
+	 * The total length (bytes) of the original packet header, without extension.
 	 */
 	public static final int HEADER_LENGTH = 11;
 	
+	/**
+	 * The total length (bytes) of the extended packet header, which adds the hop limit, 
+	 * the last hop and the next hop.
+	 */
+	public static final int EXTENDED_HEADER_LENGTH = 20;
+	
 	/**
 	 * The length (bytes) of the senderID field in the packet header.
 	 */
@@ -35,6 +46,64 @@ public class Packet {
 	 * The length (bytes) of the typeIdentifier field in the packet header.
 	 */
 	public static final int TYPE_LENGTH = 1;
+	
+	/**
+	 * The length (bytes) of the hopLimit field in the extended packet header.
+	 */
+	public static final int HOP_LIMIT_LENGTH = 1;
+	
+	/**
+	 * The length (bytes) of the lastHopID field in the extended packet header.
+	 */
+	public static final int LAST_HOP_LENGTH = 4;
+	
+	/**
+	 * The length (bytes) of the nextHopID field in the extended packet header.
+	 */
+	public static final int NEXT_HOP_LENGTH = 4;
+	
+	/**
+	 * The offset (bytes) of the sequenceNumber field in the packet header.
+	 */
+	public static final int SEQUENCE_NUM_OFFSET = SENDER_LENGTH + RECEIVER_LENGTH;
+	
+	/**
+	 * The offset (bytes) of the hopLimit field in the extended packet header. It follows
+	 * the original header, so the offsets of the original fields do not change.
+	 */
+	public static final int HOP_LIMIT_OFFSET = HEADER_LENGTH;
+	
+	/**
+	 * The offset (bytes) of the lastHopID field in the extended packet header.
+	 */
+	public static final int LAST_HOP_OFFSET = HOP_LIMIT_OFFSET + HOP_LIMIT_LENGTH;
+	
+	/**
+	 * The offset (bytes) of the nextHopID field in the extended packet header.
+	 */
+	public static final int NEXT_HOP_OFFSET = LAST_HOP_OFFSET + LAST_HOP_LENGTH;
+	
+	/**
+	 * The flag in the typeIdentifier byte that marks an extended header. A packet without
+	 * the flag has the original header and no hop limit.
+	 */
+	public static final int EXTENDED_HEADER_FLAG = 0x80;
+	
+	/**
+	 * The bits of the typeIdentifier byte that hold the type identifier itself.
+	 */
+	public static final int TYPE_MASK = 0x7F;
+	
+	/**
+	 * The number of times that a packet may be forwarded on its way through the mesh.
+	 */
+	public static final int DEFAULT_HOP_LIMIT = 8;
+	
+	/**
+	 * The nextHopID of a packet that every node may forward, because no route to its 
+	 * receiver is known (or because it is meant for everyone).
+	 */
+	public static final int FLOOD = -1;
 
 	/**
 	 * The ID of the sender of the <code>Packet</code>.
@@ -56,10 +125,37 @@ public class Packet {
 	 */
 	private byte typeIdentifier;
 	
+	/**
+	 * The number of times that this packet may still be forwarded.
+	 */
+	private int hopLimit;
+	
+	/**
+	 * The ID of the node that sent this copy of the packet: the sender, or the last node
+	 * that forwarded it.
+	 */
+	private int lastHopID;
+	
+	/**
+	 * The ID of the only node that should forward this packet, or <code>FLOOD</code>.
+	 */
+	private int nextHopID = FLOOD;
+	
+	/**
+	 * True if this packet is encoded with the extended header, false for the original header.
+	 */
+	private boolean extendedHeader = true;
+	
 	/**
 	 * The <code>Payload</code> that comes with this packet.
 	 */
 	private Payload payload;
+	
+	/**
+	 * The encoded form of this <code>Packet</code>, kept so that a packet that is sent
+	 * more than once is serialized only once. Null until it is first requested.
+	 */
+	private ByteBuffer encoding;
 
 	/**
 	 * Constructs a <code>Packet</code> object that holds all relevant fields and 
@@ -71,54 +167,80 @@ public class Packet {
 	 * @param payload the <code>Payload</code> that comes with this packet.
 	 */
 	public Packet(int senderID, int receiverID, int sequenceNumber, int typeIdentifier, Payload payload) {
+		this(senderID, receiverID, sequenceNumber, typeIdentifier, DEFAULT_HOP_LIMIT, payload);
+	}	
+	
+	/**
+	 * Constructs a <code>Packet</code> object that holds all relevant fields, including the
+	 * hop limit, and a <code>Payload</code>.
+	 * @param senderID the ID of the sender of this packet
+	 * @param receiverID the ID of the receiver of this packet
+	 * @param sequenceNumber the sequence number of this packet
+	 * @param typeIdentifier the type identifier of this packet
+	 * @param hopLimit the number of times that this packet may be forwarded
+	 * @param payload the <code>Payload</code> that comes with this packet.
+	 */
+	public Packet(int senderID, int receiverID, int sequenceNumber, int typeIdentifier, int hopLimit, Payload payload) {
 		this.senderID = senderID;
 		this.receiverID = receiverID;
 		this.sequenceNumber = sequenceNumber;
 		this.typeIdentifier = (byte) typeIdentifier;
+		this.hopLimit = hopLimit;
+		this.lastHopID = senderID;
 		this.payload = payload;
-	}	
+	}
+	
+	
+	/**
+	 * Returns the length (bytes) of this <code>Packet</code> when encoded.
+	 * @return encodedLength the length of the header plus the encoded payload
+	 */
+	public synchronized int encodedLength() {
+		return (extendedHeader ? EXTENDED_HEADER_LENGTH : HEADER_LENGTH) + payload.encodedLength();
+	}
 	
+	/**
+	 * Writes this <code>Packet</code> (extended or original header, and payload) to the 
+	 * given buffer, starting at the buffer's position.
+	 * @param buffer the buffer to write this packet to
+	 */
+	public synchronized void writeTo(ByteBuffer buffer) {
+		buffer.putInt(senderID);
+		buffer.putInt(receiverID);
+		buffer.putShort((short) sequenceNumber);
+		if (extendedHeader) {
+			buffer.put((byte) (typeIdentifier | EXTENDED_HEADER_FLAG));
+			buffer.put((byte) hopLimit);
+			buffer.putInt(lastHopID);
+			buffer.putInt(nextHopID);
+		} else {
+			buffer.put(typeIdentifier);
+		}
+		payload.writeTo(buffer);
+	}
+	
+	/**
+	 * Returns the encoded form of this <code>Packet</code>. The packet is serialized on the
+	 * first call, later calls return the same bytes. Used for packets that are sent more
+	 * than once, such as packets awaiting an acknowledgement.
+	 * @return encoding a read-only buffer holding the encoded packet
+	 */
+	public synchronized ByteBuffer getEncoding() {
+		if (encoding == null) {
+			encoding = ByteBuffer.allocate(encodedLength());
+			writeTo(encoding);
+			encoding.flip();
+		}
+		return encoding.asReadOnlyBuffer();
+	}
 	
 	/**
 	 * Returns a <code>DatagramPacket</code> object derived from this <code>Packet</code>.
 	 * @return
 	 */
 	public DatagramPacket getDatagramPacket() {
-		//byte[] packet = new byte[HEADER_LENGTH + payload.getPayload().length];
-		ArrayList<Byte> packetList = new ArrayList<>();
-		
-		// SenderID to binary
-		for (int i = (SENDER_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			packetList.add((byte) (senderID >> i));
-		}
-		
-		// ReceiverID to binary
-		for (int i = (RECEIVER_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			packetList.add((byte) (receiverID >> i));
-		}
-		
-		// SequenceNumber to binary
-		for (int i = (SEQUENCE_NUM_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			packetList.add((byte) (sequenceNumber >> i));
-		}
-		
-		
-		// TypeIdentifier to binary
-		for (int i = (TYPE_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			packetList.add((byte) (typeIdentifier >> i));
-		}
-		
-		// Add the payload data to the packetList
-		for (byte b: payload.getPayloadData()) {
-			packetList.add(b);
-		}
-		
-		// Add all the contents of the packetList to packetArray
-		byte[] packetArray = new byte[packetList.size()];		
-		for (int i = 0; i < packetList.size(); i++) {
-			packetArray[i] = packetList.get(i);
-		}
-		
+		byte[] packetArray = new byte[encodedLength()];
+		writeTo(ByteBuffer.wrap(packetArray));
 		return new DatagramPacket(packetArray, packetArray.length, Connection.group, Connection.port);		
 	}
 	
@@ -147,11 +269,71 @@ public class Packet {
 		return typeIdentifier;
 	}
 
+	public int getHopLimit() {
+		return hopLimit;
+	}
+
+	public int getLastHopID() {
+		return lastHopID;
+	}
+
+	public int getNextHopID() {
+		return nextHopID;
+	}
+
 	public Payload getPayload() {
 		return payload;
 	}
 
-	public void setSequenceNum(int sequenceNumber) {
-		this.sequenceNumber = sequenceNumber;		
+	public synchronized boolean hasExtendedHeader() {
+		return extendedHeader;
+	}
+
+	/**
+	 * Chooses between the extended and the original header. A kept encoding with the other
+	 * header is thrown away, so the packet is serialized again when it is next requested.
+	 * @param extendedHeader true for the extended header, false for the original header
+	 */
+	public synchronized void setExtendedHeader(boolean extendedHeader) {
+		if (this.extendedHeader != extendedHeader) {
+			this.extendedHeader = extendedHeader;
+			encoding = null;
+		}
+	}
+
+	public synchronized void setHopLimit(int hopLimit) {
+		this.hopLimit = hopLimit;
+		
+		// Patch the hop limit in the encoding instead of serializing again
+		if (encoding != null && extendedHeader) {
+			encoding.put(HOP_LIMIT_OFFSET, (byte) hopLimit);
+		}
+	}
+
+	public synchronized void setLastHopID(int lastHopID) {
+		this.lastHopID = lastHopID;
+		
+		// Patch the last hop in the encoding instead of serializing again
+		if (encoding != null && extendedHeader) {
+			encoding.putInt(LAST_HOP_OFFSET, lastHopID);
+		}
+	}
+
+	public synchronized void setNextHopID(int nextHopID) {
+		this.nextHopID = nextHopID;
+		
+		// Patch the next hop in the encoding instead of serializing again
+		if (encoding != null && extendedHeader) {
+			encoding.putInt(NEXT_HOP_OFFSET, nextHopID);
+		}
+	}
+
+	public synchronized void setSequenceNum(int sequenceNumber) {
+		this.sequenceNumber = sequenceNumber;
+		
+		// Patch the sequence number in the encoding instead of serializing again
+		if (encoding != null) {
+			encoding.putShort(SEQUENCE_NUM_OFFSET, (short) sequenceNumber);
+		}
 	}
 }
@@ -0,0 +1,398 @@
+package packet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A class that decodes received datagrams into <code>Packet</code> objects. The header and
+ * the payload fields are read in a single forward pass with absolute reads, straight from
+ * the datagram's buffer. Cipher texts and file data are not copied while decoding: the
+ * resulting payloads keep a view on the received bytes and only materialize them when
+ * they are requested, so a packet that is only forwarded never has them decoded.
+ * <p>
+ * A decoded <code>Packet</code> refers to the buffer it was decoded from. Its cipher text or
+ * file data must be requested before that buffer is reused (the getters keep the
+ * materialized values).
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class PacketCodec {
+
+	/**
+	 * The offset (bytes) of the senderID field in the packet header.
+	 */
+	public static final int SENDER_OFFSET = 0;
+
+	/**
+	 * The offset (bytes) of the receiverID field in the packet header.
+	 */
+	public static final int RECEIVER_OFFSET = SENDER_OFFSET + Packet.SENDER_LENGTH;
+
+	/**
+	 * The offset (bytes) of the typeIdentifier field in the packet header.
+	 */
+	public static final int TYPE_OFFSET = Packet.SEQUENCE_NUM_OFFSET + Packet.SEQUENCE_NUM_LENGTH;
+
+	/**
+	 * Decodes the datagram between the buffer's position and limit into a <code>Packet</code>.
+	 * The position of the buffer is not changed.
+	 * @param datagram the buffer holding the received datagram
+	 * @return packet the decoded <code>Packet</code>, or null if the type identifier is unknown
+	 */
+	public static Packet decode(ByteBuffer datagram) {
+		int typeIdentifier = getTypeIdentifier(datagram);
+		Payload payload = decodePayload(datagram, datagram.position() + getHeaderLength(datagram), typeIdentifier);
+		if (payload == null) {
+			return null;
+		}
+		Packet packet = new Packet(getSenderID(datagram), getReceiverID(datagram), getSequenceNumber(datagram), 
+				typeIdentifier, getHopLimit(datagram), payload);
+		packet.setExtendedHeader(isExtended(datagram));
+		packet.setLastHopID(getLastHopID(datagram));
+		packet.setNextHopID(getNextHopID(datagram));
+		return packet;
+	}
+
+	/**
+	 * Reads the senderID from the header of the datagram that starts at the buffer's position,
+	 * without decoding the rest of the packet.
+	 * @param datagram the buffer holding the received datagram
+	 * @return senderID the ID of the sender of the packet
+	 */
+	public static int getSenderID(ByteBuffer datagram) {
+		return datagram.getInt(datagram.position() + SENDER_OFFSET);
+	}
+
+	/**
+	 * Reads the receiverID from the header of the datagram that starts at the buffer's position,
+	 * without decoding the rest of the packet.
+	 * @param datagram the buffer holding the received datagram
+	 * @return receiverID the ID of the receiver of the packet
+	 */
+	public static int getReceiverID(ByteBuffer datagram) {
+		return datagram.getInt(datagram.position() + RECEIVER_OFFSET);
+	}
+
+	/**
+	 * Reads the sequence number from the header of the datagram that starts at the buffer's 
+	 * position, without decoding the rest of the packet.
+	 * @param datagram the buffer holding the received datagram
+	 * @return sequenceNumber the sequence number of the packet
+	 */
+	public static int getSequenceNumber(ByteBuffer datagram) {
+		return datagram.getShort(datagram.position() + Packet.SEQUENCE_NUM_OFFSET);
+	}
+
+	/**
+	 * Reads the type identifier from the header of the datagram that starts at the buffer's 
+	 * position, without decoding the rest of the packet.
+	 * @param datagram the buffer holding the received datagram
+	 * @return typeIdentifier the type of the payload of the packet
+	 */
+	public static int getTypeIdentifier(ByteBuffer datagram) {
+		return datagram.get(datagram.position() + TYPE_OFFSET) & Packet.TYPE_MASK;
+	}
+
+	/**
+	 * Returns whether the datagram that starts at the buffer's position has an extended header.
+	 * @param datagram the buffer holding the received datagram
+	 * @return true if the header is extended, false if it is an original header
+	 */
+	public static boolean isExtended(ByteBuffer datagram) {
+		return (datagram.get(datagram.position() + TYPE_OFFSET) & Packet.EXTENDED_HEADER_FLAG) != 0;
+	}
+
+	/**
+	 * Returns the length of the header of the datagram that starts at the buffer's position.
+	 * @param datagram the buffer holding the received datagram
+	 * @return headerLength the length (bytes) of the original or extended header
+	 */
+	public static int getHeaderLength(ByteBuffer datagram) {
+		return isExtended(datagram) ? Packet.EXTENDED_HEADER_LENGTH : Packet.HEADER_LENGTH;
+	}
+
+	/**
+	 * Reads the hop limit from the header of the datagram that starts at the buffer's position.
+	 * A packet with an original header has no hop limit, and gets the default hop limit.
+	 * @param datagram the buffer holding the received datagram
+	 * @return hopLimit the number of times that the packet may still be forwarded
+	 */
+	public static int getHopLimit(ByteBuffer datagram) {
+		if (!isExtended(datagram)) {
+			return Packet.DEFAULT_HOP_LIMIT;
+		}
+		return datagram.get(datagram.position() + Packet.HOP_LIMIT_OFFSET) & 0xFF;
+	}
+
+	/**
+	 * Overwrites the hop limit in the header of the datagram that starts at the buffer's
+	 * position. A packet with an original header is not changed.
+	 * @param datagram the buffer holding the received datagram
+	 * @param hopLimit the new hop limit
+	 */
+	public static void setHopLimit(ByteBuffer datagram, int hopLimit) {
+		if (isExtended(datagram)) {
+			datagram.put(datagram.position() + Packet.HOP_LIMIT_OFFSET, (byte) hopLimit);
+		}
+	}
+
+	/**
+	 * Reads the ID of the node that sent this copy of the datagram that starts at the buffer's
+	 * position. A packet with an original header is taken to come from its sender.
+	 * @param datagram the buffer holding the received datagram
+	 * @return lastHopID the ID of the sender or of the last node that forwarded the packet
+	 */
+	public static int getLastHopID(ByteBuffer datagram) {
+		if (!isExtended(datagram)) {
+			return getSenderID(datagram);
+		}
+		return datagram.getInt(datagram.position() + Packet.LAST_HOP_OFFSET);
+	}
+
+	/**
+	 * Reads the ID of the node that should forward the datagram that starts at the buffer's
+	 * position. A packet with an original header may be forwarded by every node.
+	 * @param datagram the buffer holding the received datagram
+	 * @return nextHopID the ID of the next hop, or <code>Packet.FLOOD</code>
+	 */
+	public static int getNextHopID(ByteBuffer datagram) {
+		if (!isExtended(datagram)) {
+			return Packet.FLOOD;
+		}
+		return datagram.getInt(datagram.position() + Packet.NEXT_HOP_OFFSET);
+	}
+
+	/**
+	 * Overwrites the last hop and the next hop in the header of the datagram that starts at
+	 * the buffer's position. A packet with an original header is not changed.
+	 * @param datagram the buffer holding the received datagram
+	 * @param lastHopID the ID of the node that sends this copy of the packet
+	 * @param nextHopID the ID of the node that should forward the packet, or <code>Packet.FLOOD</code>
+	 */
+	public static void setHops(ByteBuffer datagram, int lastHopID, int nextHopID) {
+		if (isExtended(datagram)) {
+			datagram.putInt(datagram.position() + Packet.LAST_HOP_OFFSET, lastHopID);
+			datagram.putInt(datagram.position() + Packet.NEXT_HOP_OFFSET, nextHopID);
+		}
+	}
+
+	/**
+	 * Returns whether a packet of the given type can be decoded.
+	 * @param typeIdentifier the type of the payload
+	 * @return true if the type identifier is known, otherwise false
+	 */
+	public static boolean isKnownType(int typeIdentifier) {
+		return typeIdentifier >= Payload.PULSE && typeIdentifier <= Payload.FILE_PARITY
+				|| typeIdentifier >= Payload.COMPACT_PULSE && typeIdentifier <= Payload.ENCRYPTED_MESSAGE_V2;
+	}
+
+	/**
+	 * Decodes the payload that starts at <code>offset</code> and ends at the buffer's limit,
+	 * according to the type identifier.
+	 * @param datagram the buffer holding the received datagram
+	 * @param offset the absolute index at which the payload starts
+	 * @param typeIdentifier the type of the payload
+	 * @return payload the decoded <code>Payload</code>, or null if the type identifier is unknown
+	 */
+	public static Payload decodePayload(ByteBuffer datagram, int offset, int typeIdentifier) {
+		switch (typeIdentifier) {
+		case Payload.PULSE:
+			int nameLength = datagram.get(offset);
+			int level = datagram.get(offset + Pulse.NAME_LENGTH_LENGTH);
+			String name = getString(datagram, offset + Pulse.PULSE_HEADER_LENGTH, nameLength);
+			return new Pulse(nameLength, level, name);
+		case Payload.GLOBAL_MESSAGE:
+			int messageID = datagram.getShort(offset);
+			int messageLength = datagram.getShort(offset + GlobalMessage.MESSAGE_ID_LENGTH);
+			String message = getString(datagram, offset + GlobalMessage.GLOBAL_MESSAGE_HEADER_LENGTH, messageLength);
+			return new GlobalMessage(messageID, messageLength, message);
+		case Payload.ACKNOWLEDGEMENT:
+			int acknowledgeMessageID = datagram.getShort(offset);
+			int fileSequenceNumber = datagram.get(offset + Acknowledgement.ACK_MESSAGE_ID_LENGHT);
+			return new Acknowledgement(acknowledgeMessageID, fileSequenceNumber);
+		case Payload.ENCRYPTION_PAIR:
+			int prime = datagram.get(offset);
+			int generator = datagram.get(offset + EncryptionPairExchange.PRIME_LENGTH);
+			int localHalfKey = datagram.get(offset + EncryptionPairExchange.PRIME_LENGTH
+					+ EncryptionPairExchange.GENERATOR_LENGTH);
+			return new EncryptionPairExchange(prime, generator, localHalfKey);
+		case Payload.ENCRYPTED_MESSAGE:
+			int encryptedMessageID = datagram.getShort(offset);
+			int midWayKey = datagram.get(offset + EncryptedMessage.MESSAGE_ID_LENGTH);
+			int cipherLength = datagram.getShort(offset + EncryptedMessage.MESSAGE_ID_LENGTH
+					+ EncryptedMessage.MID_WAY_KEY_LENGTH);
+			ByteBuffer cipherData = getView(datagram, offset + EncryptedMessage.ENCRYPTED_MESSAGE_HEADER_LENGTH, cipherLength);
+			return new EncryptedMessage(encryptedMessageID, midWayKey, cipherLength, cipherData);
+		case Payload.FILE_MESSAGE:
+			int fileID = datagram.getShort(offset);
+			int fileMessageLength = datagram.getInt(offset + FileMessage.FILE_ID_LENGTH);
+			int totalPackets = datagram.get(offset + FileMessage.FILE_ID_LENGTH + FileMessage.MESSAGE_LENGTH_LENGTH);
+			int sequenceNumber = datagram.get(offset + FileMessage.FILE_ID_LENGTH
+					+ FileMessage.MESSAGE_LENGTH_LENGTH + FileMessage.TOTAL_PACKETS_LENGTH);
+			ByteBuffer fileData = getView(datagram, offset + FileMessage.FILE_MESSAGE_HEADER_LENGTH, fileMessageLength);
+			return new FileMessage(fileID, fileMessageLength, totalPackets, sequenceNumber, fileData);
+		case Payload.FILE_MANIFEST:
+			int manifestFileID = datagram.getInt(offset);
+			long fileSize = datagram.getLong(offset + FileManifest.FILE_ID_LENGTH);
+			int totalChunks = datagram.getInt(offset + FileManifest.FILE_ID_LENGTH + FileManifest.FILE_SIZE_LENGTH);
+			int chunkSize = datagram.getInt(offset + FileManifest.FILE_ID_LENGTH + FileManifest.FILE_SIZE_LENGTH
+					+ FileManifest.TOTAL_CHUNKS_LENGTH);
+			int fileNameLength = datagram.getShort(offset + FileManifest.FILE_MANIFEST_HEADER_LENGTH
+					- FileManifest.NAME_LENGTH_LENGTH) & 0xFFFF;
+			String fileName = getString(datagram, offset + FileManifest.FILE_MANIFEST_HEADER_LENGTH, fileNameLength);
+			return new FileManifest(manifestFileID, fileSize, totalChunks, chunkSize, fileName);
+		case Payload.FILE_MESSAGE_V2:
+			int chunkFileID = datagram.getInt(offset);
+			int chunkIndex = datagram.getInt(offset + FileMessageV2.FILE_ID_LENGTH);
+			int flags = datagram.get(offset + FileMessageV2.FILE_ID_LENGTH + FileMessageV2.CHUNK_INDEX_LENGTH) & 0xFF;
+			int dataLength = datagram.getInt(offset + FileMessageV2.FILE_ID_LENGTH + FileMessageV2.CHUNK_INDEX_LENGTH
+					+ FileMessageV2.FLAGS_LENGTH);
+			ByteBuffer chunkData = getView(datagram, offset + FileMessageV2.FILE_MESSAGE_V2_HEADER_LENGTH, dataLength);
+			return new FileMessageV2(chunkFileID, chunkIndex, flags, chunkData);
+		case Payload.CHUNK_ACKNOWLEDGEMENT:
+			int acknowledgedFileID = datagram.getInt(offset);
+			int acknowledgedChunkIndex = datagram.getInt(offset + ChunkAcknowledgement.FILE_ID_LENGTH);
+			return new ChunkAcknowledgement(acknowledgedFileID, acknowledgedChunkIndex);
+		case Payload.SELECTIVE_ACKNOWLEDGEMENT:
+			int sackFileID = datagram.getInt(offset);
+			int base = datagram.getInt(offset + SelectiveAcknowledgement.FILE_ID_LENGTH);
+			int bitmapLength = datagram.getShort(offset + SelectiveAcknowledgement.FILE_ID_LENGTH 
+					+ SelectiveAcknowledgement.BASE_LENGTH) & 0xFFFF;
+			ByteBuffer bitmapView = getView(datagram, offset + SelectiveAcknowledgement.SACK_HEADER_LENGTH, bitmapLength);
+			byte[] bitmap = new byte[bitmapLength];
+			bitmapView.get(bitmap, 0, bitmapView.remaining());
+			return new SelectiveAcknowledgement(sackFileID, base, bitmap);
+		case Payload.FILE_PARITY:
+			int parityFileID = datagram.getInt(offset);
+			int firstChunk = datagram.getInt(offset + FileParity.FILE_ID_LENGTH);
+			int groupSize = datagram.getShort(offset + FileParity.FILE_ID_LENGTH + FileParity.FIRST_CHUNK_LENGTH) & 0xFFFF;
+			int lengthParity = datagram.getInt(offset + FileParity.FILE_ID_LENGTH + FileParity.FIRST_CHUNK_LENGTH
+					+ FileParity.GROUP_SIZE_LENGTH);
+			int parityLength = datagram.getInt(offset + FileParity.FILE_PARITY_HEADER_LENGTH - FileParity.DATA_LENGTH_LENGTH);
+			ByteBuffer parityData = getView(datagram, offset + FileParity.FILE_PARITY_HEADER_LENGTH, parityLength);
+			return new FileParity(parityFileID, firstChunk, groupSize, lengthParity, parityData);
+		case Payload.COMPACT_PULSE:
+			int version = datagram.getShort(offset) & 0xFFFF;
+			int nameHash = datagram.getInt(offset + CompactPulse.VERSION_LENGTH);
+			int fullNameLength = datagram.get(offset + CompactPulse.COMPACT_PULSE_HEADER_LENGTH 
+					- CompactPulse.NAME_LENGTH_LENGTH) & 0xFF;
+			if (fullNameLength == 0) {
+				return new CompactPulse(version, nameHash);
+			}
+			int fullLevel = datagram.get(offset + CompactPulse.COMPACT_PULSE_HEADER_LENGTH);
+			String fullName = getString(datagram, offset + CompactPulse.COMPACT_PULSE_HEADER_LENGTH 
+					+ CompactPulse.LEVEL_LENGTH, fullNameLength);
+			return new CompactPulse(version, nameHash, fullName, fullLevel);
+		case Payload.PULSE_REQUEST:
+			return new PulseRequest(datagram.getShort(offset));
+		case Payload.KEY_EXCHANGE:
+			int keyFlags = datagram.get(offset) & 0xFF;
+			int publicKeyLength = datagram.getShort(offset + KeyExchange.FLAGS_LENGTH) & 0xFFFF;
+			// Copied, as the key is used after the datagram is recycled
+			ByteBuffer publicKeyView = getView(datagram, offset + KeyExchange.KEY_EXCHANGE_HEADER_LENGTH, publicKeyLength);
+			byte[] publicKey = new byte[publicKeyView.remaining()];
+			publicKeyView.get(publicKey);
+			return new KeyExchange((keyFlags & KeyExchange.ACKNOWLEDGEMENT_FLAG) != 0, publicKey);
+		case Payload.ENCRYPTED_MESSAGE_V2:
+			int v2MessageID = datagram.getShort(offset) & 0xFFFF;
+			byte[] nonce = new byte[EncryptedMessageV2.NONCE_LENGTH];
+			getView(datagram, offset + EncryptedMessageV2.MESSAGE_ID_LENGTH, nonce.length).get(nonce);
+			int ciphertextLength = datagram.getShort(offset + EncryptedMessageV2.ENCRYPTED_MESSAGE_V2_HEADER_LENGTH
+					- EncryptedMessageV2.CIPHER_LENGTH_LENGTH) & 0xFFFF;
+			ByteBuffer ciphertext = getView(datagram, offset + EncryptedMessageV2.ENCRYPTED_MESSAGE_V2_HEADER_LENGTH, ciphertextLength);
+			return new EncryptedMessageV2(v2MessageID, nonce, ciphertext);
+		default:
+			System.err.println("Unknown type identifier at decodePayload(): " + typeIdentifier);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the length (bytes) of the packet at the start of the buffer, derived from
+	 * its header and type-specific payload header. Only needed for data of which the
+	 * real length is unknown.
+	 * @param datagram the buffer holding the packet
+	 * @return frameLength the length of the packet
+	 */
+	public static int getFrameLength(ByteBuffer datagram) {
+		int headerLength = getHeaderLength(datagram);
+		int offset = datagram.position() + headerLength;
+		int typeIdentifier = getTypeIdentifier(datagram);
+
+		switch (typeIdentifier) {
+		case Payload.PULSE:
+			return headerLength + Pulse.PULSE_HEADER_LENGTH + datagram.get(offset);
+		case Payload.GLOBAL_MESSAGE:
+			return headerLength + GlobalMessage.GLOBAL_MESSAGE_HEADER_LENGTH
+					+ datagram.getShort(offset + GlobalMessage.MESSAGE_ID_LENGTH);
+		case Payload.ACKNOWLEDGEMENT:
+			return headerLength + Acknowledgement.ACK_HEADER_LENGTH;
+		case Payload.ENCRYPTION_PAIR:
+			return headerLength + EncryptionPairExchange.ENCRYPTION_PAIR_HEADER_LENGTH;
+		case Payload.ENCRYPTED_MESSAGE:
+			return headerLength + EncryptedMessage.ENCRYPTED_MESSAGE_HEADER_LENGTH
+					+ datagram.getShort(offset + EncryptedMessage.MESSAGE_ID_LENGTH + EncryptedMessage.MID_WAY_KEY_LENGTH);
+		case Payload.FILE_MESSAGE:
+			return headerLength + FileMessage.FILE_MESSAGE_HEADER_LENGTH
+					+ datagram.getInt(offset + FileMessage.FILE_ID_LENGTH);
+		case Payload.FILE_MANIFEST:
+			return headerLength + FileManifest.FILE_MANIFEST_HEADER_LENGTH
+					+ (datagram.getShort(offset + FileManifest.FILE_MANIFEST_HEADER_LENGTH - FileManifest.NAME_LENGTH_LENGTH) & 0xFFFF);
+		case Payload.FILE_MESSAGE_V2:
+			return headerLength + FileMessageV2.FILE_MESSAGE_V2_HEADER_LENGTH
+					+ datagram.getInt(offset + FileMessageV2.FILE_MESSAGE_V2_HEADER_LENGTH - FileMessageV2.DATA_LENGTH_LENGTH);
+		case Payload.CHUNK_ACKNOWLEDGEMENT:
+			return headerLength + ChunkAcknowledgement.CHUNK_ACK_HEADER_LENGTH;
+		case Payload.SELECTIVE_ACKNOWLEDGEMENT:
+			return headerLength + SelectiveAcknowledgement.SACK_HEADER_LENGTH
+					+ (datagram.getShort(offset + SelectiveAcknowledgement.SACK_HEADER_LENGTH 
+							- SelectiveAcknowledgement.BITMAP_LENGTH_LENGTH) & 0xFFFF);
+		case Payload.FILE_PARITY:
+			return headerLength + FileParity.FILE_PARITY_HEADER_LENGTH
+					+ datagram.getInt(offset + FileParity.FILE_PARITY_HEADER_LENGTH - FileParity.DATA_LENGTH_LENGTH);
+		case Payload.COMPACT_PULSE:
+			int nameLength = datagram.get(offset + CompactPulse.COMPACT_PULSE_HEADER_LENGTH 
+					- CompactPulse.NAME_LENGTH_LENGTH) & 0xFF;
+			return headerLength + CompactPulse.COMPACT_PULSE_HEADER_LENGTH 
+					+ (nameLength == 0 ? 0 : CompactPulse.LEVEL_LENGTH + nameLength);
+		case Payload.PULSE_REQUEST:
+			return headerLength + PulseRequest.PULSE_REQUEST_HEADER_LENGTH;
+		case Payload.KEY_EXCHANGE:
+			return headerLength + KeyExchange.KEY_EXCHANGE_HEADER_LENGTH
+					+ (datagram.getShort(offset + KeyExchange.FLAGS_LENGTH) & 0xFFFF);
+		case Payload.ENCRYPTED_MESSAGE_V2:
+			return headerLength + EncryptedMessageV2.ENCRYPTED_MESSAGE_V2_HEADER_LENGTH
+					+ (datagram.getShort(offset + EncryptedMessageV2.ENCRYPTED_MESSAGE_V2_HEADER_LENGTH 
+							- EncryptedMessageV2.CIPHER_LENGTH_LENGTH) & 0xFFFF);
+		default:
+			System.err.println("Unknown type identifier at getFrameLength(): " + typeIdentifier);
+			return datagram.remaining();
+		}
+	}
+
+	/**
+	 * Returns a read-only view on <code>length</code> bytes of the buffer, starting at
+	 * <code>offset</code>. The view never extends beyond the buffer's limit.
+	 * @param datagram the buffer holding the received datagram
+	 * @param offset the absolute index at which the view starts
+	 * @param length the length (bytes) of the view
+	 * @return view the read-only view on the bytes
+	 */
+	private static ByteBuffer getView(ByteBuffer datagram, int offset, int length) {
+		ByteBuffer view = datagram.asReadOnlyBuffer();
+		view.limit(Math.min(datagram.limit(), offset + length));
+		view.position(offset);
+		return view.slice();
+	}
+
+	/**
+	 * Decodes <code>length</code> bytes of the buffer, starting at <code>offset</code>, into a
+	 * UTF-8 <code>String</code>.
+	 * @param datagram the buffer holding the received datagram
+	 * @param offset the absolute index at which the String starts
+	 * @param length the length (bytes) of the String
+	 * @return string the decoded String
+	 */
+	private static String getString(ByteBuffer datagram, int offset, int length) {
+		return StandardCharsets.UTF_8.decode(getView(datagram, offset, length)).toString();
+	}
+}
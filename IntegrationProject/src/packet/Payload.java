@@ -1,5 +1,7 @@
 package packet;
 
+import java.nio.ByteBuffer;
+
 public interface Payload {
 	
 	/**
@@ -28,10 +30,79 @@ public interface Payload {
 	public static final int ENCRYPTED_MESSAGE = 4;
 	public static final int FILE_MESSAGE = 5;
 	
+	/**
+	 * The typeIdentifier of a <code>FileManifest</code> payload.
+	 */
+	public static final int FILE_MANIFEST = 6;
+	
+	/**
+	 * The typeIdentifier of a <code>FileMessageV2</code> payload.
+	 */
+	public static final int FILE_MESSAGE_V2 = 7;
+	
+	/**
+	 * The typeIdentifier of a <code>ChunkAcknowledgement</code> payload.
+	 */
+	public static final int CHUNK_ACKNOWLEDGEMENT = 8;
+	
+	/**
+	 * The typeIdentifier of a <code>SelectiveAcknowledgement</code> payload.
+	 */
+	public static final int SELECTIVE_ACKNOWLEDGEMENT = 9;
+	
+	/**
+	 * The typeIdentifier of a <code>FileParity</code> payload.
+	 */
+	public static final int FILE_PARITY = 10;
+	
+	/**
+	 * The typeIdentifier of a <code>Batch</code> datagram, which carries several packets.
+	 * A batch is not a payload of its own and is never forwarded as a whole.
+	 */
+	public static final int BATCH = 11;
+	
+	/**
+	 * The typeIdentifier of a <code>CompactPulse</code> payload.
+	 */
+	public static final int COMPACT_PULSE = 12;
+	
+	/**
+	 * The typeIdentifier of a <code>PulseRequest</code> payload.
+	 */
+	public static final int PULSE_REQUEST = 13;
+	
+	/**
+	 * The typeIdentifier of a <code>KeyExchange</code> payload.
+	 */
+	public static final int KEY_EXCHANGE = 14;
+	
+	/**
+	 * The typeIdentifier of a <code>EncryptedMessageV2</code> payload.
+	 */
+	public static final int ENCRYPTED_MESSAGE_V2 = 15;
+	
+	/**
+	 * Returns the number of bytes that the data of the <code>Payload</code> occupies
+	 * when it is encoded.
+	 * @return encodedLength the length (bytes) of the encoded <code>Payload</code> data
+	 */
+	public int encodedLength();
+	
+	/**
+	 * Writes the data of the <code>Payload</code> to the given buffer, starting at 
+	 * the buffer's position. Exactly <code>encodedLength()</code> bytes are written.
+	 * @param buffer the buffer to write the <code>Payload</code> data to
+	 */
+	public void writeTo(ByteBuffer buffer);
+	
 	/**
 	 * Returns a byte array of the data of the <code>Payload</code>.
 	 * @return data the <code>Payload</code> data in a byte array
 	 */
-	public byte[] getPayloadData();
+	public default byte[] getPayloadData() {
+		ByteBuffer buffer = ByteBuffer.allocate(encodedLength());
+		writeTo(buffer);
+		return buffer.array();
+	}
 
 }
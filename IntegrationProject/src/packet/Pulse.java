@@ -1,6 +1,6 @@
 package packet;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 
 /**
  * A class that stores properties of a pulse payload-type.
@@ -51,34 +51,25 @@ public class Pulse implements Payload {
 	}
 
 	/**
-	 * Returns the byte array of this <code>Pulse</code> payload.
+	 * Returns the length (bytes) of this <code>Pulse</code> payload when encoded.
 	 */
 	@Override
-	public byte[] getPayloadData() {
-		ArrayList<Byte> resultList = new ArrayList<>();
-		
-		// NameLength to binary
-		for (int i = (NAME_LENGTH_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			resultList.add((byte) (nameLength >> i));
-		}
-		
-		// Level to binary
-		for (int i = (LEVEL_LENGTH - 1) * 8; i >= 0; i -= 8) {
-			resultList.add((byte) (level >> i));
-		}
+	public int encodedLength() {
+		return PULSE_HEADER_LENGTH + name.length();
+	}
+
+	/**
+	 * Writes this <code>Pulse</code> payload to the given buffer.
+	 */
+	@Override
+	public void writeTo(ByteBuffer buffer) {
+		buffer.put((byte) nameLength);
+		buffer.put((byte) level);
 		
 		// Name to binary
 		for (int i = 0; i < name.length(); i++) {
-			resultList.add((byte) name.charAt(i));
+			buffer.put((byte) name.charAt(i));
 		}
-		
-		// Convert ArrayList to byte[]
-		byte[] result = new byte[resultList.size()];
-		for (int i = 0; i < result.length; i++) {
-			result[i] = resultList.get(i);
-		}
-		
-		return result;		
 	}
 
 	public String getName() {
@@ -0,0 +1,57 @@
+package packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A class that stores properties of a pulse request payload-type. A node sends it to the
+ * sender of a <code>CompactPulse</code> whose name and level it does not know, so that the
+ * sender answers with a full pulse.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class PulseRequest implements Payload {
+
+	/**
+	 * The total pulse request header length (bytes).
+	 */
+	public static final int PULSE_REQUEST_HEADER_LENGTH = 2;
+
+	/**
+	 * The known version when the requesting node does not know the sender at all.
+	 */
+	public static final int UNKNOWN_VERSION = 0xFFFF;
+
+	/**
+	 * The version of the name and level that the requesting node knows, or
+	 * <code>UNKNOWN_VERSION</code>.
+	 */
+	private int knownVersion;
+
+	/**
+	 * Constructs a pulse request <code>Payload</code>.
+	 * @param knownVersion the version that the requesting node knows, or
+	 * <code>UNKNOWN_VERSION</code>
+	 */
+	public PulseRequest(int knownVersion) {
+		this.knownVersion = knownVersion & 0xFFFF;
+	}
+
+	/**
+	 * Returns the length (bytes) of this <code>PulseRequest</code> payload when encoded.
+	 */
+	@Override
+	public int encodedLength() {
+		return PULSE_REQUEST_HEADER_LENGTH;
+	}
+
+	/**
+	 * Writes this <code>PulseRequest</code> payload to the given buffer.
+	 */
+	@Override
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putShort((short) knownVersion);
+	}
+
+	public int getKnownVersion() {
+		return knownVersion;
+	}
+}
@@ -0,0 +1,140 @@
+package packet;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * A class that stores properties of a <code>SelectiveAcknowledgement</code> payload-type. 
+ * It acknowledges many chunks of a file transfer at once: all chunks before the
+ * cumulative base, plus the chunks that are marked in a bitmap. Bit i of the bitmap 
+ * (bit i % 8 of byte i / 8, least significant bit first) stands for chunk base + i.
+ * @author Justin Praas, Daan Kooij, Casper Plentinger, Tim van Brederode
+ */
+public class SelectiveAcknowledgement implements Payload {
+
+	/**
+	 * The total selective acknowledgement header length (bytes), excluding the bitmap.
+	 */
+	public static final int SACK_HEADER_LENGTH = 10;
+
+	/**
+	 * The length (bytes) of the fileID field in the payload.
+	 */
+	public static final int FILE_ID_LENGTH = 4;
+
+	/**
+	 * The length (bytes) of the cumulative base field in the payload.
+	 */
+	public static final int BASE_LENGTH = 4;
+
+	/**
+	 * The length (bytes) of the bitmapLength field in the payload.
+	 */
+	public static final int BITMAP_LENGTH_LENGTH = 2;
+
+	/**
+	 * The maximum length (bytes) of the bitmap.
+	 */
+	public static final int MAXIMUM_BITMAP_LENGTH = 128;
+
+	/**
+	 * The ID of the file of the acknowledged chunks.
+	 */
+	private int fileID;
+
+	/**
+	 * The index of the first chunk that has not been received. All chunks before it
+	 * are acknowledged.
+	 */
+	private int base;
+
+	/**
+	 * The bitmap of the received chunks from <code>base</code> onwards.
+	 */
+	private byte[] bitmap;
+
+	/**
+	 * The bitmap as a <code>BitSet</code>.
+	 */
+	private BitSet bits;
+
+	/**
+	 * Constructs a selective acknowledgement <code>Payload</code>.
+	 * @param fileID the ID of the file of the acknowledged chunks
+	 * @param base the index of the first chunk that has not been received
+	 * @param bitmap the bitmap of the received chunks from <code>base</code> onwards
+	 */
+	public SelectiveAcknowledgement(int fileID, int base, byte[] bitmap) {
+		this.fileID = fileID;
+		this.base = base;
+		this.bitmap = bitmap;
+		this.bits = BitSet.valueOf(bitmap);
+	}
+
+	/**
+	 * Constructs a selective acknowledgement <code>Payload</code> from the chunks that 
+	 * have been received. The bitmap is cut off after <code>MAXIMUM_BITMAP_LENGTH</code> bytes.
+	 * @param fileID the ID of the file of the acknowledged chunks
+	 * @param receivedChunks the chunks that have been received
+	 * @return selectiveAcknowledgement the selective acknowledgement of the chunks
+	 */
+	public static SelectiveAcknowledgement of(int fileID, BitSet receivedChunks) {
+		int base = receivedChunks.nextClearBit(0);
+		int end = Math.min(receivedChunks.length(), base + MAXIMUM_BITMAP_LENGTH * 8);
+		byte[] bitmap = new byte[Math.max(0, (end - base + 7) / 8)];
+		if (end > base) {
+			byte[] bytes = receivedChunks.get(base, end).toByteArray();
+			System.arraycopy(bytes, 0, bitmap, 0, bytes.length);
+		}
+		return new SelectiveAcknowledgement(fileID, base, bitmap);
+	}
+
+	/**
+	 * Returns the length (bytes) of this <code>SelectiveAcknowledgement</code> payload when encoded.
+	 */
+	@Override
+	public int encodedLength() {
+		return SACK_HEADER_LENGTH + bitmap.length;
+	}
+
+	/**
+	 * Writes this <code>SelectiveAcknowledgement</code> payload to the given buffer.
+	 */
+	@Override
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putInt(fileID);
+		buffer.putInt(base);
+		buffer.putShort((short) bitmap.length);
+		buffer.put(bitmap);
+	}
+
+	/**
+	 * Checks if a chunk is acknowledged by this selective acknowledgement.
+	 * @param chunkIndex the index of the chunk
+	 * @return true if the chunk is acknowledged, otherwise false
+	 */
+	public boolean isAcknowledged(int chunkIndex) {
+		return chunkIndex < base || (chunkIndex - base < bitmap.length * 8 && bits.get(chunkIndex - base));
+	}
+
+	/**
+	 * Returns the index after the highest chunk that is acknowledged. Chunks below it that
+	 * are not acknowledged are missing at the receiver.
+	 * @return end the index after the highest acknowledged chunk
+	 */
+	public int getEnd() {
+		return base + bits.length();
+	}
+
+	public int getFileID() {
+		return fileID;
+	}
+
+	public int getBase() {
+		return base;
+	}
+
+	public byte[] getBitmap() {
+		return bitmap;
+	}
+}
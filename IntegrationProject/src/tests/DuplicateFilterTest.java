@@ -0,0 +1,68 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import connection.DuplicateFilter;
+
+public class DuplicateFilterTest {
+
+	@Test
+	public void addTest() {
+		DuplicateFilter filter = new DuplicateFilter(10);
+		assertTrue(filter.add(1, 1));
+		assertTrue(filter.add(2, 1));
+		assertTrue(filter.add(1, 2));
+		assertFalse(filter.add(1, 1));
+		assertFalse(filter.add(2, 1));
+		assertTrue(filter.contains(1, 2));
+		assertFalse(filter.contains(2, 2));
+		assertEquals(3, filter.size());
+	}
+	
+	@Test
+	public void negativeSequenceNumberTest() {
+		DuplicateFilter filter = new DuplicateFilter(10);
+		assertTrue(filter.add(0, 0));
+		assertTrue(filter.add(5, -3));
+		assertTrue(filter.add(-5, 3));
+		assertFalse(filter.add(0, 0));
+		assertFalse(filter.add(5, -3));
+		assertFalse(filter.add(-5, 3));
+	}
+
+	@Test
+	public void evictionTest() {
+		DuplicateFilter filter = new DuplicateFilter(3);
+		filter.add(1, 1);
+		filter.add(1, 2);
+		filter.add(1, 3);
+		
+		// The oldest packet is forgotten once the window is full
+		filter.add(1, 4);
+		assertFalse(filter.contains(1, 1));
+		assertTrue(filter.contains(1, 2));
+		assertTrue(filter.contains(1, 4));
+		assertEquals(3, filter.size());
+		assertTrue(filter.add(1, 1));
+	}
+	
+	@Test
+	public void largeWindowTest() {
+		int windowSize = 40000;
+		DuplicateFilter filter = new DuplicateFilter(windowSize);
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < windowSize; i++) {
+				filter.add(i % 50, round * windowSize + i);
+			}
+		}
+		
+		// Only the last window of packets is remembered
+		for (int i = 0; i < windowSize; i++) {
+			assertTrue(filter.contains(i % 50, 2 * windowSize + i));
+			assertFalse(filter.contains(i % 50, windowSize + i));
+		}
+		assertEquals(windowSize, filter.size());
+	}
+}
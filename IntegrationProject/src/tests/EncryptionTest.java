@@ -2,11 +2,30 @@ package tests;
 
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+
+import javax.crypto.SecretKey;
+
 import org.junit.Test;
 
+import connection.PulseHandler;
 import encryption.Crypter;
+import encryption.CryptoContext;
 import encryption.DiffieHellman;
 import encryption.EncryptionPair;
+import encryption.FileCipher;
+import encryption.KeyPairPool;
+import model.Person;
+import packet.EncryptedMessageV2;
+import packet.EncryptionPairExchange;
+import packet.KeyExchange;
+import packet.Packet;
+import packet.PacketCodec;
+import packet.Payload;
 
 public class EncryptionTest {
 	
@@ -34,5 +53,162 @@ public class EncryptionTest {
 		
 		assertEquals(plainText, decryptedText);
 	}
+	
+	@Test
+	public void cryptoContextTest() throws InterruptedException {
+		CryptoContext context = new CryptoContext("1234000000000000");
+		String cipher = Crypter.encrypt(context, "first");
+		
+		// The same context keeps working for further messages, and gives the same result 
+		// as a fresh cipher
+		assertEquals(cipher, Crypter.encrypt("1234000000000000", "first"));
+		assertEquals("second", Crypter.decrypt(context, Crypter.encrypt(context, "second")));
+		assertEquals("first", Crypter.decrypt(context, cipher));
+		
+		// Every thread has ciphers of its own
+		String[] decrypted = new String[1];
+		Thread thread = new Thread(() -> decrypted[0] = Crypter.decrypt(context, cipher));
+		thread.start();
+		thread.join();
+		assertEquals("first", decrypted[0]);
+		
+	}
+	
+	@Test
+	public void privateChatKeyTest() {
+		EncryptionPair encryptionPairA = new EncryptionPair(11, 2, 7, true);
+		EncryptionPair encryptionPairB = new EncryptionPair(11, 2, 9, true);
+		encryptionPairA.setRemoteHalfKey(encryptionPairB.getLocalHalfKey());
+		encryptionPairB.setRemoteHalfKey(encryptionPairA.getLocalHalfKey());
+		
+		// The derived key is the key that the String-based methods use
+		SecretKey key = Crypter.deriveKey(encryptionPairA, 7);
+		assertArrayEquals(Crypter.getKey(encryptionPairA, 7).getBytes(), key.getEncoded());
+		assertArrayEquals(key.getEncoded(), Crypter.deriveKey(encryptionPairB, 9).getEncoded());
+		
+		// The key is kept until the person gets a new pair
+		Person person = new Person("Bob", 1, 0);
+		person.setPrivateChatPair(encryptionPairA);
+		person.setPrivateChatKey(key);
+		assertSame(key, person.getPrivateChatKey());
+		assertEquals("hello", Crypter.decrypt(person.getPrivateChatContext(), 
+				Crypter.encrypt(Crypter.getKey(encryptionPairB, 9), "hello")));
+		person.setPrivateChatPair(new EncryptionPair());
+		assertNull(person.getPrivateChatKey());
+		assertNull(person.getPrivateChatContext());
+	}
 
-}
\ No newline at end of file
+	
+	@Test
+	public void keyAgreementTest() throws GeneralSecurityException {
+		KeyPairPool pool = new KeyPairPool(2, Runnable::run);
+		assertEquals(2, pool.getAvailable());
+		KeyPair keyPairA = pool.poll();
+		KeyPair keyPairB = pool.take();
+		assertNotNull(keyPairA);
+		assertNotSame(keyPairA, keyPairB);
+		
+		// Both sides agree on the same key from the other side's public key
+		SecretKey keyA = DiffieHellman.agreeKey(keyPairA.getPrivate(), keyPairB.getPublic().getEncoded());
+		SecretKey keyB = DiffieHellman.agreeKey(keyPairB.getPrivate(), keyPairA.getPublic().getEncoded());
+		assertArrayEquals(keyA.getEncoded(), keyB.getEncoded());
+		assertEquals("hello", Crypter.decrypt(new CryptoContext(keyB), Crypter.encrypt(new CryptoContext(keyA), "hello")));
+		
+		// The public key survives the KeyExchange payload
+		Packet packet = new Packet(1, 2, 3, Payload.KEY_EXCHANGE, new KeyExchange(true, keyPairA.getPublic().getEncoded()));
+		ByteBuffer datagram = ByteBuffer.wrap(packet.getDatagramPacketData());
+		assertEquals(datagram.remaining(), PacketCodec.getFrameLength(datagram));
+		KeyExchange keyExchange = (KeyExchange) PacketCodec.decode(datagram).getPayload();
+		assertTrue(keyExchange.isAcknowledgement());
+		assertArrayEquals(keyPairA.getPublic().getEncoded(), keyExchange.getPublicKey());
+	}
+	
+	@Test
+	public void legacyHandshakeTest() {
+		// An older peer with a lower ID only knows the EncryptionPairExchange handshake
+		Person older = new Person("Bob", 3, 0);
+		assertFalse(PulseHandler.usesKeyAgreement(older));
+		older.setExtendedHeader(true);
+		assertTrue(PulseHandler.usesKeyAgreement(older));
+		
+		// We have the higher ID, so we start the handshake with a fresh pair
+		EncryptionPair ours = new EncryptionPair();
+		int ourSecret = DiffieHellman.produceSecretKey(ours.getPrime());
+		ours.setLocalHalfKey(ourSecret);
+		Packet packet = new Packet(9, 3, 1, Payload.ENCRYPTION_PAIR, 
+				new EncryptionPairExchange(ours.getPrime(), ours.getGenerator(), ours.getLocalHalfKey()));
+		packet.setExtendedHeader(false);
+		EncryptionPairExchange sent = (EncryptionPairExchange) PacketCodec.decode(packet.getEncoding()).getPayload();
+		
+		// The older peer answers with its own half key, and both sides derive the same key
+		int theirSecret = DiffieHellman.produceSecretKey(sent.getPrime());
+		EncryptionPair theirs = new EncryptionPair(sent.getPrime(), sent.getGenerator(), theirSecret, true);
+		theirs.setRemoteHalfKey(sent.getLocalHalfKey());
+		ours.setRemoteHalfKey(theirs.getLocalHalfKey());
+		assertEquals(ours.getPrime(), theirs.getPrime());
+		assertEquals(Crypter.getKey(ours, ourSecret), Crypter.getKey(theirs, theirSecret));
+		assertEquals("hello", Crypter.decrypt(new CryptoContext(Crypter.deriveKey(ours, ourSecret)), 
+				Crypter.encrypt(Crypter.getKey(theirs, theirSecret), "hello")));
+	}
+	
+	@Test
+	public void authenticatedEncryptionTest() throws GeneralSecurityException {
+		SecretKey key = DiffieHellman.agreeKey(KeyPairPool.generateKeyPair().getPrivate(), 
+				KeyPairPool.generateKeyPair().getPublic().getEncoded());
+		CryptoContext sender = new CryptoContext(key);
+		CryptoContext receiver = new CryptoContext(key);
+		byte[] nonce = sender.nextNonce();
+		assertFalse(Arrays.equals(nonce, sender.nextNonce()));
+		
+		// The ciphertext and tag travel in an EncryptedMessageV2 as raw bytes
+		ByteBuffer ciphertext = ByteBuffer.allocate(5 + CryptoContext.TAG_LENGTH);
+		assertEquals(ciphertext.capacity(), sender.seal(ByteBuffer.wrap("hello".getBytes()), ciphertext, nonce));
+		ciphertext.flip();
+		Packet packet = new Packet(1, 2, 3, Payload.ENCRYPTED_MESSAGE_V2, new EncryptedMessageV2(7, nonce, ciphertext));
+		ByteBuffer datagram = ByteBuffer.wrap(packet.getDatagramPacketData());
+		assertEquals(datagram.remaining(), PacketCodec.getFrameLength(datagram));
+		EncryptedMessageV2 decoded = (EncryptedMessageV2) PacketCodec.decode(datagram).getPayload();
+		assertEquals(7, decoded.getMessageID());
+		
+		ByteBuffer plainText = ByteBuffer.allocate(5);
+		receiver.open(decoded.getCiphertext(), plainText, decoded.getNonce());
+		assertEquals("hello", new String(plainText.array()));
+		
+		// A changed ciphertext fails the check
+		datagram.put(datagram.limit() - 1, (byte) ~datagram.get(datagram.limit() - 1));
+		try {
+			receiver.open(decoded.getCiphertext(), ByteBuffer.allocate(5), decoded.getNonce());
+			fail("A changed ciphertext was accepted");
+		} catch (GeneralSecurityException e) {
+			// Expected
+		}
+	}
+	
+	@Test
+	public void fileChunkEncryptionTest() throws GeneralSecurityException {
+		SecretKey key = DiffieHellman.agreeKey(KeyPairPool.generateKeyPair().getPrivate(), 
+				KeyPairPool.generateKeyPair().getPublic().getEncoded());
+		CryptoContext sender = new CryptoContext(key);
+		CryptoContext receiver = new CryptoContext(key);
+		
+		// Every chunk has a nonce of its own, apart from the nonces of private messages
+		assertFalse(Arrays.equals(FileCipher.getNonce(1, 2, 3), FileCipher.getNonce(1, 2, 4)));
+		assertTrue(sender.nextNonce()[0] < 0);
+		assertTrue(FileCipher.getNonce(Integer.MAX_VALUE, 2, 3)[0] >= 0);
+		
+		ByteBuffer chunk = ByteBuffer.wrap("chunk data".getBytes());
+		ByteBuffer ciphertext = FileCipher.encryptAsync(sender, 1, 2, 3, chunk).join();
+		assertEquals(10, chunk.remaining());
+		assertEquals(10 + CryptoContext.TAG_LENGTH, ciphertext.remaining());
+		ByteBuffer chunkData = FileCipher.decryptAsync(receiver, 1, 2, 3, ciphertext).join();
+		assertEquals("chunk data", new String(chunkData.array(), 0, chunkData.remaining()));
+		
+		// A chunk that is moved to another index fails the check
+		try {
+			FileCipher.decryptAsync(receiver, 1, 2, 4, ciphertext).join();
+			fail("A moved chunk was accepted");
+		} catch (CompletionException e) {
+			assertTrue(e.getCause() instanceof GeneralSecurityException);
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import model.Message;
+import model.MessageLog;
+
+public class MessageLogTest {
+
+	@Test
+	public void insertOrderedTest() {
+		MessageLog log = new MessageLog();
+		assertTrue(log.insertOrdered(new Message(2, 1, 1, "first", false), 1));
+		log.append(new Message(1, 2, 1, "mine", true));
+		assertTrue(log.insertOrdered(new Message(2, 1, 3, "third", false), 1));
+		assertTrue(log.insertOrdered(new Message(2, 1, 2, "second", false), 1));
+		assertFalse(log.insertOrdered(new Message(2, 1, 2, "second", false), 1));
+
+		List<Message> messages = log.snapshot();
+		assertEquals(4, messages.size());
+		assertEquals("first", messages.get(0).getText());
+		assertEquals("mine", messages.get(1).getText());
+		assertEquals("second", messages.get(2).getText());
+		assertEquals("third", messages.get(3).getText());
+	}
+
+	@Test
+	public void concurrentAppendTest() throws InterruptedException {
+		MessageLog log = new MessageLog();
+		List<Message> emptySnapshot = log.snapshot();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			int senderID = t;
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 500; i++) {
+					log.appendIfAbsent(new Message(senderID, 0, i, "message", false));
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		// No update is lost, and earlier snapshots do not change
+		assertEquals(2000, log.size());
+		assertEquals(0, emptySnapshot.size());
+	}
+}
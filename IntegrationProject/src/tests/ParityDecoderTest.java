@@ -0,0 +1,51 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import connection.ParityDecoder;
+import connection.ReassemblyBuffer;
+import model.Statistics;
+import packet.FileParity;
+
+public class ParityDecoderTest {
+
+	byte[][] chunks = {{1, 2, 3, 4}, {5, 6, 7, 8}, {9, 10}};
+
+	FileParity parity = FileParity.of(4, 0, new ByteBuffer[]{
+			ByteBuffer.wrap(chunks[0]), ByteBuffer.wrap(chunks[1]), ByteBuffer.wrap(chunks[2])});
+
+	@Test
+	public void recoverLastChunkTest() throws IOException {
+		Statistics statistics = new Statistics();
+		ParityDecoder decoder = new ParityDecoder(statistics);
+		ReassemblyBuffer buffer = new ReassemblyBuffer(3, 4);
+		buffer.write(0, ByteBuffer.wrap(chunks[0]));
+		buffer.write(1, ByteBuffer.wrap(chunks[1]));
+
+		// The shorter last chunk is rebuilt from the parity as soon as it arrives
+		assertEquals(2, decoder.addParity(1L, parity, buffer));
+		assertTrue(buffer.isComplete());
+		assertEquals(Arrays.toString(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}), Arrays.toString(buffer.finish()));
+		assertEquals(1, statistics.getFileChunksLost());
+		assertEquals(1, statistics.getFileChunksRecovered());
+	}
+
+	@Test
+	public void recoverLaterTest() throws IOException {
+		ParityDecoder decoder = new ParityDecoder(new Statistics());
+		ReassemblyBuffer buffer = new ReassemblyBuffer(3, 4);
+		buffer.write(2, ByteBuffer.wrap(chunks[2]));
+
+		// Two chunks are missing, so the parity has to wait for one of them
+		assertEquals(-1, decoder.addParity(1L, parity, buffer));
+		buffer.write(0, ByteBuffer.wrap(chunks[0]));
+		assertEquals(1, decoder.recover(1L, buffer, 0));
+		assertEquals(Arrays.toString(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}), Arrays.toString(buffer.finish()));
+	}
+}
@@ -0,0 +1,37 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import connection.ReassemblyBuffer;
+
+public class ReassemblyBufferTest {
+
+	@Test
+	public void outOfOrderTest() {
+		ReassemblyBuffer buffer = new ReassemblyBuffer(3, 4);
+		assertTrue(buffer.write(2, ByteBuffer.wrap(new byte[]{9, 10})));
+		assertTrue(buffer.write(0, ByteBuffer.wrap(new byte[]{1, 2, 3, 4})));
+		assertFalse(buffer.isComplete());
+		assertFalse(buffer.write(0, ByteBuffer.wrap(new byte[]{0, 0, 0, 0})));
+		assertTrue(buffer.write(1, ByteBuffer.wrap(new byte[]{5, 6, 7, 8})));
+		assertTrue(buffer.isComplete());
+		assertEquals(Arrays.toString(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}), Arrays.toString(buffer.finish()));
+
+		// The buffer is released once the file is finished
+		assertFalse(buffer.write(1, ByteBuffer.wrap(new byte[]{5, 6, 7, 8})));
+	}
+
+	@Test
+	public void invalidChunkTest() {
+		ReassemblyBuffer buffer = new ReassemblyBuffer(2, 4);
+		assertFalse(buffer.write(-1, ByteBuffer.wrap(new byte[]{1})));
+		assertFalse(buffer.write(2, ByteBuffer.wrap(new byte[]{1})));
+		assertFalse(buffer.write(0, ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5})));
+		assertEquals(0, buffer.getChunksReceived());
+	}
+}
@@ -0,0 +1,47 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import connection.RingQueue;
+
+public class RingQueueTest {
+
+	@Test
+	public void boundedTest() {
+		RingQueue<Integer> queue = new RingQueue<>(3);
+		assertEquals(4, queue.getCapacity());
+		for (int i = 0; i < 4; i++) {
+			assertTrue(queue.offer(i));
+		}
+		assertFalse(queue.offer(4));
+		assertEquals(Integer.valueOf(0), queue.poll());
+		assertTrue(queue.offer(4));
+		for (int i = 1; i <= 4; i++) {
+			assertEquals(Integer.valueOf(i), queue.poll());
+		}
+		assertNull(queue.poll());
+		assertEquals(4, queue.getMaximumDepth());
+	}
+
+	@Test
+	public void producerConsumerTest() throws InterruptedException {
+		RingQueue<Integer> queue = new RingQueue<>(8);
+		Thread producer = new Thread(() -> {
+			for (int i = 0; i < 100000; i++) {
+				queue.put(i);
+			}
+			queue.close();
+		});
+		producer.start();
+		// Every element arrives exactly once, in order
+		int expected = 0;
+		Integer element;
+		while ((element = queue.take()) != null) {
+			assertEquals(expected++, element.intValue());
+		}
+		producer.join();
+		assertEquals(100000, expected);
+	}
+}
@@ -0,0 +1,44 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import model.RttEstimator;
+
+public class RttEstimatorTest {
+
+	@Test
+	public void initialTimeoutTest() {
+		RttEstimator estimator = new RttEstimator();
+		assertEquals(RttEstimator.INITIAL_TIMEOUT, estimator.getTimeout());
+		assertEquals(2 * RttEstimator.INITIAL_TIMEOUT, estimator.getTimeout(1));
+		assertEquals(RttEstimator.MAXIMUM_TIMEOUT, estimator.getTimeout(30));
+	}
+
+	@Test
+	public void sampleTest() {
+		RttEstimator estimator = new RttEstimator();
+		estimator.addSample(100);
+		// SRTT = 100, RTTVAR = 50, RTO = 100 + 4 * 50
+		assertEquals(100.0, estimator.getSmoothedRtt(), 0.001);
+		assertEquals(300, estimator.getTimeout());
+
+		estimator.addSample(200);
+		// RTTVAR = 0.75 * 50 + 0.25 * 100, SRTT = 0.875 * 100 + 0.125 * 200
+		assertEquals(62.5, estimator.getRttVariation(), 0.001);
+		assertEquals(112.5, estimator.getSmoothedRtt(), 0.001);
+		assertEquals(363, estimator.getTimeout());
+		assertEquals(726, estimator.getTimeout(1));
+		assertEquals(2, estimator.getSampleCount());
+	}
+
+	@Test
+	public void minimumTimeoutTest() {
+		RttEstimator estimator = new RttEstimator();
+		for (int i = 0; i < 20; i++) {
+			estimator.addSample(1);
+		}
+		assertEquals(RttEstimator.MINIMUM_TIMEOUT, estimator.getTimeout());
+	}
+}
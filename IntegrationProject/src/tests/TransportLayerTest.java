@@ -3,11 +3,16 @@ package tests;
 import static org.junit.Assert.*;
 
 import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 
 import org.junit.Test;
 
+import connection.RoutingTable;
 import connection.TransportLayer;
+import model.Person;
 import packet.*;
 
 public class TransportLayerTest {
@@ -27,6 +32,21 @@ public class TransportLayerTest {
 	EncryptionPairExchange encryptionPairExchange = new EncryptionPairExchange(23, 5, 25);
 	Packet encryptionPairExchangePacket = new Packet(53, 23, 8, Payload.ENCRYPTION_PAIR, encryptionPairExchange);
 	
+	FileMessage fileMessage = new FileMessage(4, 5, 1, 0, new byte[]{1, 2, 3, 4, 5});
+	Packet fileMessagePacket = new Packet(23, 53, 9, Payload.FILE_MESSAGE, fileMessage);
+	
+	FileManifest fileManifest = new FileManifest(70000, 5000000000L, 222223, 22500, "log.txt");
+	Packet fileManifestPacket = new Packet(23, 53, 10, Payload.FILE_MANIFEST, fileManifest);
+	
+	FileMessageV2 fileMessageV2 = new FileMessageV2(70000, 200000, 0, ByteBuffer.wrap(new byte[]{6, 7, 8}));
+	Packet fileMessageV2Packet = new Packet(23, 53, 11, Payload.FILE_MESSAGE_V2, fileMessageV2);
+	
+	ChunkAcknowledgement chunkAcknowledgement = new ChunkAcknowledgement(70000, ChunkAcknowledgement.MANIFEST_INDEX);
+	Packet chunkAcknowledgementPacket = new Packet(53, 23, 12, Payload.CHUNK_ACKNOWLEDGEMENT, chunkAcknowledgement);
+	
+	SelectiveAcknowledgement selectiveAcknowledgement = SelectiveAcknowledgement.of(70000, BitSet.valueOf(new long[]{0b1101_0111L}));
+	Packet selectiveAcknowledgementPacket = new Packet(53, 23, 13, Payload.SELECTIVE_ACKNOWLEDGEMENT, selectiveAcknowledgement);
+	
 	/**
 	 * Simulates the event of receiving a packet from the receiverSocket. Basically 
 	 * stores the packet in a DatagramPacket that is much larger than the actual packet.
@@ -122,6 +142,240 @@ public class TransportLayerTest {
 		
 	}
 	
+	@Test
+	public void writeToTest() {
+		Packet[] packets = {pulsePacket, globalMessagePacket, acknowledgementPacket, 
+				encryptedMessagePacket, encryptionPairExchangePacket};
+		
+		for (Packet packet : packets) {
+			byte[] datagramData = packet.getDatagramPacketData();
+			assertEquals(datagramData.length, packet.encodedLength());
+			
+			ByteBuffer buffer = ByteBuffer.allocate(packet.encodedLength());
+			packet.writeTo(buffer);
+			assertEquals(0, buffer.remaining());
+			assertEquals(Arrays.toString(datagramData), Arrays.toString(buffer.array()));
+		}
+	}
+	
+	@Test
+	public void getEncodingTest() {
+		Packet packet = new Packet(3, 33, 5, Payload.GLOBAL_MESSAGE, globalMessage);
+		ByteBuffer encoding = packet.getEncoding();
+		byte[] encodedData = new byte[encoding.remaining()];
+		encoding.get(encodedData);
+		assertEquals(Arrays.toString(packet.getDatagramPacketData()), Arrays.toString(encodedData));
+		
+		// Changing the sequence number patches the kept encoding
+		packet.setSequenceNum(300);
+		encoding = packet.getEncoding();
+		encodedData = new byte[encoding.remaining()];
+		encoding.get(encodedData);
+		assertEquals(Arrays.toString(packet.getDatagramPacketData()), Arrays.toString(encodedData));
+		assertEquals(300, TransportLayer.getPacket(encodedData).getSequenceNumber());
+	}
+	
+	@Test
+	public void decodeTest() {
+		Packet[] packets = {pulsePacket, globalMessagePacket, acknowledgementPacket, 
+				encryptedMessagePacket, encryptionPairExchangePacket, fileMessagePacket,
+				fileManifestPacket, fileMessageV2Packet, chunkAcknowledgementPacket,
+				selectiveAcknowledgementPacket};
+		
+		for (Packet packet : packets) {
+			// Decode from a larger buffer, limited to the real datagram length
+			byte[] datagramData = packet.getDatagramPacketData();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+			buffer.put(datagramData);
+			buffer.put(new byte[]{9, 9, 9});
+			buffer.flip();
+			buffer.limit(datagramData.length);
+			
+			Packet decodedPacket = PacketCodec.decode(buffer);
+			assertEquals(0, buffer.position());
+			assertEquals(packet.getSenderID(), decodedPacket.getSenderID());
+			assertEquals(packet.getReceiverID(), decodedPacket.getReceiverID());
+			assertEquals(packet.getSequenceNumber(), decodedPacket.getSequenceNumber());
+			assertEquals(packet.getTypeIdentifier(), decodedPacket.getTypeIdentifier());
+			assertEquals(Arrays.toString(datagramData), Arrays.toString(decodedPacket.getDatagramPacketData()));
+		}
+		
+		EncryptedMessage decodedMessage = (EncryptedMessage) TransportLayer.getPacket(
+				encryptedMessagePacket.getDatagramPacketData()).getPayload();
+		assertEquals("Hello Jane", decodedMessage.getCipher());
+		assertEquals(20, decodedMessage.getMidWayKey());
+		
+		FileMessage decodedFile = (FileMessage) TransportLayer.getPacket(
+				fileMessagePacket.getDatagramPacketData()).getPayload();
+		assertEquals(4, decodedFile.getFileID());
+		assertEquals(5, decodedFile.getMessageLength());
+		assertEquals(Arrays.toString(new byte[]{1, 2, 3, 4, 5}), Arrays.toString(decodedFile.getFileData()));
+	}
+	
+	@Test
+	public void largeFileTest() {
+		FileManifest decodedManifest = (FileManifest) TransportLayer.getPacket(
+				fileManifestPacket.getDatagramPacketData()).getPayload();
+		assertEquals(70000, decodedManifest.getFileID());
+		assertEquals(5000000000L, decodedManifest.getFileSize());
+		assertEquals(222223, decodedManifest.getTotalChunks());
+		assertEquals(22500, decodedManifest.getChunkSize());
+		assertEquals("log.txt", decodedManifest.getFileName());
+		
+		byte[] chunkDatagram = TransportLayer.shortenDatagramPacket(
+				Arrays.copyOf(fileMessageV2Packet.getDatagramPacketData(), 1024));
+		FileMessageV2 decodedChunk = (FileMessageV2) TransportLayer.getPacket(chunkDatagram).getPayload();
+		assertEquals(70000, decodedChunk.getFileID());
+		assertEquals(200000, decodedChunk.getChunkIndex());
+		assertEquals(3, decodedChunk.getDataLength());
+		assertEquals(Arrays.toString(new byte[]{6, 7, 8}), Arrays.toString(decodedChunk.getFileData()));
+		
+		ChunkAcknowledgement decodedAcknowledgement = (ChunkAcknowledgement) TransportLayer.getPacket(
+				chunkAcknowledgementPacket.getDatagramPacketData()).getPayload();
+		assertEquals(70000, decodedAcknowledgement.getFileID());
+		assertEquals(ChunkAcknowledgement.MANIFEST_INDEX, decodedAcknowledgement.getChunkIndex());
+	}
+	
+	@Test
+	public void selectiveAcknowledgementTest() {
+		// Chunks 0-2, 4, 6 and 7 are received, chunks 3 and 5 are missing
+		SelectiveAcknowledgement decoded = (SelectiveAcknowledgement) TransportLayer.getPacket(
+				selectiveAcknowledgementPacket.getDatagramPacketData()).getPayload();
+		assertEquals(70000, decoded.getFileID());
+		assertEquals(3, decoded.getBase());
+		assertEquals(8, decoded.getEnd());
+		for (int chunk : new int[]{0, 1, 2, 4, 6, 7}) {
+			assertTrue(decoded.isAcknowledged(chunk));
+		}
+		for (int chunk : new int[]{3, 5, 8, 100}) {
+			assertFalse(decoded.isAcknowledged(chunk));
+		}
+	}
+	
+	@Test
+	public void legacyAcknowledgementTest() {
+		// Chunks from older or unknown senders are acknowledged one by one
+		Person sender = new Person("Alice", 23, 1);
+		assertFalse(TransportLayer.acknowledgesSelectively(null));
+		assertFalse(TransportLayer.acknowledgesSelectively(sender));
+		sender.setExtendedHeader(true);
+		assertTrue(TransportLayer.acknowledgesSelectively(sender));
+		
+		// The acknowledgement of a chunk carries the fileID and the sequence number of the chunk
+		Packet chunk = new Packet(23, 53, 9, Payload.FILE_MESSAGE, new FileMessage(4, 2, 3, 2, new byte[]{1, 2}));
+		Packet legacy = new Packet(53, 23, 14, Payload.ACKNOWLEDGEMENT,
+				new Acknowledgement(4, ((FileMessage) chunk.getPayload()).getSequenceNumber()));
+		legacy.setExtendedHeader(false);
+		Acknowledgement decoded = (Acknowledgement) PacketCodec.decode(legacy.getEncoding()).getPayload();
+		assertEquals(4, decoded.getMessageID());
+		assertEquals(2, decoded.getFileSequenceNumber());
+	}
+	
+	@Test
+	public void headerTest() {
+		// The header fields are read in place, without decoding the payload
+		ByteBuffer datagram = ByteBuffer.allocate(100);
+		datagram.position(7);
+		datagram.put(fileMessageV2Packet.getDatagramPacketData());
+		datagram.flip();
+		datagram.position(7);
+		assertEquals(23, PacketCodec.getSenderID(datagram));
+		assertEquals(53, PacketCodec.getReceiverID(datagram));
+		assertEquals(11, PacketCodec.getSequenceNumber(datagram));
+		assertEquals(Payload.FILE_MESSAGE_V2, PacketCodec.getTypeIdentifier(datagram));
+		assertEquals(Packet.DEFAULT_HOP_LIMIT, PacketCodec.getHopLimit(datagram));
+		PacketCodec.setHopLimit(datagram, 3);
+		assertEquals(3, PacketCodec.getHopLimit(datagram));
+		assertEquals(3, PacketCodec.decode(datagram).getHopLimit());
+		assertEquals(7, datagram.position());
+		assertTrue(PacketCodec.isKnownType(Payload.FILE_PARITY));
+		assertFalse(PacketCodec.isKnownType(-1));
+	}
+	
+	@Test
+	public void originalHeaderTest() {
+		// A packet with the original 11-byte header is still decoded, with the default hop limit
+		byte[] extended = acknowledgementPacket.getDatagramPacketData();
+		ByteBuffer original = ByteBuffer.allocate(extended.length - Packet.EXTENDED_HEADER_LENGTH + Packet.HEADER_LENGTH);
+		original.put(extended, 0, Packet.HEADER_LENGTH);
+		original.put(extended, Packet.EXTENDED_HEADER_LENGTH, extended.length - Packet.EXTENDED_HEADER_LENGTH);
+		original.put(PacketCodec.TYPE_OFFSET, (byte) Payload.ACKNOWLEDGEMENT);
+		original.flip();
+		assertEquals(original.remaining(), PacketCodec.getFrameLength(original));
+		Packet decoded = PacketCodec.decode(original);
+		assertEquals(Payload.ACKNOWLEDGEMENT, decoded.getTypeIdentifier());
+		assertEquals(Packet.DEFAULT_HOP_LIMIT, decoded.getHopLimit());
+		assertEquals(Packet.FLOOD, decoded.getNextHopID());
+		assertEquals(3, ((Acknowledgement) decoded.getPayload()).getMessageID());
+		
+		// Packets for older nodes are encoded with the original header, and stay that way
+		Packet legacy = new Packet(22, 11, 6, Payload.ACKNOWLEDGEMENT, new Acknowledgement(3));
+		legacy.setExtendedHeader(false);
+		legacy.setHopLimit(2);
+		original.rewind();
+		assertEquals(original, legacy.getEncoding());
+		assertFalse(PacketCodec.decode(original).hasExtendedHeader());
+		assertEquals(original, PacketCodec.decode(original).getEncoding());
+	}
+	
+	@Test
+	public void batchTest() {
+		ByteBuffer batch = ByteBuffer.allocate(Batch.MAXIMUM_LENGTH);
+		Batch.writeHeader(batch, 99);
+		Batch.writeFrame(batch, ByteBuffer.wrap(pulsePacket.getDatagramPacketData()));
+		Batch.writeFrame(batch, ByteBuffer.wrap(acknowledgementPacket.getDatagramPacketData()));
+		batch.flip();
+		assertTrue(Batch.isBatch(batch));
+		assertFalse(Batch.isBatch(ByteBuffer.wrap(pulsePacket.getDatagramPacketData())));
+		
+		// The frames are the packets, in order
+		List<ByteBuffer> frames = Batch.getFrames(batch);
+		assertEquals(2, frames.size());
+		assertEquals("Bob", ((Pulse) PacketCodec.decode(frames.get(0)).getPayload()).getName());
+		assertEquals(Payload.ACKNOWLEDGEMENT, PacketCodec.decode(frames.get(1)).getTypeIdentifier());
+		assertEquals(frames.get(1).remaining(), PacketCodec.getFrameLength(frames.get(1)));
+	}
+	
+	@Test
+	public void routingTableTest() {
+		RoutingTable routingTable = new RoutingTable();
+		assertEquals(Packet.FLOOD, routingTable.getNextHop(7));
+		assertTrue(routingTable.update(7, 3, 3));
+		// A shorter route replaces the known route, a longer one through another node does not
+		assertTrue(routingTable.update(7, 4, 2));
+		assertFalse(routingTable.update(7, 3, 3));
+		assertEquals(4, routingTable.getNextHop(7));
+		// The same neighbour updates the distance of its route
+		assertTrue(routingTable.update(7, 4, 5));
+		assertEquals(5, routingTable.getRoute(7).distance);
+	}
+	
+	@Test
+	public void compactPulseTest() {
+		// The compact form only carries the version and the name hash
+		Packet compact = new Packet(1, 0, 5, Payload.COMPACT_PULSE, new CompactPulse(3, CompactPulse.hashName("Bob")));
+		ByteBuffer datagram = ByteBuffer.wrap(compact.getDatagramPacketData());
+		assertEquals(Packet.EXTENDED_HEADER_LENGTH + CompactPulse.COMPACT_PULSE_HEADER_LENGTH, datagram.remaining());
+		assertEquals(datagram.remaining(), PacketCodec.getFrameLength(datagram));
+		CompactPulse decoded = (CompactPulse) PacketCodec.decode(datagram).getPayload();
+		assertFalse(decoded.isFull());
+		assertEquals(3, decoded.getVersion());
+		assertEquals(CompactPulse.hashName("Bob"), decoded.getNameHash());
+
+		// The full form carries the name and level as well
+		Packet full = new Packet(1, 0, 6, Payload.COMPACT_PULSE, new CompactPulse(65535, 7, "Bob", 4));
+		datagram = ByteBuffer.wrap(full.getDatagramPacketData());
+		assertEquals(datagram.remaining(), PacketCodec.getFrameLength(datagram));
+		decoded = (CompactPulse) PacketCodec.decode(datagram).getPayload();
+		assertTrue(decoded.isFull());
+		assertEquals(65535, decoded.getVersion());
+		assertEquals("Bob", decoded.getName());
+		assertEquals(4, decoded.getLevel());
+		assertTrue(TransportLayer.isBroadcast(Payload.COMPACT_PULSE));
+		assertTrue(PacketCodec.isKnownType(Payload.PULSE_REQUEST));
+		assertFalse(PacketCodec.isKnownType(Payload.BATCH));
+	}
+
 	@Test
 	public void getPayloadTest() {
 		assertEquals(pulse, (Pulse)pulsePacket.getPayload());
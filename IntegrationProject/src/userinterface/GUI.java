@@ -35,6 +35,8 @@ import javafx.scene.text.FontWeight;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Stage;
+import model.Person;
+import model.RttEstimator;
 import model.Statistics;
 
 public class GUI extends Application {
@@ -67,6 +69,7 @@ public class GUI extends Application {
 		setProgramExitClick();
 		initializeConnectionScreen();
 		initializeChatScreen();
+		GUIHandler.guiLoaded();
 	}
 
 	private void initializeConnectionScreen() {
@@ -264,7 +267,7 @@ public class GUI extends Application {
 			FileChooser fileChooser = new FileChooser();
 			fileChooser.setTitle("Open Resource File");
 			ExtensionFilter filter = new FileChooser.ExtensionFilter("Images", "*.jpg", "*.jpeg", "*.bmp", "*.gif", "*.png", "*.wbmp");
-			fileChooser.getExtensionFilters().add(filter);
+			fileChooser.getExtensionFilters().addAll(filter, new FileChooser.ExtensionFilter("All files", "*.*"));
 			GUIHandler.sendFile(fileChooser.showOpenDialog(window));
 		});
 
@@ -303,10 +306,16 @@ public class GUI extends Application {
 					GUIHandler.session.getExperienceTracker().getTotalExperience());
 			statisticsString += String.format(format, "Packets forwarded", "", 
 					stats.getPacketsForwarded());
+			statisticsString += String.format(format, "Forwards avoided", "", 
+					stats.getForwardsAvoided());
 			statisticsString += String.format(format, "Packets ignored", "", 
 					stats.getPacketsIgnored());
 			statisticsString += String.format(format, "Packets retransmitted", "", 
 					stats.getRetransmissionsDone());
+			statisticsString += String.format(format, "Send calls saved", "", 
+					stats.getSendCallsSaved() + "/" + stats.getDatagramsSent());
+			statisticsString += String.format(format, "Receive queue stalls", "", 
+					GUIHandler.session.getConnection().packetPipeline.getFullEvents());
 			statisticsString += String.format(format, "", "", "");
 			
 			statisticsString += String.format(format, "", "Sent", "Received");
@@ -322,6 +331,22 @@ public class GUI extends Application {
 					stats.getAcknowledgementsSent(), stats.getAcknowledgementsReceived());
 			statisticsString += String.format(format, "Security messages", 
 					stats.getSecurityMessagesSent(), stats.getSecurityMessagesReceived());
+			statisticsString += String.format(format, "Parity packets", 
+					stats.getParityPacketsSent(), stats.getParityPacketsReceived());
+			statisticsString += String.format(format, "FEC overhead", 
+					String.format("%.1f%%", 100 * stats.getFecOverhead()), "");
+			statisticsString += String.format(format, "FEC recovered chunks", "", 
+					stats.getFileChunksRecovered() + "/" + stats.getFileChunksLost());
+			
+			if (!stats.getMeasuredPersons().isEmpty()) {
+				statisticsString += String.format(format, "", "", "");
+				statisticsString += String.format(format, "Round-trip time", "SRTT", "RTO");
+				for (Person person : stats.getMeasuredPersons()) {
+					RttEstimator rtt = person.getRttEstimator();
+					statisticsString += String.format(format, person.getName(), 
+							String.format("%.1f ms", rtt.getSmoothedRtt()), rtt.getTimeout() + " ms");
+				}
+			}
 			
 			statisticsWindow.setContentText(statisticsString);
 			statisticsWindow.showAndWait();
@@ -348,7 +373,7 @@ public class GUI extends Application {
 			alert.setContentText("Please enter a shorter username.");
 			alert.showAndWait();
 		} else {
-			GUIHandler.username = input;
+			GUIHandler.setUsername(input);
 			window.hide();
 			window.setScene(chatScreen);
 			window.setTitle(GUIHandler.username + " - " + GUIHandler.getApplicationName());
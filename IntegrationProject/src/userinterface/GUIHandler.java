@@ -7,11 +7,17 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import javax.imageio.ImageIO;
 
+import connection.FileTransfer;
+import connection.FileTransferListener;
+
 import javafx.application.Platform;
 
 import javafx.embed.swing.SwingFXUtils;
@@ -32,12 +38,14 @@ import javafx.scene.text.FontWeight;
 import javafx.scene.text.Text;
 import javafx.scene.text.TextFlow;
 import model.Message;
+import model.MessageLog;
 import model.Person;
 import model.Session;
+import packet.FileManifest;
 import packet.FileMessage;
 
 public class GUIHandler {
-
+	
 	private static String applicationName;
 	protected static Session session;
 	protected static String username;
@@ -49,39 +57,38 @@ public class GUIHandler {
 	private static String globalTextBoxText;
 	private static boolean unreadGlobalChatMessages;
 	
+	// Completed once the GUI is fully loaded, the user entered a name and the session exists
+	// Work that needs one of these is chained to it instead of polling for it
+	private static final CompletableFuture<Void> guiLoaded = new CompletableFuture<>();
+	private static final CompletableFuture<String> usernameEntered = new CompletableFuture<>();
+	private static final CompletableFuture<Session> sessionSet = new CompletableFuture<>();
+	
 	// Constructor to launch the GUI
 	public GUIHandler(String name) {
 		applicationName = name;
 		buttonToPerson = new HashMap<>();
 		textBoxText = new HashMap<>();
 		personUnreadMessages = new HashMap<>();
-		GUIThread thread = new GUIThread();
 		unreadGlobalChatMessages = false;
+		// launch() blocks until the GUI is closed, so it gets a thread of its own
+		// It is not a daemon thread, so the application keeps running while the GUI starts
+		Thread thread = new Thread(GUI::launchGUI, "GUI");
 		thread.start();
-		sleep(1000); // To prevent from the GUI being used before it is fully loaded
 	}
 	
-	// Inner class GUIThread
-	private class GUIThread extends Thread {
-
-		@Override
-		public void run() {
-			GUI.launchGUI();
-		}
-		
-	}
 	
-	// Wait for ms milliseconds
-	protected static void sleep(int ms) {
-		try {
-			Thread.sleep(ms);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-	}
+	// TO BE CALLED BY GUI
 	
+	// Called by the GUI once it is fully loaded
+	protected static void guiLoaded() {
+		guiLoaded.complete(null);
+	}
 	
-	// TO BE CALLED BY GUI
+	// Called by the GUI once the user entered a valid name
+	protected static void setUsername(String name) {
+		username = name;
+		usernameEntered.complete(name);
+	}
 	
 	// Get application name
 	protected static String getApplicationName() {
@@ -108,14 +115,10 @@ public class GUIHandler {
 	// Show certain chat based on Person object
 	protected static void showChat(Person person) {
 		
-		// Put chat messages with person (argument) in list
-		// If no messages with person, initialize empty list
-		ArrayList<Message> messages;
-		if (session.getChatMessages().containsKey(person)) {
-			messages = session.getChatMessages().get(person);
-		} else {
-			messages = new ArrayList<>();
-		}
+		// Take a snapshot of the chat messages with person (argument)
+		// If no messages with person, use an empty list
+		MessageLog chatLog = session.getChatMessages().get(person);
+		List<Message> messages = chatLog != null ? chatLog.snapshot() : Collections.emptyList();
 		
 		// Store TextBox text
 		if (currentPerson != null) {
@@ -155,16 +158,35 @@ public class GUIHandler {
 				imageView.setSmooth(true);
 				imageView.setCache(true);
 		        try {
-		        	// Create image from the byte array representing the file data
-		            InputStream inputStream = new ByteArrayInputStream(fileData);
-		            BufferedImage bufferedImage = ImageIO.read(inputStream);
-		            Image image = SwingFXUtils.toFXImage(bufferedImage, null);
-		            imageView.setImage(image);
+		        	// Create image from the file on disk or from the byte array representing the file data
+		            BufferedImage bufferedImage;
+		            if (message.getFile() != null) {
+		            	bufferedImage = ImageIO.read(message.getFile());
+		            } else {
+		            	InputStream inputStream = new ByteArrayInputStream(fileData);
+		            	bufferedImage = ImageIO.read(inputStream);
+		            }
+		            if (bufferedImage != null) {
+		            	Image image = SwingFXUtils.toFXImage(bufferedImage, null);
+		            	imageView.setImage(image);
+		            }
 		        } catch (IOException e) {
 		        	e.printStackTrace();
 		        }
 				HBox fileBox = new HBox();
-				fileBox.getChildren().addAll(senderText, timestampText, imageView);
+				if (imageView.getImage() != null) {
+					fileBox.getChildren().addAll(senderText, timestampText, imageView);
+				} else {
+					// Not an image: show the name and size of the file instead
+					Text fileText;
+					if (message.getFile() != null) {
+						fileText = new Text(message.getFile().getName() + " (" + message.getFile().length() + " bytes) - " 
+								+ message.getFile().getAbsolutePath());
+					} else {
+						fileText = new Text("File (" + fileData.length + " bytes)");
+					}
+					fileBox.getChildren().addAll(senderText, timestampText, fileText);
+				}
 				if (message.getSenderID() == session.getID()) {
 					fileBox.getStyleClass().add("local");
 				} else {
@@ -254,12 +276,13 @@ public class GUIHandler {
 	// Show Global Chat
 	protected static void showChat() {
 		// To prevent the session from being accessed before it is initialized
-		while (session == null) {
-			sleep(100);
+		if (session == null) {
+			sessionSet.thenRun(() -> Platform.runLater(GUIHandler::showChat));
+			return;
 		}
 		
-		// Retrieve the public chat messages
-		ArrayList<Message> messages = session.getPublicChatMessages();
+		// Take a snapshot of the public chat messages
+		List<Message> messages = session.getPublicChatMessages().snapshot();
 		
 		// Store TextBox text
 		if (currentPerson != null) {
@@ -367,28 +390,32 @@ public class GUIHandler {
 	
 	// TO BE CALLED BY OTHER PARTS OF THE PROGRAM
 
-	// Ask for user name
-	public static String getUsername() {
-		Platform.runLater(() -> {
+	// Ask for user name, the future is completed once the user entered it
+	public static CompletableFuture<String> getUsernameAsync() {
+		guiLoaded.thenRun(() -> Platform.runLater(() -> {
 			GUI.window.setScene(GUI.connectionScreen);
 			GUI.window.show();
-		});
-		// Block until user entered name
-		while (username == null) {
-			sleep(100);
-		}
-		return username;
+		}));
+		return usernameEntered;
+	}
+	
+	// Ask for user name and block until user entered it
+	public static String getUsername() {
+		return getUsernameAsync().join();
 	}
 	
 	// Set session
 	public static void setSession(Session sess) {
 		session = sess;
+		sessionSet.complete(sess);
 	}
 	
 	// To be called when the Person list of Session is changed
 	public static void changedPersonList() {
-		while (session == null) {
-			sleep(100);
+		// Update once the session is set, instead of waiting for it on this thread
+		if (session == null) {
+			sessionSet.thenRun(GUIHandler::changedPersonList);
+			return;
 		}
 		// Create new maps to link Person objects to Button objects
 		// To prevent issues with this being executed while the GUI is not updated yet
@@ -482,28 +509,37 @@ public class GUIHandler {
 	}
 	
 	// To be called when a message is put in the map of Session
+	// Runs on the JavaFX thread, so the packet lanes never wait for a redraw
 	public static void messagePutInMap(Person person) {
-		// Check if the chat with this Person is currently opened
-		if (currentPerson == person) {
-			// If so, update the current screen
-			showChat(person);
-		} else {
-			// If not, mark chat with this Person as containing unread messages
-			personUnreadMessages.put(person, true);
-			personToButton.get(person).setFont(Font.font(null, FontWeight.BOLD, 14.5));
-		}
+		Platform.runLater(() -> {
+			// Check if the chat with this Person is currently opened
+			if (currentPerson == person) {
+				// If so, update the current screen
+				showChat(person);
+			} else {
+				// If not, mark chat with this Person as containing unread messages
+				personUnreadMessages.put(person, true);
+				Button button = personToButton.get(person);
+				if (button != null) {
+					button.setFont(Font.font(null, FontWeight.BOLD, 14.5));
+				}
+			}
+		});
 	}
 	
 	// To be called when a message is put in the Global Chat Messages list of session
+	// Runs on the JavaFX thread, so the packet lanes never wait for a redraw
 	public static void messagePutInMap() {
-		// Check if the Global chat is currently opened
-		if (currentPerson == null) {
-			showChat();
-		} else {
-			// If not, mark chat with the global chat as containing unread messages
-			unreadGlobalChatMessages = true;
-			GUI.globalChatButton.setFont(Font.font(null, FontWeight.BOLD, 14.5));
-		}
+		Platform.runLater(() -> {
+			// Check if the Global chat is currently opened
+			if (currentPerson == null) {
+				showChat();
+			} else {
+				// If not, mark chat with the global chat as containing unread messages
+				unreadGlobalChatMessages = true;
+				GUI.globalChatButton.setFont(Font.font(null, FontWeight.BOLD, 14.5));
+			}
+		});
 	}
 	
 	public static void updateProgressBar() {
@@ -515,7 +551,7 @@ public class GUIHandler {
 		if (!levelString.equals(GUI.levelLabel.getText())) {
 			String notificationString = "You reached level " + level;
 			Message notificationMessage = new Message(-1, -1, -1, notificationString, false);
-			session.getPublicChatMessages().add(notificationMessage);
+			session.getPublicChatMessages().append(notificationMessage);
 			GUIHandler.messagePutInMap();
 			GUIHandler.changedPersonList();
 		}
@@ -531,20 +567,46 @@ public class GUIHandler {
 	public static void sendFile(File file) {
 		// check if a file is selected and if it's readable
 		if (file != null && file.exists() && file.canRead() && currentPerson != null) {
-			// restrict files larger than 500 Kb
-			if (file.length() > 500000) {
+			// restrict files larger than 64 MB
+			if (file.length() > FileManifest.MAXIMUM_FILE_SIZE) {
 				Alert alert = new Alert(AlertType.WARNING);
 				alert.setTitle("File size too large");
 				alert.setHeaderText("File size too large");
-				alert.setContentText("Please choose a file smaller than 500 Kb.");
+				alert.setContentText("Please choose a file smaller than 64 MB.");
 				alert.showAndWait();
 				return;
 			}
-			try {
-				session.getConnection().getTransportLayer().sendFile(file, currentPerson);
-			} catch (IOException e) {
-				e.printStackTrace();
+			// an empty file has no chunks to send
+			if (file.length() == 0) {
+				Alert alert = new Alert(AlertType.WARNING);
+				alert.setTitle("File is empty");
+				alert.setHeaderText("File is empty");
+				alert.setContentText("Please choose a file that is not empty.");
+				alert.showAndWait();
+				return;
 			}
+			// Mapping the file may wait for the disk, so it is done off the JavaFX thread
+			session.getConnection().getTransportLayer().sendFileAsync(file, currentPerson, new FileTransferListener() {
+				
+				@Override
+				public void transferProgress(FileTransfer transfer, int chunksAcknowledged, int totalChunks) {
+					// the chat shows the file as soon as it is sent, so there is nothing to update
+				}
+				
+				@Override
+				public void transferFailed(FileTransfer transfer) {
+					Platform.runLater(() -> {
+						Alert alert = new Alert(AlertType.WARNING);
+						alert.setTitle("File transfer failed");
+						alert.setHeaderText("File transfer failed");
+						alert.setContentText("The file could not be delivered to " + transfer.getReceiver().getName() + ".");
+						alert.showAndWait();
+					});
+				}
+			}).exceptionally(e -> {
+				e.printStackTrace();
+				return null;
+			});
 		}
 	}
 	